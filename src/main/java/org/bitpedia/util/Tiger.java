@@ -16,6 +16,8 @@
  
 package org.bitpedia.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.DigestException;
 import java.security.MessageDigest;
 
@@ -53,6 +55,11 @@ public final class Tiger extends MessageDigest implements Cloneable {
     private byte[] pad;
     private int padding;
 
+    /**
+     * Little-endian view of pad, for computeBlock.
+     */
+    private ByteBuffer padView;
+
     /**
      * Private Contextual byte count, send in the next block,
      * after the ending padding block.
@@ -70,6 +77,7 @@ public final class Tiger extends MessageDigest implements Cloneable {
     public Tiger() {
         super("Tiger");
         pad = new byte[64];
+        padView = littleEndianView(pad);
         init();
     }
 
@@ -79,6 +87,7 @@ public final class Tiger extends MessageDigest implements Cloneable {
     public Object clone() throws CloneNotSupportedException {
         Tiger that = (Tiger)super.clone();
         that.pad = (byte[])this.pad.clone();
+        that.padView = littleEndianView(that.pad);
         return that;
     }
 
@@ -139,7 +148,7 @@ public final class Tiger extends MessageDigest implements Cloneable {
             return;
         }
         pad[63] = input;
-        computeBlock(pad, 0);
+        computeBlock(padView, 0);
         padding = 0;
     }
 
@@ -163,29 +172,33 @@ public final class Tiger extends MessageDigest implements Cloneable {
             int padlen = 64 - padding;
             if (padding > 0 && len >= padlen) {
                 System.arraycopy(input, offset, pad, padding, padlen);
-                computeBlock(pad, 0);
+                computeBlock(padView, 0);
                 padding = 0;
                 offset += padlen;
                 len -= padlen;
             }
-            /* Loop on large sets of complete blocks. */
-            while (len >= 512) {
-                computeBlock(input, offset);
-                computeBlock(input, offset + 64);
-                computeBlock(input, offset + 128);
-                computeBlock(input, offset + 192);
-                computeBlock(input, offset + 256);
-                computeBlock(input, offset + 320);
-                computeBlock(input, offset + 384);
-                computeBlock(input, offset + 448);
-                offset += 512;
-                len -= 512;
-            }
-            /* Loop on remaining complete blocks. */
-            while (len >= 64) {
-                computeBlock(input, offset);
-                offset += 64;
-                len -= 64;
+            if (len >= 64) {
+                /* Complete blocks are read directly from the input. */
+                final ByteBuffer inputView = littleEndianView(input);
+                /* Loop on large sets of complete blocks. */
+                while (len >= 512) {
+                    computeBlock(inputView, offset);
+                    computeBlock(inputView, offset + 64);
+                    computeBlock(inputView, offset + 128);
+                    computeBlock(inputView, offset + 192);
+                    computeBlock(inputView, offset + 256);
+                    computeBlock(inputView, offset + 320);
+                    computeBlock(inputView, offset + 384);
+                    computeBlock(inputView, offset + 448);
+                    offset += 512;
+                    len -= 512;
+                }
+                /* Loop on remaining complete blocks. */
+                while (len >= 64) {
+                    computeBlock(inputView, offset);
+                    offset += 64;
+                    len -= 64;
+                }
             }
             /* remaining bytes kept for next block. */
             if (len > 0) {
@@ -265,7 +278,7 @@ public final class Tiger extends MessageDigest implements Cloneable {
                 case 61: pad[62] = (byte)0x00; /* no break; falls thru */
                 case 62: pad[63] = (byte)0x00; /* no break; falls thru */
                 case 63:
-                    computeBlock(pad, 0);
+                    computeBlock(padView, 0);
                     /* Clear the 56 first bytes of pad[]. */
                     i = 52;
                     do {
@@ -305,7 +318,7 @@ public final class Tiger extends MessageDigest implements Cloneable {
                 pad[61] = (byte)(i >>> 8);
                 pad[62] = (byte)(i >>> 16);
                 pad[63] = (byte)(i >>> 24);
-                computeBlock(pad, 0);
+                computeBlock(padView, 0);
                 /* Return the computed digest in little-endian byte order. */
                 hashvalue[offset     ] = (byte)(i = (int) hA);
                 hashvalue[offset +  1] = (byte)(i >>> 8);
@@ -340,6 +353,15 @@ public final class Tiger extends MessageDigest implements Cloneable {
         throw new DigestException("partial digests not returned");
     }
 
+    /**
+     * Wraps an array in a little-endian ByteBuffer so that computeBlock
+     * can read 64-bit words with getLong(), which current JVMs compile
+     * to single loads instead of eight byte loads and shifts.
+     */
+    private static ByteBuffer littleEndianView(byte[] array) {
+        return ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     /**
      * Updates the digest using the specified array of bytes,
      * starting at the specified offset, but an implied length
@@ -348,110 +370,56 @@ public final class Tiger extends MessageDigest implements Cloneable {
      * Requires no internal buffering, but assumes a fixed input size,
      * in which the required padding bytes may have been added.
      *
-     * @param input  the array of bytes to use for the update.
+     * @param input  little-endian view of the bytes to use for the update.
      * @param offset  the offset to start from in the array of bytes.
      */
-    private void computeBlock(final byte[] input, int offset) {
+    private void computeBlock(final ByteBuffer input, final int offset) {
         /* Local temporary work variables for intermediate digests. */
         int lo, hi;
         long a, b, c;
         /* Cache the input block into the local working set of 64-bit
-         * values, in little-endian byte order. Be careful when
-         * widening bytes or integers due to sign extension! */
-        long w0, w1, w2, w3, w4, w5, w6, w7;
+         * values, in little-endian byte order. */
+        long w0 = input.getLong(offset     ), w1 = input.getLong(offset +  8),
+             w2 = input.getLong(offset + 16), w3 = input.getLong(offset + 24),
+             w4 = input.getLong(offset + 32), w5 = input.getLong(offset + 40),
+             w6 = input.getLong(offset + 48), w7 = input.getLong(offset + 56);
         /* First pass on little endian input, with multiplier equal to 5. */
         c = hC
-          ^ (w0 = ((long)(  (input[offset     ] & 0xff)
-                         | ((input[offset +  1] & 0xff) <<  8)
-                         | ((input[offset +  2] & 0xff) << 16)
-                         | ( input[offset +  3]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  4] & 0xff)
-                         | ((input[offset += 5] & 0xff) <<  8)
-                         | ((input[offset +  1] & 0xff) << 16)
-                         | ( input[offset +  2]         << 24)) << 32));
+          ^ w0;
         a = ( hA
             - (S0[(lo=(int) c      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(c>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w1 = ((long)(  (input[offset +  3] & 0xff)
-                         | ((input[offset +  4] & 0xff) <<  8)
-                         | ((input[offset += 5] & 0xff) << 16)
-                         | ( input[offset +  1]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  2] & 0xff)
-                         | ((input[offset +  3] & 0xff) <<  8)
-                         | ((input[offset +  4] & 0xff) << 16)
-                         | ( input[offset += 5]         << 24)) << 32));
+          ^ w1;
         b = (((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + hB) * 5
             - (S0[(lo=(int) a      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(a>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w2 = ((long)(  (input[offset +  1] & 0xff)
-                         | ((input[offset +  2] & 0xff) <<  8)
-                         | ((input[offset +  3] & 0xff) << 16)
-                         | ( input[offset +  4]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset += 5] & 0xff)
-                         | ((input[offset +  1] & 0xff) <<  8)
-                         | ((input[offset +  2] & 0xff) << 16)
-                         | ( input[offset +  3]         << 24)) << 32));
+          ^ w2;
         c = (((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + c) * 5
             - (S0[(lo=(int) b      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(b>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w3 = ((long)(  (input[offset +  4] & 0xff)
-                         | ((input[offset += 5] & 0xff) <<  8)
-                         | ((input[offset +  1] & 0xff) << 16)
-                         | ( input[offset +  2]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  3] & 0xff)
-                         | ((input[offset +  4] & 0xff) <<  8)
-                         | ((input[offset += 5] & 0xff) << 16)
-                         | ( input[offset +  1]         << 24)) << 32));
+          ^ w3;
         a = (((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + a) * 5
             - (S0[(lo=(int) c      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(c>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w4 = ((long)(  (input[offset +  2] & 0xff)
-                         | ((input[offset +  3] & 0xff) <<  8)
-                         | ((input[offset +  4] & 0xff) << 16)
-                         | ( input[offset += 5]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  1] & 0xff)
-                         | ((input[offset +  2] & 0xff) <<  8)
-                         | ((input[offset +  3] & 0xff) << 16)
-                         | ( input[offset +  4]         << 24)) << 32));
+          ^ w4;
         b = (((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + b) * 5
             - (S0[(lo=(int) a      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(a>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w5 = ((long)(  (input[offset += 5] & 0xff)
-                         | ((input[offset +  1] & 0xff) <<  8)
-                         | ((input[offset +  2] & 0xff) << 16)
-                         | ( input[offset +  3]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  4] & 0xff)
-                         | ((input[offset += 5] & 0xff) <<  8)
-                         | ((input[offset +  1] & 0xff) << 16)
-                         | ( input[offset +  2]         << 24)) << 32));
+          ^ w5;
         c = (((S3[(lo>>> 8         ) & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8         ) & 0xff] ^ S0[ hi>>>24        ]) + c) * 5
             - (S0[(lo=(int) b      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(b>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w6 = ((long)(  (input[offset +  3] & 0xff)
-                         | ((input[offset +  4] & 0xff) <<  8)
-                         | ((input[offset += 5] & 0xff) << 16)
-                         | ( input[offset +  1]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset +  2] & 0xff)
-                         | ((input[offset +  3] & 0xff) <<  8)
-                         | ((input[offset +  4] & 0xff) << 16)
-                         | ( input[offset += 5]         << 24)) << 32));
+          ^ w6;
         a = (((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + a) * 5
             - (S0[(lo=(int) c      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
                S2[(hi=(int)(c>>>32)) & 0xff] ^ S3[(hi>>>16) & 0xff]))
-          ^ (w7 = ((long)(  (input[offset +  1] & 0xff)
-                         | ((input[offset +  2] & 0xff) <<  8)
-                         | ((input[offset +  3] & 0xff) << 16)
-                         | ( input[offset +  4]         << 24)) & 0xffffffffL)
-                | ((long)(  (input[offset += 5] & 0xff)
-                         | ((input[offset +  1] & 0xff) <<  8)
-                         | ((input[offset +  2] & 0xff) << 16)
-                         | ( input[offset +  3]         << 24)) << 32));
+          ^ w7;
         b =  ((S3[(lo>>> 8)          & 0xff] ^ S2[ lo>>>24        ] ^
                S1[(hi>>> 8)          & 0xff] ^ S0[ hi>>>24        ]) + b) * 5
             - (S0[(lo=(int) a      ) & 0xff] ^ S1[(lo>>>16) & 0xff] ^
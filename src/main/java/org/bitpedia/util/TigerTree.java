@@ -9,7 +9,6 @@ package org.bitpedia.util;
 
 import java.security.DigestException;
 import java.security.MessageDigest;
-import java.util.LinkedList;
 
 /**
  * Implementation of THEX tree hash algorithm, with Tiger as the internal
@@ -17,22 +16,33 @@ import java.util.LinkedList;
  * prefixes to leaf and node operations)
  * 
  * Uses a running stack of interim hashes to be space-efficient. 
+ * 
+ * The stack is a single preallocated array deep enough for any
+ * message whose block count fits in a long, and full blocks are
+ * hashed straight out of the caller's array, so apart from
+ * engineDigest() returning a new array, nothing is allocated
+ * while hashing.
  */
 public class TigerTree extends MessageDigest {
     private static final int BLOCKSIZE = 1024;
     private static final int HASHSIZE = 24;
+    /** One node per bit of blockCount, plus one being composed */
+    private static final int MAX_NODES = 65;
 
-    /** 1024 byte buffer */
+    /** 1024 byte buffer for partial blocks */
     private final byte[] buffer;
 
     /** Buffer offset */
     private int bufferOffset;
 
     /** Internal Tiger MD instance */
-    private MessageDigest tiger;
+    private final Tiger tiger;
+
+    /** Interim tree node hash values, HASHSIZE bytes each */
+    private final byte[] nodes;
 
-    /** Interim tree node hash values */
-    private LinkedList nodes;
+    /** Number of nodes on the stack */
+    private int nodeCount;
 
     /** Blocks handled until now */
     long blockCount;
@@ -43,10 +53,9 @@ public class TigerTree extends MessageDigest {
     public TigerTree() {
         super("tigertree");
         buffer = new byte[BLOCKSIZE];
-        bufferOffset = 0;
-        blockCount = 0;
-        nodes = new LinkedList();
+        nodes = new byte[MAX_NODES * HASHSIZE];
         tiger = new Tiger();
+        engineReset();
     }
 
     protected int engineGetDigestLength() {
@@ -56,24 +65,35 @@ public class TigerTree extends MessageDigest {
     protected void engineUpdate(byte in) {
         buffer[bufferOffset++] = in;
         if (bufferOffset == BLOCKSIZE) {
-            blockUpdate();
+            leafUpdate(buffer, 0, BLOCKSIZE);
             bufferOffset = 0;
         }
     }
 
     protected void engineUpdate(byte[] in, int offset, int length) {
-        int remaining;
-        while (length >= (remaining = BLOCKSIZE - bufferOffset)) {
+        if (bufferOffset > 0) {
+            int remaining = BLOCKSIZE - bufferOffset;
+            if (length < remaining) {
+                System.arraycopy(in, offset, buffer, bufferOffset, length);
+                bufferOffset += length;
+                return;
+            }
             System.arraycopy(in, offset, buffer, bufferOffset, remaining);
-            bufferOffset += remaining;
-            blockUpdate();
-            length -= remaining;
-            offset += remaining;
+            leafUpdate(buffer, 0, BLOCKSIZE);
             bufferOffset = 0;
+            offset += remaining;
+            length -= remaining;
+        }
+
+        // Whole blocks don't need to go through the buffer
+        while (length >= BLOCKSIZE) {
+            leafUpdate(in, offset, BLOCKSIZE);
+            offset += BLOCKSIZE;
+            length -= BLOCKSIZE;
         }
 
-        System.arraycopy(in, offset, buffer, bufferOffset, length);
-        bufferOffset += length;
+        System.arraycopy(in, offset, buffer, 0, length);
+        bufferOffset = length;
     }
 
     protected byte[] engineDigest() {
@@ -91,20 +111,24 @@ public class TigerTree extends MessageDigest {
         if (len < HASHSIZE)
             throw new DigestException();
 
-        // hash any remaining fragments
-        blockUpdate();
+        // hash any remaining fragment; a zero-size leaf
+        // is only remembered if there was no data at all
+        if (bufferOffset > 0 || nodeCount == 0) {
+            leafUpdate(buffer, 0, bufferOffset);
+        }
 
-        while(nodes.size()>1) {
+        while (nodeCount > 1) {
             composeNodes();
         }
-        System.arraycopy(nodes.get(0), 0, buf, offset, HASHSIZE);
+        System.arraycopy(nodes, 0, buf, offset, HASHSIZE);
         engineReset();
         return HASHSIZE;
     }
 
     protected void engineReset() {
         bufferOffset = 0;
-        nodes = new LinkedList();
+        nodeCount = 0;
+        blockCount = 0;
         tiger.reset();
     }
 
@@ -118,31 +142,83 @@ public class TigerTree extends MessageDigest {
     }
 
     /**
-     * Update the internal state with a single block of size 1024 (or less, in
-     * final block) from the internal buffer.
+     * True if a whole number of blocks have been hashed,
+     * which is the only time getNodes() can be called.
      */
-    protected void blockUpdate() {
-        tiger.reset();
+    public boolean isAtBlockBoundary() {
+        return bufferOffset == 0;
+    }
+
+    /**
+     * Number of whole blocks hashed so far.
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Copy of the stack of interim nodes, which along with the block count
+     * is all the state there is between blocks, so that a hash can be
+     * saved and picked up again later (see restoreState).
+     * There is one node per 1 bit in the block count.
+     */
+    public byte[] getNodes() {
+        if (bufferOffset != 0)
+            throw new IllegalStateException("Nodes are only available between blocks");
+        byte[] copy = new byte[nodeCount * HASHSIZE];
+        System.arraycopy(nodes, 0, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * Pick up where a hash whose state was saved with getBlockCount
+     * and getNodes left off.
+     */
+    public void restoreState(long blockCount, byte[] nodeData) {
+        if (blockCount < 0 || nodeData.length != Long.bitCount(blockCount) * HASHSIZE)
+            throw new IllegalArgumentException("Wrong amount of node data ("
+                + nodeData.length + " bytes) for " + blockCount + " blocks");
+        engineReset();
+        System.arraycopy(nodeData, 0, nodes, 0, nodeData.length);
+        this.nodeCount = Long.bitCount(blockCount);
+        this.blockCount = blockCount;
+    }
+
+    /**
+     * Hash a single block of size 1024 (or less, in final block),
+     * push it onto the node stack, and combine any complete subtrees.
+     */
+    protected void leafUpdate(byte[] in, int offset, int length) {
         tiger.update((byte) 0); // leaf prefix
-        tiger.update(buffer, 0, bufferOffset);
-        if ((bufferOffset == 0) & (nodes.size() > 0))
-            return; // don't remember a zero-size hash except at very beginning
-        nodes.add(tiger.digest());
+        tiger.update(in, offset, length);
+        try {
+            tiger.engineDigest(nodes, nodeCount * HASHSIZE, HASHSIZE);
+        } catch (DigestException e) {
+            throw new RuntimeException(e); // nodes is always big enough
+        }
+        nodeCount++;
         blockCount++;
-        long interimNode = blockCount; 
-        while((interimNode % 2)==0) { // even
+        long interimNode = blockCount;
+        while ((interimNode & 1) == 0) { // even
             composeNodes();
             interimNode >>= 1;
         }
     }
 
+    /**
+     * Replace the top two nodes on the stack with their parent.
+     */
     protected void composeNodes() {
-        byte[] right = (byte[]) nodes.removeLast(); 
-        byte[] left = (byte[]) nodes.removeLast();
-        tiger.reset();
-        tiger.update((byte)1); // internal node prefix
-        tiger.update(left);
-        tiger.update(right);
-        nodes.add(tiger.digest());
+        int leftOffset = (nodeCount - 2) * HASHSIZE;
+        tiger.update((byte) 1); // internal node prefix
+        tiger.update(nodes, leftOffset, HASHSIZE * 2);
+        try {
+            // Both children have been read by now, so
+            // the parent can overwrite the left one
+            tiger.engineDigest(nodes, leftOffset, HASHSIZE);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+        nodeCount--;
     }
 }
@@ -6,6 +6,7 @@ import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
 
+import togos.ccouch3.repo.PackFileRepository;
 import togos.ccouch3.repo.Repository;
 import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.util.Action;
@@ -26,13 +27,25 @@ public class CCouch3Command
 	public static LiberalFileResolver getCommandLineFileResolver(File[] repoDirs) {
 		Repository[] repos = new Repository[repoDirs.length];
 		for( int i=0; i<repoDirs.length; ++i ) {
-			repos[i] = new SHA1FileRepository(new File(repoDirs[i],"data"),null);
+			repos[i] = PackFileRepository.open(SHA1FileRepository.open(new File(repoDirs[i],"data"),null));
 		}
 		return getCommandLineFileResolver(repos, repoDirs);
 	}
 
+	/**
+	 * Returns a resolver that looks in the context's local repositories
+	 * and then, if there are any, its remote repositories
+	 * (caching whatever's fetched; see RemoteCacheRepository).
+	 */
 	public static LiberalFileResolver getCommandLineFileResolver(CCouchContext ctx) {
-		return getCommandLineFileResolver(ctx.getRepoDirs());
+		File[] repoDirs = ctx.getRepoDirs();
+		Repository remoteCache = ctx.getRemoteCacheRepository();
+		Repository[] repos = new Repository[repoDirs.length + (remoteCache == null ? 0 : 1)];
+		for( int i=0; i<repoDirs.length; ++i ) {
+			repos[i] = PackFileRepository.open(SHA1FileRepository.open(new File(repoDirs[i],"data"),null));
+		}
+		if( remoteCache != null ) repos[repoDirs.length] = remoteCache;
+		return getCommandLineFileResolver(repos, repoDirs);
 	}
 	
 	//// Streamy...stuff
@@ -77,8 +90,13 @@ public class CCouch3Command
 		"  command-server    ; run a command server\n" +
 		"  copy              ; copy files/blobs/directories\n" +
 		"  find-files        ; find files in local repo for named objects\n"+
+		"  gc                ; delete blobs not reachable from any head\n" +
 		"  identify          ; identify files/directories\n" +
+		"  index-repo        ; (re)build index of which sector each blob is in\n" +
+		"  scrub             ; re-hash stored blobs to find corrupted ones\n" +
+		"  slf-compact       ; compact SLF2 cache files\n" +
 		"  store-stream      ; store files or pipe contents\n"+
+		"  sync-repo         ; copy blobs from one local repository to another\n" +
 		"  upload            ; upload files to a remote repository\n" +
 		"  walk-fs           ; walk filesystem and output basic info\n" +
 		"  web-server        ; run a web server\n" +
@@ -118,6 +136,16 @@ public class CCouch3Command
 				return UpBacker.backupMain(ctx, args);
 			} else if( "find-files".equals(cmd) ) {
 				return FindFilesCommand.main(ctx, args);
+			} else if( "gc".equals(cmd) ) {
+				return GarbageCollectCommand.main(ctx, args);
+			} else if( "index-repo".equals(cmd) ) {
+				return PresenceIndexCommand.main(ctx, args);
+			} else if( "scrub".equals(cmd) ) {
+				return ScrubCommand.main(ctx, args);
+			} else if( "slf-compact".equals(cmd) ) {
+				return SLFCompactCommand.main(ctx, args);
+			} else if( "sync-repo".equals(cmd) ) {
+				return SyncRepoCommand.main(ctx, args);
 			} else if( "store-stream".equals(cmd) ) {
 				return StoreStream.main(ctx, args);
 			} else if( "id".equals(cmd) || "identify".equals(cmd) ) {
@@ -8,8 +8,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 
 import togos.ccouch3.CCouchContext.RepoSpec.RepoType;
+import togos.ccouch3.repo.PackFileRepository;
+import togos.ccouch3.repo.RemoteCacheRepository;
 import togos.ccouch3.repo.Repository;
 import togos.ccouch3.repo.SHA1FileRepository;
+import togos.ccouch3.util.GroupSyncer;
 import togos.ccouch3.util.ListUtil;
 import togos.ccouch3.util.ObjectUtil;
 import togos.ccouch3.util.ParseResult;
@@ -85,12 +88,26 @@ implements CommandLineOptionHandler<CCouchContext>
 	 * List of remote repositories.
 	 */
 	public final List<RepoSpec> remoteRepos;
+	/**
+	 * If non-null, data stored in the primary repository is fsynced
+	 * before being considered stored, with fsyncs from concurrent
+	 * writes grouped together by waiting up to this many milliseconds.
+	 * If null, nothing is fsynced (which is faster, but a crash
+	 * may leave recently stored blobs truncated).
+	 */
+	public final Long syncDelay;
 	
-	public CCouchContext(RepoSpec primaryRepo, String storeSector, List<RepoSpec> localRepos, List<RepoSpec> remoteRepos) {
+	private GroupSyncer syncer;
+	
+	public CCouchContext(RepoSpec primaryRepo, String storeSector, List<RepoSpec> localRepos, List<RepoSpec> remoteRepos, Long syncDelay) {
 		this.primaryRepo = primaryRepo;
 		this.storeSector = storeSector;
 		this.localRepos  = localRepos;
 		this.remoteRepos = remoteRepos;
+		this.syncDelay   = syncDelay;
+	}
+	public CCouchContext(RepoSpec primaryRepo, String storeSector, List<RepoSpec> localRepos, List<RepoSpec> remoteRepos) {
+		this(primaryRepo, storeSector, localRepos, remoteRepos, null);
 	}
 	public CCouchContext() {
 		this(null, null, Collections.<RepoSpec>emptyList(), Collections.<RepoSpec>emptyList());
@@ -125,6 +142,11 @@ implements CommandLineOptionHandler<CCouchContext>
 			sb.append(repoSpecToArglike("remote-repo", repo));
 			sep = " ";
 		}
+		if( this.syncDelay != null ) {
+			sb.append(sep);
+			sb.append("--sync-delay="+this.syncDelay);
+			sep = " ";
+		}
 		sb.append(")");
 		return sb.toString();
 	}
@@ -141,16 +163,19 @@ implements CommandLineOptionHandler<CCouchContext>
 	
 	
 	public CCouchContext withPrimaryRepo(RepoSpec primaryRepo) {
-		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos);
+		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos, syncDelay);
 	}
 	public CCouchContext withStoreSector(String storeSector) {
-		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos);
+		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos, syncDelay);
 	}
 	public CCouchContext withAdditionalLocalRepo(RepoSpec repo) {
-		return new CCouchContext(primaryRepo, storeSector, ListUtil.snoc(localRepos, repo), remoteRepos);
+		return new CCouchContext(primaryRepo, storeSector, ListUtil.snoc(localRepos, repo), remoteRepos, syncDelay);
 	}
 	public CCouchContext withAdditionalRemoteRepo(RepoSpec repo) {
-		return new CCouchContext(primaryRepo, storeSector, localRepos, ListUtil.snoc(remoteRepos, repo));
+		return new CCouchContext(primaryRepo, storeSector, localRepos, ListUtil.snoc(remoteRepos, repo), syncDelay);
+	}
+	public CCouchContext withSyncDelay(Long syncDelay) {
+		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos, syncDelay);
 	}
 	
 	protected static String resolveRepoDir(String path) {
@@ -179,6 +204,21 @@ implements CommandLineOptionHandler<CCouchContext>
 		return new RepoSpec( getNonEmptyEnv("CCOUCH_REPO_NAME"), RepoType.FILESYSTEM, dir );
 	}
 	
+	/**
+	 * Size limit for the cache of blobs fetched from remote repositories
+	 * by commands like cat and copy, from CCOUCH_REMOTE_CACHE_SIZE
+	 * (a number of bytes, optionally suffixed with K, M, or G)
+	 */
+	protected static long getRemoteCacheSize() {
+		String v = getNonEmptyEnv("CCOUCH_REMOTE_CACHE_SIZE");
+		if( v == null ) return RemoteCacheRepository.DEFAULT_MAX_SIZE;
+		try {
+			return StringUtil.parseByteCount(v);
+		} catch( NumberFormatException e ) {
+			throw new RuntimeException("CCOUCH_REMOTE_CACHE_SIZE should be a number of bytes, e.g. 500M; got '"+System.getenv("CCOUCH_REMOTE_CACHE_SIZE")+"'");
+		}
+	}
+	
 	static ParseResult<List<String>,String> optArg(String opt, String explicit, List<String> rest) {
 		if( explicit != null ) return ParseResult.of(rest, explicit);
 		
@@ -242,6 +282,19 @@ implements CommandLineOptionHandler<CCouchContext>
 				storeSectorPr.remainingInput,
 				withStoreSector(storeSectorPr.result)
 			);
+		} else if( "sync-delay".equals(opt) ) {
+			ParseResult<List<String>,String> delayPr = optArg(rawOpt, explicitArgument, args1);
+			long delay;
+			try {
+				delay = Long.parseLong(delayPr.result);
+			} catch( NumberFormatException e ) {
+				throw new RuntimeException(rawOpt+" requires a number of milliseconds; got '"+delayPr.result+"'");
+			}
+			if( delay < 0 ) throw new RuntimeException(rawOpt+" can't be negative");
+			return ParseResult.of(
+				delayPr.remainingInput,
+				withSyncDelay(delay)
+			);
 		} else {
 			return ParseResult.of(args, this);
 		}
@@ -266,7 +319,19 @@ implements CommandLineOptionHandler<CCouchContext>
 		// or any other configuration based on reading files in .ccouch,
 		// which maybe actually we don't want to do at all lol
 		// (preferring environment variables instead these days)
-		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos);
+		return new CCouchContext(primaryRepo, storeSector, localRepos, remoteRepos, syncDelay);
+	}
+	
+	/**
+	 * Returns the GroupSyncer that repositories stored into
+	 * should use, or null if syncDelay isn't set.
+	 * The same one is returned every time so that
+	 * all writers can share it.
+	 */
+	public synchronized GroupSyncer getSyncer() {
+		if( syncDelay == null ) return null;
+		if( syncer == null ) syncer = new GroupSyncer(syncDelay.longValue());
+		return syncer;
 	}
 	
 	public File getPrimaryRepoDir() {
@@ -285,10 +350,11 @@ implements CommandLineOptionHandler<CCouchContext>
 		File[] dirs = getRepoDirs();
 		Repository[] repos = new Repository[dirs.length];
 		for( int i=0; i<dirs.length; ++i ) {
-			repos[i] = new SHA1FileRepository(new File(dirs[i], "data"),
-				// Only give it a storeSector if it's the primary repository
-				primaryRepo != null && dirs[i].getPath().equals(primaryRepo.location) ?
-					storeSector : null);
+			// Only give it a storeSector if it's the primary repository
+			boolean isPrimary = primaryRepo != null && dirs[i].getPath().equals(primaryRepo.location);
+			SHA1FileRepository repo = SHA1FileRepository.open(new File(dirs[i], "data"), isPrimary ? storeSector : null);
+			if( isPrimary ) repo.setSyncer(getSyncer());
+			repos[i] = PackFileRepository.open(repo);
 		}
 		return repos;
 	}
@@ -310,7 +376,21 @@ implements CommandLineOptionHandler<CCouchContext>
 		return urls.toArray(new String[urls.size()]);
 	}
 
+	/**
+	 * Returns a repository that fetches things from the remote repositories
+	 * and caches them under the primary repository's cache directory,
+	 * or null if there are no remote repositories or no primary repository
+	 * to keep the cache in.
+	 */
+	public RemoteCacheRepository getRemoteCacheRepository() {
+		String[] urls = getRemoteRepoUrls();
+		if( urls.length == 0 || primaryRepo == null ) return null;
+		return new RemoteCacheRepository(urls, new File(getPrimaryRepoDir(), "cache/remote-blobs"), getRemoteCacheSize());
+	}
+	
 	public SHA1FileRepository getPrimaryRepository() {
-		return new SHA1FileRepository(new File(getPrimaryRepoDir(), "data"), storeSector);
+		SHA1FileRepository repo = SHA1FileRepository.open(new File(getPrimaryRepoDir(), "data"), storeSector);
+		repo.setSyncer(getSyncer());
+		return repo;
 	}
 }
@@ -8,11 +8,17 @@ import java.util.List;
 import togos.blob.ByteBlob;
 import togos.ccouch3.util.ListUtil;
 import togos.ccouch3.util.ParseResult;
+import togos.ccouch3.util.StreamUtil;
 
 public class Cat
 {
 	public static String USAGE =
-		"Usage: ccouch3 cat [-repo <path>]* [<resource-path> ...]";
+		"Usage: ccouch3 cat [-repo <path>]* [-remote-repo <url>]* [<resource-path> ...]\n" +
+		"\n" +
+		"Blobs not found in local repositories are fetched from any -remote-repos\n" +
+		"and cached in <primary repo>/cache/remote-blobs, which is kept under\n" +
+		"CCOUCH_REMOTE_CACHE_SIZE bytes (default: 1G) by deleting the least\n" +
+		"recently used ones.";
 	
 	public static int main(CCouchContext ctx, List<String> args) {
 		ArrayList<String> resourcePaths = new ArrayList<String>();
@@ -52,7 +58,7 @@ public class Cat
 					return 1;
 				}
 				
-				from.writeTo(System.out);
+				StreamUtil.writeToStdout(from);
 			} catch( IOException e ) {
 				e.printStackTrace();
 				return 1;
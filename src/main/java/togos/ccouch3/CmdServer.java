@@ -11,7 +11,9 @@ import java.util.List;
 import togos.blob.ByteChunk;
 import togos.ccouch3.cmdstream.CmdReader;
 import togos.ccouch3.cmdstream.CmdWriter;
+import togos.ccouch3.repo.PackFileRepository;
 import togos.ccouch3.repo.Repository;
+import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.repo.StoreException;
 import togos.ccouch3.util.FileUtil;
 import togos.ccouch3.util.ListUtil;
@@ -104,7 +106,9 @@ public class CmdServer
 				return true;
 			} else if( "head".equals(cmdName) && cmd.length == 3 ) {
 				String urn = cmd[2];
-				w.writeCmd( new String[] { "ok", "head", reqId, urn, repo.contains(urn) ? "found" : "missing" } );
+				// A client that finds the blob here won't send it, so touch it as a put would
+				boolean found = repo instanceof SHA1FileRepository ? ((SHA1FileRepository)repo).touch(urn) : repo.contains(urn);
+				w.writeCmd( new String[] { "ok", "head", reqId, urn, found ? "found" : "missing" } );
 			} else if( "post".equals(cmdName) && cmd.length == 5 && "chunk".equals(cmd[3]) ) {
 				String urn = cmd[2];
 				if( urn.equals("incoming-log") ) {
@@ -180,7 +184,9 @@ public class CmdServer
 		"\n" +
 		"Options:\n" +
 		"  -repo <path>   ; path to repo in which to store blobs, caches, and logs.\n" +
-		"  -sector <name> ; name of sector in which to store incoming data";
+		"  -sector <name> ; name of sector in which to store incoming data\n" +
+		"  -sync-delay <ms> ; fsync incoming data before acknowledging it,\n" +
+		"                 ; grouping fsyncs from up to <ms> milliseconds apart";
 	
 	public static int main(CCouchContext ctx, List<String> args) throws Exception {
 		while( !args.isEmpty() ) {
@@ -206,7 +212,7 @@ public class CmdServer
 		
 		ctx = ctx.fixed();
 		
-		Repository repo = ctx.getPrimaryRepository();
+		Repository repo = PackFileRepository.open(ctx.getPrimaryRepository());
 		File repoDir = ctx.getPrimaryRepoDir();
 		File incomingLogFile = new File(repoDir, "/log/incoming.log");
 		FileUtil.mkParentDirs(incomingLogFile);
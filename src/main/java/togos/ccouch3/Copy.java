@@ -1,7 +1,6 @@
 package togos.ccouch3;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 
 import togos.blob.ByteBlob;
@@ -15,7 +14,12 @@ import togos.ccouch3.util.StreamUtil;
 public class Copy
 {
 	public static String USAGE =
-		"Usage: ccouch3 copy [-repo <path]* <source> <destination>";
+		"Usage: ccouch3 copy [-repo <path]* [-remote-repo <url>]* <source> <destination>\n" +
+		"\n" +
+		"Blobs not found in local repositories are fetched from any -remote-repos\n" +
+		"and cached in <primary repo>/cache/remote-blobs, which is kept under\n" +
+		"CCOUCH_REMOTE_CACHE_SIZE bytes (default: 1G) by deleting the least\n" +
+		"recently used ones.";
 	
 	public static int main(CCouchContext ctx, List<String> args) {
 		String fromName = null;
@@ -76,15 +80,7 @@ public class Copy
 				return 1;
 			}
 			try {
-				InputStream is = ((ByteBlob)from).openInputStream();
-				try {
-					StreamUtil.copy(is, System.out);
-				} catch( IOException e ) {
-					System.err.println(e.getMessage());
-					return 1;
-				} finally {
-					StreamUtil.close(is);
-				}
+				StreamUtil.writeToStdout((ByteBlob)from);
 			} catch( IOException e ) {
 				System.err.println(e.getMessage());
 				return 1;
@@ -2,6 +2,7 @@ package togos.ccouch3;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -26,6 +28,7 @@ import togos.blob.ByteBlob;
 import togos.ccouch3.Downloader.RepositorySet.RemoteRepository;
 import togos.ccouch3.hash.BitprintDigest;
 import togos.ccouch3.hash.StreamURNifier;
+import togos.ccouch3.hash.THEXTree;
 import togos.ccouch3.repo.Repository;
 import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.repo.StoreException;
@@ -84,6 +87,26 @@ public class Downloader
 			}
 		}
 		
+		/**
+		 * Wait for a connection to the repository with the given URL
+		 * and lock it, or return null if that isn't one of ours.
+		 */
+		public synchronized RemoteRepository lockRepo( String url ) throws InterruptedException {
+			while( true ) {
+				boolean found = false;
+				for( RemoteRepository repo : repositories ) {
+					if( !repo.url.equals(url) ) continue;
+					found = true;
+					if( !repo.locked ) {
+						repo.locked = true;
+						return repo;
+					}
+				}
+				if( !found ) return null;
+				this.wait();
+			}
+		}
+		
 		public synchronized void releaseRepo( RemoteRepository repo ) {
 			repo.locked = false;
 			this.notifyAll();
@@ -92,6 +115,13 @@ public class Downloader
 		public int size() {
 			return repositories.size();
 		}
+		
+		/** Each distinct URL, once */
+		public List<String> getUrls() {
+			LinkedHashSet<String> urls = new LinkedHashSet<String>();
+			for( RemoteRepository repo : repositories ) urls.add(repo.url);
+			return new ArrayList<String>(urls);
+		}
 	}
 	
 	/**
@@ -178,6 +208,14 @@ public class Downloader
 	public boolean beChatty = false;
 	
 	public BlobReferenceScanMode scanMode;
+	/**
+	 * If set, bitprint-identified blobs whose THEX trees can be had
+	 * from a remote repository are downloaded a segment at a time
+	 * from all of them at once (see SegmentedDownload),
+	 * with segments stored in this directory until they're all in.
+	 * Anything else is downloaded whole, as usual.
+	 */
+	public File segmentedDownloadTempDir = null;
 	// AS7Q5NVWLNDPLRL3A7RYHPXY3QSMPQVI.3LPFRNN2WLY3WMKEHJ2Y3VYKEYMREOGZARVS4YY
 	
 	public Downloader( RepositorySet repoSet, Repository localRepo, AddableSet<String> fullyCachedUrns ) {
@@ -352,12 +390,59 @@ public class Downloader
 			return false;
 		}
 		
+		/**
+		 * Returns true if the blob was downloaded in segments and stored.
+		 * Returns false if it couldn't be, including when it's too small
+		 * to be worth it, in which case it should be downloaded normally.
+		 */
+		protected boolean downloadSegmented( String urn ) throws InterruptedException {
+			if( !urn.startsWith("urn:bitprint:") ) return false;
+			File tempFile = null;
+			try {
+				SegmentedDownload sd = new SegmentedDownload(urn, remoteRepoSet);
+				sd.reportErrors = reportDownloadFailures;
+				THEXTree tree = sd.fetchTree();
+				if( tree == null || tree.getSegmentCount() <= 1 ) return false;
+				
+				if( reportDownloads ) {
+					System.err.println(this.getName()+" downloading "+urn+" in "+tree.getSegmentCount()+" segments ("+tree.dataSize+" bytes)");
+				}
+				if( !segmentedDownloadTempDir.isDirectory() ) segmentedDownloadTempDir.mkdirs();
+				tempFile = File.createTempFile("download-", ".temp", segmentedDownloadTempDir);
+				if( !sd.downloadTo(tree, tempFile) ) return false;
+				
+				FileInputStream fis = new FileInputStream(tempFile);
+				try {
+					localRepo.put(urn, fis);
+				} finally {
+					fis.close();
+				}
+				if( reportDownloads ) {
+					System.err.println(this.getName()+" completed segmented download of "+urn);
+				}
+				return true;
+			} catch( IOException e ) {
+				if( reportErrors ) {
+					System.err.println(e.getClass().getName()+" when downloading "+urn+" in segments: "+e.getMessage());
+				}
+			} catch( StoreException e ) {
+				if( reportErrors ) {
+					System.err.println(e.getClass().getName()+" when downloading "+urn+" in segments: "+e.getMessage());
+				}
+			} finally {
+				if( tempFile != null ) tempFile.delete();
+			}
+			return false;
+		}
+		
 		protected boolean cache( String urn )
 			throws InterruptedException, MalformedURLException
 		{
 			if( localRepo.contains(urn) ) return true;
 			if( alreadyPushed(urn) ) return false;
 			
+			if( segmentedDownloadTempDir != null && downloadSegmented(urn) ) return true;
+			
 			HashSet<String> failedRepos = new HashSet<String>();
 			RemoteRepository repo;
 			while( (repo = remoteRepoSet.lockRepo(failedRepos)) != null ) {
@@ -545,7 +630,11 @@ public class Downloader
 		"  -debug             ; be very noisy\n" +
 		"  -silent            ; say nothing, ever\n" +
 		"  -sector <name>     ; sector within local repo to store data in\n" +
+		"  -sync-delay <ms>   ; fsync cached data, grouping fsyncs from download\n" +
+		"                     ; threads that finish within <ms> milliseconds\n" +
 		"  -remember-missing  ; avoid re-attempting failed fetches\n"+
+		"  -segmented         ; download big blobs in verified segments from\n"+
+		"                     ; all remotes at once, where they support it\n"+
 		"  -connections-per-remote <n>\n" +
 		"\n" +
 		"URLs of remote repositories will be used as follows:\n" +
@@ -572,6 +661,7 @@ public class Downloader
 		// This is a very reasonable thing to do, but is
 		// false by default because the set may take up a lot of memory.
 		boolean rememberAttempts = false;
+		boolean segmented = false;
 		
 		while( !args.isEmpty() ) {
 			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
@@ -615,6 +705,8 @@ public class Downloader
 				args = ListUtil.cdr(args);
 			} else if( "-remember-missing".equals(arg) || "-remember-attempts".equals(arg) ) {
 				rememberAttempts = true;
+			} else if( "-segmented".equals(arg) ) {
+				segmented = true;
 			} else if( CCouch3Command.isHelpArgument(arg) ) {
 				System.out.println(USAGE);
 				return 0;
@@ -650,6 +742,9 @@ public class Downloader
 		downloader.reportFailures = reportFailures;
 		downloader.beChatty = beChatty;
 		downloader.setRememberAttempts(rememberAttempts);
+		if( segmented ) {
+			downloader.segmentedDownloadTempDir = new File(primaryRepoDir, "cache/ccouch3-downloader/segmented");
+		}
 		
 		downloader.start();
 		try {
@@ -2,6 +2,7 @@ package togos.ccouch3;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -18,7 +19,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import togos.blob.ByteBlob;
 import togos.blob.util.BlobUtil;
@@ -26,11 +34,14 @@ import togos.ccouch3.BlobReferenceScanner.ScanCallback;
 import togos.ccouch3.FlowUploader.Indexer.IndexedObjectSink;
 import togos.ccouch3.FlowUploader.StandardTransferTracker.Counter;
 import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.hash.CheckpointingBitprintDigester;
 import togos.ccouch3.hash.StreamURNifier;
 import togos.ccouch3.repo.FileResolver;
+import togos.ccouch3.repo.PackFileRepository;
 import togos.ccouch3.repo.Repository;
 import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.util.AddableSet;
+import togos.ccouch3.util.BloomFilteredSLFStringSet;
 import togos.ccouch3.util.EmptyAddableSet;
 import togos.ccouch3.util.FileUtil;
 import togos.ccouch3.util.LogUtil;
@@ -308,15 +319,22 @@ public class FlowUploader implements FlowUploaderSettings
 		protected final DirectorySerializer dirSer;
 		protected final StreamURNifier digestor;
 		protected final HashCache hashCache;
+		/** If non-null, files within a directory are hashed in parallel using this */
+		protected final ExecutorService fileHashingExecutor;
 		protected final int howToHandleFileReadErrors;
 		protected final boolean debug;
+		/**
+		 * If non-null, files are hashed with this instead of digestor,
+		 * so that hashing big files can be resumed if interrupted
+		 */
+		public CheckpointingBitprintDigester checkpointingDigester;
 
 		public Indexer(
 			FileResolver localUrnBlobResolver,
 			FileResolver localFileResolver,
 			BlobReferenceScanMode scanMode,
 			DirectorySerializer dirSer, StreamURNifier digestor,
-			HashCache hashCache,
+			HashCache hashCache, ExecutorService fileHashingExecutor,
 			int howToHandleFileReadErrors, boolean debug
 		) {
 			this.localUrnBlobResolver = localUrnBlobResolver;
@@ -325,10 +343,94 @@ public class FlowUploader implements FlowUploaderSettings
 			this.dirSer = dirSer;
 			this.digestor = digestor;
 			this.hashCache = hashCache;
+			this.fileHashingExecutor = fileHashingExecutor;
 			this.howToHandleFileReadErrors = howToHandleFileReadErrors;
 			this.debug = debug;
 		}
-				
+		
+		/** Calculate a file's URN and remember it in the hash cache */
+		protected String digestFile( File file ) throws Exception {
+			FileInputStream fis = null;
+			try {
+				String fileUrn;
+				if( checkpointingDigester != null ) {
+					fileUrn = checkpointingDigester.digest(file);
+				} else {
+					fis = new FileInputStream( file );
+					fileUrn = digestor.digest(fis);
+				}
+				hashCache.cacheFileUrn( file, fileUrn );
+				return fileUrn;
+			} catch( IOException e ) {
+				throw new FileReadError( file, e );
+			} finally {
+				if( fis != null ) fis.close();
+			}
+		}
+		
+		protected String identifyFile( File file ) throws Exception {
+			String urn = hashCache.getFileUrn( file );
+			return urn != null ? urn : digestFile( file );
+		}
+		
+		/**
+		 * Maximum number of files in a directory to have
+		 * queued for or being hashed in the background at once.
+		 */
+		static final int FILE_HASH_LOOKAHEAD = 64;
+		
+		/**
+		 * Identifies the regular files in a list on fileHashingExecutor,
+		 * staying up to FILE_HASH_LOOKAHEAD files ahead of whoever's
+		 * asking for the results, which must be done in order.
+		 */
+		class FileUrnPrefetcher {
+			protected final List<File> files;
+			protected final ArrayList<Future<String>> futures;
+			protected int submittedCount = 0;
+			
+			public FileUrnPrefetcher( List<File> files ) {
+				this.files = files;
+				this.futures = new ArrayList<Future<String>>(files.size());
+			}
+			
+			protected void submitUpTo( int end ) {
+				end = Math.min( end, files.size() );
+				for( ; submittedCount < end; ++submittedCount ) {
+					final File f = files.get(submittedCount);
+					futures.add( !f.isFile() ? null : fileHashingExecutor.submit(new Callable<String>() {
+						@Override public String call() throws Exception {
+							return identifyFile( f );
+						}
+					}));
+				}
+			}
+			
+			/**
+			 * Returns the URN of the ith file,
+			 * or null if it wasn't a regular file.
+			 */
+			public String getUrn( int i ) throws Exception {
+				submitUpTo( i + 1 + FILE_HASH_LOOKAHEAD );
+				Future<String> f = futures.set( i, null );
+				if( f == null ) return null;
+				try {
+					return f.get();
+				} catch( ExecutionException e ) {
+					Throwable cause = e.getCause();
+					if( cause instanceof Exception ) throw (Exception)cause;
+					if( cause instanceof Error ) throw (Error)cause;
+					throw e;
+				}
+			}
+			
+			public void cancel() {
+				for( Future<String> f : futures ) {
+					if( f != null ) f.cancel(false);
+				}
+			}
+		}
+		
 		public DirectoryContentsIndexResult indexDirectoryEntries( File file, Collection<IndexedObjectSink> destinations, Glob ignores) throws Exception {
 			assert file.isDirectory();
 			
@@ -349,24 +451,38 @@ public class FlowUploader implements FlowUploaderSettings
 				}
 			}
 			
-			boolean allEntriesFullyStored = true;
+			ArrayList<File> toIndex = new ArrayList<File>(dirEntries.length);
 			for( File c : dirEntries ) {
-				if( FileUtil.shouldIgnore(ignores, c) ) continue;
-				
-				FileIndexResult indexResult;
-				try {
-					indexResult = index(c, destinations, ignores);
-					allEntriesFullyStored &= indexResult.fullyStored;
-				} catch( FileReadError e ) {
-					switch( howToHandleFileReadErrors ) {
-					case Actions.SKIP_THE_FILE:
-						System.err.println("Skipping file due to read errors: "+e.file+": "+e.getCause().getMessage());
-						continue;
-					case Actions.THROW_AN_EXCEPTION: throw e;
-					default: throw new Exception("Invalid file read error handling option: "+howToHandleFileReadErrors);
+				if( !FileUtil.shouldIgnore(ignores, c) ) toIndex.add(c);
+			}
+			
+			// Files may be hashed in the background, but everything else
+			// (including giving things to destinations) is still done
+			// here, in order, so the results are the same either way.
+			FileUrnPrefetcher prefetcher = fileHashingExecutor == null ? null : new FileUrnPrefetcher(toIndex);
+			
+			boolean allEntriesFullyStored = true;
+			try {
+				for( int i=0; i<toIndex.size(); ++i ) {
+					File c = toIndex.get(i);
+					FileIndexResult indexResult;
+					try {
+						String knownUrn = prefetcher == null ? null : prefetcher.getUrn(i);
+						indexResult = index(c, destinations, ignores, knownUrn);
+						allEntriesFullyStored &= indexResult.fullyStored;
+					} catch( FileReadError e ) {
+						switch( howToHandleFileReadErrors ) {
+						case Actions.SKIP_THE_FILE:
+							System.err.println("Skipping file due to read errors: "+e.file+": "+e.getCause().getMessage());
+							continue;
+						case Actions.THROW_AN_EXCEPTION: throw e;
+						default: throw new Exception("Invalid file read error handling option: "+howToHandleFileReadErrors);
+						}
 					}
+					entries.add( new DirectoryEntry( c.getName(), indexResult.fileInfo ) );
 				}
-				entries.add( new DirectoryEntry( c.getName(), indexResult.fileInfo ) );
+			} finally {
+				if( prefetcher != null ) prefetcher.cancel();
 			}
 			
 			return new DirectoryContentsIndexResult(entries, allEntriesFullyStored);
@@ -493,8 +609,16 @@ public class FlowUploader implements FlowUploaderSettings
 		}
 		
 		protected FileIndexResult index( File file, Collection<IndexedObjectSink> destinations, final Glob ignores ) throws Exception {
+			return index( file, destinations, ignores, null );
+		}
+		
+		/**
+		 * @param knownUrn the file's URN, if it's a regular file that's
+		 *   already been identified, or null to look it up/calculate it here
+		 */
+		protected FileIndexResult index( File file, Collection<IndexedObjectSink> destinations, final Glob ignores, String knownUrn ) throws Exception {
 			if( debug ) System.err.println("Indexer: "+file+"...");
-			String cachedUrn = hashCache.getFileUrn( file );
+			String cachedUrn = knownUrn != null ? knownUrn : hashCache.getFileUrn( file );
 			if( debug ) {
 				if( cachedUrn == null ) {
 					System.err.println("Indexer: Hash cache has no entry for "+file);
@@ -519,21 +643,7 @@ public class FlowUploader implements FlowUploaderSettings
 			final boolean fullyUploaded;
 			FileInfo fi;
 			if( file.isFile() ) {
-				String fileUrn;
-				if( cachedUrn != null ) {
-					fileUrn = cachedUrn;
-				} else {
-					FileInputStream fis = null;
-					try {
-						fis = new FileInputStream( file );
-						fileUrn = digestor.digest(fis);
-						hashCache.cacheFileUrn( file, fileUrn );
-					} catch( IOException e ) {
-						throw new FileReadError( file, e );
-					} finally {
-						if( fis != null ) fis.close();
-					}
-				}
+				String fileUrn = cachedUrn != null ? cachedUrn : digestFile( file );
 				
 				if( debug ) System.err.println("Indexer: "+file+" = "+fileUrn);
 				
@@ -710,6 +820,19 @@ public class FlowUploader implements FlowUploaderSettings
 		public StreamURNifier digestor = BitprintDigest.STREAM_URNIFIER;
 		public File primaryRepoDir;
 		public File cacheDir;
+		public boolean memoryMapCaches = false;
+		public boolean bloomFilterUploadCaches = false;
+		/** Number of threads to hash files with; 1 means hash them on the indexer thread */
+		public int fileHashingThreadCount = 1;
+		/**
+		 * How often to save the progress of hashing a big file, in bytes,
+		 * so it doesn't have to start over if interrupted; 0 to never.
+		 * Off by default, since hashing files that big goes several
+		 * times slower (see CheckpointingBitprintDigester).
+		 * Checkpoints are kept in the cache directory, so there are none
+		 * without one.
+		 */
+		public long hashCheckpointInterval = 0;
 		public File dataDir;
 		public File headDir;
 		public String storeSector = "user";
@@ -737,6 +860,10 @@ public class FlowUploader implements FlowUploaderSettings
 	protected final DirectorySerializer dirSer;
 	protected final File primaryRepoDir;
 	protected final File cacheDir;
+	protected final boolean memoryMapCaches;
+	protected final boolean bloomFilterUploadCaches;
+	protected final int fileHashingThreadCount;
+	protected final CheckpointingBitprintDigester checkpointingDigester;
 	protected final BlobReferenceScanMode scanMode;
 	
 	// Used when creating commits:
@@ -756,10 +883,18 @@ public class FlowUploader implements FlowUploaderSettings
 		this.showProgress = config.showProgress;
 		this.reportPathUrnMapping = config.reportPathUrnMapping;
 		this.reportUrn = config.reportUrn;
-		this.digestor = config.digestor;
+		// When files are hashed one at a time, hash each one using two threads
+		this.digestor = config.digestor == BitprintDigest.STREAM_URNIFIER && config.fileHashingThreadCount <= 1 ?
+			BitprintDigest.PIPELINED_STREAM_URNIFIER : config.digestor;
 		this.dirSer = new NewStyleRDFDirectorySerializer(config.includeFileMtimes);
 		this.primaryRepoDir = config.primaryRepoDir;
 		this.cacheDir = config.cacheDir;
+		this.memoryMapCaches = config.memoryMapCaches;
+		this.bloomFilterUploadCaches = config.bloomFilterUploadCaches;
+		this.fileHashingThreadCount = config.fileHashingThreadCount;
+		this.checkpointingDigester =
+			config.cacheDir == null || config.hashCheckpointInterval <= 0 || config.digestor != BitprintDigest.STREAM_URNIFIER ? null :
+			new CheckpointingBitprintDigester( new File(config.cacheDir, "bitprint-checkpoints"), config.hashCheckpointInterval, this.digestor );
 		this.dataDir = config.dataDir;
 		this.headDir = config.headDir;
 		this.storeSector = config.storeSector;
@@ -790,29 +925,90 @@ public class FlowUploader implements FlowUploaderSettings
 			};
 		}
 		if( hashCache == null ) {
-			hashCache = new SLFHashCache(cacheDir);
+			hashCache = new WriteBehindHashCache(cacheDir, memoryMapCaches);
 		}
 		return hashCache;
 	}
 	
+	/** Write out any pending hash cache entries and close the cache files */
+	protected synchronized void closeHashCache() {
+		if( hashCache instanceof Closeable ) {
+			try {
+				((Closeable)hashCache).close();
+			} catch( IOException e ) {
+				System.err.println("Warning: Failed to close hash cache: "+e.getMessage());
+			}
+		}
+		hashCache = null;
+	}
+	
 	protected Map<String,AddableSet<String>> uploadCaches = new HashMap<String,AddableSet<String>>();
 	protected synchronized AddableSet<String> getUploadCache( String serverName, BlobReferenceScanMode scanMode ) {
 		if( cacheDir == null ) return EmptyAddableSet.getInstance();
 		AddableSet<String> uc = uploadCaches.get(serverName);
 		if( uc == null ) {
-			uploadCaches.put( serverName, uc = new SLFStringSet(new File(cacheDir,
-				"uploaded-to-"+serverName+(scanMode == BlobReferenceScanMode.NEVER ? "" : "-rs-"+scanMode.cacheDbName.toLowerCase())+".slf2")) );
+			File ucFile = new File(cacheDir,
+				"uploaded-to-"+serverName+(scanMode == BlobReferenceScanMode.NEVER ? "" : "-rs-"+scanMode.cacheDbName.toLowerCase())+".slf2");
 			// 'rs' = 'recursively scanned'
+			uploadCaches.put( serverName, uc = bloomFilterUploadCaches ?
+				new BloomFilteredSLFStringSet(ucFile, memoryMapCaches) :
+				new SLFStringSet(ucFile, memoryMapCaches) );
 		}
 		return uc;
 	}
 	
+	protected ExecutorService createFileHashingExecutor() {
+		if( fileHashingThreadCount <= 1 ) return null;
+		return Executors.newFixedThreadPool( fileHashingThreadCount, new ThreadFactory() {
+			int count = 0;
+			@Override public synchronized Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "File hasher "+(++count) );
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Wait for the file hashing threads to finish what they're doing and exit.
+	 * They're only interrupted when aborting, because interrupting a thread
+	 * that's in the middle of a FileChannel operation closes the channel,
+	 * which might belong to the hash cache or one of the digesters.
+	 */
+	protected static void shutDownFileHashingExecutor( ExecutorService fileHashingExecutor, boolean abort ) {
+		if( fileHashingExecutor == null ) return;
+		if( abort ) {
+			fileHashingExecutor.shutdownNow();
+			return;
+		}
+		fileHashingExecutor.shutdown();
+		try {
+			fileHashingExecutor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+		} catch( InterruptedException e ) {
+			fileHashingExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	protected synchronized void closeUploadCaches() {
+		for( AddableSet<String> uc : uploadCaches.values() ) {
+			if( uc instanceof Closeable ) {
+				try {
+					((Closeable)uc).close();
+				} catch( IOException e ) {
+					System.err.println("Warning: Failed to close "+uc+": "+e.getMessage());
+				}
+			}
+		}
+		uploadCaches.clear();
+	}
+	
 	protected Repository localRepository;
 	protected synchronized Repository getLocalRepository() {
 		if( localRepository == null ) {
 			if( dataDir == null ) throw new RuntimeException("Can't instantiate local repository; dataDir is null");
 			if( storeSector == null ) throw new RuntimeException("Can't instantiate local repository; storeSector is null");
-			localRepository = new SHA1FileRepository(dataDir, storeSector);
+			localRepository = PackFileRepository.open(SHA1FileRepository.open(dataDir, storeSector));
 		}
 		return localRepository;
 	}
@@ -859,10 +1055,21 @@ public class FlowUploader implements FlowUploaderSettings
 	}
 	
 	public void runIdentify() throws Exception {
-		final Indexer indexer = new Indexer( getLocalRepository(), getLocalFileResolver(), BlobReferenceScanMode.NEVER, dirSer, digestor, getHashCache(), howToHandleFileReadErrors, debug );
-		for( UploadTask ut : tasks ) {
-			IndexResult indexResult = indexer.index(ut.path, Collections.<IndexedObjectSink>emptyList());
-			report( indexResult );
+		final ExecutorService fileHashingExecutor = createFileHashingExecutor();
+		final Indexer indexer = new Indexer( getLocalRepository(), getLocalFileResolver(), BlobReferenceScanMode.NEVER, dirSer, digestor, getHashCache(), fileHashingExecutor, howToHandleFileReadErrors, debug );
+		indexer.checkpointingDigester = checkpointingDigester;
+		boolean interrupted = false;
+		try {
+			for( UploadTask ut : tasks ) {
+				IndexResult indexResult = indexer.index(ut.path, Collections.<IndexedObjectSink>emptyList());
+				report( indexResult );
+			}
+		} catch( InterruptedException e ) {
+			interrupted = true;
+			throw e;
+		} finally {
+			shutDownFileHashingExecutor( fileHashingExecutor, interrupted );
+			closeHashCache();
 		}
 	}
 	
@@ -934,7 +1141,9 @@ public class FlowUploader implements FlowUploaderSettings
 		final LinkedBlockingQueue<Object> uploadTaskQueue = new LinkedBlockingQueue<Object>(tasks);
 		uploadTaskQueue.add( EndMessage.INSTANCE );
 
-		final Indexer indexer = new Indexer( getLocalRepository(), getLocalFileResolver(), scanMode, dirSer, digestor, getHashCache(), howToHandleFileReadErrors, debug );
+		final ExecutorService fileHashingExecutor = createFileHashingExecutor();
+		final Indexer indexer = new Indexer( getLocalRepository(), getLocalFileResolver(), scanMode, dirSer, digestor, getHashCache(), fileHashingExecutor, howToHandleFileReadErrors, debug );
+		indexer.checkpointingDigester = checkpointingDigester;
 		
 		class IndexRunner extends QueueRunner {
 			private boolean success = true;
@@ -1052,6 +1261,7 @@ public class FlowUploader implements FlowUploaderSettings
 		if( showProgress ) progressThread.start();
 		
 		boolean completeSuccess = true;
+		boolean interrupted = false;
 		try {
 			if( debug ) System.err.println("Waiting for upload clients to finish...");
 			for( UploadClient uc : uploadClients ) uc.join();
@@ -1095,12 +1305,17 @@ public class FlowUploader implements FlowUploaderSettings
 		} catch( InterruptedException e ) {
 			System.err.println("Interrupted!");
 			completeSuccess = false;
+			interrupted = true;
 			indexThread.interrupt();
 			for( UploadClient uc : uploadClients ) uc.halt();
 			Thread.currentThread().interrupt();
 			progressThread.interrupt();
 		}
 		
+		shutDownFileHashingExecutor( fileHashingExecutor, interrupted );
+		closeHashCache();
+		closeUploadCaches();
+		
 		if( showTransferSummary ) {
 			if( tt.counters.isEmpty() ) {
 				System.err.println( "No transfers!" );
@@ -1292,6 +1507,27 @@ public class FlowUploader implements FlowUploaderSettings
 			
 			} else if( "-no-cache".equals(a) ) {
 				cacheEnabled = false;
+			} else if( "-mmap-cache".equals(a) ) {
+				config.memoryMapCaches = true;
+			} else if( "-bloom-cache".equals(a) ) {
+				config.bloomFilterUploadCaches = true;
+			} else if( "-hash-threads".equals(a) ) {
+				String countStr = args.next();
+				try {
+					config.fileHashingThreadCount = Integer.parseInt(countStr);
+				} catch( NumberFormatException e ) {
+					return FlowUploaderCommand.error("Invalid -hash-threads argument: '"+countStr+"'");
+				}
+			} else if( "-hash-checkpoint-interval".equals(a) ) {
+				String intervalStr = args.next();
+				try {
+					config.hashCheckpointInterval = Long.parseLong(intervalStr);
+				} catch( NumberFormatException e ) {
+					return FlowUploaderCommand.error("Invalid -hash-checkpoint-interval argument: '"+intervalStr+"'");
+				}
+				if( config.hashCheckpointInterval < 0 || config.hashCheckpointInterval % 1024 != 0 ) {
+					return FlowUploaderCommand.error("-hash-checkpoint-interval must be a multiple of 1024 (or 0 to disable)");
+				}
 			
 			// Local repository options
 			} else if(
@@ -1432,6 +1668,15 @@ public class FlowUploader implements FlowUploaderSettings
 		"  -local-repo:<name> <path> ; Path to a named local repository; this is needed\n" +
 		"                 ; when creating a named commit with '-n'\n" +
 		"  -no-cache      ; Do not cache file hashes or upload records.\n" +
+		"  -mmap-cache    ; Memory-map hash and upload record caches for faster lookups.\n" +
+		"  -bloom-cache   ; Keep a Bloom filter of upload records so that checks for\n" +
+		"                 ; new blobs don't need to hit the disk.\n" +
+		"  -hash-threads <n> ; Hash up to <n> files at once (default: 1).\n" +
+		"  -hash-checkpoint-interval <bytes> ; Save progress of hashing files bigger\n" +
+		"                 ; than this every <bytes> bytes (e.g. "+CheckpointingBitprintDigester.DEFAULT_CHECKPOINT_INTERVAL+")\n" +
+		"                 ; so it can be resumed if interrupted.  Off by default,\n" +
+		"                 ; since it hashes those files about 5 times slower\n" +
+		"                 ; (~190 MB/s instead of ~900 MB/s).\n" +
 		"  -omit-file-mtimes ; do not include file modification times in serialized\n"+
 		"                 ; directory data\n"+
 		"  -http-server:<name> <url> ; PUT files to a N2R server.\n" +
@@ -1488,6 +1733,13 @@ public class FlowUploader implements FlowUploaderSettings
 		"Options:\n" +
 		"  -repo <path> ; Path to local ccouch repository to store cache in.\n" +
 		"  -no-cache    ; Do not cache file hashes or upload records.\n" +
+		"  -mmap-cache  ; Memory-map the hash cache for faster lookups.\n" +
+		"  -hash-threads <n> ; Hash up to <n> files at once (default: 1).\n" +
+		"  -hash-checkpoint-interval <bytes> ; Save progress of hashing files\n" +
+		"               ; bigger than this every <bytes> bytes (e.g. "+CheckpointingBitprintDigester.DEFAULT_CHECKPOINT_INTERVAL+")\n" +
+		"               ; so it can be resumed if interrupted.  Off by default,\n" +
+		"               ; since it hashes those files about 5 times slower\n" +
+		"               ; (~190 MB/s instead of ~900 MB/s).\n" +
 		"  -omit-file-mtimes ; do not include file modification times in\n"+
 		"               ; serialized directory data\n"+
 		"\n" +
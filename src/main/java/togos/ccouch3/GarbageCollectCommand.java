@@ -0,0 +1,267 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import togos.ccouch3.repo.PackFileRepository;
+import togos.ccouch3.repo.SHA1PresenceIndex;
+import togos.ccouch3.util.AddableSet;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.ListUtil;
+import togos.ccouch3.util.ParseResult;
+import togos.ccouch3.util.SHA1Set;
+import togos.ccouch3.util.SLFStringSet;
+
+/**
+ * Deletes blobs from the primary repository that can't be reached
+ * from any head (or other root given on the command line).
+ */
+public class GarbageCollectCommand
+{
+	static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^[A-Z2-7]{32}$");
+	
+	public static String USAGE =
+		"Usage: ccouch3 gc [-repo <path>] [options] [<root URN> ...]\n" +
+		"\n" +
+		"Finds every blob reachable from the primary repository's heads\n" +
+		"(every version of every head under <repo>/heads/) and any root URNs\n" +
+		"given, by scanning reachable blobs for URNs, and deletes the other\n" +
+		"blobs in the primary repository's data directory.\n" +
+		"Blobs are looked up in all local repositories while marking,\n" +
+		"but only the primary one is swept.\n" +
+		"\n" +
+		"Refuses to delete anything if reachable blobs couldn't be read,\n" +
+		"or (unless -ignore-missing is given) couldn't be found, since\n" +
+		"they might have referenced things that would then be deleted.\n" +
+		"\n" +
+		"Options:\n" +
+		"  -dry-run             ; report what would be deleted, but don't delete it\n" +
+		"  -latest-heads-only   ; only keep what's reachable from the latest\n" +
+		"                       ; version of each head\n" +
+		"  -min-age <hours>     ; don't delete blobs stored less than <hours> ago\n" +
+		"                       ; or anything they reference (default: 24),\n" +
+		"                       ; to spare in-progress uploads\n" +
+		"  -ignore-missing      ; sweep even if some reachable blobs are missing\n" +
+		"  -hash-threads <n>    ; scan up to <n> blobs at once (default: 1)\n" +
+		"  -on-disk-mark-set    ; keep the set of reachable blobs in\n" +
+		"                       ; <repo>/cache/gc-marked.slf2 instead of in memory\n" +
+		"  -v                   ; list each blob deleted";
+	
+	/**
+	 * Mark everything reachable from blobs in the data directory
+	 * last modified after minMtime.  The sweep spares those anyway,
+	 * and an upload in progress may not have re-stored (and so
+	 * touched) the older blobs they reference, e.g. because its
+	 * uploaded-to cache said the server already had them.
+	 * @return the number of recent blobs found
+	 */
+	public static long markRecentBlobs( File dataDir, long minMtime, ReachabilityMarker marker ) {
+		long count = 0;
+		File[] sectorDirs = dataDir.listFiles();
+		if( sectorDirs == null ) return 0;
+		for( File sectorDir : sectorDirs ) {
+			File[] subDirs = sectorDir.listFiles();
+			if( subDirs == null ) continue;
+			for( File subDir : subDirs ) {
+				File[] blobFiles = subDir.listFiles();
+				if( blobFiles == null ) continue;
+				for( File f : blobFiles ) {
+					String sha1Base32 = f.getName();
+					if( !BLOB_FILENAME_PATTERN.matcher(sha1Base32).matches() ) continue;
+					if( f.lastModified() > minMtime ) {
+						marker.mark( "urn:sha1:"+sha1Base32 );
+						++count;
+					}
+				}
+			}
+		}
+		return count;
+	}
+	
+	public static class SweepResult {
+		public long blobCount, byteCount;
+		public long keptCount, keptByteCount;
+	}
+	
+	/**
+	 * Delete (unless dryRun) blob files in the data directory whose SHA-1s
+	 * aren't in marked and that were last modified before maxMtime.
+	 */
+	public static SweepResult sweep( File dataDir, AddableSet<String> marked, long maxMtime, SHA1PresenceIndex presenceIndex, boolean dryRun, boolean verbose ) {
+		SweepResult res = new SweepResult();
+		File[] sectorDirs = dataDir.listFiles();
+		if( sectorDirs == null ) return res;
+		for( File sectorDir : sectorDirs ) {
+			File[] subDirs = sectorDir.listFiles();
+			if( subDirs == null ) continue;
+			for( File subDir : subDirs ) {
+				File[] blobFiles = subDir.listFiles();
+				if( blobFiles == null ) continue;
+				for( File f : blobFiles ) {
+					String sha1Base32 = f.getName();
+					if( !BLOB_FILENAME_PATTERN.matcher(sha1Base32).matches() ) continue;
+					long size = f.length();
+					if( marked.contains(sha1Base32) || f.lastModified() > maxMtime ) {
+						++res.keptCount;
+						res.keptByteCount += size;
+						continue;
+					}
+					if( !dryRun ) {
+						if( !f.delete() ) {
+							System.err.println("Warning: Failed to delete "+f);
+							continue;
+						}
+						if( presenceIndex != null ) {
+							SHA1PresenceIndex.Entry e = presenceIndex.get(sha1Base32);
+							if( e != null && sectorDir.getName().equals(e.sector) ) presenceIndex.remove(sha1Base32);
+						}
+					}
+					if( verbose ) System.out.println((dryRun ? "Would delete\t" : "Deleted\t")+f);
+					++res.blobCount;
+					res.byteCount += size;
+				}
+			}
+		}
+		return res;
+	}
+	
+	public static int main(CCouchContext ctx, List<String> args) throws IOException, InterruptedException {
+		boolean dryRun = false;
+		boolean latestHeadsOnly = false;
+		boolean ignoreMissing = false;
+		boolean onDiskMarkSet = false;
+		boolean verbose = false;
+		double minAgeHours = 24;
+		int threadCount = 1;
+		List<String> roots = new ArrayList<String>();
+		
+		while( !args.isEmpty() ) {
+			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
+			if( ctxPr.remainingInput != args ) {
+				args = ctxPr.remainingInput;
+				ctx  = ctxPr.result;
+				continue;
+			}
+			
+			String arg = ListUtil.car(args);
+			args = ListUtil.cdr(args);
+			try {
+				if( CCouch3Command.isHelpArgument(arg) ) {
+					System.out.println(USAGE);
+					return 0;
+				} else if( "-dry-run".equals(arg) ) {
+					dryRun = true;
+				} else if( "-latest-heads-only".equals(arg) ) {
+					latestHeadsOnly = true;
+				} else if( "-ignore-missing".equals(arg) ) {
+					ignoreMissing = true;
+				} else if( "-on-disk-mark-set".equals(arg) ) {
+					onDiskMarkSet = true;
+				} else if( "-v".equals(arg) ) {
+					verbose = true;
+				} else if( "-min-age".equals(arg) && !args.isEmpty() ) {
+					minAgeHours = Double.parseDouble(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( "-hash-threads".equals(arg) && !args.isEmpty() ) {
+					threadCount = Integer.parseInt(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( !arg.startsWith("-") ) {
+					roots.add(arg);
+				} else {
+					System.err.println("Error: Unrecognized argument: '"+arg+"'");
+					System.err.println(USAGE);
+					return 1;
+				}
+			} catch( NumberFormatException e ) {
+				System.err.println("Error: Invalid "+arg+" argument: '"+ListUtil.car(args)+"'");
+				return 1;
+			}
+		}
+		if( threadCount < 1 ) {
+			System.err.println("Error: -hash-threads must be at least 1");
+			return 1;
+		}
+		
+		ctx = ctx.fixed();
+		
+		File repoDir = ctx.getPrimaryRepoDir(null);
+		if( repoDir == null ) {
+			System.err.println("Error: No primary repository configured");
+			System.err.println(USAGE);
+			return 1;
+		}
+		File dataDir = new File(repoDir, "data");
+		if( PackFileRepository.isPacked(dataDir) ) {
+			System.err.println("Error: "+repoDir+" has packs, which gc can't sweep yet");
+			return 1;
+		}
+		File headRoot = new File(repoDir, "heads");
+		File markSetFile = new File(repoDir, "cache/gc-marked.slf2");
+		
+		AddableSet<String> marked;
+		if( onDiskMarkSet ) {
+			if( markSetFile.exists() && !markSetFile.delete() ) {
+				System.err.println("Error: Failed to delete old "+markSetFile);
+				return 1;
+			}
+			FileUtil.mkParentDirs(markSetFile);
+			marked = new SLFStringSet(markSetFile, true);
+		} else {
+			marked = new SHA1Set();
+		}
+		
+		try {
+			long markStartTime = System.currentTimeMillis();
+			long maxMtime = markStartTime - (long)(minAgeHours * 3600 * 1000);
+			ReachabilityMarker marker = new ReachabilityMarker(ctx.getLocalRepositories(), marked, threadCount);
+			try {
+				if( marker.markHeads(headRoot, latestHeadsOnly) == 0 && roots.isEmpty() ) {
+					System.err.println("Error: No heads found in "+headRoot+" and no roots given; refusing to delete everything");
+					return 1;
+				}
+				for( String root : roots ) {
+					if( ReachabilityMarker.sha1Base32(root) == null ) {
+						System.err.println("Error: Root '"+root+"' isn't a SHA-1 or bitprint URN");
+						return 1;
+					}
+					marker.mark( root );
+				}
+				markRecentBlobs( dataDir, maxMtime, marker );
+			} finally {
+				marker.finish();
+			}
+			System.err.println(
+				"Marked "+marker.getMarkedCount()+" reachable blobs; "+
+				marker.getMissingCount()+" missing, "+marker.getErrorCount()+" unreadable");
+			if( marker.getErrorCount() > 0 ) {
+				System.err.println("Error: Not sweeping because some reachable blobs couldn't be read");
+				return 1;
+			}
+			if( marker.getMissingCount() > 0 && !ignoreMissing ) {
+				System.err.println("Error: Not sweeping because some reachable blobs are missing (see -ignore-missing)");
+				return 1;
+			}
+			
+			File indexFile = SHA1PresenceIndex.getIndexFile(dataDir);
+			SHA1PresenceIndex presenceIndex = indexFile.exists() ? SHA1PresenceIndex.forFile(indexFile) : null;
+			SweepResult res;
+			try {
+				res = sweep( dataDir, marked, maxMtime, presenceIndex, dryRun, verbose );
+			} finally {
+				if( presenceIndex != null ) presenceIndex.close();
+			}
+			System.err.println(
+				(dryRun ? "Would delete " : "Deleted ")+res.blobCount+" blobs ("+res.byteCount+" bytes); "+
+				"kept "+res.keptCount+" ("+res.keptByteCount+" bytes)");
+			return 0;
+		} finally {
+			if( marked instanceof SLFStringSet ) {
+				((SLFStringSet)marked).close();
+				markSetFile.delete();
+			}
+		}
+	}
+}
@@ -7,6 +7,7 @@ import java.io.InputStream;
 
 import togos.blob.ByteBlob;
 import togos.blob.file.FileBlob;
+import togos.ccouch3.util.FileUtil;
 import togos.ccouch3.util.StreamUtil;
 
 public class LocalFilesystem implements Filesystem
@@ -70,20 +71,26 @@ public class LocalFilesystem implements Filesystem
 		File dest = new File(fullPath);
 		File dir = dest.getParentFile();
 		if( dir == null ) dir = new File(".");
-		InputStream is = data.openInputStream();
+		// FileBlobs can be copied between the files' channels
+		// without the data passing through the JVM
+		InputStream is = data instanceof FileBlob ? null : data.openInputStream();
 		try {
 			if( !dir.exists() ) dir.mkdirs();
 			File temp = File.createTempFile(".temp-"+dest.getName(), ".temp", dir);
 			FileOutputStream fos = new FileOutputStream(temp);
 			try {
-				StreamUtil.copy(is, fos);
+				if( is == null ) {
+					FileUtil.transferTo((FileBlob)data, fos.getChannel());
+				} else {
+					StreamUtil.copy(is, fos);
+				}
 			} finally {
 				fos.close();
 			}
 			temp.renameTo(dest);
 			if( mtime != -1 ) dest.setLastModified(mtime);
 		} finally {
-			is.close();
+			if( is != null ) is.close();
 		}
 	}
 	
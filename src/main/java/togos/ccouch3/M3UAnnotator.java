@@ -143,7 +143,7 @@ public class M3UAnnotator
 		if( homeDir == null ) homeDir = ".";
 		final File repoDir = new File(homeDir+"/.ccouch");
 		final SLFHashCache hashCache = new SLFHashCache(new File(repoDir,"cache/flow-uploader"));
-		final StreamURNifier digestor = BitprintDigest.STREAM_URNIFIER;
+		final StreamURNifier digestor = BitprintDigest.PIPELINED_STREAM_URNIFIER;
 		
 		class Identifier {
 			public String identify( ByteBlob b ) throws IOException {
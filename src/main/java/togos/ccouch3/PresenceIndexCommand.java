@@ -0,0 +1,96 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import togos.ccouch3.repo.PackFileRepository;
+import togos.ccouch3.repo.SHA1PresenceIndex;
+import togos.ccouch3.util.ListUtil;
+import togos.ccouch3.util.ParseResult;
+
+/**
+ * Builds (or deletes) the index that SHA1FileRepository uses
+ * to find blobs without checking every sector.
+ */
+public class PresenceIndexCommand
+{
+	public static String USAGE =
+		"Usage: ccouch3 index-repo [-repo <path>] [-delete]\n" +
+		"\n" +
+		"Scans the primary repository's data directory and writes an index\n" +
+		"of which sector each blob is in to <repo>/cache/"+SHA1PresenceIndex.INDEX_FILENAME+".\n" +
+		"Once it exists, ccouch3 keeps it up to date as it stores things,\n" +
+		"and uses it to answer lookups without scanning every sector.\n" +
+		"Rebuild it after adding files to the data directory by other means\n" +
+		"(ccouch3 will notice and fall back to scanning in the meantime).\n" +
+		"\n" +
+		"Options:\n" +
+		"  -delete ; delete the index instead, so lookups go back to scanning";
+	
+	public static int main(CCouchContext ctx, List<String> args) {
+		boolean delete = false;
+		
+		while( !args.isEmpty() ) {
+			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
+			if( ctxPr.remainingInput != args ) {
+				args = ctxPr.remainingInput;
+				ctx  = ctxPr.result;
+				continue;
+			}
+			
+			String arg = ListUtil.car(args);
+			args = ListUtil.cdr(args);
+			if( CCouch3Command.isHelpArgument(arg) ) {
+				System.out.println(USAGE);
+				return 0;
+			} else if( "-delete".equals(arg) ) {
+				delete = true;
+			} else {
+				System.err.println("Error: Unrecognized argument: '"+arg+"'");
+				return 1;
+			}
+		}
+		
+		ctx = ctx.fixed();
+		
+		File repoDir = ctx.getPrimaryRepoDir(null);
+		if( repoDir == null ) {
+			System.err.println("Error: No primary repository configured");
+			System.err.println(USAGE);
+			return 1;
+		}
+		File dataDir = new File(repoDir, "data");
+		File indexFile = SHA1PresenceIndex.getIndexFile(dataDir);
+		
+		if( delete ) {
+			if( indexFile.exists() && !indexFile.delete() ) {
+				System.err.println("Error: Failed to delete "+indexFile);
+				return 1;
+			}
+			return 0;
+		}
+		
+		if( PackFileRepository.isPacked(dataDir) ) {
+			// Entries are for blob files; packed blobs can't be indexed
+			System.err.println("Error: "+repoDir+" has packs, which index-repo can't index yet");
+			return 1;
+		}
+		
+		SHA1PresenceIndex index = SHA1PresenceIndex.forFile(indexFile);
+		try {
+			long count = index.rebuild(dataDir);
+			System.out.println("Indexed "+count+" blobs in "+indexFile);
+		} catch( IOException e ) {
+			System.err.println("Error rebuilding "+indexFile+": "+e.getMessage());
+			return 1;
+		} finally {
+			try {
+				index.close();
+			} catch( IOException e ) {
+				System.err.println("Warning: Failed to close "+indexFile+": "+e.getMessage());
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,218 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bitpedia.util.Base32;
+
+import togos.blob.ByteBlob;
+import togos.ccouch3.repo.Repository;
+import togos.ccouch3.util.AddableSet;
+
+/**
+ * Finds every blob that can be reached from some set of roots
+ * (usually head files; see markHeads) by following URNs,
+ * for garbage collection.
+ *
+ * Every reachable blob that can be found in one of the given
+ * repositories is scanned as text for more URNs (see BlobReferenceScanner),
+ * not just those referenced as RDF.  That's slower than parsing
+ * commits and directories, but it means that anything mentioned by
+ * something reachable (URN lists, playlists, notes) stays reachable,
+ * which is the safe way to be wrong.  Non-UTF-8 blobs are only
+ * read until the first invalid byte.
+ *
+ * Blobs are scanned by threadCount threads.  Reached SHA-1s are recorded
+ * in the given set (e.g. a SHA1Set, or an SLFStringSet if it won't
+ * fit in memory), which needn't be thread-safe itself.
+ */
+public class ReachabilityMarker
+{
+	static final Pattern SHA1_OR_BITPRINT_PATTERN = Pattern.compile("^urn:(?:sha1|bitprint):([A-Z2-7]{32})", Pattern.CASE_INSENSITIVE);
+	
+	protected final Repository[] repos;
+	protected final AddableSet<String> marked;
+	protected final BlobReferenceScanner scanner;
+	protected final ExecutorService executor;
+	
+	protected int pendingCount;
+	protected long markedCount, scannedCount, missingCount, errorCount;
+	
+	public ReachabilityMarker( Repository[] repos, AddableSet<String> marked, int threadCount ) {
+		this.repos = repos;
+		this.marked = marked;
+		this.scanner = new BlobReferenceScanner(BlobReferenceScanMode.SCAN_TEXT_FOR_URNS);
+		this.scanner.reportErrors = false;
+		this.executor = Executors.newFixedThreadPool( threadCount, new ThreadFactory() {
+			int count = 0;
+			@Override public synchronized Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "Marker "+(++count) );
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	public synchronized long getMarkedCount() { return markedCount; }
+	public synchronized long getScannedCount() { return scannedCount; }
+	/** Number of reachable blobs that weren't in any of the repositories */
+	public synchronized long getMissingCount() { return missingCount; }
+	/** Number of reachable blobs that couldn't be read */
+	public synchronized long getErrorCount() { return errorCount; }
+	
+	/** Returns the SHA-1 (base32) of the given URN, or null if it's not a SHA-1 or bitprint URN */
+	protected static String sha1Base32( String urn ) {
+		Matcher m = SHA1_OR_BITPRINT_PATTERN.matcher(urn);
+		return m.find() ? m.group(1).toUpperCase() : null;
+	}
+	
+	/** Returns true if it wasn't already marked */
+	protected boolean addMark( String sha1Base32 ) {
+		synchronized( marked ) {
+			if( marked.contains(sha1Base32) ) return false;
+			marked.add(sha1Base32);
+		}
+		synchronized( this ) {
+			++markedCount;
+		}
+		return true;
+	}
+	
+	protected synchronized void taskDone() {
+		if( --pendingCount == 0 ) notifyAll();
+	}
+	
+	protected final BlobReferenceScanner.ScanCallback markCallback = new BlobReferenceScanner.ScanCallback() {
+		@Override public boolean handle( String urn ) {
+			mark( urn );
+			return true;
+		}
+	};
+	
+	protected void scan( String name, InputStream is ) {
+		// Closes is
+		if( scanner.scanTextForUrns(name, is, markCallback, false) ) {
+			synchronized( this ) { ++scannedCount; }
+		} else {
+			System.err.println("Error: Failed to scan "+name+" for URNs");
+			synchronized( this ) { ++errorCount; }
+		}
+	}
+	
+	protected void scanBlob( String sha1Base32 ) {
+		String urn = "urn:sha1:"+sha1Base32;
+		for( Repository repo : repos ) {
+			ByteBlob b;
+			InputStream is;
+			try {
+				b = repo.getBlob(urn);
+				if( b == null ) continue;
+				is = b.openInputStream();
+			} catch( IOException e ) {
+				System.err.println("Error: Failed to open "+urn+" from "+repo+": "+e.getMessage());
+				synchronized( this ) { ++errorCount; }
+				return;
+			}
+			scan( urn, is );
+			return;
+		}
+		synchronized( this ) { ++missingCount; }
+	}
+	
+	/**
+	 * Mark the blob named by the URN, if it's a SHA-1 or bitprint URN,
+	 * and everything reachable from it.
+	 * The scanning happens in the background; call finish to wait for it.
+	 */
+	public void mark( String urn ) {
+		final String sha1Base32 = sha1Base32( urn );
+		if( sha1Base32 == null || !addMark(sha1Base32) ) return;
+		
+		synchronized( this ) { ++pendingCount; }
+		executor.execute( new Runnable() {
+			@Override public void run() {
+				try {
+					scanBlob( sha1Base32 );
+				} finally {
+					taskDone();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Mark the file (e.g. a head) as if it were a blob, and everything
+	 * it references.  Since the file itself is what's scanned,
+	 * it doesn't matter if the blob isn't actually in a repository.
+	 */
+	public void markFile( File f ) throws IOException {
+		MessageDigest digestor;
+		try {
+			digestor = MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new RuntimeException(e);
+		}
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			byte[] buffer = new byte[65536];
+			int z;
+			while( (z = fis.read(buffer)) > 0 ) digestor.update( buffer, 0, z );
+		} finally {
+			fis.close();
+		}
+		addMark( Base32.encode(Arrays.copyOf(digestor.digest(), 20)) );
+		scan( f.getPath(), new FileInputStream(f) );
+	}
+	
+	/**
+	 * Mark every head file under the given directory, and everything they reference.
+	 * If latestOnly is true, only the highest-numbered
+	 * version of each head (what CCouchHeadResolver
+	 * would give for x-ccouch-head:<name>/latest) counts.
+	 * @return the number of head files marked
+	 */
+	public int markHeads( File headRoot, boolean latestOnly ) throws IOException {
+		File[] entries = headRoot.listFiles();
+		if( entries == null ) return 0;
+		Arrays.sort( entries );
+		int count = 0;
+		boolean foundVersions = false;
+		for( File f : entries ) {
+			if( f.isDirectory() ) {
+				count += markHeads( f, latestOnly );
+			} else if( !latestOnly ) {
+				markFile( f );
+				++count;
+			} else if( f.getName().matches("\\d+") ) {
+				foundVersions = true;
+			}
+		}
+		if( foundVersions ) {
+			CCouchHeadResolver resolver = new CCouchHeadResolver( new File[] { headRoot.getParentFile() } );
+			markFile( resolver.getBlob(resolver.HEAD_URN_PREFIX + headRoot.getName() + "/latest") );
+			++count;
+		}
+		return count;
+	}
+	
+	/** Wait until everything reachable has been marked, and stop the scanning threads */
+	public void finish() throws InterruptedException {
+		try {
+			synchronized( this ) {
+				while( pendingCount > 0 ) wait();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import togos.ccouch3.slf.SimpleListFile2;
+import togos.ccouch3.slf.SimpleListFile2.CompactionStats;
+import togos.ccouch3.util.ListUtil;
+import togos.ccouch3.util.ParseResult;
+
+/**
+ * Rewrites SLF2 files (e.g. the caches under <repo>/cache/)
+ * keeping only the newest value for each key.
+ * Nothing else should be using the files while this runs!
+ */
+public class SLFCompactCommand
+{
+	public static String USAGE =
+		"Usage: ccouch3 slf-compact [-repo <path>] [-drop-stale-file-ids] [<file.slf2> ...]\n" +
+		"\n" +
+		"Compacts the given SLF2 files, or all the ones in the primary\n" +
+		"repository's cache directory if none are given.\n" +
+		"Make sure no other ccouch3 processes are using them!\n" +
+		"\n" +
+		"Options:\n" +
+		"  -drop-stale-file-ids ; drop entries from file-urns.slf2 and dir-urns.slf2\n" +
+		"                       ; for files that have changed or no longer exist";
+	
+	static boolean isHashCacheFile( File f ) {
+		return "file-urns.slf2".equals(f.getName()) || "dir-urns.slf2".equals(f.getName());
+	}
+	
+	static void findSlfFiles( File dir, List<File> dest ) {
+		File[] files = dir.listFiles();
+		if( files == null ) return;
+		for( File f : files ) {
+			if( f.isDirectory() ) {
+				findSlfFiles( f, dest );
+			} else if( f.getName().endsWith(".slf2") ) {
+				dest.add( f );
+			}
+		}
+	}
+	
+	public static int main(CCouchContext ctx, List<String> args) {
+		ArrayList<File> files = new ArrayList<File>();
+		boolean dropStaleFileIds = false;
+		
+		while( !args.isEmpty() ) {
+			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
+			if( ctxPr.remainingInput != args ) {
+				args = ctxPr.remainingInput;
+				ctx  = ctxPr.result;
+				continue;
+			}
+			
+			String arg = ListUtil.car(args);
+			args = ListUtil.cdr(args);
+			if( CCouch3Command.isHelpArgument(arg) ) {
+				System.out.println(USAGE);
+				return 0;
+			} else if( "-drop-stale-file-ids".equals(arg) ) {
+				dropStaleFileIds = true;
+			} else if( !arg.startsWith("-") ) {
+				files.add(new File(arg));
+			} else {
+				System.err.println("Error: Unrecognized argument: '"+arg+"'");
+				return 1;
+			}
+		}
+		
+		ctx = ctx.fixed();
+		
+		if( files.isEmpty() ) {
+			File repoDir = ctx.getPrimaryRepoDir(null);
+			if( repoDir == null ) {
+				System.err.println("Error: No files given and no primary repository configured");
+				System.err.println(USAGE);
+				return 1;
+			}
+			findSlfFiles( new File(repoDir, "cache"), files );
+		}
+		
+		int errorCount = 0;
+		long totalReclaimed = 0;
+		for( File f : files ) {
+			SimpleListFile2.PairFilter filter =
+				dropStaleFileIds && isHashCacheFile(f) ? SLFHashCache.CURRENT_FILE_ID_FILTER : null;
+			try {
+				CompactionStats stats = SimpleListFile2.compact( f, filter );
+				totalReclaimed += stats.getReclaimedBytes();
+				System.out.println(f+": "+stats);
+			} catch( IOException e ) {
+				System.err.println("Error compacting "+f+": "+e.getMessage());
+				++errorCount;
+			} catch( RuntimeException e ) {
+				System.err.println("Error compacting "+f+": "+e.getMessage());
+				++errorCount;
+			}
+		}
+		if( files.size() > 1 ) {
+			System.out.println("Reclaimed "+totalReclaimed+" bytes total");
+		}
+		return errorCount == 0 ? 0 : 1;
+	}
+}
@@ -1,5 +1,6 @@
 package togos.ccouch3;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 
@@ -7,28 +8,39 @@ import togos.blob.ByteChunk;
 import togos.blob.util.BlobUtil;
 import togos.ccouch3.slf.SimpleListFile2;
 
-public class SLFHashCache implements HashCache
+public class SLFHashCache implements HashCache, Closeable
 {
 	final File fileUrnCacheFile;
 	final File dirUrnCacheFile;
+	final boolean memoryMapped;
 	SimpleListFile2 fileUrnCache;
 	SimpleListFile2 dirUrnCache;
 	
-	public SLFHashCache( File cacheDir ) {
+	public SLFHashCache( File cacheDir, boolean memoryMapped ) {
 		this.fileUrnCacheFile = new File(cacheDir + "/file-urns.slf2");
 		this.dirUrnCacheFile = new File(cacheDir + "/dir-urns.slf2");
+		this.memoryMapped = memoryMapped;
 	}
 	
+	public SLFHashCache( File cacheDir ) {
+		this( cacheDir, false );
+	}
+	
+	// Chunks aren't recycled: keys include mtime and size, so entries
+	// are rarely overwritten, and recycling would send every miss
+	// through a locked read and every bulk put through single puts.
+	// Stale entries are cleaned up by slf-compact instead.
+	
 	protected synchronized SimpleListFile2 getFileUrnCache() {
 		if( fileUrnCache == null ) {
-			fileUrnCache = SimpleListFile2.mkSlf(fileUrnCacheFile);
+			fileUrnCache = SimpleListFile2.mkSlf(fileUrnCacheFile, memoryMapped);
 		}
 		return fileUrnCache;
 	}
 	
 	protected synchronized SimpleListFile2 getDirUrnCache() {
 		if( dirUrnCache == null ) {
-			dirUrnCache = SimpleListFile2.mkSlf(dirUrnCacheFile);
+			dirUrnCache = SimpleListFile2.mkSlf(dirUrnCacheFile, memoryMapped);
 		}
 		return dirUrnCache;
 	}
@@ -37,9 +49,43 @@ public class SLFHashCache implements HashCache
 		return f.isDirectory() ? getDirUrnCache() : getFileUrnCache(); 
 	}
 	
+	protected static String fileId( File f ) throws IOException {
+		return f.getCanonicalPath() + ";mtime=" + f.lastModified() + ";size=" + f.length();
+	}
+	
 	protected ByteChunk fileIdChunk( File f ) throws IOException {
-		String fileId = f.getCanonicalPath() + ";mtime=" + f.lastModified() + ";size=" + f.length();
-		return BlobUtil.byteChunk(fileId);
+		return BlobUtil.byteChunk(fileId(f));
+	}
+	
+	/**
+	 * Returns true if the file named by the given file ID
+	 * still exists and has the same mtime and size,
+	 * i.e. if a cache entry with that key could still be hit.
+	 */
+	public static boolean isCurrentFileId( String fileId ) {
+		int mtimeIdx = fileId.lastIndexOf(";mtime=");
+		if( mtimeIdx == -1 ) return false;
+		File f = new File(fileId.substring(0, mtimeIdx));
+		try {
+			return f.exists() && fileId.equals(fileId(f));
+		} catch( IOException e ) {
+			return false;
+		}
+	}
+	
+	/** For compacting away entries for files that have changed or disappeared */
+	public static final SimpleListFile2.PairFilter CURRENT_FILE_ID_FILTER = new SimpleListFile2.PairFilter() {
+		@Override public boolean keep( ByteChunk key, ByteChunk value ) {
+			return isCurrentFileId( BlobUtil.string(key) );
+		}
+	};
+	
+	protected void put( SimpleListFile2 c, ByteChunk fileIdChunk, ByteChunk urnChunk ) throws IOException {
+		c.put( fileIdChunk, urnChunk );
+	}
+	
+	protected ByteChunk get( SimpleListFile2 c, ByteChunk fileIdChunk ) throws IOException {
+		return c.get( fileIdChunk );
 	}
 	
 	@Override
@@ -47,15 +93,22 @@ public class SLFHashCache implements HashCache
 		SimpleListFile2 c = getUrnCache(f);
 		ByteChunk fileIdChunk = fileIdChunk(f);
 		ByteChunk urnChunk = BlobUtil.byteChunk(urn);
-		synchronized( c ) { c.put( fileIdChunk, urnChunk ); }
+		put( c, fileIdChunk, urnChunk );
 	}
 	
 	@Override
 	public String getFileUrn(File f) throws Exception {
 		SimpleListFile2 c = getUrnCache(f);
 		ByteChunk fileIdChunk = fileIdChunk(f);
-		ByteChunk urnChunk;
-		synchronized( c ) { urnChunk = c.get( fileIdChunk ); }
+		ByteChunk urnChunk = get( c, fileIdChunk );
 		return urnChunk != null ? BlobUtil.string( urnChunk ) : null;
 	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if( fileUrnCache != null ) fileUrnCache.close();
+		if( dirUrnCache != null ) dirUrnCache.close();
+		fileUrnCache = null;
+		dirUrnCache = null;
+	}
 }
@@ -0,0 +1,152 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import togos.ccouch3.repo.PackFileRepository;
+import togos.ccouch3.repo.SHA1FileRepositoryScrubber;
+import togos.ccouch3.repo.SHA1PresenceIndex;
+import togos.ccouch3.repo.ScrubRecord;
+import togos.ccouch3.util.ListUtil;
+import togos.ccouch3.util.ParseResult;
+import togos.ccouch3.util.RateLimiter;
+import togos.ccouch3.util.StringUtil;
+
+/**
+ * Re-hashes everything in the primary repository
+ * to find blobs that have been corrupted.
+ */
+public class ScrubCommand
+{
+	public static String USAGE =
+		"Usage: ccouch3 scrub [-repo <path>] [options]\n" +
+		"\n" +
+		"Re-hashes blobs in the primary repository's data directory and\n" +
+		"reports any whose contents don't match their names.  Bad blobs are\n" +
+		"moved to <repo>/quarantine/<sector>/ so that they won't be served.\n" +
+		"The time each good blob was checked is recorded in\n" +
+		"<repo>/cache/"+ScrubRecord.RECORD_FILENAME+" so that later scrubs can skip it.\n" +
+		"\n" +
+		"Options:\n" +
+		"  -hash-threads <n>    ; hash up to <n> blobs at once (default: 1)\n" +
+		"  -older-than <days>   ; skip blobs verified less than <days> days ago\n" +
+		"                       ; (default: 0, i.e. check everything)\n" +
+		"  -max-rate <bytes>    ; read at most <bytes> per second, e.g. 50M\n" +
+		"  -only-sector <name>  ; only scrub the named sector (may be repeated)\n" +
+		"  -no-quarantine       ; report bad blobs but leave them where they are\n" +
+		"  -v                   ; report each blob as it's verified\n" +
+		"\n" +
+		"Exits with status 1 if any bad blobs were found, 2 if there were read errors.";
+	
+	public static int main(CCouchContext ctx, List<String> args) throws InterruptedException {
+		int threadCount = 1;
+		double olderThanDays = 0;
+		long maxRate = 0;
+		List<String> sectors = null;
+		boolean quarantine = true;
+		boolean verbose = false;
+		
+		while( !args.isEmpty() ) {
+			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
+			if( ctxPr.remainingInput != args ) {
+				args = ctxPr.remainingInput;
+				ctx  = ctxPr.result;
+				continue;
+			}
+			
+			String arg = ListUtil.car(args);
+			args = ListUtil.cdr(args);
+			try {
+				if( CCouch3Command.isHelpArgument(arg) ) {
+					System.out.println(USAGE);
+					return 0;
+				} else if( "-hash-threads".equals(arg) && !args.isEmpty() ) {
+					threadCount = Integer.parseInt(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( "-older-than".equals(arg) && !args.isEmpty() ) {
+					olderThanDays = Double.parseDouble(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( "-max-rate".equals(arg) && !args.isEmpty() ) {
+					maxRate = StringUtil.parseByteCount(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( "-only-sector".equals(arg) && !args.isEmpty() ) {
+					if( sectors == null ) sectors = new ArrayList<String>();
+					sectors.add(ListUtil.car(args));
+					args = ListUtil.cdr(args);
+				} else if( "-no-quarantine".equals(arg) ) {
+					quarantine = false;
+				} else if( "-v".equals(arg) ) {
+					verbose = true;
+				} else {
+					System.err.println("Error: Unrecognized argument: '"+arg+"'");
+					System.err.println(USAGE);
+					return 1;
+				}
+			} catch( NumberFormatException e ) {
+				System.err.println("Error: Invalid "+arg+" argument: '"+ListUtil.car(args)+"'");
+				return 1;
+			}
+		}
+		if( threadCount < 1 ) {
+			System.err.println("Error: -hash-threads must be at least 1");
+			return 1;
+		}
+		
+		ctx = ctx.fixed();
+		
+		File repoDir = ctx.getPrimaryRepoDir(null);
+		if( repoDir == null ) {
+			System.err.println("Error: No primary repository configured");
+			System.err.println(USAGE);
+			return 1;
+		}
+		File dataDir = new File(repoDir, "data");
+		if( PackFileRepository.isPacked(dataDir) ) {
+			System.err.println("Error: "+repoDir+" has packs, which scrub can't check yet");
+			return 1;
+		}
+		File indexFile = SHA1PresenceIndex.getIndexFile(dataDir);
+		SHA1PresenceIndex presenceIndex = indexFile.exists() ? SHA1PresenceIndex.forFile(indexFile) : null;
+		ScrubRecord record = new ScrubRecord(ScrubRecord.getRecordFile(dataDir));
+		
+		SHA1FileRepositoryScrubber scrubber = new SHA1FileRepositoryScrubber(
+			dataDir, quarantine ? new File(repoDir, "quarantine") : null, record, presenceIndex );
+		scrubber.threadCount = threadCount;
+		scrubber.minRecheckInterval = (long)(olderThanDays * 24 * 3600 * 1000);
+		if( maxRate > 0 ) scrubber.rateLimiter = new RateLimiter(maxRate);
+		final boolean reportVerified = verbose;
+		scrubber.listener = new SHA1FileRepositoryScrubber.Listener() {
+			@Override public void blobVerified( File f, long size ) {
+				if( reportVerified ) System.out.println("OK\t"+f);
+			}
+			@Override public void blobCorrupted( File f, String actualSha1Base32, File quarantinedAs ) {
+				System.out.println("BAD\t"+f+"\tactual SHA-1: "+actualSha1Base32+
+					(quarantinedAs == null ? "" : "\tmoved to "+quarantinedAs));
+			}
+			@Override public void error( File f, String message ) {
+				System.err.println("Error scrubbing "+f+": "+message);
+			}
+		};
+		
+		try {
+			scrubber.run( sectors == null ? null : sectors.toArray(new String[sectors.size()]) );
+		} finally {
+			try {
+				record.close();
+				if( presenceIndex != null ) presenceIndex.close();
+			} catch( IOException e ) {
+				System.err.println("Warning: Failed to close "+record+" or "+presenceIndex+": "+e.getMessage());
+			}
+		}
+		
+		System.err.println(
+			"Verified "+scrubber.getVerifiedCount()+" blobs ("+scrubber.getVerifiedByteCount()+" bytes), "+
+			"skipped "+scrubber.getSkippedCount()+" recently verified, "+
+			scrubber.getCorruptedCount()+" bad, "+scrubber.getErrorCount()+" errors");
+		if( scrubber.getCorruptedCount() > 0 ) return 1;
+		if( scrubber.getErrorCount() > 0 ) return 2;
+		return 0;
+	}
+}
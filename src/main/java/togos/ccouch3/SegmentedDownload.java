@@ -0,0 +1,242 @@
+package togos.ccouch3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bitpedia.util.TigerTree;
+
+import togos.ccouch3.Downloader.RepositorySet;
+import togos.ccouch3.Downloader.RepositorySet.RemoteRepository;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.hash.THEXTree;
+import togos.ccouch3.repo.UnsupportedSchemeException;
+
+/**
+ * Downloads a blob identified by a bitprint URN in segments,
+ * from several remote repositories at once, checking each segment
+ * against the blob's THEX tree as it arrives so that a bad mirror
+ * can be dropped without having to throw the whole download away.
+ *
+ * Only works with repositories that serve THEX trees
+ * at /uri-res/N2X?<urn> and support range requests for N2R
+ * (as 'ccouch3 web-server' does), and whose URLs end with
+ * "/uri-res/N2R?" (which RepoURLDefuzzer makes most of them do).
+ *
+ * When made from a Downloader's RepositorySet, each segment request
+ * takes one of the set's connections to its repository for as long
+ * as it runs, so -connections-per-remote is respected along with
+ * whatever else the download threads are fetching.
+ */
+public class SegmentedDownload
+{
+	static final String N2R_SUFFIX = "/uri-res/N2R?";
+	static final String N2X_SUFFIX = "/uri-res/N2X?";
+	/** Much bigger than any tree with a default segment size */
+	static final int MAX_TREE_SIZE = 16*1024*1024;
+	/**
+	 * Trees with bigger segments are ignored; a bad mirror can waste
+	 * a whole segment's worth of transfer before it's caught.
+	 */
+	static final int MAX_SEGMENT_SIZE = 64*1024*1024;
+	
+	public final String urn;
+	protected final byte[] bitprint;
+	protected final List<String> repoUrls;
+	/** Connections to lock while fetching segments, or null to not limit them */
+	protected final RepositorySet connections;
+	public boolean reportErrors = true;
+	
+	public SegmentedDownload( String urn, List<String> repoUrls ) throws UnsupportedSchemeException {
+		this.urn = urn;
+		this.bitprint = BitprintDigest.urnToBytes(urn);
+		this.repoUrls = repoUrls;
+		this.connections = null;
+	}
+	
+	SegmentedDownload( String urn, RepositorySet connections ) throws UnsupportedSchemeException {
+		this.urn = urn;
+		this.bitprint = BitprintDigest.urnToBytes(urn);
+		this.repoUrls = connections.getUrls();
+		this.connections = connections;
+	}
+	
+	/** Returns the URL of the blob's tree, or null if the repository URL isn't of a form we can figure it out for */
+	public static String n2xUrl( String repoUrl, String urn ) {
+		if( !repoUrl.endsWith(N2R_SUFFIX) ) return null;
+		return repoUrl.substring(0, repoUrl.length() - N2R_SUFFIX.length()) + N2X_SUFFIX + urn;
+	}
+	
+	protected void reportError( String message ) {
+		if( reportErrors ) System.err.println(message);
+	}
+	
+	/**
+	 * Fetch the blob's tree from the first repository that has one
+	 * that matches its URN, or return null if none do.
+	 */
+	public THEXTree fetchTree() {
+		for( String repoUrl : repoUrls ) {
+			String treeUrl = n2xUrl(repoUrl, urn);
+			if( treeUrl == null ) continue;
+			try {
+				URLConnection urlC = new URL(treeUrl).openConnection();
+				InputStream is = urlC.getInputStream();
+				try {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					byte[] buf = new byte[65536];
+					int z;
+					while( (z = is.read(buf)) > 0 ) {
+						baos.write(buf, 0, z);
+						if( baos.size() > MAX_TREE_SIZE ) throw new IOException("THEX tree is too big");
+					}
+					THEXTree tree = THEXTree.parse(baos.toByteArray());
+					if( !tree.matchesBitprint(bitprint) ) {
+						reportError("THEX tree from "+treeUrl+" doesn't match "+urn);
+					} else if( tree.segmentSize > MAX_SEGMENT_SIZE ) {
+						reportError("THEX tree from "+treeUrl+" has "+tree.segmentSize+"-byte segments; ignoring it");
+					} else {
+						return tree;
+					}
+				} finally {
+					is.close();
+				}
+			} catch( IOException e ) {
+				// Including 404s, which just mean this repository doesn't
+				// have the blob or doesn't serve trees; try the next one.
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Fetch the segment and write it to its place in the file as it
+	 * arrives, hashing it along the way.  Throws an IOException if it
+	 * doesn't match the tree, in which case whatever was written needs
+	 * to be overwritten by fetching the segment again.
+	 */
+	protected void fetchSegment( String repoUrl, THEXTree tree, int segment, RandomAccessFile raf ) throws IOException {
+		long offset = tree.getSegmentOffset(segment);
+		int length = tree.getSegmentLength(segment);
+		URL url = new URL(repoUrl + urn);
+		URLConnection urlC = url.openConnection();
+		if( !(urlC instanceof HttpURLConnection) ) {
+			throw new IOException("Can't make range requests to "+url);
+		}
+		HttpURLConnection httpC = (HttpURLConnection)urlC;
+		httpC.setRequestProperty("Range", "bytes="+offset+"-"+(offset + length - 1));
+		TigerTree tt = new TigerTree();
+		InputStream is = httpC.getInputStream();
+		try {
+			if( httpC.getResponseCode() != 206 ) {
+				throw new IOException(url+" responded to range request with "+httpC.getResponseCode()+" instead of 206");
+			}
+			byte[] buf = new byte[Math.min(length, 65536)];
+			int z, r = 0;
+			while( r < length && (z = is.read(buf, 0, Math.min(buf.length, length - r))) > 0 ) {
+				tt.update(buf, 0, z);
+				synchronized( raf ) {
+					raf.seek(offset + r);
+					raf.write(buf, 0, z);
+				}
+				r += z;
+			}
+			if( r < length ) throw new IOException("Response ended after "+r+" of "+length+" bytes");
+		} finally {
+			is.close();
+		}
+		if( !Arrays.equals(tree.getSegmentHash(segment), tt.digest()) ) {
+			throw new IOException("Segment "+segment+" of "+urn+" from "+url+" doesn't match its THEX tree");
+		}
+	}
+	
+	class SegmentFetcher extends Thread {
+		protected final String repoUrl;
+		protected final THEXTree tree;
+		protected final LinkedList<Integer> remainingSegments;
+		protected final RandomAccessFile raf;
+		public boolean failed;
+		
+		public SegmentFetcher( String repoUrl, THEXTree tree, LinkedList<Integer> remainingSegments, RandomAccessFile raf ) {
+			super("Segment fetcher for "+repoUrl);
+			this.repoUrl = repoUrl;
+			this.tree = tree;
+			this.remainingSegments = remainingSegments;
+			this.raf = raf;
+		}
+		
+		@Override public void run() {
+			while( !interrupted() ) {
+				RemoteRepository connection;
+				try {
+					connection = connections == null ? null : connections.lockRepo(repoUrl);
+				} catch( InterruptedException e ) {
+					return;
+				}
+				Integer segment;
+				synchronized( remainingSegments ) {
+					segment = remainingSegments.isEmpty() ? null : remainingSegments.removeFirst();
+				}
+				try {
+					if( segment == null ) return;
+					fetchSegment(repoUrl, tree, segment.intValue(), raf);
+				} catch( IOException e ) {
+					// Let some other repository have it, and give up on this one
+					synchronized( remainingSegments ) {
+						remainingSegments.addFirst(segment);
+					}
+					reportError("Error fetching segment "+segment+" of "+urn+" from "+repoUrl+": "+e.getMessage());
+					failed = true;
+					return;
+				} finally {
+					if( connection != null ) connections.releaseRepo(connection);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Download all the blob's segments into the given file.
+	 * Each repository is read from by its own thread, and any repository
+	 * that fails to give a segment that matches the tree isn't used again.
+	 * Returns true if every segment was downloaded and verified,
+	 * which along with the tree having been checked against the URN
+	 * means the file now contains the blob.
+	 */
+	public boolean downloadTo( THEXTree tree, File f ) throws IOException, InterruptedException {
+		LinkedList<Integer> remainingSegments = new LinkedList<Integer>();
+		for( int i=0; i<tree.getSegmentCount(); ++i ) remainingSegments.add(Integer.valueOf(i));
+		
+		List<String> liveRepoUrls = new ArrayList<String>(repoUrls);
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.setLength(tree.dataSize);
+			// A fetcher can fail and put its segment back after all the
+			// others have run out of work and quit, so go around again
+			// with whichever repositories are left until nothing is.
+			while( !remainingSegments.isEmpty() && !liveRepoUrls.isEmpty() ) {
+				List<SegmentFetcher> fetchers = new ArrayList<SegmentFetcher>();
+				for( String repoUrl : liveRepoUrls ) fetchers.add(new SegmentFetcher(repoUrl, tree, remainingSegments, raf));
+				for( SegmentFetcher sf : fetchers ) sf.start();
+				try {
+					for( SegmentFetcher sf : fetchers ) sf.join();
+				} finally {
+					for( SegmentFetcher sf : fetchers ) sf.interrupt();
+				}
+				for( SegmentFetcher sf : fetchers ) if( sf.failed ) liveRepoUrls.remove(sf.repoUrl);
+			}
+		} finally {
+			raf.close();
+		}
+		return remainingSegments.isEmpty();
+	}
+}
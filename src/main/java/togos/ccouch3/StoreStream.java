@@ -6,7 +6,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import togos.blob.ByteBlob;
-import togos.ccouch3.repo.Repository;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.util.ListUtil;
 import togos.ccouch3.util.ParseResult;
 
@@ -15,6 +16,7 @@ public class StoreStream
 	public static int main(CCouchContext ctx, List<String> args) {
 		boolean noMoreOptions = false;
 		boolean verbose = false;
+		boolean outputBitprints = false;
 		ArrayList<String> inputPaths = new ArrayList<String>();
 		while( !args.isEmpty() ) {
 			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
@@ -30,6 +32,9 @@ public class StoreStream
 				inputPaths.add(arg);
 			} else if( "-v".equals(arg) ) {
 				verbose = true;
+			} else if( "-bitprint".equals(arg) ) {
+				// Calculated while storing, so no need to read the input again
+				outputBitprints = true;
 			} else if( "--".equals(arg) ) {
 				noMoreOptions = true;
 			} else {
@@ -44,7 +49,7 @@ public class StoreStream
 		}
 		
 		ctx = ctx.fixed();
-		Repository repo = ctx.getPrimaryRepository();
+		SHA1FileRepository repo = ctx.getPrimaryRepository();
 		
 		final BlobResolver argumentResolver = CCouch3Command.getCommandLineFileResolver(
 			ctx.getLocalRepositories(),
@@ -68,7 +73,12 @@ public class StoreStream
 				continue;
 			}
 			try {
-				String urn = repo.put(b.openInputStream());
+				String urn;
+				if( outputBitprints ) {
+					urn = BitprintDigest.formatUrn(repo.putAndDigest(b.openInputStream(), new BitprintDigest()).digest);
+				} else {
+					urn = repo.put(b.openInputStream());
+				}
 				System.out.println(urn);
 			} catch( Exception e ) {
 				System.err.println("Error while storing "+inputPath+": "+e.getMessage());
@@ -0,0 +1,132 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import togos.ccouch3.repo.PackFileRepository;
+import togos.ccouch3.repo.SHA1FileRepository;
+import togos.ccouch3.repo.SHA1FileRepositoryMirror;
+import togos.ccouch3.util.ListUtil;
+import togos.ccouch3.util.ParseResult;
+
+/**
+ * Copies blobs from one local repository to another.
+ */
+public class SyncRepoCommand
+{
+	public static String USAGE =
+		"Usage: ccouch3 sync-repo [options] [<source repo>] <destination repo>\n" +
+		"\n" +
+		"Copies every blob in the source repository's data directory\n" +
+		"(the primary repository, if only a destination is given) that the\n" +
+		"destination doesn't already have into the same sector of the destination.\n" +
+		"Blobs are hard-linked when both repositories are on the same filesystem,\n" +
+		"and otherwise copied without being re-hashed.\n" +
+		"Build the destination's presence index (ccouch3 -repo <dest> index-repo)\n" +
+		"to make checking what it already has cheap.\n" +
+		"\n" +
+		"Options:\n" +
+		"  -threads <n>         ; copy up to <n> blobs at once (default: 1)\n" +
+		"  -no-link             ; always copy, e.g. for a backup on the same disk\n" +
+		"  -only-sector <name>  ; only copy the named sector (may be repeated)\n" +
+		"  -v                   ; say more about what's going on";
+	
+	public static int main(CCouchContext ctx, List<String> args) throws InterruptedException {
+		int threadCount = 1;
+		boolean useHardLinks = true;
+		boolean verbose = false;
+		List<String> sectors = null;
+		List<String> repoPaths = new ArrayList<String>();
+		
+		while( !args.isEmpty() ) {
+			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
+			if( ctxPr.remainingInput != args ) {
+				args = ctxPr.remainingInput;
+				ctx  = ctxPr.result;
+				continue;
+			}
+			
+			String arg = ListUtil.car(args);
+			args = ListUtil.cdr(args);
+			if( CCouch3Command.isHelpArgument(arg) ) {
+				System.out.println(USAGE);
+				return 0;
+			} else if( "-threads".equals(arg) && !args.isEmpty() ) {
+				try {
+					threadCount = Integer.parseInt(ListUtil.car(args));
+				} catch( NumberFormatException e ) {
+					System.err.println("Error: Invalid -threads argument: '"+ListUtil.car(args)+"'");
+					return 1;
+				}
+				args = ListUtil.cdr(args);
+			} else if( "-only-sector".equals(arg) && !args.isEmpty() ) {
+				if( sectors == null ) sectors = new ArrayList<String>();
+				sectors.add(ListUtil.car(args));
+				args = ListUtil.cdr(args);
+			} else if( "-no-link".equals(arg) ) {
+				useHardLinks = false;
+			} else if( "-v".equals(arg) ) {
+				verbose = true;
+			} else if( !arg.startsWith("-") ) {
+				repoPaths.add(arg);
+			} else {
+				System.err.println("Error: Unrecognized argument: '"+arg+"'");
+				System.err.println(USAGE);
+				return 1;
+			}
+		}
+		if( threadCount < 1 ) {
+			System.err.println("Error: -threads must be at least 1");
+			return 1;
+		}
+		
+		ctx = ctx.fixed();
+		
+		File sourceRepoDir, destRepoDir;
+		if( repoPaths.size() == 2 ) {
+			sourceRepoDir = new File(repoPaths.get(0));
+			destRepoDir = new File(repoPaths.get(1));
+		} else if( repoPaths.size() == 1 && ctx.getPrimaryRepoDir(null) != null ) {
+			sourceRepoDir = ctx.getPrimaryRepoDir();
+			destRepoDir = new File(repoPaths.get(0));
+		} else {
+			System.err.println("Error: Need a source and destination repository");
+			System.err.println(USAGE);
+			return 1;
+		}
+		File sourceDataDir = new File(sourceRepoDir, "data");
+		if( !sourceDataDir.isDirectory() ) {
+			System.err.println("Error: "+sourceDataDir+" isn't a directory");
+			return 1;
+		}
+		if( PackFileRepository.isPacked(sourceDataDir) ) {
+			System.err.println("Error: "+sourceRepoDir+" has packs, which sync-repo can't copy yet");
+			return 1;
+		}
+		
+		// Sectors are given explicitly; store sector doesn't matter
+		SHA1FileRepository dest = SHA1FileRepository.open(new File(destRepoDir, "data"), null);
+		SHA1FileRepositoryMirror mirror = new SHA1FileRepositoryMirror(sourceDataDir, dest);
+		mirror.threadCount = threadCount;
+		mirror.useHardLinks = useHardLinks;
+		mirror.syncer = ctx.getSyncer();
+		mirror.verbose = verbose;
+		try {
+			mirror.run( sectors == null ? null : sectors.toArray(new String[sectors.size()]) );
+		} finally {
+			if( dest.getPresenceIndex() != null ) try {
+				dest.getPresenceIndex().close();
+			} catch( IOException e ) {
+				System.err.println("Warning: Failed to close "+dest.getPresenceIndex()+": "+e.getMessage());
+			}
+		}
+		
+		System.err.println(
+			"Linked "+mirror.getLinkedCount()+" blobs, copied "+mirror.getCopiedCount()+
+			" ("+mirror.getCopiedByteCount()+" bytes), skipped "+mirror.getSkippedCount()+
+			" already present, "+mirror.getErrorCount()+" errors");
+		return mirror.getErrorCount() > 0 ? 1 : 0;
+	}
+}
@@ -20,6 +20,7 @@ import togos.ccouch3.rdf.MultiMap;
 import togos.ccouch3.rdf.RDFIO;
 import togos.ccouch3.rdf.RDFNamespace;
 import togos.ccouch3.rdf.RDFNode;
+import togos.ccouch3.repo.PackFileRepository;
 import togos.ccouch3.repo.Repository;
 import togos.ccouch3.util.ListUtil;
 import togos.ccouch3.util.ParseResult;
@@ -316,7 +317,7 @@ public class TreeVerifier
 				return 1;
 			}
 		}
-		Repository repo = ctx.getPrimaryRepository();
+		Repository repo = PackFileRepository.open(ctx.getPrimaryRepository());
 		// We shouldn't be writing anything to it.
 		// If 'wat' sector shows up, something's gone wrong.
 		
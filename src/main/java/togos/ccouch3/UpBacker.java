@@ -2,6 +2,7 @@ package togos.ccouch3;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -13,7 +14,6 @@ import java.util.List;
 
 import togos.ccouch3.hash.BitprintDigest;
 import togos.ccouch3.hash.StreamURNifier;
-import togos.ccouch3.repo.Repository;
 import togos.ccouch3.repo.SHA1FileRepository;
 import togos.ccouch3.repo.StoreException;
 import togos.ccouch3.util.FileUtil;
@@ -41,6 +41,13 @@ public class UpBacker
 			"                 ; but no file contents\n" +
 			"  -omit-file-mtimes ; do not include file modification times in serialized\n"+
 			"                 ; directory data\n"+
+			"  -hash-first    ; hash each file before storing it rather than while\n"+
+			"                 ; copying it into the repository; this reads new files\n"+
+			"                 ; twice but avoids writing temporary copies of files\n"+
+			"                 ; that are already stored (files that the hash cache\n"+
+			"                 ; says are already stored are always hashed first)\n"+
+			"  -sync-delay <ms> ; fsync stored data before moving on, grouping\n"+
+			"                 ; fsyncs from up to <ms> milliseconds apart together\n"+
 			"  -?             ; show help and exit\n";
 		
 		enum Mode {
@@ -83,24 +90,36 @@ public class UpBacker
 		}
 	}
 	
-	public final Repository repo;
+	public final SHA1FileRepository repo;
 	public final File headDir;
 	
 	public boolean shouldStoreFileContents = true;
 	public boolean shouldStoreDirectoryListings = true;
 	public boolean shouldShowProgress;
 	public boolean shouldReportResults;
+	/**
+	 * If false (the default), file contents are hashed as they're
+	 * copied into the repository so that each file is only read once,
+	 * unless the hash cache says they're already stored.
+	 */
+	public boolean shouldHashBeforeStoring;
+	/**
+	 * Remembers files' URNs so that files that are already stored
+	 * can be hashed without being copied.  Shared with upload.
+	 */
+	public HashCache hashCache;
 	
-	protected final StreamURNifier digestor = BitprintDigest.STREAM_URNIFIER;
+	protected final StreamURNifier digestor = BitprintDigest.PIPELINED_STREAM_URNIFIER;
 	protected final NewStyleRDFDirectorySerializer directorySerializer;
 	protected final File incomingLogFile;
 	protected FileOutputStream incomingLogStream;
 	
 	public UpBacker( File repoDir, String sector, boolean includeFileMtimes ) {
-		this.repo = new SHA1FileRepository( new File(repoDir, "data"), sector );
+		this.repo = SHA1FileRepository.open( new File(repoDir, "data"), sector );
 		this.headDir = new File(repoDir, "heads");
 		this.incomingLogFile = new File(repoDir, "log/incoming.log");
 		this.directorySerializer = new NewStyleRDFDirectorySerializer(includeFileMtimes);
+		this.hashCache = new WriteBehindHashCache(FlowUploader.repoCacheDir(repoDir), false);
 	}
 	
 	class StoreResult {
@@ -234,6 +253,10 @@ public class UpBacker
 			return new StoreResult(errorCount, totalCount, storedCount, new FileInfo(f.getPath(), dirUrn, FSObjectType.DIRECTORY, f.length(), f.lastModified()));
 		}
 		
+		if( this.shouldStoreFileContents && !this.shouldHashBeforeStoring && !isKnownToBeStored(f) ) {
+			return storeFileInOnePass( f );
+		}
+		
 		String fileUrn = null;
 		try {
 			FileInputStream fis = new FileInputStream( f );
@@ -254,8 +277,9 @@ public class UpBacker
 		long size = f.length();
 		long mtime = f.lastModified();
 		int storedCount = 0;
+		cacheFileUrn( f, fileUrn );
 		
-		if( this.shouldStoreFileContents && !repo.contains(fileUrn) ) {
+		if( this.shouldStoreFileContents && !repo.touch(fileUrn) ) {
 			try {
 				FileInputStream fis = new FileInputStream( f );
 				repo.put(fileUrn, fis);
@@ -271,6 +295,61 @@ public class UpBacker
 		return new StoreResult(0, 1, storedCount, new FileInfo(f.getPath(), fileUrn, FSObjectType.BLOB, size, mtime));
 	}
 	
+	/**
+	 * Returns true if the hash cache knows the file's URN
+	 * and the repository already has that blob,
+	 * in which case the blob is touched as if it had been stored again.
+	 */
+	protected boolean isKnownToBeStored( File f ) {
+		if( hashCache == null ) return false;
+		try {
+			String urn = hashCache.getFileUrn( f );
+			return urn != null && repo.touch( urn );
+		} catch( Exception e ) {
+			return false;
+		}
+	}
+	
+	protected void cacheFileUrn( File f, String urn ) {
+		if( hashCache == null ) return;
+		try {
+			hashCache.cacheFileUrn( f, urn );
+		} catch( Exception e ) {
+			System.err.println("Warning: Failed to cache URN of "+f+": "+e.getMessage());
+		}
+	}
+	
+	/**
+	 * Copy the file into the repository, calculating its bitprint
+	 * on the way, so that it only needs to be read once.
+	 */
+	protected StoreResult storeFileInOnePass( File f ) {
+		long size = f.length();
+		long mtime = f.lastModified();
+		
+		SHA1FileRepository.DigestedPutResult pr;
+		try {
+			pr = repo.putAndDigest( new FileInputStream(f), new BitprintDigest() );
+		} catch( IOException e ) {
+			System.err.println("Error reading "+f+": "+e.getMessage());
+			return new StoreResult(1);
+		} catch( StoreException e ) {
+			System.err.println("Error storing "+f+": "+e.getMessage());
+			return new StoreResult(1);
+		}
+		
+		++objectsRead;
+		int storedCount = 0;
+		if( pr.newlyStored ) {
+			++storedCount;
+			++objectsStored;
+		}
+		
+		String fileUrn = BitprintDigest.formatUrn(pr.digest);
+		cacheFileUrn( f, fileUrn );
+		return new StoreResult(0, 1, storedCount, new FileInfo(f.getPath(), fileUrn, FSObjectType.BLOB, size, mtime));
+	}
+	
 	public int store( List<File> thingsToStore ) {
 		if( shouldShowProgress ) showProgressHeader();
 		
@@ -282,10 +361,20 @@ public class UpBacker
 		}
 		
 		int errorCount = 0;
-		for( File f : thingsToStore ) {
-			StoreResult r = store(f, FileUtil.DEFAULT_IGNORES);
-			errorCount += r.errorCount;
-			rootStored(f, r);
+		try {
+			for( File f : thingsToStore ) {
+				StoreResult r = store(f, FileUtil.DEFAULT_IGNORES);
+				errorCount += r.errorCount;
+				rootStored(f, r);
+			}
+		} finally {
+			if( hashCache instanceof Closeable ) {
+				try {
+					((Closeable)hashCache).close();
+				} catch( IOException e ) {
+					System.err.println("Warning: Failed to close hash cache: "+e.getMessage());
+				}
+			}
 		}
 		if( shouldShowProgress ) hideProgress();
 		return errorCount;
@@ -298,6 +387,7 @@ public class UpBacker
 		boolean includeFileMtimes = true;
 		boolean shouldStoreFileContents = true;
 		boolean shouldStoreDirectoryListings = true;
+		boolean shouldHashBeforeStoring = false;
 				
 		while( !args.isEmpty() ) {
 			ParseResult<List<String>,CCouchContext> ctxPr = ctx.handleCommandLineOption(args);
@@ -324,6 +414,8 @@ public class UpBacker
 				showProgress = true;
 			} else if( "-omit-file-mtimes".equals(arg) ) {
 				includeFileMtimes = false;
+			} else if( "-hash-first".equals(arg) ) {
+				shouldHashBeforeStoring = true;
 			} else if( "-show-report".equals(arg) || "-v".equals(arg) ) {
 				showReport = true;
 			} else if( CCouch3Command.isHelpArgument(arg) ) {
@@ -341,6 +433,8 @@ public class UpBacker
 		UpBacker upBacker = new UpBacker( ctx.primaryRepo.getDirectory(), storeSector, includeFileMtimes );
 		upBacker.shouldStoreFileContents = shouldStoreFileContents;
 		upBacker.shouldStoreDirectoryListings = shouldStoreDirectoryListings;
+		upBacker.shouldHashBeforeStoring = shouldHashBeforeStoring;
+		upBacker.repo.setSyncer(ctx.getSyncer());
 		upBacker.shouldReportResults = showReport;
 		upBacker.shouldShowProgress = showProgress;
 		
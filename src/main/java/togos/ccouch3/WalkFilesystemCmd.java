@@ -2,7 +2,6 @@ package togos.ccouch3;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -169,18 +168,7 @@ implements Action<WalkFilesystemCmd.FileInfoConsumer,Integer> // Object = FileIn
 			throw new IOException("Synthetic IOException when calculating bitprint");
 		}
 		
-		BitprintDigest digest = new BitprintDigest();
-		FileInputStream fis = new FileInputStream(f);
-		try {
-			int z;
-			byte[] buf = new byte[65536];
-			while( (z=fis.read(buf)) > 0 ) {
-				digest.update(buf, 0, z);
-			}
-			return BitprintDigest.formatUrn(digest.digest());
-		} finally {
-			fis.close();
-		}
+		return BitprintDigest.STREAM_URNIFIER.digest(f);
 	}
 	
 	// The 'W' is to differentiate from togos.ccouch3.FileInfo,
@@ -2,6 +2,8 @@ package togos.ccouch3;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
@@ -20,9 +22,13 @@ import java.util.regex.Pattern;
 import togos.blob.ByteBlob;
 import togos.blob.file.FileBlob;
 import togos.blob.util.BlobUtil;
+import togos.ccouch3.hash.THEXTree;
 import togos.ccouch3.repo.Repository;
+import togos.ccouch3.repo.StoreException;
+import togos.ccouch3.repo.THEXTreeStore;
 import togos.ccouch3.util.ListUtil;
 import togos.ccouch3.util.ParseResult;
+import togos.ccouch3.util.SubInputStream;
 import togos.ccouch3.xml.XML;
 import togos.tinywebserver.WebServer;
 import togos.tinywebserver.WebServer.HTTPRequest;
@@ -43,9 +49,43 @@ public class WebServerCommand
 		}
 	}
 	
+	/**
+	 * The byte range of a blob asked for by a request's range header.
+	 * Read using SubInputStream, since not all blobs can be sliced.
+	 */
+	static class RangeBlob implements ByteBlob {
+		protected final ByteBlob blob;
+		protected final long offset;
+		protected final long length;
+		
+		public RangeBlob( ByteBlob blob, long offset, long length ) {
+			this.blob = blob;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		@Override public long getSize() {
+			return length;
+		}
+		
+		@Override public InputStream openInputStream() throws IOException {
+			return new SubInputStream(blob.openInputStream(), offset, length);
+		}
+		
+		@Override public ByteBlob slice(long offset, long length) {
+			return new RangeBlob(blob, this.offset + offset, length);
+		}
+		
+		@Override public void writeTo(OutputStream os) throws IOException {
+			BlobUtil.pipe(this, os);
+		}
+	}
+	
 	static final int DEFAULT_PORT = 14567;
 	
 	public final List<Repository> repositories = new ArrayList<Repository>();
+	/** Where to keep THEX trees served by N2X; if null, they're recalculated for every request */
+	public THEXTreeStore thexTreeStore;
 	public final ArrayList<Mount> mounts = new ArrayList<Mount>();
 	public int port = DEFAULT_PORT;
 	Map<String,String> filenameExtensionMimeTypes = new HashMap<String,String>();
@@ -92,12 +132,109 @@ public class WebServerCommand
 	{
 		final Pattern rawPattern = Pattern.compile("^/uri-res/raw/([^/]+)(?:/([^/]+))?$"); 
 		final Pattern n2rPattern = Pattern.compile("^/uri-res/N2R\\?(.*)$");
+		final Pattern n2xPattern = Pattern.compile("^/uri-res/N2X\\?(.*)$");
+		final Pattern rangePattern = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+		
+		protected ByteBlob findBlob(String urn) {
+			for( Repository r : repositories ) {
+				try {
+					ByteBlob b = r.getBlob(urn);
+					if( b != null ) return b;
+				} catch( IOException e ) {
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Serve the THEX tree of a blob identified by a bitprint URN
+		 * (see THEXTree for the format), so that clients can verify
+		 * segments of it as they arrive.
+		 */
+		protected HTTPResponse handleN2X(String urn) {
+			if( !urn.startsWith("urn:bitprint:") ) return null;
+			ByteBlob b = findBlob(urn);
+			if( b == null ) return null;
+			
+			THEXTree tree;
+			try {
+				if( thexTreeStore != null ) {
+					tree = thexTreeStore.getOrCalculate(urn, b);
+				} else {
+					InputStream is = b.openInputStream();
+					try {
+						tree = THEXTree.calculate(is, b.getSize(), 0);
+					} finally {
+						is.close();
+					}
+				}
+			} catch( IOException e ) {
+				return mk500("Error calculating THEX tree of "+urn+": "+e.getMessage());
+			} catch( StoreException e ) {
+				return mk500("Error calculating THEX tree of "+urn+": "+e.getMessage());
+			}
+			return new HTTPResponse("HTTP/1.0", 200, "Okay",
+				WebServer.mkHeaders("content-type","application/octet-stream"),
+				BlobUtil.byteChunk(tree.toBytes())
+			);
+		}
+		
+		/**
+		 * If the request has a range header asking for a single range
+		 * of the blob, respond with just that range.
+		 * Returns null if there's no such header,
+		 * in which case the whole blob should be sent.
+		 */
+		protected HTTPResponse rangeResponse(HTTPRequest req, ByteBlob b, String contentType) {
+			String[] rangeHeaders = req.headers.get("range");
+			if( rangeHeaders == null || rangeHeaders.length != 1 ) return null;
+			Matcher m = rangePattern.matcher(rangeHeaders[0].trim());
+			long size = b.getSize();
+			// Multiple ranges and blobs of unknown size aren't supported;
+			// ignoring the header and sending the whole thing is allowed.
+			if( !m.matches() || size < 0 ) return null;
+			
+			long first, last;
+			try {
+				if( m.group(1).length() == 0 ) {
+					if( m.group(2).length() == 0 ) return null;
+					first = Math.max(0, size - Long.parseLong(m.group(2)));
+					last = size - 1;
+				} else {
+					first = Long.parseLong(m.group(1));
+					last = m.group(2).length() == 0 ? size - 1 : Math.min(size - 1, Long.parseLong(m.group(2)));
+				}
+			} catch( NumberFormatException e ) {
+				return null;
+			}
+			if( first >= size || last < first ) {
+				return new HTTPResponse("HTTP/1.0", 416, "Requested Range Not Satisfiable",
+					WebServer.mkHeaders("content-type","text/plain", "content-range","bytes */"+size),
+					BlobUtil.byteChunk(rangeHeaders[0]+" isn't within the "+size+" bytes of "+req.path)
+				);
+			}
+			
+			// Blobs that can slice themselves (e.g. encrypted ones,
+			// which can start decrypting partway through) do it better
+			ByteBlob range;
+			try {
+				range = b.slice(first, last - first + 1);
+			} catch( UnsupportedOperationException e ) {
+				range = new RangeBlob(b, first, last - first + 1);
+			}
+			return new HTTPResponse("HTTP/1.0", 206, "Partial Content",
+				WebServer.mkHeaders("content-type",contentType, "content-range","bytes "+first+"-"+last+"/"+size),
+				range
+			);
+		}
 		
 		protected HTTPResponse handleUriRes(HTTPRequest req) {
 			Matcher m;
 			String urn;
 			String filenameHint = null;
-			if( (m = rawPattern.matcher(req.path)).matches() ) {
+			if( (m = n2xPattern.matcher(req.path)).matches() ) {
+				return handleN2X(urlDecodeString(m.group(1)));
+			} else if( (m = rawPattern.matcher(req.path)).matches() ) {
 				urn = urlDecodeString(m.group(1));
 				filenameHint = m.group(2);
 			} else if( (m = n2rPattern.matcher(req.path)).matches() ) {
@@ -111,22 +248,15 @@ public class WebServerCommand
 			if (contentType == null) contentType = defaultMimeType;
 			if (contentType == null) contentType = "application/octet-stream"; // Our code below requires *something*
 			
-			for( Repository r : repositories ) {
-				ByteBlob b;
-				try {
-					b = r.getBlob(urn);
-				} catch( IOException e ) {
-					continue;
-				}
-				if( b != null ) {
-					return new HTTPResponse("HTTP/1.0", 200, "Okay",
-						WebServer.mkHeaders("content-type",contentType),
-						b
-					);
-				}
-			}
+			ByteBlob b = findBlob(urn);
+			if( b == null ) return null;
 			
-			return null;
+			HTTPResponse res = rangeResponse(req, b, contentType);
+			if( res != null ) return res;
+			return new HTTPResponse("HTTP/1.0", 200, "Okay",
+				WebServer.mkHeaders("content-type",contentType, "accept-ranges","bytes"),
+				b
+			);
 		}
 
 		protected HTTPResponse mk404(HTTPRequest req) {
@@ -136,6 +266,13 @@ public class WebServerCommand
 			);
 		}
 		
+		protected HTTPResponse mk500(String message) {
+			return new HTTPResponse("HTTP/1.0", 500, "Internal Server Error",
+				WebServer.mkHeaders("content-type","text/plain"),
+				BlobUtil.byteChunk(message)
+			);
+		}
+		
 		protected HTTPResponse fileResponse(File f) {
 			return new HTTPResponse("HTTP/1.0", 200, "Okay",
 				WebServer.mkHeaders("content-type", guessContentTypeFromFilename(f.getName()), "content-length", String.valueOf(f.length())),
@@ -254,6 +391,8 @@ public class WebServerCommand
 		"Options:\n"+
 		String.format("  -port %5d                     ; Indicate port to listen on\n", DEFAULT_PORT)+
 		"  -repo[:name] /path/to/repo      ; Add a repository to back N2R requests\n"+
+		"                                  ; (THEX trees for N2X requests are cached\n"+
+		"                                  ; in the primary one)\n"+
 		"  -file[:/webpath] /path/to/file  ; Serve a file or directory at /webpath\n"+
 		"  -union[:/webpath] /path/to/file ; Same, but allow falling through to the\n"+
 		"                                  ; next mount or union, and merging directory\n"+
@@ -300,6 +439,10 @@ public class WebServerCommand
 			}
 		}
 		wsc.repositories.addAll(Arrays.asList(ctx.getLocalRepositories()));
+		File primaryRepoDir = ctx.getPrimaryRepoDir(null);
+		if( primaryRepoDir != null ) {
+			wsc.thexTreeStore = new THEXTreeStore(THEXTreeStore.getDefaultDir(primaryRepoDir));
+		}
 		wsc.run();
 		return 1; // There's currently no way to exit on purpose lol
 	}
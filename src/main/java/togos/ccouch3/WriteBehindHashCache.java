@@ -0,0 +1,171 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import togos.blob.ByteChunk;
+import togos.ccouch3.slf.SimpleListFile2;
+
+/**
+ * SLFHashCache that holds on to new entries and writes them to the
+ * SLF files in batches (using smartPut), which is a lot cheaper than
+ * locking and extending the file once per entry.
+ *
+ * Pending entries are written once there are maxPendingEntries of them,
+ * when the oldest has been waiting maxDelay milliseconds,
+ * or when the cache is flushed or closed.  Lookups check the pending
+ * entries first.  Anything not yet written when the process
+ * dies is lost, which for a cache just means some re-hashing.
+ * For the same reason, entries put after the cache is closed are dropped.
+ */
+public class WriteBehindHashCache extends SLFHashCache implements Flushable
+{
+	public static final int DEFAULT_MAX_PENDING_ENTRIES = 1024;
+	public static final long DEFAULT_MAX_DELAY = 5000;
+	
+	static final class PendingEntry {
+		public final SimpleListFile2 cache;
+		public final ByteChunk urnChunk;
+		
+		public PendingEntry( SimpleListFile2 cache, ByteChunk urnChunk ) {
+			this.cache = cache;
+			this.urnChunk = urnChunk;
+		}
+	}
+	
+	protected final int maxPendingEntries;
+	protected final long maxDelay;
+	
+	protected LinkedHashMap<ByteChunk,PendingEntry> pending = new LinkedHashMap<ByteChunk,PendingEntry>();
+	/** Entries currently being written by flush() */
+	protected Map<ByteChunk,PendingEntry> flushing = Collections.emptyMap();
+	/** Held while writing so that flushes happen one at a time */
+	protected final Object flushLock = new Object();
+	protected Timer flushTimer;
+	/** The timed flush for the current pending entries, if one's scheduled */
+	protected TimerTask scheduledFlush;
+	protected boolean closed;
+	
+	public WriteBehindHashCache( File cacheDir, boolean memoryMapped, int maxPendingEntries, long maxDelay ) {
+		super( cacheDir, memoryMapped );
+		this.maxPendingEntries = maxPendingEntries;
+		this.maxDelay = maxDelay;
+	}
+	
+	public WriteBehindHashCache( File cacheDir, boolean memoryMapped ) {
+		this( cacheDir, memoryMapped, DEFAULT_MAX_PENDING_ENTRIES, DEFAULT_MAX_DELAY );
+	}
+	
+	/** Must be called while synchronized on this */
+	protected void scheduleFlush() {
+		if( scheduledFlush != null ) return;
+		if( flushTimer == null ) flushTimer = new Timer("Hash cache flusher", true);
+		scheduledFlush = new TimerTask() {
+			@Override public void run() {
+				synchronized( WriteBehindHashCache.this ) {
+					if( scheduledFlush == this ) scheduledFlush = null;
+				}
+				try {
+					flush();
+				} catch( Exception e ) {
+					System.err.println("Warning: Failed to write hash cache entries: "+e.getMessage());
+				}
+			}
+		};
+		flushTimer.schedule( scheduledFlush, maxDelay );
+	}
+	
+	@Override
+	protected void put( SimpleListFile2 c, ByteChunk fileIdChunk, ByteChunk urnChunk ) throws IOException {
+		boolean full;
+		synchronized( this ) {
+			if( closed ) return;
+			pending.put( fileIdChunk, new PendingEntry(c, urnChunk) );
+			full = pending.size() >= maxPendingEntries;
+			if( !full ) scheduleFlush();
+		}
+		if( full ) flush();
+	}
+	
+	protected static ByteChunk pendingUrn( Map<ByteChunk,PendingEntry> entries, SimpleListFile2 c, ByteChunk fileIdChunk ) {
+		PendingEntry e = entries.get( fileIdChunk );
+		// A directory and a file that used to be at the same path
+		// have the same ID, but go in different caches
+		return e != null && e.cache == c ? e.urnChunk : null;
+	}
+	
+	@Override
+	protected ByteChunk get( SimpleListFile2 c, ByteChunk fileIdChunk ) throws IOException {
+		ByteChunk urnChunk;
+		synchronized( this ) {
+			urnChunk = pendingUrn( pending, c, fileIdChunk );
+			if( urnChunk == null ) urnChunk = pendingUrn( flushing, c, fileIdChunk );
+		}
+		return urnChunk != null ? urnChunk : c.get( fileIdChunk );
+	}
+	
+	/** Write a batch of entries, grouped by the file they go in */
+	protected void write( Map<ByteChunk,PendingEntry> entries ) {
+		LinkedHashSet<SimpleListFile2> caches = new LinkedHashSet<SimpleListFile2>();
+		for( PendingEntry e : entries.values() ) caches.add( e.cache );
+		
+		ByteChunk[] keys = new ByteChunk[entries.size()];
+		ByteChunk[] values = new ByteChunk[entries.size()];
+		for( SimpleListFile2 c : caches ) {
+			int count = 0;
+			for( Map.Entry<ByteChunk,PendingEntry> e : entries.entrySet() ) {
+				if( e.getValue().cache != c ) continue;
+				keys[count] = e.getKey();
+				values[count] = e.getValue().urnChunk;
+				++count;
+			}
+			c.smartPut( keys, values, 0, count );
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		synchronized( flushLock ) {
+			Map<ByteChunk,PendingEntry> toWrite;
+			synchronized( this ) {
+				if( pending.isEmpty() ) return;
+				toWrite = flushing = pending;
+				pending = new LinkedHashMap<ByteChunk,PendingEntry>();
+				// The timed flush was for the entries being written now
+				if( scheduledFlush != null ) scheduledFlush.cancel();
+				scheduledFlush = null;
+			}
+			try {
+				write( toWrite );
+			} finally {
+				synchronized( this ) {
+					flushing = Collections.emptyMap();
+				}
+			}
+		}
+	}
+	
+	/** Number of entries not yet handed off to the SLF files */
+	public synchronized int getPendingEntryCount() {
+		return pending.size() + flushing.size();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		synchronized( this ) {
+			closed = true;
+			if( flushTimer != null ) flushTimer.cancel();
+			flushTimer = null;
+			scheduledFlush = null;
+		}
+		flush();
+		super.close();
+	}
+}
@@ -1,5 +1,6 @@
 package togos.ccouch3.hash;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.regex.Matcher;
@@ -26,8 +27,21 @@ public class BitprintDigest extends MessageDigest
 		}
 	};
 	
-	public static final StreamURNifier STREAM_URNIFIER =
-			new MessageDigestStreamURNifier(FACTORY, FORMATTER);
+	/**
+	 * Digests big files by memory-mapping them when given
+	 * FileInputStreams; see FileChannelStreamURNifier.
+	 */
+	public static final FileChannelStreamURNifier STREAM_URNIFIER =
+			new FileChannelStreamURNifier(FACTORY, FORMATTER);
+	
+	/**
+	 * Gives the same results as STREAM_URNIFIER, but if there's more
+	 * than one processor, hashes big streams using an extra thread;
+	 * see PipelinedBitprintStreamURNifier.
+	 */
+	public static final StreamURNifier PIPELINED_STREAM_URNIFIER =
+			Runtime.getRuntime().availableProcessors() > 1 ?
+				new PipelinedBitprintStreamURNifier() : STREAM_URNIFIER;
 		
 	
 	public static String format( byte[] hash ) {
@@ -88,4 +102,25 @@ public class BitprintDigest extends MessageDigest
 		sha1.update(input, offset, len);
 		tt.update(input, offset, len);
 	}
+	
+	byte[] copyBuffer;
+	
+	/**
+	 * Data in direct or mapped buffers has to be copied into an array
+	 * for SHA-1 and TigerTree to see it.  MessageDigest would do that
+	 * 4 KiB at a time; bigger pieces mean fewer calls into each digest.
+	 */
+	protected void engineUpdate( ByteBuffer input ) {
+		if( input.hasArray() ) {
+			engineUpdate( input.array(), input.arrayOffset() + input.position(), input.remaining() );
+			input.position( input.limit() );
+			return;
+		}
+		if( copyBuffer == null ) copyBuffer = new byte[65536];
+		while( input.hasRemaining() ) {
+			int len = Math.min( input.remaining(), copyBuffer.length );
+			input.get( copyBuffer, 0, len );
+			engineUpdate( copyBuffer, 0, len );
+		}
+	}
 }
@@ -0,0 +1,229 @@
+package togos.ccouch3.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.bitpedia.util.Base32;
+import org.bitpedia.util.TigerTree;
+
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Calculates bitprint URNs of files, every so often saving the state
+ * of the calculation to a checkpoint file, so that if the process is
+ * killed partway through a big file, hashing it again can pick up
+ * from the last checkpoint instead of starting over.
+ *
+ * Checkpoints are kept in checkpointDir, one per file being hashed,
+ * named after a hash of the file's canonical path, and are deleted
+ * once the file's been fully hashed.  A checkpoint is only used if the
+ * file's size and modification time haven't changed since it was made.
+ *
+ * Checkpoints can only be made between 1024-byte blocks,
+ * where SHA-1 and TigerTree both have no partial block buffered,
+ * and are made up of:
+ *   the checkpoint format version (writeUTF)
+ *   the file ID (path, modification time, and size; writeUTF)
+ *   number of bytes hashed (8 bytes)
+ *   SHA-1 intermediate hash (5 4-byte ints)
+ *   TigerTree interim nodes (24 bytes for each 1 bit in the block count)
+ *
+ * The resumable SHA-1 implementation is slower than the JDK's
+ * (which on most CPUs uses special instructions), so when there's more
+ * than one processor each chunk is SHA-1 hashed on another thread
+ * while the calling thread does the TigerTree half,
+ * and files smaller than the checkpoint interval, which would never
+ * get a checkpoint anyway, are passed to the fallback URNifier.
+ */
+public class CheckpointingBitprintDigester
+{
+	public static final long DEFAULT_CHECKPOINT_INTERVAL = 1024L*1024*1024;
+	static final String CHECKPOINT_FORMAT = "ccouch3-bitprint-checkpoint-v1";
+	static final int BLOCK_SIZE = 1024;
+	static final int READ_SIZE = 1024*1024;
+	
+	static class Checkpoint {
+		public final String fileId;
+		public final long position;
+		public final int[] sha1State;
+		public final byte[] tigerTreeNodes;
+		
+		public Checkpoint( String fileId, long position, int[] sha1State, byte[] tigerTreeNodes ) {
+			this.fileId = fileId;
+			this.position = position;
+			this.sha1State = sha1State;
+			this.tigerTreeNodes = tigerTreeNodes;
+		}
+		
+		public byte[] toBytes() throws IOException {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(baos);
+			dos.writeUTF(CHECKPOINT_FORMAT);
+			dos.writeUTF(fileId);
+			dos.writeLong(position);
+			for( int h : sha1State ) dos.writeInt(h);
+			dos.write(tigerTreeNodes);
+			dos.close();
+			return baos.toByteArray();
+		}
+		
+		public static Checkpoint parse( byte[] data ) throws IOException {
+			DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+			String format = dis.readUTF();
+			if( !CHECKPOINT_FORMAT.equals(format) ) throw new IOException("Unrecognized checkpoint format: "+format);
+			String fileId = dis.readUTF();
+			long position = dis.readLong();
+			if( position < 0 || position % BLOCK_SIZE != 0 ) throw new IOException("Invalid checkpoint position: "+position);
+			int[] sha1State = new int[5];
+			for( int i=0; i<sha1State.length; ++i ) sha1State[i] = dis.readInt();
+			byte[] tigerTreeNodes = new byte[Long.bitCount(position / BLOCK_SIZE) * 24];
+			dis.readFully(tigerTreeNodes);
+			if( dis.read() != -1 ) throw new IOException("Extra data at end of checkpoint");
+			return new Checkpoint(fileId, position, sha1State, tigerTreeNodes);
+		}
+	}
+	
+	public final File checkpointDir;
+	public final long checkpointInterval;
+	protected final StreamURNifier fallback;
+	protected final boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+	
+	public CheckpointingBitprintDigester( File checkpointDir, long checkpointInterval, StreamURNifier fallback ) {
+		if( checkpointInterval <= 0 || checkpointInterval % BLOCK_SIZE != 0 ) {
+			throw new IllegalArgumentException("Checkpoint interval must be a positive multiple of "+BLOCK_SIZE+"; got "+checkpointInterval);
+		}
+		this.checkpointDir = checkpointDir;
+		this.checkpointInterval = checkpointInterval;
+		this.fallback = fallback;
+	}
+	
+	public CheckpointingBitprintDigester( File checkpointDir ) {
+		this( checkpointDir, DEFAULT_CHECKPOINT_INTERVAL, BitprintDigest.STREAM_URNIFIER );
+	}
+	
+	protected static String fileId( File f ) throws IOException {
+		return f.getCanonicalPath() + ";mtime=" + f.lastModified() + ";size=" + f.length();
+	}
+	
+	protected File getCheckpointFile( File f ) throws IOException {
+		MessageDigest sha1;
+		try {
+			sha1 = MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new RuntimeException("Apparently SHA-1 isn't available", e);
+		}
+		return new File(checkpointDir, Base32.encode(sha1.digest(f.getCanonicalPath().getBytes("UTF-8"))));
+	}
+	
+	/**
+	 * Returns the checkpoint for the file as it is now,
+	 * or null if there isn't one or it's unusable.
+	 */
+	protected Checkpoint loadCheckpoint( File checkpointFile, String fileId ) {
+		if( !checkpointFile.exists() ) return null;
+		try {
+			FileInputStream fis = new FileInputStream(checkpointFile);
+			byte[] data;
+			try {
+				data = new byte[(int)Math.min(checkpointFile.length(), 65536)];
+				new DataInputStream(fis).readFully(data);
+			} finally {
+				fis.close();
+			}
+			Checkpoint cp = Checkpoint.parse(data);
+			return fileId.equals(cp.fileId) ? cp : null;
+		} catch( IOException e ) {
+			// Corrupt or half-written; start over.
+			return null;
+		}
+	}
+	
+	protected void saveCheckpoint( File checkpointFile, Checkpoint cp ) throws IOException {
+		FileUtil.writeAtomic(checkpointFile, cp.toBytes());
+	}
+	
+	protected static int readFully( FileChannel chan, byte[] buf ) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buf);
+		while( bb.hasRemaining() && chan.read(bb) > 0 );
+		return bb.position();
+	}
+	
+	public String digest( File f ) throws IOException {
+		if( f.length() < checkpointInterval ) {
+			FileInputStream fis = new FileInputStream(f);
+			try {
+				return fallback.digest(fis);
+			} finally {
+				fis.close();
+			}
+		}
+		
+		String fileId = fileId(f);
+		File checkpointFile = getCheckpointFile(f);
+		final ResumableSHA1 sha1 = new ResumableSHA1();
+		TigerTree tt = new TigerTree();
+		long position = 0;
+		Checkpoint cp = loadCheckpoint(checkpointFile, fileId);
+		if( cp != null ) {
+			position = cp.position;
+			sha1.setState(position, cp.sha1State);
+			tt.restoreState(position / BLOCK_SIZE, cp.tigerTreeNodes);
+		}
+		
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel chan = fis.getChannel();
+			chan.position(position);
+			final byte[] buf = new byte[(int)Math.min(READ_SIZE, checkpointInterval)];
+			long lastCheckpointPosition = position;
+			int z;
+			while( (z = readFully(chan, buf)) > 0 ) {
+				if( parallel ) {
+					final int length = z;
+					Future<?> sha1Done = PipelinedBitprintStreamURNifier.HASHING_EXECUTOR.submit(new Runnable() {
+						@Override public void run() {
+							sha1.update(buf, 0, length);
+						}
+					});
+					tt.update(buf, 0, z);
+					try {
+						sha1Done.get();
+					} catch( InterruptedException e ) {
+						sha1Done.cancel(true);
+						throw PipelinedBitprintStreamURNifier.interrupted(e);
+					} catch( ExecutionException e ) {
+						throw new RuntimeException("Error while hashing", e.getCause());
+					}
+				} else {
+					sha1.update(buf, 0, z);
+					tt.update(buf, 0, z);
+				}
+				position += z;
+				if( z < buf.length ) break;
+				if( position - lastCheckpointPosition >= checkpointInterval ) {
+					// The buffer's a multiple of 1024 bytes, so after a full read
+					// neither digest has a partial block buffered.
+					saveCheckpoint(checkpointFile, new Checkpoint(fileId, position, sha1.getState(), tt.getNodes()));
+					lastCheckpointPosition = position;
+				}
+			}
+		} finally {
+			fis.close();
+		}
+		
+		String urn = BitprintDigest.formatUrn(BitprintDigest.joinHashes(sha1.digest(), tt.digest()));
+		if( checkpointFile.exists() ) checkpointFile.delete();
+		return urn;
+	}
+}
@@ -0,0 +1,99 @@
+package togos.ccouch3.hash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+/**
+ * StreamURNifier that, when given a FileInputStream for a big enough
+ * file, digests the rest of the file straight out of the OS's page
+ * cache by memory-mapping it a window at a time, rather than having
+ * it copied into a buffer by read() calls.  Anything else is passed
+ * to the fallback URNifier.
+ *
+ * Mappings hang around until they're garbage collected,
+ * and on Windows a mapped file can't be deleted until then,
+ * so on Windows this always uses the fallback.
+ */
+public class FileChannelStreamURNifier implements StreamURNifier
+{
+	public static final long DEFAULT_MIN_MAPPED_SIZE = 1024*1024;
+	static final long MAP_WINDOW_SIZE = 64*1024*1024;
+	static final boolean MAPPING_AVAILABLE = File.separatorChar != '\\';
+	
+	final MessageDigestFactory messageDigestFactory;
+	final HashFormatter hform;
+	final StreamURNifier fallback;
+	final long minMappedSize;
+	
+	/**
+	 * @param minMappedSize files with fewer than this many bytes left
+	 *   to read are given to the fallback, since setting up a mapping
+	 *   costs more than reading a small file
+	 */
+	public FileChannelStreamURNifier( MessageDigestFactory fac, HashFormatter form, StreamURNifier fallback, long minMappedSize ) {
+		this.messageDigestFactory = fac;
+		this.hform = form;
+		this.fallback = fallback;
+		this.minMappedSize = minMappedSize;
+	}
+	
+	public FileChannelStreamURNifier( MessageDigestFactory fac, HashFormatter form ) {
+		this( fac, form, new MessageDigestStreamURNifier(fac, form), DEFAULT_MIN_MAPPED_SIZE );
+	}
+	
+	/**
+	 * Digest from the channel's current position to its end.
+	 * The size is checked once at the beginning; if the file grows
+	 * in the meantime the rest is read normally, so the result
+	 * is the same as reading the stream would give.
+	 */
+	protected String digest( FileChannel chan, long pos, long size ) throws IOException {
+		MessageDigest d = messageDigestFactory.createMessageDigest();
+		try {
+			while( pos < size ) {
+				long len = Math.min(MAP_WINDOW_SIZE, size - pos);
+				MappedByteBuffer buf = chan.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				d.update(buf);
+				pos += len;
+			}
+		} catch( InternalError e ) {
+			// Which is what you get when the file's truncated out from under a mapping
+			throw new IOException("Error reading mapped file; was it truncated while being hashed?", e);
+		}
+		
+		chan.position(pos);
+		ByteBuffer buf = ByteBuffer.allocate(65536);
+		while( chan.read(buf) > 0 ) {
+			buf.flip();
+			d.update(buf);
+			buf.clear();
+		}
+		
+		return hform.format( d.digest() );
+	}
+	
+	@Override public String digest( InputStream is ) throws IOException {
+		if( MAPPING_AVAILABLE && is instanceof FileInputStream ) {
+			FileChannel chan = ((FileInputStream)is).getChannel();
+			long pos = chan.position();
+			long size = chan.size();
+			if( size - pos >= minMappedSize ) return digest( chan, pos, size );
+		}
+		return fallback.digest(is);
+	}
+	
+	public String digest( File f ) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			return digest(fis);
+		} finally {
+			fis.close();
+		}
+	}
+}
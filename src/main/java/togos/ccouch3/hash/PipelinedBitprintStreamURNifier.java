@@ -0,0 +1,190 @@
+package togos.ccouch3.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bitpedia.util.TigerTree;
+
+/**
+ * Calculates bitprint URNs like BitprintDigest.STREAM_URNIFIER,
+ * but with the SHA-1 and TigerTree halves of the bitprint
+ * calculated on separate threads, so that hashing a single big
+ * stream can keep two cores busy.
+ *
+ * The calling thread reads the stream into a small ring of buffers,
+ * each of which is handed to both hashing threads and re-used once
+ * they've both finished with it.  Streams that fit in the first
+ * buffer are hashed on the calling thread, since for them handing
+ * data between threads would cost more than it saves.
+ *
+ * Hashing threads come from a shared pool, so any number of streams
+ * can be digested at once; when files are already being hashed
+ * in parallel (see FlowUploader's hashing threads) this doesn't help.
+ */
+public class PipelinedBitprintStreamURNifier implements StreamURNifier
+{
+	static class Chunk {
+		public final byte[] data;
+		public int length;
+		public final AtomicInteger pendingReaders = new AtomicInteger();
+		
+		public Chunk( int size ) {
+			this.data = new byte[size];
+		}
+	}
+	
+	static final Chunk END = new Chunk(0);
+	
+	static final ExecutorService HASHING_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+		int count = 0;
+		@Override public synchronized Thread newThread( Runnable r ) {
+			Thread t = new Thread( r, "Bitprint hasher "+(++count) );
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/**
+	 * Feeds chunks from its queue to a digest, returning
+	 * each one to the free queue when the last reader's done with it.
+	 * If the digest throws, keeps taking and returning chunks
+	 * so that the reading thread doesn't get stuck.
+	 */
+	static class Hasher implements Runnable {
+		protected final MessageDigest digest;
+		protected final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+		protected final BlockingQueue<Chunk> freeQueue;
+		protected final CountDownLatch doneLatch;
+		protected volatile Throwable error;
+		protected byte[] result;
+		
+		public Hasher( MessageDigest digest, BlockingQueue<Chunk> freeQueue, CountDownLatch doneLatch ) {
+			this.digest = digest;
+			this.freeQueue = freeQueue;
+			this.doneLatch = doneLatch;
+		}
+		
+		@Override public void run() {
+			try {
+				Chunk c;
+				while( (c = queue.take()) != END ) {
+					try {
+						if( error == null ) digest.update( c.data, 0, c.length );
+					} catch( Throwable e ) {
+						error = e;
+					} finally {
+						if( c.pendingReaders.decrementAndGet() == 0 ) freeQueue.add(c);
+					}
+				}
+				if( error == null ) result = digest.digest();
+			} catch( InterruptedException e ) {
+				error = e;
+			} finally {
+				doneLatch.countDown();
+			}
+		}
+	}
+	
+	protected final int bufferSize;
+	protected final int bufferCount;
+	
+	public PipelinedBitprintStreamURNifier( int bufferSize, int bufferCount ) {
+		if( bufferCount < 2 ) throw new IllegalArgumentException("Need at least 2 buffers; "+bufferCount+" given");
+		this.bufferSize = bufferSize;
+		this.bufferCount = bufferCount;
+	}
+	
+	public PipelinedBitprintStreamURNifier() {
+		this( 65536, 8 );
+	}
+	
+	protected static int readFully( InputStream is, byte[] buf ) throws IOException {
+		int z, read = 0;
+		while( read < buf.length && (z = is.read(buf, read, buf.length - read)) > 0 ) read += z;
+		return read;
+	}
+	
+	protected static IOException interrupted( InterruptedException e ) {
+		Thread.currentThread().interrupt();
+		InterruptedIOException ioe = new InterruptedIOException("Interrupted while hashing");
+		ioe.initCause(e);
+		return ioe;
+	}
+	
+	@Override public String digest( InputStream is ) throws IOException {
+		Chunk chunk = new Chunk(bufferSize);
+		chunk.length = readFully(is, chunk.data);
+		if( chunk.length < bufferSize ) {
+			BitprintDigest digest = new BitprintDigest();
+			digest.update(chunk.data, 0, chunk.length);
+			return BitprintDigest.formatUrn(digest.digest());
+		}
+		
+		MessageDigest sha1;
+		try {
+			sha1 = MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new RuntimeException("Apparently SHA-1 isn't available", e);
+		}
+		BlockingQueue<Chunk> freeQueue = new ArrayBlockingQueue<Chunk>(bufferCount);
+		CountDownLatch doneLatch = new CountDownLatch(2);
+		Hasher sha1Hasher = new Hasher(sha1, freeQueue, doneLatch);
+		Hasher tigerTreeHasher = new Hasher(new TigerTree(), freeQueue, doneLatch);
+		HASHING_EXECUTOR.execute(sha1Hasher);
+		HASHING_EXECUTOR.execute(tigerTreeHasher);
+		
+		int allocatedCount = 1;
+		IOException readError = null;
+		InterruptedException interruption = null;
+		try {
+			while( chunk.length > 0 ) {
+				chunk.pendingReaders.set(2);
+				sha1Hasher.queue.add(chunk);
+				tigerTreeHasher.queue.add(chunk);
+				if( chunk.length < bufferSize ) break;
+				
+				chunk = freeQueue.poll();
+				if( chunk == null ) {
+					if( allocatedCount < bufferCount ) {
+						chunk = new Chunk(bufferSize);
+						++allocatedCount;
+					} else {
+						chunk = freeQueue.take();
+					}
+				}
+				chunk.length = readFully(is, chunk.data);
+			}
+		} catch( IOException e ) {
+			readError = e;
+		} catch( InterruptedException e ) {
+			interruption = e;
+		}
+		
+		sha1Hasher.queue.add(END);
+		tigerTreeHasher.queue.add(END);
+		try {
+			doneLatch.await();
+		} catch( InterruptedException e ) {
+			// The hashers will finish on their own
+			throw interrupted(e);
+		}
+		
+		if( readError != null ) throw readError;
+		if( interruption != null ) throw interrupted(interruption);
+		for( Hasher h : new Hasher[] { sha1Hasher, tigerTreeHasher } ) {
+			if( h.error != null ) throw new RuntimeException("Error while hashing", h.error);
+		}
+		return BitprintDigest.formatUrn(BitprintDigest.joinHashes(sha1Hasher.result, tigerTreeHasher.result));
+	}
+}
@@ -0,0 +1,165 @@
+package togos.ccouch3.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+
+/**
+ * Plain Java SHA-1 whose state between 64-byte blocks can be saved
+ * (getState) and restored (setState), even by a different process,
+ * which the JDK's SHA-1 doesn't allow.
+ * Slower than the JDK's, so only use it when that's needed.
+ */
+public class ResumableSHA1 extends MessageDigest
+{
+	public static final int BLOCK_SIZE = 64;
+	public static final int HASH_SIZE = 20;
+	
+	protected final int[] h = new int[5];
+	protected final int[] w = new int[80];
+	protected final byte[] buffer = new byte[BLOCK_SIZE];
+	protected int bufferOffset;
+	protected long byteCount;
+	
+	public ResumableSHA1() {
+		super("SHA-1");
+		engineReset();
+	}
+	
+	@Override protected int engineGetDigestLength() {
+		return HASH_SIZE;
+	}
+	
+	@Override protected void engineReset() {
+		h[0] = 0x67452301;
+		h[1] = 0xEFCDAB89;
+		h[2] = 0x98BADCFE;
+		h[3] = 0x10325476;
+		h[4] = 0xC3D2E1F0;
+		bufferOffset = 0;
+		byteCount = 0;
+	}
+	
+	protected void processBlock( byte[] data, int offset ) {
+		for( int i=0; i<16; ++i, offset += 4 ) {
+			w[i] = (data[offset] << 24) | ((data[offset+1] & 0xFF) << 16) | ((data[offset+2] & 0xFF) << 8) | (data[offset+3] & 0xFF);
+		}
+		for( int i=16; i<80; ++i ) {
+			w[i] = Integer.rotateLeft(w[i-3] ^ w[i-8] ^ w[i-14] ^ w[i-16], 1);
+		}
+		int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], t;
+		int i = 0;
+		for( ; i<20; ++i ) {
+			t = Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + e + 0x5A827999 + w[i];
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for( ; i<40; ++i ) {
+			t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0x6ED9EBA1 + w[i];
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for( ; i<60; ++i ) {
+			t = Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + e + 0x8F1BBCDC + w[i];
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		for( ; i<80; ++i ) {
+			t = Integer.rotateLeft(a, 5) + (b ^ c ^ d) + e + 0xCA62C1D6 + w[i];
+			e = d; d = c; c = Integer.rotateLeft(b, 30); b = a; a = t;
+		}
+		h[0] += a; h[1] += b; h[2] += c; h[3] += d; h[4] += e;
+	}
+	
+	@Override protected void engineUpdate( byte in ) {
+		buffer[bufferOffset++] = in;
+		++byteCount;
+		if( bufferOffset == BLOCK_SIZE ) {
+			processBlock(buffer, 0);
+			bufferOffset = 0;
+		}
+	}
+	
+	@Override protected void engineUpdate( byte[] in, int offset, int length ) {
+		byteCount += length;
+		if( bufferOffset > 0 ) {
+			int remaining = BLOCK_SIZE - bufferOffset;
+			if( length < remaining ) {
+				System.arraycopy(in, offset, buffer, bufferOffset, length);
+				bufferOffset += length;
+				return;
+			}
+			System.arraycopy(in, offset, buffer, bufferOffset, remaining);
+			processBlock(buffer, 0);
+			bufferOffset = 0;
+			offset += remaining;
+			length -= remaining;
+		}
+		// Whole blocks don't need to go through the buffer
+		while( length >= BLOCK_SIZE ) {
+			processBlock(in, offset);
+			offset += BLOCK_SIZE;
+			length -= BLOCK_SIZE;
+		}
+		System.arraycopy(in, offset, buffer, 0, length);
+		bufferOffset = length;
+	}
+	
+	@Override protected byte[] engineDigest() {
+		byte[] hash = new byte[HASH_SIZE];
+		try {
+			engineDigest(hash, 0, HASH_SIZE);
+		} catch( DigestException e ) {
+			throw new RuntimeException(e); // hash is always big enough
+		}
+		return hash;
+	}
+	
+	@Override protected int engineDigest( byte[] buf, int offset, int len ) throws DigestException {
+		if( len < HASH_SIZE ) throw new DigestException("Need "+HASH_SIZE+" bytes for SHA-1 hash; only "+len+" given");
+		long bitCount = byteCount * 8;
+		buffer[bufferOffset++] = (byte)0x80;
+		if( bufferOffset > BLOCK_SIZE - 8 ) {
+			while( bufferOffset < BLOCK_SIZE ) buffer[bufferOffset++] = 0;
+			processBlock(buffer, 0);
+			bufferOffset = 0;
+		}
+		while( bufferOffset < BLOCK_SIZE - 8 ) buffer[bufferOffset++] = 0;
+		for( int i=0; i<8; ++i ) buffer[bufferOffset++] = (byte)(bitCount >> (56 - i*8));
+		processBlock(buffer, 0);
+		for( int i=0; i<5; ++i ) {
+			buf[offset + i*4    ] = (byte)(h[i] >> 24);
+			buf[offset + i*4 + 1] = (byte)(h[i] >> 16);
+			buf[offset + i*4 + 2] = (byte)(h[i] >>  8);
+			buf[offset + i*4 + 3] = (byte)(h[i]      );
+		}
+		engineReset();
+		return HASH_SIZE;
+	}
+	
+	/** Number of bytes digested since the last reset */
+	public long getByteCount() {
+		return byteCount;
+	}
+	
+	/**
+	 * Returns the intermediate hash, which along with the byte count
+	 * is the whole state of the digest.  Only available between blocks,
+	 * i.e. when a multiple of 64 bytes have been digested.
+	 */
+	public int[] getState() {
+		if( bufferOffset != 0 ) {
+			throw new IllegalStateException("SHA-1 state is only available between blocks; "+byteCount+" bytes have been digested");
+		}
+		return h.clone();
+	}
+	
+	/** Pick up where a digest whose state was saved with getState left off */
+	public void setState( long byteCount, int[] state ) {
+		if( byteCount < 0 || byteCount % BLOCK_SIZE != 0 ) {
+			throw new IllegalArgumentException("Byte count must be a multiple of "+BLOCK_SIZE+"; got "+byteCount);
+		}
+		if( state.length != h.length ) {
+			throw new IllegalArgumentException("SHA-1 state must be "+h.length+" ints long; got "+state.length);
+		}
+		System.arraycopy(state, 0, h, 0, h.length);
+		this.bufferOffset = 0;
+		this.byteCount = byteCount;
+	}
+}
@@ -0,0 +1,230 @@
+package togos.ccouch3.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bitpedia.util.Tiger;
+import org.bitpedia.util.TigerTree;
+
+/**
+ * The upper levels of a blob's THEX (Tiger tree) hash tree,
+ * from the root (the second half of its bitprint) down to nodes
+ * that each cover one segment of segmentSize bytes.
+ * With one of these and the bitprint, each segment of a blob
+ * can be verified as soon as it arrives, without needing the rest.
+ *
+ * segmentSize is a power-of-two number of 1024-byte THEX leaves,
+ * so each segment's node is the root of a complete subtree and is
+ * just the TigerTree hash of that segment's data on its own
+ * (the last segment's subtree may be smaller).
+ *
+ * Serialized (see toBytes) as:
+ *   8 bytes: size of the data, big-endian
+ *   4 bytes: segment size, big-endian
+ *   all nodes, 24 bytes each, breadth-first from the root
+ * the last part being the same as THEX's 'breadth-first' serialization
+ * cut off at the segment level.
+ */
+public class THEXTree
+{
+	public static final int LEAF_SIZE = 1024;
+	public static final int HASH_SIZE = 24;
+	public static final int HEADER_SIZE = 12;
+	/** Default segment sizes are chosen so that trees have at most this many segments */
+	public static final int DEFAULT_MAX_SEGMENTS = 4096;
+	public static final int MIN_DEFAULT_SEGMENT_SIZE = 64*1024;
+	
+	public final long dataSize;
+	public final int segmentSize;
+	/** levels[0] is the root; levels[levels.length-1] the segment nodes */
+	protected final byte[][] levels;
+	
+	protected THEXTree( long dataSize, int segmentSize, byte[][] levels ) {
+		this.dataSize = dataSize;
+		this.segmentSize = segmentSize;
+		this.levels = levels;
+	}
+	
+	public static int defaultSegmentSize( long dataSize ) {
+		int segmentSize = MIN_DEFAULT_SEGMENT_SIZE;
+		while( segmentSize < (1<<30) && (dataSize + segmentSize - 1) / segmentSize > DEFAULT_MAX_SEGMENTS ) {
+			segmentSize <<= 1;
+		}
+		return segmentSize;
+	}
+	
+	protected static void validateSegmentSize( int segmentSize ) {
+		if( segmentSize < LEAF_SIZE || Integer.bitCount(segmentSize) != 1 ) {
+			throw new IllegalArgumentException("Segment size must be a power of 2 no smaller than "+LEAF_SIZE+"; got "+segmentSize);
+		}
+	}
+	
+	public static int segmentCount( long dataSize, int segmentSize ) {
+		return dataSize == 0 ? 1 : (int)((dataSize + segmentSize - 1) / segmentSize);
+	}
+	
+	protected static byte[] composeNodes( Tiger tiger, byte[] level, int nodeCount ) {
+		int parentCount = (nodeCount + 1) / 2;
+		byte[] parents = new byte[parentCount * HASH_SIZE];
+		for( int i=0; i<parentCount; ++i ) {
+			if( i*2 + 1 < nodeCount ) {
+				tiger.update((byte)1);
+				tiger.update(level, i*2*HASH_SIZE, HASH_SIZE*2);
+				System.arraycopy(tiger.digest(), 0, parents, i*HASH_SIZE, HASH_SIZE);
+			} else {
+				// Odd nodes out are promoted as-is
+				System.arraycopy(level, i*2*HASH_SIZE, parents, i*HASH_SIZE, HASH_SIZE);
+			}
+		}
+		return parents;
+	}
+	
+	/** Build all the levels above the given segment nodes */
+	protected static byte[][] buildLevels( byte[] segmentNodes ) {
+		List<byte[]> levels = new ArrayList<byte[]>();
+		levels.add(segmentNodes);
+		Tiger tiger = new Tiger();
+		byte[] level = segmentNodes;
+		while( level.length > HASH_SIZE ) {
+			level = composeNodes(tiger, level, level.length / HASH_SIZE);
+			levels.add(0, level);
+		}
+		return levels.toArray(new byte[levels.size()][]);
+	}
+	
+	/**
+	 * Calculate the tree for everything left in the stream.
+	 * dataSize is only used to decide how big segments are,
+	 * and segmentSize may be 0 to use the default for that size.
+	 */
+	public static THEXTree calculate( InputStream is, long expectedDataSize, int segmentSize ) throws IOException {
+		if( segmentSize == 0 ) segmentSize = defaultSegmentSize(expectedDataSize);
+		validateSegmentSize(segmentSize);
+		
+		TigerTree tt = new TigerTree();
+		byte[] buf = new byte[Math.min(segmentSize, 65536)];
+		byte[] nodes = new byte[segmentCount(expectedDataSize, segmentSize) * HASH_SIZE];
+		int segmentIndex = 0;
+		long dataSize = 0;
+		int inSegment = 0;
+		int z;
+		while( (z = is.read(buf, 0, Math.min(buf.length, segmentSize - inSegment))) > 0 ) {
+			tt.update(buf, 0, z);
+			inSegment += z;
+			dataSize += z;
+			if( inSegment == segmentSize ) {
+				if( (segmentIndex+1)*HASH_SIZE > nodes.length ) nodes = Arrays.copyOf(nodes, nodes.length*2);
+				System.arraycopy(tt.digest(), 0, nodes, segmentIndex*HASH_SIZE, HASH_SIZE);
+				++segmentIndex;
+				inSegment = 0;
+			}
+		}
+		if( inSegment > 0 || segmentIndex == 0 ) {
+			if( (segmentIndex+1)*HASH_SIZE > nodes.length ) nodes = Arrays.copyOf(nodes, (segmentIndex+1)*HASH_SIZE);
+			System.arraycopy(tt.digest(), 0, nodes, segmentIndex*HASH_SIZE, HASH_SIZE);
+			++segmentIndex;
+		}
+		return new THEXTree(dataSize, segmentSize, buildLevels(Arrays.copyOf(nodes, segmentIndex*HASH_SIZE)));
+	}
+	
+	public byte[] getRoot() {
+		return levels[0].clone();
+	}
+	
+	public int getSegmentCount() {
+		return levels[levels.length-1].length / HASH_SIZE;
+	}
+	
+	public long getSegmentOffset( int segment ) {
+		return (long)segment * segmentSize;
+	}
+	
+	public int getSegmentLength( int segment ) {
+		return (int)Math.min(segmentSize, dataSize - getSegmentOffset(segment));
+	}
+	
+	public byte[] getSegmentHash( int segment ) {
+		return Arrays.copyOfRange(levels[levels.length-1], segment*HASH_SIZE, (segment+1)*HASH_SIZE);
+	}
+	
+	/** Returns true iff the given data is what belongs in the given segment */
+	public boolean verifySegment( int segment, byte[] data, int offset, int length ) {
+		if( segment < 0 || segment >= getSegmentCount() ) return false;
+		if( length != getSegmentLength(segment) ) return false;
+		TigerTree tt = new TigerTree();
+		tt.update(data, offset, length);
+		return Arrays.equals(getSegmentHash(segment), tt.digest());
+	}
+	
+	public byte[] toBytes() {
+		int nodeBytes = 0;
+		for( byte[] level : levels ) nodeBytes += level.length;
+		byte[] data = new byte[HEADER_SIZE + nodeBytes];
+		for( int i=0; i<8; ++i ) data[i] = (byte)(dataSize >> (56 - i*8));
+		for( int i=0; i<4; ++i ) data[8+i] = (byte)(segmentSize >> (24 - i*8));
+		int offset = HEADER_SIZE;
+		for( byte[] level : levels ) {
+			System.arraycopy(level, 0, data, offset, level.length);
+			offset += level.length;
+		}
+		return data;
+	}
+	
+	/**
+	 * Parse a serialized tree, checking that its levels are consistent
+	 * with each other.  Throws an IOException if they're not, or if
+	 * the data's malformed.  Whether the root is the expected one is
+	 * up to the caller.
+	 */
+	public static THEXTree parse( byte[] data, int offset, int length ) throws IOException {
+		if( length < HEADER_SIZE + HASH_SIZE ) {
+			throw new IOException("Serialized THEX tree is too short ("+length+" bytes)");
+		}
+		long dataSize = 0;
+		for( int i=0; i<8; ++i ) dataSize = (dataSize << 8) | (data[offset+i] & 0xFF);
+		int segmentSize = 0;
+		for( int i=0; i<4; ++i ) segmentSize = (segmentSize << 8) | (data[offset+8+i] & 0xFF);
+		if( dataSize < 0 ) throw new IOException("Invalid data size in serialized THEX tree: "+dataSize);
+		try {
+			validateSegmentSize(segmentSize);
+		} catch( IllegalArgumentException e ) {
+			throw new IOException("Invalid segment size in serialized THEX tree: "+segmentSize);
+		}
+		
+		int segmentCount = segmentCount(dataSize, segmentSize);
+		if( segmentCount > (length - HEADER_SIZE) / HASH_SIZE ) {
+			throw new IOException("Serialized THEX tree is too short for "+segmentCount+" segments");
+		}
+		// The tree is fully determined by its segment nodes
+		// (the last segmentCount nodes), so rebuild it from them
+		// and check that the rest matches.
+		int segmentNodesOffset = offset + length - segmentCount*HASH_SIZE;
+		byte[][] levels = buildLevels(Arrays.copyOfRange(data, segmentNodesOffset, offset + length));
+		int pos = offset + HEADER_SIZE;
+		for( byte[] level : levels ) {
+			if( pos + level.length > offset + length ||
+			    !Arrays.equals(level, Arrays.copyOfRange(data, pos, pos + level.length)) ) {
+				throw new IOException("Serialized THEX tree is inconsistent");
+			}
+			pos += level.length;
+		}
+		if( pos != offset + length ) throw new IOException("Serialized THEX tree has "+(offset + length - pos)+" extra bytes");
+		return new THEXTree(dataSize, segmentSize, levels);
+	}
+	
+	public static THEXTree parse( byte[] data ) throws IOException {
+		return parse(data, 0, data.length);
+	}
+	
+	/** The Tiger tree root from a bitprint (the last 24 of its 44 bytes) */
+	public static byte[] bitprintTigerTreeRoot( byte[] bitprint ) {
+		return Arrays.copyOfRange(bitprint, BitprintDigest.HASH_SIZE - HASH_SIZE, BitprintDigest.HASH_SIZE);
+	}
+	
+	public boolean matchesBitprint( byte[] bitprint ) {
+		return Arrays.equals(levels[0], bitprintTigerTreeRoot(bitprint));
+	}
+}
@@ -1,5 +1,7 @@
 package togos.ccouch3.repo;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -14,7 +16,6 @@ import java.util.List;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -23,22 +24,41 @@ import togos.blob.ByteChunk;
 import togos.blob.util.BlobUtil;
 import togos.blob.util.SimpleByteChunk;
 import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.slf.SimpleListFile2;
 import togos.ccouch3.util.SubInputStream;
 
 class CipherSource {
 	protected static final byte[] IV = {0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0};
-	protected static IvParameterSpec IV_SPEC = new IvParameterSpec(IV);
 	
 	protected final SecretKeySpec keySpec;
 	protected final String algo;
-	public CipherSource( SecretKeySpec keySpec, String algo ) {
+	protected final byte[] iv;
+	public CipherSource( SecretKeySpec keySpec, String algo, byte[] iv ) {
 		this.keySpec = keySpec;
 		this.algo = algo;
+		this.iv = iv;
+	}
+	public CipherSource( SecretKeySpec keySpec, String algo ) {
+		this( keySpec, algo, IV );
 	}
-	public Cipher getCipher(int mode) { 
+	
+	/**
+	 * Returns a cipher initialized to start at the given 16-byte block
+	 * of the data by adding blockIndex to the IV (as a big-endian 128-bit
+	 * number, the same way CTR mode increments its counter).
+	 * Only makes sense for counter mode.
+	 */
+	public Cipher getCipher(int mode, long blockIndex) {
+		byte[] counter = iv.clone();
+		long carry = blockIndex;
+		for( int i=counter.length-1; i>=0 && carry != 0; --i ) {
+			long sum = (counter[i] & 0xFF) + (carry & 0xFF);
+			counter[i] = (byte)sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
 		try {
 			Cipher ciph = Cipher.getInstance(this.algo);
-			ciph.init(mode, this.keySpec, IV_SPEC);
+			ciph.init(mode, this.keySpec, new IvParameterSpec(counter));
 			return ciph;
 		} catch( RuntimeException e ) {
 			throw e;
@@ -46,6 +66,10 @@ class CipherSource {
 			throw new RuntimeException(e);
 		}
 	}
+	
+	public Cipher getCipher(int mode) {
+		return getCipher(mode, 0);
+	}
 }
 
 class CipherBlob implements ByteBlob {
@@ -92,26 +116,136 @@ class CipherBlob implements ByteBlob {
 	}
 }
 
+/**
+ * Decrypts a counter-mode-encrypted blob, or a slice of one.
+ * Since each 16-byte block can be decrypted on its own,
+ * reading from the middle only means seeking the backing stream
+ * to the start of the block and decrypting from there.
+ */
+class CTRCipherBlob implements ByteBlob {
+	protected static final int BLOCK_SIZE = 16;
+	
+	protected final ByteBlob backingBlob;
+	protected final CipherSource cipherSource;
+	protected final long offset;
+	protected final long length;
+	public CTRCipherBlob( ByteBlob backingBlob, CipherSource cipherSource, long offset, long length ) {
+		this.backingBlob = backingBlob;
+		this.cipherSource = cipherSource;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	@Override public long getSize() {
+		return this.length;
+	}
+	
+	protected static void skipFully( InputStream is, long n ) throws IOException {
+		byte[] buf = null;
+		while( n > 0 ) {
+			long skipped = is.skip(n);
+			if( skipped <= 0 ) {
+				// Some streams (e.g. CipherInputStream) only skip what's buffered
+				if( buf == null ) buf = new byte[(int)Math.min(n, 8192)];
+				int read = is.read(buf, 0, (int)Math.min(n, buf.length));
+				if( read <= 0 ) throw new EOFException("Hit end of stream while skipping");
+				skipped = read;
+			}
+			n -= skipped;
+		}
+	}
+	
+	@Override public InputStream openInputStream() throws IOException {
+		long blockIndex = offset / BLOCK_SIZE;
+		InputStream backingStream = backingBlob.openInputStream();
+		boolean success = false;
+		try {
+			skipFully(backingStream, blockIndex * BLOCK_SIZE);
+			InputStream cis = new CipherInputStream(backingStream, cipherSource.getCipher(Cipher.DECRYPT_MODE, blockIndex));
+			skipFully(cis, offset - blockIndex * BLOCK_SIZE);
+			success = true;
+			return new SubInputStream(cis, 0, length);
+		} finally {
+			if( !success ) backingStream.close();
+		}
+	}
+	
+	@Override public ByteBlob slice(long offset, long length) {
+		if( offset < 0 || length < 0 || offset + length > this.length ) {
+			throw new IndexOutOfBoundsException("Slice "+offset+"+"+length+" is outside of 0+"+this.length);
+		}
+		return new CTRCipherBlob(backingBlob, cipherSource, this.offset + offset, length);
+	}
+	
+	@Override public void writeTo(OutputStream os) throws IOException {
+		InputStream is = openInputStream();
+		try {
+			BlobUtil.pipe(is, os);
+		} finally {
+			is.close();
+		}
+	}
+}
+
 class EncryptedBlobInfo {
 	public final byte[] ciphertextBitprint;
 	public final long plaintextLength;
-	public EncryptedBlobInfo( byte[] ciphertextBitprint, long plaintextLength ) {
+	public final int format;
+	public EncryptedBlobInfo( byte[] ciphertextBitprint, long plaintextLength, int format ) {
 		this.ciphertextBitprint = ciphertextBitprint;
 		this.plaintextLength = plaintextLength;
+		this.format = format;
 	}
 }
 
-public class BitprintAESEncryptedRepository implements Repository
+/**
+ * Stores blobs encrypted with a key derived from their own bitprint,
+ * so that only someone who knows a blob's URN can decrypt it.
+ * An SLF2 file in infoDir, itself keyed and encrypted by hashes of the
+ * plaintext bitprint, says which backing blob holds the ciphertext,
+ * how long the plaintext is, and which format it's in.
+ * 
+ * There are two formats.  FORMAT_CBC, the original, uses AES/CBC, so
+ * reading any part of a blob means decrypting it from the beginning.
+ * FORMAT_CTR, the default for new blobs, uses AES/CTR with an IV also
+ * derived from the bitprint, so blobs returned by getBlob can be sliced
+ * and read from the middle without decrypting what comes before.
+ * 
+ * Older versions kept the map in a flat file (bpaes-v1.map) that had
+ * to be scanned for every lookup.  Its records are copied into the SLF
+ * as they're found, and CBC blobs are still recorded there as well
+ * so that older versions can read them.
+ */
+public class BitprintAESEncryptedRepository implements Repository, Closeable
 {
+	public static final int FORMAT_CBC = 1;
+	public static final int FORMAT_CTR = 2;
+	
 	protected Repository backingRepo;
 	protected File tempDir;
 	protected File infoDir;
 	protected File mapFile;
-	public BitprintAESEncryptedRepository( Repository backingRepo, File tempDir, File infoDir ) {
+	protected File infoSlfFile;
+	protected int storeFormat;
+	private SimpleListFile2 infoSlf;
+	/**
+	 * @param storeFormat format in which to encrypt new blobs;
+	 *   FORMAT_CTR unless they need to be readable by older versions
+	 */
+	public BitprintAESEncryptedRepository( Repository backingRepo, File tempDir, File infoDir, int storeFormat ) {
+		if( storeFormat != FORMAT_CBC && storeFormat != FORMAT_CTR ) {
+			throw new IllegalArgumentException("Unknown format: "+storeFormat);
+		}
 		this.backingRepo = backingRepo;
 		this.tempDir = tempDir;
 		this.infoDir = infoDir;
 		this.mapFile = new File(infoDir, "bpaes-v1.map");
+		this.infoSlfFile = new File(infoDir, "bpaes-info.slf2");
+		this.storeFormat = storeFormat;
+	}
+	
+	public BitprintAESEncryptedRepository( Repository backingRepo, File tempDir, File infoDir ) {
+		this( backingRepo, tempDir, infoDir, FORMAT_CTR );
 	}
 	
 	protected File createTempFile(String pre, String suf) throws IOException {
@@ -130,18 +264,25 @@ public class BitprintAESEncryptedRepository implements Repository
 		return Collections.emptyList();
 	}
 	
-	protected CipherSource getCipherSource(byte[] key) {
+	protected CipherSource getCipherSource(byte[] key, int format) {
 		if( key.length < 32 ) {
 			throw new RuntimeException("Key isn't long enough!");
 		}
-		return new CipherSource(
-			new SecretKeySpec(hashKeyForDataEncryption(key), 0, 32, "AES"),
-			"AES/CBC/PKCS5Padding"
-		);
+		SecretKeySpec keySpec = new SecretKeySpec(hashKeyForDataEncryption(key), 0, 32, "AES");
+		switch( format ) {
+		case FORMAT_CBC:
+			return new CipherSource( keySpec, "AES/CBC/PKCS5Padding" );
+		case FORMAT_CTR:
+			byte[] iv = new byte[16];
+			System.arraycopy(hashKeyForIv(key), 0, iv, 0, iv.length);
+			return new CipherSource( keySpec, "AES/CTR/NoPadding", iv );
+		default:
+			throw new RuntimeException("Unknown format: "+format);
+		}
 	}
 	
-	protected CipherSource getCipherSource(String urn) throws UnsupportedSchemeException {
-		return getCipherSource(BitprintDigest.urnToBytes(urn));
+	protected CipherSource getCipherSource(String urn, int format) throws UnsupportedSchemeException {
+		return getCipherSource(BitprintDigest.urnToBytes(urn), format);
 	}
 	
 	protected static byte[] bitprint( byte[] key ) {
@@ -175,6 +316,9 @@ public class BitprintAESEncryptedRepository implements Repository
 	protected byte[] hashKeyForMapValueEncryption( byte[] bitprint ) {
 		return modBitprint(bitprint, (byte)3);
 	}
+	protected byte[] hashKeyForIv( byte[] bitprint ) {
+		return modBitprint(bitprint, (byte)4);
+	}
 	protected byte[] xor( byte[] a, byte[] b ) {
 		if( b.length != a.length ) throw new RuntimeException(":P");
 		byte[] z = new byte[a.length];
@@ -189,7 +333,34 @@ public class BitprintAESEncryptedRepository implements Repository
 		return data;
 	}
 	
-	protected void recordStored( byte[] inputBitprint, byte[] ciphertextBitprint, long inputLength ) throws IOException {
+	protected static final int MAP_KEY_SIZE = BitprintDigest.HASH_SIZE - 8;
+	/** Key under which how much of the legacy map file has been imported is recorded */
+	protected static final ByteChunk LEGACY_MAP_IMPORTED_KEY = BlobUtil.byteChunk("bpaes-v1.map imported bytes");
+	
+	protected synchronized SimpleListFile2 getInfoSlf() {
+		if( infoSlf == null ) infoSlf = SimpleListFile2.mkSlf(infoSlfFile, true);
+		return infoSlf;
+	}
+	
+	/**
+	 * Map entries are keyed by the length-independent part of the
+	 * map key.  Values are the format, the rest of the map key
+	 * (which has the plaintext length mixed in), and the
+	 * encrypted ciphertext bitprint.
+	 */
+	protected void putInfo( byte[] record, int format, boolean replace ) {
+		final int hashSize = BitprintDigest.HASH_SIZE;
+		ByteChunk key = SimpleByteChunk.get(record, 0, MAP_KEY_SIZE);
+		byte[] value = new byte[1 + hashSize*2 - MAP_KEY_SIZE];
+		value[0] = (byte)format;
+		System.arraycopy(record, MAP_KEY_SIZE, value, 1, value.length - 1);
+		SimpleListFile2 slf = getInfoSlf();
+		if( !replace && slf.get(key) != null ) return;
+		slf.put(key, new SimpleByteChunk(value));
+	}
+	
+	protected void recordStored( byte[] inputBitprint, byte[] ciphertextBitprint, long inputLength, int format ) throws IOException {
+		final int hashSize = BitprintDigest.HASH_SIZE;
 		byte[] key = validateBitprintSized(
 			hashKeyForMapKey(inputBitprint, inputLength), "map key");
 		byte[] encryptedCiphertextBitprint = validateBitprintSized(
@@ -198,20 +369,27 @@ public class BitprintAESEncryptedRepository implements Repository
 				hashKeyForMapValueEncryption(inputBitprint)
 			), "map value pad");
 		
-		if( !infoDir.exists() ) infoDir.mkdirs();
-		FileOutputStream fos = new FileOutputStream(mapFile, true);
-		try {
-			FileChannel chan = fos.getChannel();
-			FileLock lock = chan.lock();
+		if( format == FORMAT_CBC ) {
+			if( !infoDir.exists() ) infoDir.mkdirs();
+			FileOutputStream fos = new FileOutputStream(mapFile, true);
 			try {
-				fos.write(key);
-				fos.write(encryptedCiphertextBitprint);
+				FileChannel chan = fos.getChannel();
+				FileLock lock = chan.lock();
+				try {
+					fos.write(key);
+					fos.write(encryptedCiphertextBitprint);
+				} finally {
+					lock.release();
+				}
 			} finally {
-				lock.release();
+				fos.close();
 			}
-		} finally {
-			fos.close();
 		}
+		
+		byte[] record = new byte[hashSize*2];
+		System.arraycopy(key, 0, record, 0, hashSize);
+		System.arraycopy(encryptedCiphertextBitprint, 0, record, hashSize, hashSize);
+		putInfo(record, format, true);
 	}
 	
 	protected int readFully( InputStream is, byte[] into ) throws IOException {
@@ -222,36 +400,77 @@ public class BitprintAESEncryptedRepository implements Repository
 		return off;
 	}
 	
-	protected EncryptedBlobInfo findEncryptedBitprint( byte[] inputBitprint ) throws IOException {
-		byte[] key = hashKeyForMapKey(inputBitprint, 0);
-		if( !mapFile.exists() ) return null;
+	/**
+	 * Copy any records in the legacy map file that haven't been
+	 * yet into the SLF.  They won't replace existing records,
+	 * which may be for the same blob re-stored in a newer format.
+	 */
+	protected synchronized void importLegacyMap() throws IOException {
+		if( !mapFile.exists() ) return;
 		
+		SimpleListFile2 slf = getInfoSlf();
+		ByteChunk importedChunk = slf.get(LEGACY_MAP_IMPORTED_KEY);
+		long imported = importedChunk == null ? 0 : Long.parseLong(BlobUtil.string(importedChunk));
+		if( imported >= mapFile.length() ) return;
+		
+		final int recordSize = BitprintDigest.HASH_SIZE*2;
 		FileInputStream fis = new FileInputStream(mapFile);
-		final int hashSize = BitprintDigest.HASH_SIZE;
-		final int recordSize = hashSize*2;
-		byte[] buf = new byte[recordSize];
-		findKey: while( readFully(fis, buf) == recordSize ) {
-			for( int z=0; z<hashSize-8; ++z ) {
-				if( key[z] != buf[z] ) continue findKey;
-			}
-			long length =
-				((long)((key[hashSize-1]^buf[hashSize-1]) & 0xFF) <<  0) |
-				((long)((key[hashSize-2]^buf[hashSize-2]) & 0xFF) <<  8) |
-				((long)((key[hashSize-3]^buf[hashSize-3]) & 0xFF) << 16) |
-				((long)((key[hashSize-4]^buf[hashSize-4]) & 0xFF) << 24) |
-				((long)((key[hashSize-5]^buf[hashSize-5]) & 0xFF) << 32) |
-				((long)((key[hashSize-6]^buf[hashSize-6]) & 0xFF) << 40) |
-				((long)((key[hashSize-7]^buf[hashSize-7]) & 0xFF) << 48) |
-				((long)((key[hashSize-8]^buf[hashSize-8]) & 0xFF) << 56);
-			
-			byte[] mapped = new byte[hashSize];
-			byte[] dec = hashKeyForMapValueEncryption(inputBitprint);
-			for( int z=0; z<hashSize; ++z ) {
-				mapped[z] = (byte)(buf[z+hashSize] ^ dec[z]);
+		try {
+			CTRCipherBlob.skipFully(fis, imported);
+			byte[] buf = new byte[recordSize];
+			while( readFully(fis, buf) == recordSize ) {
+				putInfo(buf, FORMAT_CBC, false);
+				imported += recordSize;
 			}
-			return new EncryptedBlobInfo(mapped, length);
+		} finally {
+			fis.close();
 		}
-		return null;
+		slf.put(LEGACY_MAP_IMPORTED_KEY, BlobUtil.byteChunk(String.valueOf(imported)));
+	}
+	
+	protected EncryptedBlobInfo decodeRecord( byte[] key, byte[] buf, byte[] inputBitprint, int format ) {
+		final int hashSize = BitprintDigest.HASH_SIZE;
+		long length =
+			((long)((key[hashSize-1]^buf[hashSize-1]) & 0xFF) <<  0) |
+			((long)((key[hashSize-2]^buf[hashSize-2]) & 0xFF) <<  8) |
+			((long)((key[hashSize-3]^buf[hashSize-3]) & 0xFF) << 16) |
+			((long)((key[hashSize-4]^buf[hashSize-4]) & 0xFF) << 24) |
+			((long)((key[hashSize-5]^buf[hashSize-5]) & 0xFF) << 32) |
+			((long)((key[hashSize-6]^buf[hashSize-6]) & 0xFF) << 40) |
+			((long)((key[hashSize-7]^buf[hashSize-7]) & 0xFF) << 48) |
+			((long)((key[hashSize-8]^buf[hashSize-8]) & 0xFF) << 56);
+		
+		byte[] mapped = new byte[hashSize];
+		byte[] dec = hashKeyForMapValueEncryption(inputBitprint);
+		for( int z=0; z<hashSize; ++z ) {
+			mapped[z] = (byte)(buf[z+hashSize] ^ dec[z]);
+		}
+		return new EncryptedBlobInfo(mapped, length, format);
+	}
+	
+	protected EncryptedBlobInfo findEncryptedBitprint( byte[] inputBitprint ) throws IOException {
+		final int hashSize = BitprintDigest.HASH_SIZE;
+		byte[] key = hashKeyForMapKey(inputBitprint, 0);
+		ByteChunk slfKey = SimpleByteChunk.get(key, 0, MAP_KEY_SIZE);
+		ByteChunk value = getInfoSlf().get(slfKey);
+		if( value == null ) {
+			importLegacyMap();
+			value = getInfoSlf().get(slfKey);
+			if( value == null ) return null;
+		}
+		if( value.getSize() != 1 + hashSize*2 - MAP_KEY_SIZE ) {
+			throw new IOException("Malformed record in "+infoSlfFile+" ("+value.getSize()+" bytes)");
+		}
+		
+		byte[] record = new byte[hashSize*2];
+		System.arraycopy(key, 0, record, 0, MAP_KEY_SIZE);
+		System.arraycopy(value.getBuffer(), value.getOffset() + 1, record, MAP_KEY_SIZE, record.length - MAP_KEY_SIZE);
+		return decodeRecord(key, record, inputBitprint, value.getBuffer()[value.getOffset()]);
+	}
+	
+	@Override public synchronized void close() throws IOException {
+		if( infoSlf != null ) infoSlf.close();
+		infoSlf = null;
 	}
 	
 	@Override public boolean contains(String urn) {
@@ -271,43 +490,39 @@ public class BitprintAESEncryptedRepository implements Repository
 		return backingRepo.contains( BitprintDigest.formatUrn(encryptedInfo.ciphertextBitprint) );
 	}
 	
+	/**
+	 * Encrypts the data as the backing repository reads it, digesting
+	 * both plaintext and ciphertext along the way, so nothing is
+	 * written anywhere but the backing repository.
+	 * If the plaintext turns out not to match the URN,
+	 * the ciphertext will have been stored but not recorded,
+	 * so it can't be read back, and a HashMismatchException is thrown.
+	 */
 	@Override public void put(String urn, InputStream is) throws StoreException {
-		File temp = null;
+		CipherSource cs = getCipherSource(urn, storeFormat);
+		DigestingInputStream plaintextDigis = new DigestingInputStream(new BitprintDigest(), is);
+		DigestingInputStream encryptedDigis = new DigestingInputStream(new BitprintDigest(),
+			new CipherInputStream(plaintextDigis, cs.getCipher(Cipher.ENCRYPT_MODE)));
+		
+		backingRepo.put(encryptedDigis);
+		
+		byte[] plaintextBitprintBytes = plaintextDigis.digest();
+		String calculatedUrn = BitprintDigest.formatUrn(plaintextBitprintBytes);
+		if( !calculatedUrn.equals(urn) ) {
+			throw new HashMismatchException("Calculated URN "+calculatedUrn+" did not match expected URN "+urn);
+		}
 		try {
-			CipherSource cs = getCipherSource(urn);
-			
-			temp = createTempFile("ciph", ".dat");
-			FileOutputStream fos = new FileOutputStream(temp);
-			DigestingOutputStream encryptedDigos = new DigestingOutputStream(new BitprintDigest(), fos);
-			CipherOutputStream ciphos = new CipherOutputStream(encryptedDigos, cs.getCipher(Cipher.ENCRYPT_MODE));
-			DigestingOutputStream plaintextDigos = new DigestingOutputStream(new BitprintDigest(), ciphos);
-			
-			BlobUtil.pipe(is, plaintextDigos);
-			plaintextDigos.close();
-			
-			byte[] plaintextBitprintBytes = plaintextDigos.digest();
-			String calculatedUrn = BitprintDigest.formatUrn(plaintextBitprintBytes);
-			if( !calculatedUrn.equals(urn) ) {
-				throw new HashMismatchException("Calculated URN "+calculatedUrn+" did not match expected URN "+urn);
-			}
-			byte[] encryptedBitprintBytes = encryptedDigos.digest();
-			String encryptedUrn = BitprintDigest.formatUrn(encryptedBitprintBytes);
-			
-			recordStored(plaintextBitprintBytes, encryptedBitprintBytes, plaintextDigos.getNumberOfBytesWritten());
-			
-			FileInputStream fis = new FileInputStream(temp);
-			try {
-				backingRepo.put(encryptedUrn, fis);
-			} finally {
-				fis.close();
-			}
+			recordStored(plaintextBitprintBytes, encryptedDigis.digest(), plaintextDigis.getNumberOfBytesRead(), storeFormat);
 		} catch( IOException e ) {
-			throw new StoreException("Failed to store "+urn, e);
-		} finally {
-			if( temp != null ) temp.delete();
+			throw new StoreException("Failed to record storage of "+urn, e);
 		}
 	}
 	
+	/**
+	 * Since the encryption key is derived from the plaintext's bitprint,
+	 * the data has to be read once to find that before it can be encrypted.
+	 * It's spooled to a file in tempDir in the meantime.
+	 */
 	@Override public String put(InputStream is) throws StoreException {
 		try {
 			File tempFile = createTempFile("plan", ".deleteme");
@@ -373,8 +588,12 @@ public class BitprintAESEncryptedRepository implements Repository
 		ByteBlob backingBlob = backingRepo.getBlob(BitprintDigest.formatUrn(encryptionInfo.ciphertextBitprint));
 		if( backingBlob == null ) return null;
 		
+		CipherSource cipherSource = getCipherSource(bitprint, encryptionInfo.format);
+		if( encryptionInfo.format == FORMAT_CTR ) {
+			return new CTRCipherBlob(backingBlob, cipherSource, 0, encryptionInfo.plaintextLength);
+		}
 		return new CipherBlob(
-			backingBlob, getCipherSource(bitprint),
+			backingBlob, cipherSource,
 			Cipher.DECRYPT_MODE, encryptionInfo.plaintextLength);
 	}
 	
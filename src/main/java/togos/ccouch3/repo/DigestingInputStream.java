@@ -0,0 +1,65 @@
+package togos.ccouch3.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Digests everything read through it.
+ * Skipped data is read rather than skipped so that it gets digested, too.
+ */
+public class DigestingInputStream extends InputStream
+{
+	protected final MessageDigest digest;
+	protected long length = 0;
+	protected final InputStream backingInputStream;
+	
+	public DigestingInputStream( MessageDigest digest, InputStream backingInputStream ) {
+		this.digest = digest;
+		this.backingInputStream = backingInputStream;
+	}
+	
+	@Override public int read() throws IOException {
+		int b = backingInputStream.read();
+		if( b != -1 ) {
+			digest.update((byte)b);
+			++length;
+		}
+		return b;
+	}
+	
+	@Override public int read(byte[] b, int off, int len) throws IOException {
+		int read = backingInputStream.read(b, off, len);
+		if( read > 0 ) {
+			digest.update(b, off, read);
+			length += read;
+		}
+		return read;
+	}
+	
+	@Override public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+	
+	@Override public long skip(long n) throws IOException {
+		byte[] buf = new byte[(int)Math.min(n, 8192)];
+		long skipped = 0;
+		int z;
+		while( skipped < n && (z = read(buf, 0, (int)Math.min(n - skipped, buf.length))) > 0 ) skipped += z;
+		return skipped;
+	}
+	
+	public MessageDigest getMessageDigest() {
+		return digest;
+	}
+	public byte[] digest() {
+		return digest.digest();
+	}
+	public long getNumberOfBytesRead() {
+		return length;
+	}
+	
+	@Override public void close() throws IOException {
+		backingInputStream.close();
+	}
+}
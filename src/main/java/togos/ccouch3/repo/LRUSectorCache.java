@@ -0,0 +1,133 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import togos.blob.file.FileBlob;
+
+/**
+ * Keeps track of the blobs in one sector of a SHA1FileRepository
+ * that's being used as a cache, and deletes the least recently used
+ * ones when their total size goes over maxSize.
+ *
+ * A blob's last access time is recorded as its file's modification time
+ * (updated at most once every ACCESS_TIME_RESOLUTION milliseconds
+ * so that reads don't turn into a write each time) so that the
+ * LRU order survives between runs.  The sector directory is scanned
+ * the first time the cache is used.
+ */
+public class LRUSectorCache
+{
+	static final long ACCESS_TIME_RESOLUTION = 60000;
+	static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^[A-Z2-7]{32}$");
+	
+	public final File sectorDir;
+	public final long maxSize;
+	
+	/** SHA-1 (base32) -> size of cached blobs, least recently used first */
+	protected final LinkedHashMap<String,Long> entries = new LinkedHashMap<String,Long>(16, 0.75f, true);
+	protected long totalSize;
+	protected long evictionCount;
+	protected boolean loaded;
+	
+	public LRUSectorCache( File sectorDir, long maxSize ) {
+		this.sectorDir = sectorDir;
+		this.maxSize = maxSize;
+	}
+	
+	public synchronized long getTotalSize() { load(); return totalSize; }
+	public synchronized long getEvictionCount() { return evictionCount; }
+	
+	public File blobFile( String sha1Base32 ) {
+		return new File(sectorDir, sha1Base32.substring(0,2) + "/" + sha1Base32);
+	}
+	
+	/** Find out what's already in the sector directory, oldest first */
+	protected synchronized void load() {
+		if( loaded ) return;
+		loaded = true;
+		
+		File[] subDirs = sectorDir.listFiles();
+		if( subDirs == null ) return;
+		final ArrayList<File> files = new ArrayList<File>();
+		for( File subDir : subDirs ) {
+			File[] blobFiles = subDir.listFiles();
+			if( blobFiles == null ) continue;
+			for( File f : blobFiles ) {
+				if( BLOB_FILENAME_PATTERN.matcher(f.getName()).matches() ) files.add(f);
+			}
+		}
+		final Map<File,Long> mtimes = new HashMap<File,Long>();
+		for( File f : files ) mtimes.put( f, f.lastModified() );
+		Collections.sort( files, new Comparator<File>() {
+			@Override public int compare( File a, File b ) {
+				return mtimes.get(a).compareTo(mtimes.get(b));
+			}
+		});
+		for( File f : files ) {
+			long size = f.length();
+			entries.put( f.getName(), size );
+			totalSize += size;
+		}
+		evict( null );
+	}
+	
+	/**
+	 * Delete least recently used blobs until the cache
+	 * fits in maxSize again, sparing the one named by keep.
+	 */
+	protected synchronized void evict( String keep ) {
+		Iterator<Map.Entry<String,Long>> i = entries.entrySet().iterator();
+		while( totalSize > maxSize && i.hasNext() ) {
+			Map.Entry<String,Long> e = i.next();
+			if( e.getKey().equals(keep) ) continue;
+			File f = blobFile( e.getKey() );
+			if( !f.delete() && f.exists() ) {
+				System.err.println("Warning: Failed to evict "+f+" from cache");
+				continue;
+			}
+			totalSize -= e.getValue();
+			++evictionCount;
+			i.remove();
+		}
+	}
+	
+	/**
+	 * Returns the cached file and marks it as recently used,
+	 * or returns null if it's not cached.
+	 */
+	public synchronized FileBlob get( String sha1Base32 ) {
+		load();
+		if( entries.get(sha1Base32) == null ) return null;
+		
+		FileBlob f = new FileBlob(blobFile(sha1Base32));
+		long now = System.currentTimeMillis();
+		long mtime = f.lastModified();
+		if( mtime == 0 ) {
+			// Deleted behind our back
+			totalSize -= entries.remove(sha1Base32);
+			return null;
+		}
+		if( now - mtime > ACCESS_TIME_RESOLUTION ) f.setLastModified(now);
+		return f;
+	}
+	
+	/**
+	 * To be called after a blob has been stored in the sector.
+	 * Evicts other things if the cache is now too big.
+	 */
+	public synchronized void added( String sha1Base32, long size ) {
+		load();
+		Long oldSize = entries.put( sha1Base32, size );
+		if( oldSize != null ) totalSize -= oldSize;
+		totalSize += size;
+		evict( sha1Base32 );
+	}
+}
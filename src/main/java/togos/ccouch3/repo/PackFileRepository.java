@@ -0,0 +1,821 @@
+package togos.ccouch3.repo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bitpedia.util.Base32;
+
+import togos.blob.ByteBlob;
+import togos.blob.ByteChunk;
+import togos.blob.util.SimpleByteChunk;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.GroupSyncer;
+
+/**
+ * Repository that stores small blobs by appending them to big pack files
+ * instead of giving each one its own file, and passes big ones on
+ * to a regular SHA1FileRepository.
+ *
+ * Pack files are named pack-<number>.pack and consist of records of
+ *   "BLOB", 20-byte SHA-1, 4-byte length, data
+ * Only the newest pack is appended to.  Once it reaches maxPackSize
+ * it is 'sealed' by writing a pack-<number>.idx next to it containing
+ *   "PIDX", 4-byte count, count * (20-byte SHA-1, 8-byte data offset, 4-byte length)
+ * sorted by SHA-1, so that sealed packs and their indexes can be
+ * memory-mapped and searched without reading them in.
+ *
+ * The contents of the unsealed pack are tracked in memory.  So that
+ * opening the repository doesn't mean reading every record header in it,
+ * the writer also appends an entry for each record to pack-<number>.tail:
+ *   "PTAL", count * (20-byte SHA-1, 8-byte data offset, 4-byte length)
+ * in the order the records were written, and deletes it once the pack
+ * is sealed.  Tail entries are only used as far as they're contiguous
+ * and within the pack, and the last one is checked against its record's
+ * header, since it may have been caught half-written.
+ * Records past the end of the tail (from a writer that died before
+ * adding their entries, or that's adding them right now) are scanned,
+ * and each one's SHA-1 is checked before it's indexed.  Unsealed packs
+ * are looked at again when a lookup misses, at most once a second,
+ * in case another process has been adding to them.  The first record
+ * that's incomplete or doesn't match its SHA-1 ends the scan,
+ * and is cut off the next time something is stored.
+ * If the loose repository has a GroupSyncer (-sync-delay), put doesn't
+ * return until the record and its tail entry have been synced, using
+ * the same syncer so that concurrent puts share fsyncs.  Otherwise,
+ * as with a SHA1FileRepository that doesn't sync, a system crash
+ * may lose recently stored blobs.
+ *
+ * Only one process at a time can add to the packs; this is enforced
+ * with a lock on write.lock in the pack directory, taken when
+ * the first thing is stored.  While another process has it, small blobs
+ * go to the loose repository like big ones do, so that e.g. an uploader's
+ * blob and head servers can both store things.
+ * Any number of processes can read.
+ *
+ * Packed blobs aren't backed by files of their own, so for callers
+ * that need a path (e.g. to index a blob by URN, or to put it in
+ * a playlist) getFile copies them out to cache/unpacked/ in the
+ * repository and returns the copy.  getFiles doesn't list them.
+ */
+public class PackFileRepository implements Repository, Closeable
+{
+	public static final int DEFAULT_SMALL_BLOB_SIZE_LIMIT = 65536;
+	public static final long DEFAULT_MAX_PACK_SIZE = 512*1024*1024;
+	
+	static final byte[] RECORD_MAGIC = { 'B', 'L', 'O', 'B' };
+	static final byte[] INDEX_MAGIC = { 'P', 'I', 'D', 'X' };
+	static final byte[] TAIL_MAGIC = { 'P', 'T', 'A', 'L' };
+	static final int SHA1_SIZE = 20;
+	static final int RECORD_HEADER_SIZE = 4 + SHA1_SIZE + 4;
+	static final int INDEX_HEADER_SIZE = 8;
+	static final int INDEX_ENTRY_SIZE = SHA1_SIZE + 8 + 4;
+	static final int TAIL_HEADER_SIZE = 4;
+	
+	/** Don't look for other processes' additions more often than this */
+	static final long REFRESH_INTERVAL = 1000;
+	
+	static final Pattern SHA1EXTRACTOR = Pattern.compile("^urn:(?:sha1|bitprint):([A-Z2-7]{32})");
+	static final Pattern PACK_FILENAME_PATTERN = Pattern.compile("^pack-(\\d+)\\.pack$");
+	
+	static class Pack {
+		final int number;
+		final File packFile;
+		final File indexFile;
+		final File tailFile;
+		RandomAccessFile raf;
+		FileChannel channel;
+		/** For sealed packs */
+		MappedByteBuffer data, index;
+		int indexEntryCount;
+		/** For unsealed packs, how much has been read into unsealedEntries */
+		long scannedLength;
+		/**
+		 * For unsealed packs, how much of the tail file is known to be good
+		 * (0 if there isn't one), and how much of the pack its entries cover
+		 */
+		long tailLength, tailCoveredLength;
+		/** Open only while we're the writer */
+		RandomAccessFile tailRaf;
+		
+		public Pack( File dir, int number ) {
+			this.number = number;
+			this.packFile = new File(dir, String.format("pack-%08d.pack", number));
+			this.indexFile = new File(dir, String.format("pack-%08d.idx", number));
+			this.tailFile = new File(dir, String.format("pack-%08d.tail", number));
+		}
+		
+		boolean isSealed() { return data != null; }
+		
+		void close() throws IOException {
+			if( raf != null ) raf.close();
+			if( tailRaf != null ) tailRaf.close();
+			raf = null;
+			tailRaf = null;
+			channel = null;
+			data = null;
+			index = null;
+		}
+	}
+	
+	static class Location {
+		final Pack pack;
+		/** Offset of the data within the pack; the record header is right before it */
+		final long dataOffset;
+		final int length;
+		
+		public Location( Pack pack, long dataOffset, int length ) {
+			this.pack = pack;
+			this.dataOffset = dataOffset;
+			this.length = length;
+		}
+	}
+	
+	protected final File packDir;
+	protected final SHA1FileRepository looseRepo;
+	public final int smallBlobSizeLimit;
+	public final long maxPackSize;
+	
+	/** Newest first */
+	protected final ArrayList<Pack> packs = new ArrayList<Pack>();
+	protected final HashMap<ByteChunk,Location> unsealedEntries = new HashMap<ByteChunk,Location>();
+	protected boolean opened;
+	/** Number of records whose SHA-1s have been checked by scan, for testing */
+	long scannedRecordCount;
+	protected long lastRefreshTime;
+	protected RandomAccessFile lockFile;
+	protected FileLock writeLock;
+	
+	/**
+	 * @param packDir directory in which to keep pack files
+	 * @param looseRepo repository in which to store blobs bigger than smallBlobSizeLimit
+	 */
+	public PackFileRepository( File packDir, SHA1FileRepository looseRepo, int smallBlobSizeLimit, long maxPackSize ) {
+		if( maxPackSize > Integer.MAX_VALUE / 2 ) {
+			throw new IllegalArgumentException("Max pack size must be small enough to memory-map: "+maxPackSize);
+		}
+		this.packDir = packDir;
+		this.looseRepo = looseRepo;
+		this.smallBlobSizeLimit = smallBlobSizeLimit;
+		this.maxPackSize = maxPackSize;
+	}
+	
+	public PackFileRepository( File packDir, SHA1FileRepository looseRepo ) {
+		this( packDir, looseRepo, DEFAULT_SMALL_BLOB_SIZE_LIMIT, DEFAULT_MAX_PACK_SIZE );
+	}
+	
+	/** Where the packs for the repository whose data directory is given live */
+	public static File getPackDir( File dataDir ) {
+		return new File(dataDir.getAbsoluteFile().getParentFile(), "packs");
+	}
+	
+	/**
+	 * True if the repository whose data directory is given has packs.
+	 * Things that walk the data directory (sync-repo, scrub, gc, index-repo)
+	 * don't see packed blobs, so they check this and refuse to run
+	 * rather than quietly leave them out.
+	 */
+	public static boolean isPacked( File dataDir ) {
+		return getPackDir(dataDir).isDirectory();
+	}
+	
+	/**
+	 * Returns a PackFileRepository in front of the given one
+	 * if its repository has a packs directory, or the given one if not.
+	 * Creating <repo>/packs is how a repository opts in to packing,
+	 * since things that only know about data/ won't see packed blobs.
+	 */
+	public static Repository open( SHA1FileRepository looseRepo ) {
+		return isPacked(looseRepo.getDataDir()) ? new PackFileRepository(getPackDir(looseRepo.getDataDir()), looseRepo) : looseRepo;
+	}
+	
+	//// Opening and scanning packs
+	
+	protected static int compareSha1s( byte[] a, int aOffset, byte[] b, int bOffset ) {
+		for( int i=0; i<SHA1_SIZE; ++i ) {
+			int d = (a[aOffset+i] & 0xFF) - (b[bOffset+i] & 0xFF);
+			if( d != 0 ) return d;
+		}
+		return 0;
+	}
+	
+	protected static boolean hasMagic( ByteBuffer buf, int position, byte[] magic ) {
+		for( int i=0; i<magic.length; ++i ) {
+			if( buf.get(position+i) != magic[i] ) return false;
+		}
+		return true;
+	}
+	
+	protected void openPackFile( Pack p, boolean writable ) throws IOException {
+		if( p.raf == null ) {
+			p.raf = new RandomAccessFile( p.packFile, writable ? "rw" : "r" );
+			p.channel = p.raf.getChannel();
+		}
+	}
+	
+	protected void loadIndex( Pack p ) throws IOException {
+		openPackFile( p, false );
+		p.data = p.channel.map( FileChannel.MapMode.READ_ONLY, 0, p.channel.size() );
+		RandomAccessFile indexRaf = new RandomAccessFile( p.indexFile, "r" );
+		try {
+			p.index = indexRaf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, indexRaf.length() );
+		} finally {
+			indexRaf.close();
+		}
+		if( p.index.capacity() < INDEX_HEADER_SIZE || !hasMagic(p.index, 0, INDEX_MAGIC) ) {
+			throw new IOException(p.indexFile+" is not a pack index");
+		}
+		p.indexEntryCount = p.index.getInt(4);
+		if( p.index.capacity() < INDEX_HEADER_SIZE + (long)p.indexEntryCount * INDEX_ENTRY_SIZE ) {
+			throw new IOException(p.indexFile+" is truncated");
+		}
+	}
+	
+	protected static boolean hasMagic( byte[] buf, int offset, byte[] magic ) {
+		for( int i=0; i<magic.length; ++i ) {
+			if( buf[offset+i] != magic[i] ) return false;
+		}
+		return true;
+	}
+	
+	protected static MessageDigest newSha1Digestor() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new IOException("SHA-1 isn't available", e);
+		}
+	}
+	
+	protected static void readFully( FileChannel chan, ByteBuffer dest, long position ) throws IOException {
+		while( dest.hasRemaining() ) {
+			if( chan.read( dest, position + dest.position() ) <= 0 ) break;
+		}
+	}
+	
+	/**
+	 * Returns true if the pack has a complete record header
+	 * for the given SHA-1 and length right before dataOffset.
+	 */
+	protected static boolean recordHeaderMatches( Pack p, long dataOffset, byte[] sha1, int length ) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		readFully( p.channel, header, dataOffset - RECORD_HEADER_SIZE );
+		if( header.hasRemaining() || !hasMagic(header, 0, RECORD_MAGIC) ) return false;
+		if( compareSha1s(header.array(), 4, sha1, 0) != 0 ) return false;
+		return header.getInt(4 + SHA1_SIZE) == length;
+	}
+	
+	/**
+	 * Read whatever entries are usable from an unsealed pack's tail file
+	 * into unsealedEntries, so that only records written after the last
+	 * entry need to be scanned.
+	 */
+	protected void loadTail( Pack p ) throws IOException {
+		if( !p.tailFile.exists() ) return;
+		long packSize = p.channel.size();
+		long tailSize = p.tailFile.length();
+		if( tailSize < TAIL_HEADER_SIZE ) return;
+		
+		ArrayList<ByteChunk> keys = new ArrayList<ByteChunk>();
+		ArrayList<Location> locations = new ArrayList<Location>();
+		long end = 0;
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(p.tailFile), 65536));
+		try {
+			byte[] magic = new byte[TAIL_HEADER_SIZE];
+			dis.readFully( magic );
+			if( !hasMagic(magic, 0, TAIL_MAGIC) ) return;
+			for( long i=(tailSize - TAIL_HEADER_SIZE) / INDEX_ENTRY_SIZE; i>0; --i ) {
+				byte[] sha1 = new byte[SHA1_SIZE];
+				dis.readFully( sha1 );
+				long dataOffset = dis.readLong();
+				int length = dis.readInt();
+				if( dataOffset != end + RECORD_HEADER_SIZE || length < 0 || dataOffset + length > packSize ) break;
+				keys.add( new SimpleByteChunk(sha1) );
+				locations.add( new Location(p, dataOffset, length) );
+				end = dataOffset + length;
+			}
+		} finally {
+			dis.close();
+		}
+		
+		if( !keys.isEmpty() ) {
+			int last = keys.size() - 1;
+			Location l = locations.get(last);
+			if( !recordHeaderMatches(p, l.dataOffset, keys.get(last).getBuffer(), l.length) ) {
+				keys.remove(last);
+				locations.remove(last);
+				end = l.dataOffset - RECORD_HEADER_SIZE;
+			}
+		}
+		for( int i=0; i<keys.size(); ++i ) unsealedEntries.put( keys.get(i), locations.get(i) );
+		p.scannedLength = p.tailCoveredLength = end;
+		p.tailLength = TAIL_HEADER_SIZE + (long)keys.size() * INDEX_ENTRY_SIZE;
+	}
+	
+	/**
+	 * Read any records that have been added to an unsealed pack
+	 * since it was last scanned into unsealedEntries,
+	 * checking that each one is complete and has the SHA-1 it claims to.
+	 */
+	protected void scan( Pack p ) throws IOException {
+		long size = p.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		MessageDigest digestor = null;
+		while( p.scannedLength + RECORD_HEADER_SIZE <= size ) {
+			header.clear();
+			readFully( p.channel, header, p.scannedLength );
+			if( header.hasRemaining() || !hasMagic(header, 0, RECORD_MAGIC) ) break;
+			int length = header.getInt(4 + SHA1_SIZE);
+			long dataOffset = p.scannedLength + RECORD_HEADER_SIZE;
+			if( length < 0 || dataOffset + length > size ) break;
+			
+			ByteBuffer data = ByteBuffer.allocate(length);
+			readFully( p.channel, data, dataOffset );
+			if( data.hasRemaining() ) break;
+			if( digestor == null ) digestor = newSha1Digestor();
+			byte[] sha1 = new byte[SHA1_SIZE];
+			System.arraycopy( header.array(), 4, sha1, 0, SHA1_SIZE );
+			++scannedRecordCount;
+			// Possibly still being written by another process
+			if( !Arrays.equals(sha1, digestor.digest(data.array())) ) break;
+			
+			unsealedEntries.put( new SimpleByteChunk(sha1), new Location(p, dataOffset, length) );
+			p.scannedLength = dataOffset + length;
+		}
+	}
+	
+	protected Pack getPack( int number ) {
+		for( Pack p : packs ) if( p.number == number ) return p;
+		return null;
+	}
+	
+	/**
+	 * Pick up any packs that have appeared since last time,
+	 * and any records added to unsealed ones.
+	 */
+	protected synchronized void refresh() throws IOException {
+		lastRefreshTime = System.currentTimeMillis();
+		File[] files = packDir.listFiles();
+		if( files != null ) for( File f : files ) {
+			Matcher m = PACK_FILENAME_PATTERN.matcher(f.getName());
+			if( !m.matches() ) continue;
+			int number = Integer.parseInt(m.group(1));
+			if( getPack(number) != null ) continue;
+			packs.add( new Pack(packDir, number) );
+		}
+		Collections.sort( packs, new Comparator<Pack>() {
+			@Override public int compare( Pack a, Pack b ) {
+				return a.number > b.number ? -1 : a.number < b.number ? 1 : 0;
+			}
+		});
+		for( Pack p : packs ) {
+			if( p.isSealed() ) continue;
+			if( p.indexFile.exists() ) {
+				// Sealed by someone else since we last looked
+				p.close();
+				loadIndex( p );
+				for( Iterator<Location> i = unsealedEntries.values().iterator(); i.hasNext(); ) {
+					if( i.next().pack == p ) i.remove();
+				}
+			} else {
+				openPackFile( p, writeLock != null );
+				if( p.scannedLength == 0 ) loadTail( p );
+				scan( p );
+			}
+		}
+	}
+	
+	protected synchronized void open() throws IOException {
+		if( !opened ) {
+			refresh();
+			opened = true;
+		}
+	}
+	
+	//// Writing
+	
+	protected void writeIndex( Pack p ) throws IOException {
+		ArrayList<Map.Entry<ByteChunk,Location>> entries = new ArrayList<Map.Entry<ByteChunk,Location>>();
+		for( Map.Entry<ByteChunk,Location> e : unsealedEntries.entrySet() ) {
+			if( e.getValue().pack == p ) entries.add(e);
+		}
+		Collections.sort( entries, new Comparator<Map.Entry<ByteChunk,Location>>() {
+			@Override public int compare( Map.Entry<ByteChunk,Location> a, Map.Entry<ByteChunk,Location> b ) {
+				return compareSha1s( a.getKey().getBuffer(), a.getKey().getOffset(), b.getKey().getBuffer(), b.getKey().getOffset() );
+			}
+		});
+		
+		ByteBuffer buf = ByteBuffer.allocate( INDEX_HEADER_SIZE + entries.size() * INDEX_ENTRY_SIZE );
+		buf.put( INDEX_MAGIC );
+		buf.putInt( entries.size() );
+		for( Map.Entry<ByteChunk,Location> e : entries ) {
+			buf.put( e.getKey().getBuffer(), e.getKey().getOffset(), SHA1_SIZE );
+			buf.putLong( e.getValue().dataOffset );
+			buf.putInt( e.getValue().length );
+		}
+		
+		File tempFile = new File(p.indexFile.getPath()+".temp");
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		try {
+			fos.write( buf.array() );
+			fos.getFD().sync();
+		} finally {
+			fos.close();
+		}
+		if( !tempFile.renameTo(p.indexFile) ) {
+			throw new IOException("Failed to rename "+tempFile+" to "+p.indexFile);
+		}
+	}
+	
+	protected void seal( Pack p ) throws IOException {
+		p.channel.truncate( p.scannedLength );
+		p.channel.force( true );
+		writeIndex( p );
+		p.close();
+		p.tailFile.delete();
+		p.tailLength = p.tailCoveredLength = 0;
+		loadIndex( p );
+		for( Iterator<Location> i = unsealedEntries.values().iterator(); i.hasNext(); ) {
+			if( i.next().pack == p ) i.remove();
+		}
+	}
+	
+	protected static void writeTailEntry( Pack p, byte[] sha1, long dataOffset, int length ) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+		entry.put( sha1, 0, SHA1_SIZE );
+		entry.putLong( dataOffset );
+		entry.putInt( length );
+		entry.flip();
+		FileChannel chan = p.tailRaf.getChannel();
+		while( entry.hasRemaining() ) chan.write( entry, p.tailLength + entry.position() );
+		p.tailLength += INDEX_ENTRY_SIZE;
+		p.tailCoveredLength = dataOffset + length;
+	}
+	
+	/**
+	 * Open the pack's tail file for appending, dropping anything
+	 * in it that's not known to be good and adding entries
+	 * for any records that were found by scanning.
+	 */
+	protected void openTailForWriting( Pack p ) throws IOException {
+		p.tailRaf = new RandomAccessFile( p.tailFile, "rw" );
+		if( p.tailLength == 0 ) {
+			p.tailRaf.setLength( 0 );
+			p.tailRaf.write( TAIL_MAGIC );
+			p.tailLength = TAIL_HEADER_SIZE;
+			p.tailCoveredLength = 0;
+		} else {
+			p.tailRaf.setLength( p.tailLength );
+		}
+		
+		ArrayList<Map.Entry<ByteChunk,Location>> untailed = new ArrayList<Map.Entry<ByteChunk,Location>>();
+		for( Map.Entry<ByteChunk,Location> e : unsealedEntries.entrySet() ) {
+			Location l = e.getValue();
+			if( l.pack == p && l.dataOffset > p.tailCoveredLength ) untailed.add(e);
+		}
+		Collections.sort( untailed, new Comparator<Map.Entry<ByteChunk,Location>>() {
+			@Override public int compare( Map.Entry<ByteChunk,Location> a, Map.Entry<ByteChunk,Location> b ) {
+				long d = a.getValue().dataOffset - b.getValue().dataOffset;
+				return d < 0 ? -1 : d > 0 ? 1 : 0;
+			}
+		});
+		for( Map.Entry<ByteChunk,Location> e : untailed ) {
+			writeTailEntry( p, e.getKey().getBuffer(), e.getValue().dataOffset, e.getValue().length );
+		}
+	}
+	
+	/**
+	 * Take the write lock if we don't have it already, reopen unsealed packs
+	 * for writing, seal any that aren't the newest, and return the one to append to.
+	 * Returns null if another process has the lock.
+	 */
+	protected Pack getPackForWriting() throws IOException {
+		if( writeLock == null ) {
+			packDir.mkdirs();
+			lockFile = new RandomAccessFile( new File(packDir, "write.lock"), "rw" );
+			try {
+				writeLock = lockFile.getChannel().tryLock();
+			} catch( OverlappingFileLockException e ) {
+				// Another PackFileRepository in this JVM has it
+			}
+			if( writeLock == null ) {
+				lockFile.close();
+				lockFile = null;
+				return null;
+			}
+			for( Pack p : packs ) if( !p.isSealed() ) p.close();
+			refresh();
+			for( int i=1; i<packs.size(); ++i ) {
+				if( !packs.get(i).isSealed() ) seal( packs.get(i) );
+			}
+		}
+		
+		Pack p = packs.isEmpty() ? null : packs.get(0);
+		if( p != null && !p.isSealed() && p.scannedLength >= maxPackSize ) {
+			seal( p );
+		}
+		if( p == null || p.isSealed() ) {
+			p = new Pack( packDir, p == null ? 1 : p.number + 1 );
+			openPackFile( p, true );
+			packs.add( 0, p );
+		}
+		if( p.channel.size() > p.scannedLength ) {
+			// Cut off anything left over from a failed write
+			p.channel.truncate( p.scannedLength );
+		}
+		if( p.tailRaf == null ) {
+			openTailForWriting( p );
+			// The tail, and maybe the pack, were just created
+			if( looseRepo.getSyncer() != null ) looseRepo.getSyncer().syncDirectory( packDir );
+		}
+		return p;
+	}
+	
+	/**
+	 * Returns the pack that the record is in,
+	 * or null if the packs are locked by another process
+	 */
+	protected synchronized Pack append( byte[] sha1, byte[] data, int length ) throws IOException {
+		ByteChunk key = new SimpleByteChunk(sha1);
+		Location existing = unsealedEntries.get(key);
+		if( existing != null ) return existing.pack;
+		
+		Pack p = getPackForWriting();
+		if( p == null ) return null;
+		ByteBuffer buf = ByteBuffer.allocate( RECORD_HEADER_SIZE + length );
+		buf.put( RECORD_MAGIC );
+		buf.put( sha1 );
+		buf.putInt( length );
+		buf.put( data, 0, length );
+		buf.flip();
+		long pos = p.scannedLength;
+		while( buf.hasRemaining() ) {
+			pos += p.channel.write( buf, pos );
+		}
+		unsealedEntries.put( key, new Location(p, p.scannedLength + RECORD_HEADER_SIZE, length) );
+		// Only once the record's all there
+		writeTailEntry( p, sha1, p.scannedLength + RECORD_HEADER_SIZE, length );
+		p.scannedLength = pos;
+		return p;
+	}
+	
+	/**
+	 * If the loose repository syncs, sync what's been appended to the pack
+	 * and its tail.  Done outside of append's lock so that other threads'
+	 * appends can join the same batch.
+	 */
+	protected void sync( Pack p ) throws IOException {
+		GroupSyncer syncer = looseRepo.getSyncer();
+		if( syncer == null ) return;
+		RandomAccessFile raf, tailRaf;
+		synchronized( this ) {
+			// Sealing forces the pack, and packs that we're not
+			// writing to are some other process's to sync
+			if( p.isSealed() || p.tailRaf == null ) return;
+			raf = p.raf;
+			tailRaf = p.tailRaf;
+		}
+		try {
+			syncer.sync( raf.getFD() );
+			syncer.sync( tailRaf.getFD() );
+		} catch( IOException e ) {
+			// Maybe because it got sealed and closed in the meantime
+			synchronized( this ) {
+				if( p.isSealed() ) return;
+			}
+			throw e;
+		}
+	}
+	
+	//// Reading
+	
+	protected static byte[] sha1( String urn ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return null;
+		return Base32.decode(m.group(1));
+	}
+	
+	protected static Location findInIndex( Pack p, byte[] sha1 ) {
+		ByteBuffer index = p.index;
+		byte[] entrySha1 = new byte[SHA1_SIZE];
+		int lo = 0, hi = p.indexEntryCount - 1;
+		while( lo <= hi ) {
+			int mid = (lo + hi) >>> 1;
+			int entryPos = INDEX_HEADER_SIZE + mid * INDEX_ENTRY_SIZE;
+			for( int i=0; i<SHA1_SIZE; ++i ) entrySha1[i] = index.get(entryPos+i);
+			int c = compareSha1s( entrySha1, 0, sha1, 0 );
+			if( c < 0 ) lo = mid + 1;
+			else if( c > 0 ) hi = mid - 1;
+			else return new Location( p, index.getLong(entryPos+SHA1_SIZE), index.getInt(entryPos+SHA1_SIZE+8) );
+		}
+		return null;
+	}
+	
+	protected synchronized Location findPacked( byte[] sha1 ) throws IOException {
+		Location l = unsealedEntries.get( new SimpleByteChunk(sha1) );
+		if( l != null ) return l;
+		for( Pack p : packs ) {
+			if( p.isSealed() && (l = findInIndex(p, sha1)) != null ) return l;
+		}
+		return null;
+	}
+	
+	protected Location find( String urn ) throws IOException {
+		byte[] sha1 = sha1(urn);
+		if( sha1 == null ) return null;
+		open();
+		Location l = findPacked( sha1 );
+		if( l == null && writeLock == null && System.currentTimeMillis() - lastRefreshTime >= REFRESH_INTERVAL ) {
+			// Someone else may have added it
+			refresh();
+			l = findPacked( sha1 );
+		}
+		return l;
+	}
+	
+	protected ByteChunk read( Location l ) throws IOException {
+		byte[] data = new byte[l.length];
+		ByteBuffer dest = ByteBuffer.wrap(data);
+		synchronized( this ) {
+			if( l.pack.isSealed() ) {
+				ByteBuffer src = l.pack.data.duplicate();
+				src.position( (int)l.dataOffset );
+				src.get( data );
+			} else {
+				while( dest.hasRemaining() ) {
+					int r = l.pack.channel.read( dest, l.dataOffset + dest.position() );
+					if( r <= 0 ) throw new IOException("Unexpected end of "+l.pack.packFile);
+				}
+			}
+		}
+		return new SimpleByteChunk(data);
+	}
+	
+	@Override public boolean contains( String urn ) {
+		try {
+			if( find(urn) != null ) return true;
+		} catch( IOException e ) {
+			System.err.println("Warning: Error reading packs in "+packDir+": "+e.getMessage());
+		}
+		return looseRepo.contains(urn);
+	}
+	
+	@Override public ByteChunk getChunk( String urn, int maxSize ) {
+		try {
+			Location l = find(urn);
+			if( l != null ) return l.length <= maxSize ? read(l) : null;
+		} catch( IOException e ) {
+			return null;
+		}
+		return looseRepo.getChunk(urn, maxSize);
+	}
+	
+	@Override public ByteBlob getBlob( String urn ) throws IOException {
+		Location l = find(urn);
+		if( l != null ) return read(l);
+		return looseRepo.getBlob(urn);
+	}
+	
+	@Override public InputStream getInputStream( String urn ) throws IOException {
+		Location l = find(urn);
+		if( l != null ) return read(l).openInputStream();
+		return looseRepo.getInputStream(urn);
+	}
+	
+	/** Where getFile puts the copy of a packed blob */
+	protected File getUnpackedFile( byte[] sha1 ) {
+		String sha1Base32 = Base32.encode(sha1);
+		return new File(packDir.getAbsoluteFile().getParentFile(), "cache/unpacked/"+sha1Base32.substring(0,2)+"/"+sha1Base32);
+	}
+	
+	@Override public File getFile( String urn ) throws IOException {
+		Location l = find(urn);
+		if( l == null ) return looseRepo.getFile(urn);
+		// Kept around, so the next caller needn't copy it again
+		File f = getUnpackedFile(sha1(urn));
+		if( f.length() != l.length || !f.isFile() ) FileUtil.writeAtomic(f, read(l));
+		return f;
+	}
+	
+	@Override public List<File> getFiles( String urn ) {
+		return looseRepo.getFiles(urn);
+	}
+	
+	//// Storing
+	
+	/**
+	 * Store the data if it's small, otherwise hand it to the loose repository.
+	 * @param expectedSha1 SHA-1 that the data should have, or null if not known
+	 */
+	protected String _put( byte[] expectedSha1, InputStream is ) throws StoreException {
+		try {
+			ByteArrayOutputStream head = new ByteArrayOutputStream();
+			byte[] buffer = new byte[65536];
+			int z;
+			while( head.size() <= smallBlobSizeLimit && (z = is.read(buffer)) > 0 ) {
+				head.write( buffer, 0, z );
+			}
+			if( head.size() > smallBlobSizeLimit ) {
+				// Too big for a pack; the loose repository will close is.
+				InputStream rest = new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), is);
+				if( expectedSha1 == null ) return looseRepo.put(rest);
+				String urn = "urn:sha1:"+Base32.encode(expectedSha1);
+				looseRepo.put(urn, rest);
+				return urn;
+			}
+			
+			byte[] data = head.toByteArray();
+			MessageDigest digestor;
+			try {
+				digestor = MessageDigest.getInstance("SHA-1");
+			} catch( NoSuchAlgorithmException e ) {
+				throw new StoreException( "sha1-not-found-which-is-ridiculous", e );
+			}
+			byte[] sha1 = digestor.digest(data);
+			if( expectedSha1 != null && !Arrays.equals(sha1, expectedSha1) ) {
+				throw new HashMismatchException( "Given and calculated hashes do not match" );
+			}
+			String urn = "urn:sha1:"+Base32.encode(sha1);
+			open();
+			// Even if it's already there, another thread may not have synced it yet
+			Location l = findPacked(sha1);
+			Pack p = l != null ? l.pack : append( sha1, data, data.length );
+			if( p == null ) {
+				looseRepo.put( urn, new ByteArrayInputStream(data) );
+			} else {
+				sync( p );
+			}
+			return urn;
+		} catch( IOException e ) {
+			throw new StoreException( "IOException while storing", e );
+		} finally {
+			try {
+				is.close();
+			} catch( IOException e ) {
+			}
+		}
+	}
+	
+	@Override public void put( String urn, InputStream is ) throws StoreException {
+		byte[] sha1 = sha1(urn);
+		if( sha1 == null ) {
+			try {
+				is.close();
+			} catch( IOException e ) {
+			}
+			throw new UnsupportedSchemeException("Unsupported URN Scheme: "+urn);
+		}
+		if( contains(urn) ) {
+			try {
+				is.close();
+			} catch( IOException e ) {
+			}
+			return;
+		}
+		_put( sha1, is );
+	}
+	
+	@Override public String put( InputStream is ) throws StoreException {
+		return _put( null, is );
+	}
+	
+	@Override public synchronized void close() throws IOException {
+		for( Pack p : packs ) p.close();
+		packs.clear();
+		unsealedEntries.clear();
+		opened = false;
+		if( writeLock != null ) writeLock.release();
+		writeLock = null;
+		if( lockFile != null ) lockFile.close();
+		lockFile = null;
+	}
+	
+	public String toString() {
+		return getClass().getName()+"( packDir @ '"+packDir+"', loose = "+looseRepo+" )";
+	}
+}
@@ -0,0 +1,283 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bitpedia.util.Base32;
+
+import togos.blob.ByteBlob;
+import togos.blob.ByteChunk;
+import togos.blob.file.FileBlob;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.SubInputStream;
+
+/**
+ * Read-only repository that fetches blobs from remote repositories
+ * (N2R-style URL prefixes, as given by CCouchContext.getRemoteRepoUrls())
+ * and keeps copies of them in a local cache directory
+ * so that they don't have to be fetched again.
+ *
+ * The cache is bounded by maxSize; when it grows past that,
+ * the least recently used blobs are deleted (see LRUSectorCache).
+ * Blobs that the server says are bigger than maxSize
+ * are passed through without being cached; reading one all the way
+ * through throws an IOException at the end if its SHA-1 doesn't match.
+ * Slices of them are fetched with range requests and can't be checked.
+ *
+ * Fetched data is stored via a SHA1FileRepository, so anything
+ * that doesn't match the SHA-1 in its URN is rejected.
+ * Stuff can't be put into this repository.
+ *
+ * contains() fetches the blob if it's not already cached,
+ * since whoever's asking is probably about to read it anyway.
+ */
+public class RemoteCacheRepository implements Repository
+{
+	public static final long DEFAULT_MAX_SIZE = 1024L*1024*1024;
+	static final String SECTOR = "remote";
+	
+	static final Pattern SHA1EXTRACTOR = Pattern.compile("^urn:(?:sha1|bitprint):([A-Z2-7]{32})");
+	
+	protected final String[] remoteRepoUrls;
+	protected final File cacheDir;
+	public final long maxSize;
+	protected final SHA1FileRepository store;
+	
+	protected final LRUSectorCache cache;
+	
+	protected long hitCount, missCount, fetchCount;
+	
+	public RemoteCacheRepository( String[] remoteRepoUrls, File cacheDir, long maxSize ) {
+		this.remoteRepoUrls = remoteRepoUrls;
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+		this.store = new SHA1FileRepository(cacheDir, SECTOR);
+		this.cache = new LRUSectorCache(new File(cacheDir, SECTOR), maxSize);
+	}
+	
+	public RemoteCacheRepository( String[] remoteRepoUrls, File cacheDir ) {
+		this( remoteRepoUrls, cacheDir, DEFAULT_MAX_SIZE );
+	}
+	
+	public synchronized long getHitCount() { return hitCount; }
+	public synchronized long getMissCount() { return missCount; }
+	/** Number of blobs successfully fetched from remote repositories */
+	public synchronized long getFetchCount() { return fetchCount; }
+	public long getEvictionCount() { return cache.getEvictionCount(); }
+	public long getTotalSize() { return cache.getTotalSize(); }
+	
+	/**
+	 * Try to get the blob from each remote repository in turn.
+	 * Returns a FileBlob if it was cached, a URLBlob if it was too big
+	 * to cache, or null if no remote repository has it.
+	 */
+	protected ByteBlob fetch( String urn, String sha1Base32 ) {
+		for( String repoUrl : remoteRepoUrls ) {
+			URL url;
+			try {
+				url = new URL(repoUrl + urn);
+			} catch( IOException e ) {
+				System.err.println("Warning: Bad remote repository URL '"+repoUrl+urn+"': "+e.getMessage());
+				continue;
+			}
+			try {
+				URLConnection conn = url.openConnection();
+				InputStream is = conn.getInputStream();
+				long length = conn.getContentLength();
+				if( length > maxSize ) {
+					is.close();
+					return new URLBlob(url, sha1Base32, length);
+				}
+				// Closes is
+				store.put( urn, is );
+				File f = cache.blobFile( sha1Base32 );
+				cache.added( sha1Base32, f.length() );
+				synchronized( this ) {
+					++fetchCount;
+				}
+				return new FileBlob(f);
+			} catch( FileNotFoundException e ) {
+				// Not there; try the next one
+			} catch( IOException e ) {
+				System.err.println("Warning: "+e.getClass().getName()+" while fetching "+url+": "+e.getMessage());
+			} catch( StoreException e ) {
+				System.err.println("Warning: "+e.getClass().getName()+" while caching "+url+": "+e.getMessage());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Passes data through, throwing an IOException when it
+	 * reaches the end if the SHA-1 of what was read doesn't match.
+	 */
+	static class SHA1CheckingInputStream extends DigestingInputStream {
+		final String expectedSha1Base32;
+		final String sourceName;
+		boolean checked = false;
+		
+		SHA1CheckingInputStream( InputStream is, String expectedSha1Base32, String sourceName ) {
+			super( newSha1Digest(), is );
+			this.expectedSha1Base32 = expectedSha1Base32;
+			this.sourceName = sourceName;
+		}
+		
+		static MessageDigest newSha1Digest() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch( NoSuchAlgorithmException e ) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		protected int checkAtEnd( int read ) throws IOException {
+			if( read == -1 && !checked ) {
+				checked = true;
+				String sha1Base32 = Base32.encode(Arrays.copyOf(digest(), 20));
+				if( !sha1Base32.equals(expectedSha1Base32) ) {
+					throw new IOException(sourceName+" gave data with SHA-1 "+sha1Base32+"; expected "+expectedSha1Base32);
+				}
+			}
+			return read;
+		}
+		
+		@Override public int read() throws IOException {
+			return checkAtEnd( super.read() );
+		}
+		
+		@Override public int read( byte[] b, int off, int len ) throws IOException {
+			return checkAtEnd( super.read(b, off, len) );
+		}
+	}
+	
+	/**
+	 * Minimal blob for things too big for the cache,
+	 * or a range of one.
+	 */
+	static class URLBlob implements ByteBlob {
+		final URL url;
+		final String sha1Base32;
+		final long size;
+		final long offset, length;
+		
+		URLBlob( URL url, String sha1Base32, long size, long offset, long length ) {
+			this.url = url;
+			this.sha1Base32 = sha1Base32;
+			this.size = size;
+			this.offset = offset;
+			this.length = length;
+		}
+		
+		URLBlob( URL url, String sha1Base32, long size ) {
+			this( url, sha1Base32, size, 0, size );
+		}
+		
+		@Override public InputStream openInputStream() throws IOException {
+			if( offset == 0 && length == size ) {
+				return new SHA1CheckingInputStream( url.openStream(), sha1Base32, url.toString() );
+			}
+			URLConnection conn = url.openConnection();
+			if( conn instanceof HttpURLConnection ) {
+				conn.setRequestProperty("Range", "bytes="+offset+"-"+(offset+length-1));
+			}
+			InputStream is = conn.getInputStream();
+			if( conn instanceof HttpURLConnection && ((HttpURLConnection)conn).getResponseCode() == 206 ) {
+				return new SubInputStream( is, 0, length );
+			}
+			// Server ignored the range; skip to it
+			return new SubInputStream( is, offset, length );
+		}
+		
+		@Override public void writeTo( OutputStream os ) throws IOException {
+			InputStream is = openInputStream();
+			try {
+				BlobUtil.pipe( is, os );
+			} finally {
+				is.close();
+			}
+		}
+		
+		@Override public long getSize() { return length; }
+		
+		@Override public ByteBlob slice( long offset, long length ) {
+			return new URLBlob( url, sha1Base32, size, this.offset + offset, length );
+		}
+	}
+	
+	@Override public ByteBlob getBlob( String urn ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return null;
+		String sha1Base32 = m.group(1);
+		
+		FileBlob f = cache.get( sha1Base32 );
+		synchronized( this ) {
+			if( f != null ) ++hitCount; else ++missCount;
+		}
+		if( f != null ) return f;
+		return fetch( urn, sha1Base32 );
+	}
+	
+	@Override public boolean contains( String urn ) {
+		return getBlob( urn ) != null;
+	}
+	
+	@Override public ByteChunk getChunk( String urn, int maxSize ) {
+		ByteBlob b = getBlob( urn );
+		if( !(b instanceof FileBlob) ) return null;
+		try {
+			return FileUtil.read( (FileBlob)b, maxSize );
+		} catch( IOException e ) {
+			return null;
+		}
+	}
+	
+	@Override public InputStream getInputStream( String urn ) throws IOException {
+		ByteBlob b = getBlob( urn );
+		if( b == null ) throw new FileNotFoundException(urn+" not found in any remote repository");
+		return b.openInputStream();
+	}
+	
+	@Override public File getFile( String urn ) throws IOException {
+		ByteBlob b = getBlob( urn );
+		if( b instanceof FileBlob ) return (FileBlob)b;
+		throw new FileNotFoundException(urn+" not found in any remote repository, or too big to cache");
+	}
+	
+	@Override public List<File> getFiles( String urn ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return Collections.emptyList();
+		File f = cache.get( m.group(1) );
+		if( f == null ) return Collections.emptyList();
+		return Collections.singletonList(f);
+	}
+	
+	@Override public void put( String urn, InputStream is ) throws StoreException {
+		put( is );
+	}
+	
+	@Override public String put( InputStream is ) throws StoreException {
+		try {
+			is.close();
+		} catch( IOException e ) {
+		}
+		throw new StoreException("Repository is read-only");
+	}
+	
+	public String toString() {
+		return getClass().getSimpleName()+"( cacheDir @ '"+cacheDir+"' )";
+	}
+}
@@ -1,7 +1,6 @@
 package togos.ccouch3.repo;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,6 +8,7 @@ import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -20,13 +20,21 @@ import org.bitpedia.util.Base32;
 
 import togos.blob.ByteChunk;
 import togos.blob.file.FileBlob;
-import togos.blob.util.SimpleByteChunk;
 import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.GroupSyncer;
 
 public class SHA1FileRepository implements Repository
 {
 	protected final File dataDir;
 	protected final String storeSector;
+	protected final SHA1PresenceIndex presenceIndex;
+	/**
+	 * If non-null, newly stored files and the directories they're moved
+	 * into are fsynced (via this, so that concurrent puts can share syncs)
+	 * before put returns.  If null, nothing is synced and a crash
+	 * may leave recently stored files empty or truncated.
+	 */
+	protected GroupSyncer syncer;
 	
 	Random r = new Random();
 	
@@ -34,14 +42,43 @@ public class SHA1FileRepository implements Repository
 	 * @param dataDir repository directory
 	 * @param storeSector name of sector within which new data should be saved; if null, this object
 	 *   acts read-only and will not allow data to be stored.
+	 * @param presenceIndex index to consult before scanning sectors and to update
+	 *   when storing things; may be null
 	 */
-	public SHA1FileRepository( File dataDir, String storeSector ) {
+	public SHA1FileRepository( File dataDir, String storeSector, SHA1PresenceIndex presenceIndex ) {
 		this.dataDir = dataDir;
 		this.storeSector = storeSector;
+		this.presenceIndex = presenceIndex;
+	}
+	
+	public SHA1FileRepository( File dataDir, String storeSector ) {
+		this( dataDir, storeSector, null );
+	}
+	
+	/**
+	 * Returns a SHA1FileRepository that uses the repository's presence index
+	 * if one has been built (see PresenceIndexCommand, a.k.a. "ccouch3 index-repo").
+	 */
+	public static SHA1FileRepository open( File dataDir, String storeSector ) {
+		File indexFile = SHA1PresenceIndex.getIndexFile(dataDir);
+		return new SHA1FileRepository( dataDir, storeSector,
+			indexFile.exists() ? SHA1PresenceIndex.forFile(indexFile) : null );
 	}
 	
+	public File getDataDir() { return dataDir; }
+	public String getStoreSector() { return storeSector; }
+	public SHA1PresenceIndex getPresenceIndex() { return presenceIndex; }
+	public GroupSyncer getSyncer() { return syncer; }
+	public void setSyncer( GroupSyncer syncer ) { this.syncer = syncer; }
+	
 	Pattern SHA1EXTRACTOR = Pattern.compile("^urn:(?:sha1|bitprint):([A-Z2-7]{32})");
 	
+	/**
+	 * Returns every copy of the blob, in any sector.
+	 * The presence index only records one sector per blob, so that
+	 * doesn't save listing the sectors when the blob is here,
+	 * but a complete index can say right away that it isn't.
+	 */
 	@Override public List<File> getFiles( String urn ) {
 		Matcher m = SHA1EXTRACTOR.matcher(urn);
 		if( !m.find() ) return Collections.emptyList();
@@ -49,6 +86,11 @@ public class SHA1FileRepository implements Repository
 		
 		String sha1Base32 = m.group(1);
 		
+		if( presenceIndex != null && presenceIndex.isComplete() ) {
+			SHA1PresenceIndex.Entry e = presenceIndex.get(sha1Base32);
+			if( e == null || e.sector == null ) return Collections.emptyList();
+		}
+		
 		String postSectorPath = sha1Base32.substring(0,2) + "/" + sha1Base32;
 		
 		File[] sectorFileList = dataDir.listFiles();
@@ -63,13 +105,24 @@ public class SHA1FileRepository implements Repository
 		return files;
 	}
 	
-	@Override public FileBlob getBlob( String urn ) {
-		Matcher m = SHA1EXTRACTOR.matcher(urn);
-		if( !m.find() ) return null;
+	/**
+	 * Record in the presence index that the blob is in the given sector,
+	 * unless that's what it already says, so that lookups and re-stores
+	 * of blobs it knows about don't keep adding entries to it.
+	 */
+	protected void indexPresence( String sha1Base32, String sector, long size ) {
+		SHA1PresenceIndex.Entry e = presenceIndex.get( sha1Base32 );
+		if( e != null && sector.equals(e.sector) && e.size == size ) return;
+		presenceIndex.put( sha1Base32, sector, size );
+	}
+	
+	/**
+	 * Find the file for the given SHA-1 by checking every sector.
+	 * If an index is being used, record where it was found.
+	 */
+	protected FileBlob scanForBlob( String sha1Base32 ) {
 		if( !dataDir.exists() ) return null;
 		
-		String sha1Base32 = m.group(1);
-		
 		String postSectorPath = sha1Base32.substring(0,2) + "/" + sha1Base32;
 		
 		File[] sectorFileList = dataDir.listFiles();
@@ -77,11 +130,48 @@ public class SHA1FileRepository implements Repository
 		
 		for( File sector : sectorFileList ) {
 			FileBlob blobFile = new FileBlob(sector, postSectorPath);
-			if( blobFile.exists() ) return blobFile;
+			if( blobFile.exists() ) {
+				if( presenceIndex != null ) {
+					// If a complete index didn't know about it,
+					// something's been adding files behind its back.
+					if( presenceIndex.isComplete() ) presenceIndex.setComplete(false);
+					indexPresence( sha1Base32, sector.getName(), blobFile.length() );
+				}
+				return blobFile;
+			}
 		}
 		return null;
 	}
 	
+	/**
+	 * @param trustIndex if true and the index is complete, believe it
+	 *   when it says the blob isn't here instead of scanning to make sure.
+	 */
+	protected FileBlob findBlob( String urn, boolean trustIndex ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return null;
+		
+		String sha1Base32 = m.group(1);
+		
+		if( presenceIndex != null ) {
+			SHA1PresenceIndex.Entry e = presenceIndex.get(sha1Base32);
+			if( e != null && e.sector != null ) {
+				FileBlob blobFile = new FileBlob(dataDir, e.sector + "/" + sha1Base32.substring(0,2) + "/" + sha1Base32);
+				if( blobFile.exists() ) return blobFile;
+				// Removed behind the index's back
+				presenceIndex.remove(sha1Base32);
+			} else if( trustIndex && presenceIndex.isComplete() ) {
+				return null;
+			}
+		}
+		
+		return scanForBlob(sha1Base32);
+	}
+	
+	@Override public FileBlob getBlob( String urn ) {
+		return findBlob( urn, false );
+	}
+	
 	protected FileBlob _getFile( String urn ) { return getBlob(urn); }
 	
 	@Override public FileBlob getFile( String urn ) throws FileNotFoundException {
@@ -90,26 +180,21 @@ public class SHA1FileRepository implements Repository
 		return f;
 	}
 	
+	/**
+	 * With a complete presence index, misses are answered from the
+	 * index alone, so if something has been added to the data directory
+	 * without the index's knowledge this may return false for it
+	 * until the index is rebuilt (getBlob and friends will still find it).
+	 */
 	@Override public boolean contains(String urn) {
-		return _getFile( urn ) != null; 
+		return findBlob( urn, true ) != null;
 	}
 	
 	@Override public ByteChunk getChunk( String urn, int maxSize ) {
 		try {
 			File f = _getFile( urn );
 			if( f == null || f.length() > maxSize ) return null;
-			
-			int size = (int)f.length();
-			byte[] data = new byte[size];
-			FileInputStream fis = new FileInputStream( f );
-			try {
-				int r=0;
-				for( int z; r < size && (z=fis.read(data, r, size-r)) > 0; r += z);
-				if( r < size ) return null;
-				return new SimpleByteChunk(data);
-			} finally {
-				fis.close();
-			}
+			return FileUtil.read( f, maxSize );
 		} catch( IOException e ) {
 			return null;
 		}
@@ -121,13 +206,103 @@ public class SHA1FileRepository implements Repository
 		return f.openInputStream();
 	}
 	
+	/**
+	 * Result of putAndDigest.
+	 */
+	public static class DigestedPutResult {
+		public final String sha1Urn;
+		/** The digest of the data as calculated by the digestor passed to putAndDigest */
+		public final byte[] digest;
+		/** False if the blob was already in the repository */
+		public final boolean newlyStored;
+		
+		public DigestedPutResult( String sha1Urn, byte[] digest, boolean newlyStored ) {
+			this.sha1Urn = sha1Urn;
+			this.digest = digest;
+			this.newlyStored = newlyStored;
+		}
+	}
+	
+	protected static MessageDigest newSha1Digestor() throws StoreException {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new StoreException( "sha1-not-found-which-is-ridiculous", e );
+		}
+	}
+	
+	/**
+	 * Copy the stream to a temp file, feeding it to the digestor as it goes,
+	 * and then move the temp file into place.
+	 * If there's a syncer, the data is synced before the rename
+	 * (so that the file can't show up under its final name with
+	 * incomplete contents) and the directory after it.
+	 * The digestor's output must start with the SHA-1 of the data.
+	 * Does not close the input stream.
+	 */
+	protected DigestedPutResult store( InputStream is, MessageDigest digestor, String expectedSha1Base32, String tempFileName1 )
+		throws StoreException, IOException
+	{
+		File tempFile = new File(dataDir + "/" + storeSector + "/." + tempFileName1 + "-" + r.nextInt(Integer.MAX_VALUE) + ".temp" );
+		try {
+			FileUtil.mkParentDirs( tempFile );
+			FileOutputStream fos = new FileOutputStream( tempFile );
+			try {
+				byte[] buffer = new byte[65536];
+				int z;
+				while( (z = is.read(buffer)) > 0 ) {
+					digestor.update( buffer, 0, z );
+					fos.write( buffer, 0, z );
+				}
+				if( syncer != null ) syncer.sync( fos.getFD() );
+			} finally {
+				fos.close();
+			}
+			byte[] digest = digestor.digest();
+			if( digest.length < 20 ) {
+				throw new StoreException( digestor.getAlgorithm()+" digest is too short to contain a SHA-1" );
+			}
+			String calculatedSha1Base32 = Base32.encode(Arrays.copyOf(digest, 20));
+			if( expectedSha1Base32 != null && !calculatedSha1Base32.equals(expectedSha1Base32) ) {
+				throw new HashMismatchException( "Given and calculated hashes do not match" );
+			}
+			String sha1Urn = "urn:sha1:"+calculatedSha1Base32;
+			File finalFile = new File(dataDir + "/" + storeSector + "/" + calculatedSha1Base32.substring(0,2) + "/" + calculatedSha1Base32);
+			File finalDir = finalFile.getParentFile();
+			boolean createdFinalDir = !finalDir.exists();
+			FileUtil.mkParentDirs( finalFile );
+			if( finalFile.exists() ) {
+				tempFile.delete();
+				touch( finalFile );
+				// Whoever put it there may not have synced the directory yet
+				if( syncer != null ) syncer.syncDirectory( finalDir );
+				if( presenceIndex != null ) indexPresence( calculatedSha1Base32, storeSector, finalFile.length() );
+				return new DigestedPutResult( sha1Urn, digest, false );
+			}
+			long size = tempFile.length();
+			if( !tempFile.renameTo(finalFile) ) {
+				throw new StoreException( "Failed to move "+tempFile+" to "+finalFile+" (renameTo returned false)" );
+			}
+			if( syncer != null ) {
+				syncer.syncDirectory( finalDir );
+				if( createdFinalDir ) syncer.syncDirectory( finalDir.getParentFile() );
+			}
+			if( presenceIndex != null ) indexPresence( calculatedSha1Base32, storeSector, size );
+			return new DigestedPutResult( sha1Urn, digest, true );
+		} finally {
+			if( tempFile.exists() )	tempFile.delete();
+		}
+	}
+	
 	public String _put(String urn, InputStream is) throws StoreException {
 		if( storeSector == null ) {
 			throw new StoreException("Repository is read-only");
 		}
 		
 		try {
-			if( urn != null && contains(urn) ) {
+			FileBlob existing = urn == null ? null : findBlob( urn, true );
+			if( existing != null ) {
+				touch( existing );
 				return urn;
 			} else {
 				String tempFileName1;
@@ -144,44 +319,7 @@ public class SHA1FileRepository implements Repository
 					tempFileName1 = expectedSha1Base32;
 				}
 				
-				File tempFile = new File(dataDir + "/" + storeSector + "/." + tempFileName1 + "-" + r.nextInt(Integer.MAX_VALUE) + ".temp" );
-				try {
-					FileUtil.mkParentDirs( tempFile );
-					MessageDigest digestor;
-					try {
-						digestor = MessageDigest.getInstance("SHA-1");
-					} catch( NoSuchAlgorithmException e ) {
-						throw new StoreException( "sha1-not-found-which-is-ridiculous", e );
-					}
-					FileOutputStream fos = new FileOutputStream( tempFile );
-					try {
-						byte[] buffer = new byte[65536];
-						int z;
-						while( (z = is.read(buffer)) > 0 ) {
-							digestor.update( buffer, 0, z );
-							fos.write( buffer, 0, z );
-						}
-					} finally {
-						fos.close();
-					}
-					byte[] digest = digestor.digest();
-					String calculatedSha1Base32 = Base32.encode(digest);
-					if( expectedSha1Base32 != null && !calculatedSha1Base32.equals(expectedSha1Base32) ) {
-						throw new HashMismatchException( "Given and calculated hashes do not match" );
-					}
-					File finalFile = new File(dataDir + "/" + storeSector + "/" + calculatedSha1Base32.substring(0,2) + "/" + calculatedSha1Base32);
-					FileUtil.mkParentDirs( finalFile );
-					if( finalFile.exists() ) {
-						tempFile.delete();
-						return "urn:sha1:"+calculatedSha1Base32;
-					}
-					if( !tempFile.renameTo(finalFile) ) {
-						throw new StoreException( "Failed to move "+tempFile+" to "+finalFile+" (renameTo returned false)" );
-					}
-					return "urn:sha1:"+calculatedSha1Base32;
-				} finally {
-					if( tempFile.exists() )	tempFile.delete();
-				}
+				return store( is, newSha1Digestor(), expectedSha1Base32, tempFileName1 ).sha1Urn;
 			}
 		} catch( IOException e ) {
 			throw new StoreException( "IOException while storing", e );
@@ -193,6 +331,53 @@ public class SHA1FileRepository implements Repository
 		}
 	};
 	
+	/**
+	 * Called when something being stored is already here.
+	 * Bumps the file's modification time so that garbage collection
+	 * (which spares blobs modified less than -min-age ago) won't delete
+	 * it out from under whoever stored it before they've referenced it.
+	 */
+	protected static void touch( File blobFile ) {
+		blobFile.setLastModified( System.currentTimeMillis() );
+	}
+	
+	/**
+	 * For callers that skip storing a blob because they know it's
+	 * already here: touch it as put would have.
+	 * @return true if the blob is here, i.e. what contains would have said
+	 */
+	public boolean touch( String urn ) {
+		FileBlob existing = findBlob( urn, true );
+		if( existing == null ) return false;
+		touch( existing );
+		return true;
+	}
+	
+	/**
+	 * Store the stream's contents, feeding them to the given digestor
+	 * along the way so that other hashes of the data (e.g. a bitprint)
+	 * can be calculated without reading it a second time.
+	 * The digestor's output must start with the SHA-1 of the data,
+	 * as is the case for SHA-1 and bitprint digests.
+	 * The input stream is closed.
+	 */
+	public DigestedPutResult putAndDigest( InputStream is, MessageDigest digestor ) throws StoreException {
+		if( storeSector == null ) {
+			throw new StoreException("Repository is read-only");
+		}
+		
+		try {
+			return store( is, digestor, null, UUID.randomUUID().toString() );
+		} catch( IOException e ) {
+			throw new StoreException( "IOException while storing", e );
+		} finally {
+			try {
+				is.close();
+			} catch( IOException e ) {
+			}
+		}
+	}
+	
 	@Override public void put(String urn, InputStream is) throws StoreException {
 		_put(urn, is);
 	}
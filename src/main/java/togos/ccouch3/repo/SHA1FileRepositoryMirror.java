@@ -0,0 +1,169 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import togos.blob.file.FileBlob;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.GroupSyncer;
+
+/**
+ * Copies every blob in one SHA1FileRepository's data directory that
+ * the destination doesn't already have into the same sector of the
+ * destination, without hashing or otherwise looking at the data.
+ *
+ * Blobs are hard-linked if possible (i.e. both repositories are on the
+ * same filesystem and useHardLinks is true), and otherwise copied with
+ * FileChannel.transferTo (see FileBlob.writeTo).  Once a link fails
+ * the rest are copied without trying.  Linked files share their data,
+ * so don't link a backup of a repository on the same disk
+ * if you want it to survive bit rot.
+ *
+ * Whether the destination already has a blob is answered by
+ * its contains(), which is cheap if it has a presence index,
+ * so repeated mirroring mostly costs a listing of the source.
+ */
+public class SHA1FileRepositoryMirror
+{
+	static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^[A-Z2-7]{32}$");
+	
+	protected final File sourceDataDir;
+	protected final SHA1FileRepository dest;
+	
+	public int threadCount = 1;
+	public boolean useHardLinks = true;
+	/** If non-null, copied files and their directories are synced with this */
+	public GroupSyncer syncer = null;
+	public boolean verbose = false;
+	
+	protected volatile boolean hardLinksWork = true;
+	protected long linkedCount, copiedCount, copiedByteCount, skippedCount, errorCount;
+	protected final Random r = new Random();
+	
+	public SHA1FileRepositoryMirror( File sourceDataDir, SHA1FileRepository dest ) {
+		this.sourceDataDir = sourceDataDir;
+		this.dest = dest;
+	}
+	
+	public synchronized long getLinkedCount() { return linkedCount; }
+	public synchronized long getCopiedCount() { return copiedCount; }
+	public synchronized long getCopiedByteCount() { return copiedByteCount; }
+	public synchronized long getSkippedCount() { return skippedCount; }
+	public synchronized long getErrorCount() { return errorCount; }
+	
+	protected boolean tryLink( File tempFile, File source ) {
+		if( !useHardLinks || !hardLinksWork ) return false;
+		try {
+			if( FileUtil.hardLink(tempFile, source) ) return true;
+		} catch( IOException e ) {
+			if( verbose ) System.err.println("Can't hard-link "+source+" ("+e.getMessage()+"); copying instead");
+		}
+		hardLinksWork = false;
+		return false;
+	}
+	
+	protected void copy( File tempFile, FileBlob source ) throws IOException {
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		try {
+			source.writeTo( fos );
+			if( syncer != null ) syncer.sync( fos.getFD() );
+		} finally {
+			fos.close();
+		}
+		tempFile.setLastModified( source.lastModified() );
+	}
+	
+	protected void mirror( FileBlob source, String sector, String sha1Base32 ) throws IOException {
+		if( dest.contains("urn:sha1:"+sha1Base32) ) {
+			synchronized( this ) { ++skippedCount; }
+			return;
+		}
+		File destDataDir = dest.getDataDir();
+		File finalFile = new File(destDataDir, sector + "/" + sha1Base32.substring(0,2) + "/" + sha1Base32);
+		File tempFile = new File(destDataDir, sector + "/." + sha1Base32 + "-" + r.nextInt(Integer.MAX_VALUE) + ".temp");
+		try {
+			FileUtil.mkParentDirs( tempFile );
+			boolean linked = tryLink( tempFile, source );
+			if( !linked ) copy( tempFile, source );
+			FileUtil.mkParentDirs( finalFile );
+			if( !tempFile.renameTo(finalFile) ) {
+				throw new IOException("Failed to move "+tempFile+" to "+finalFile);
+			}
+			if( syncer != null ) syncer.syncDirectory( finalFile.getParentFile() );
+			SHA1PresenceIndex index = dest.getPresenceIndex();
+			if( index != null ) index.put( sha1Base32, sector, source.length() );
+			synchronized( this ) {
+				if( linked ) {
+					++linkedCount;
+				} else {
+					++copiedCount;
+					copiedByteCount += source.length();
+				}
+			}
+		} finally {
+			if( tempFile.exists() ) tempFile.delete();
+		}
+	}
+	
+	/**
+	 * Mirror every blob in every sector (or just the named ones, if
+	 * sectors is non-null) and return when done.
+	 */
+	public void run( String[] sectors ) throws InterruptedException {
+		if( sectors == null ) {
+			sectors = sourceDataDir.list();
+			if( sectors == null ) return;
+		}
+		Arrays.sort( sectors );
+		
+		ExecutorService executor = Executors.newFixedThreadPool( threadCount, new ThreadFactory() {
+			int count = 0;
+			@Override public synchronized Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "Mirror "+(++count) );
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final Semaphore queueSlots = new Semaphore( threadCount * 2 );
+		try {
+			for( final String sector : sectors ) {
+				File[] subDirs = new File(sourceDataDir, sector).listFiles();
+				if( subDirs == null ) continue;
+				Arrays.sort( subDirs );
+				for( File subDir : subDirs ) {
+					File[] blobFiles = subDir.listFiles();
+					if( blobFiles == null ) continue;
+					for( final File f : blobFiles ) {
+						if( !BLOB_FILENAME_PATTERN.matcher(f.getName()).matches() ) continue;
+						queueSlots.acquire();
+						executor.execute( new Runnable() {
+							@Override public void run() {
+								try {
+									mirror( new FileBlob(f), sector, f.getName() );
+								} catch( IOException e ) {
+									System.err.println("Error mirroring "+f+": "+e.getMessage());
+									synchronized( SHA1FileRepositoryMirror.this ) { ++errorCount; }
+								} finally {
+									queueSlots.release();
+								}
+							}
+						});
+					}
+				}
+			}
+			executor.shutdown();
+			while( !executor.awaitTermination(1, TimeUnit.SECONDS) );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
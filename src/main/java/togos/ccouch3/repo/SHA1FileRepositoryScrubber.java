@@ -0,0 +1,219 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bitpedia.util.Base32;
+
+import togos.ccouch3.util.RateLimiter;
+
+/**
+ * Re-hashes the blob files in a SHA1FileRepository's data directory
+ * to find ones whose contents no longer match their names (bit rot,
+ * truncated writes, files edited by hand).
+ *
+ * Blobs are hashed by a fixed number of threads, optionally with
+ * reads throttled by a RateLimiter so that a scrub can run in the
+ * background without starving everything else of disk bandwidth.
+ *
+ * If a ScrubRecord is given, the time each intact blob was checked
+ * is recorded there, and blobs checked less than minRecheckInterval
+ * milliseconds ago are skipped, so that scrubs can be incremental.
+ *
+ * Bad blobs are moved to quarantineDir/<sector>/<SHA-1 it claimed to be>
+ * (unless quarantineDir is null, in which case they're just reported)
+ * and removed from the presence index, if one's given,
+ * so that nobody gets served the bad data.
+ */
+public class SHA1FileRepositoryScrubber
+{
+	static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^[A-Z2-7]{32}$");
+	
+	public interface Listener {
+		public void blobVerified( File f, long size );
+		public void blobCorrupted( File f, String actualSha1Base32, File quarantinedAs );
+		public void error( File f, String message );
+	}
+	
+	public static final Listener NULL_LISTENER = new Listener() {
+		@Override public void blobVerified( File f, long size ) { }
+		@Override public void blobCorrupted( File f, String actualSha1Base32, File quarantinedAs ) { }
+		@Override public void error( File f, String message ) { }
+	};
+	
+	protected final File dataDir;
+	protected final File quarantineDir;
+	protected final ScrubRecord record;
+	protected final SHA1PresenceIndex presenceIndex;
+	
+	public int threadCount = 1;
+	/** If non-null, reads are counted against this, in bytes */
+	public RateLimiter rateLimiter = null;
+	/** Blobs verified less than this many milliseconds ago are skipped */
+	public long minRecheckInterval = 0;
+	public Listener listener = NULL_LISTENER;
+	
+	protected long verifiedCount, verifiedByteCount, skippedCount, corruptedCount, errorCount;
+	
+	/**
+	 * @param dataDir the repository's data directory
+	 * @param quarantineDir where to move bad blobs; if null, they're left in place
+	 * @param record where to keep track of when blobs were verified; may be null
+	 * @param presenceIndex index to remove bad blobs from; may be null
+	 */
+	public SHA1FileRepositoryScrubber( File dataDir, File quarantineDir, ScrubRecord record, SHA1PresenceIndex presenceIndex ) {
+		this.dataDir = dataDir;
+		this.quarantineDir = quarantineDir;
+		this.record = record;
+		this.presenceIndex = presenceIndex;
+	}
+	
+	public synchronized long getVerifiedCount() { return verifiedCount; }
+	public synchronized long getVerifiedByteCount() { return verifiedByteCount; }
+	public synchronized long getSkippedCount() { return skippedCount; }
+	public synchronized long getCorruptedCount() { return corruptedCount; }
+	public synchronized long getErrorCount() { return errorCount; }
+	
+	protected String sha1Base32( File f ) throws IOException, InterruptedException {
+		MessageDigest digestor;
+		try {
+			digestor = MessageDigest.getInstance("SHA-1");
+		} catch( NoSuchAlgorithmException e ) {
+			throw new RuntimeException(e);
+		}
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			byte[] buffer = new byte[65536];
+			int z;
+			while( (z = fis.read(buffer)) > 0 ) {
+				if( rateLimiter != null ) rateLimiter.acquire(z);
+				digestor.update( buffer, 0, z );
+			}
+		} finally {
+			fis.close();
+		}
+		return Base32.encode(Arrays.copyOf(digestor.digest(), 20));
+	}
+	
+	protected File quarantine( File f, String sector, String sha1Base32 ) {
+		File dest = new File(quarantineDir, sector + "/" + sha1Base32);
+		if( dest.exists() ) dest = new File(quarantineDir, sector + "/" + sha1Base32 + "-" + System.currentTimeMillis());
+		File destDir = dest.getParentFile();
+		if( !destDir.mkdirs() && !destDir.isDirectory() ) {
+			listener.error( f, "Failed to create quarantine directory "+destDir );
+			return null;
+		}
+		if( !f.renameTo(dest) ) {
+			listener.error( f, "Failed to move to "+dest );
+			return null;
+		}
+		return dest;
+	}
+	
+	protected void scrub( File f, String sector, String sha1Base32 ) throws InterruptedException {
+		long size = f.length();
+		String actualSha1Base32;
+		try {
+			actualSha1Base32 = sha1Base32( f );
+		} catch( IOException e ) {
+			synchronized( this ) { ++errorCount; }
+			listener.error( f, e.getMessage() );
+			return;
+		}
+		
+		if( sha1Base32.equals(actualSha1Base32) ) {
+			if( record != null ) record.setLastVerified( sector, sha1Base32, System.currentTimeMillis() );
+			synchronized( this ) {
+				++verifiedCount;
+				verifiedByteCount += size;
+			}
+			listener.blobVerified( f, size );
+		} else {
+			File quarantinedAs = null;
+			if( quarantineDir != null ) {
+				quarantinedAs = quarantine( f, sector, sha1Base32 );
+				if( quarantinedAs != null && presenceIndex != null ) {
+					SHA1PresenceIndex.Entry e = presenceIndex.get( sha1Base32 );
+					if( e != null && sector.equals(e.sector) ) presenceIndex.remove( sha1Base32 );
+				}
+			}
+			synchronized( this ) { ++corruptedCount; }
+			listener.blobCorrupted( f, actualSha1Base32, quarantinedAs );
+		}
+	}
+	
+	protected boolean isDue( String sector, String sha1Base32, long now ) {
+		if( record == null || minRecheckInterval <= 0 ) return true;
+		return now - record.getLastVerified( sector, sha1Base32 ) >= minRecheckInterval;
+	}
+	
+	/**
+	 * Scrub every blob in every sector (or just the named ones, if
+	 * sectors is non-null) and return when they've all been checked.
+	 */
+	public void run( String[] sectors ) throws InterruptedException {
+		if( sectors == null ) {
+			sectors = dataDir.list();
+			if( sectors == null ) return;
+		}
+		Arrays.sort( sectors );
+		
+		ExecutorService executor = Executors.newFixedThreadPool( threadCount, new ThreadFactory() {
+			int count = 0;
+			@Override public synchronized Thread newThread( Runnable r ) {
+				Thread t = new Thread( r, "Scrubber "+(++count) );
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		// Don't let the directory walk get too far ahead of the hashers
+		final Semaphore queueSlots = new Semaphore( threadCount * 2 );
+		long now = System.currentTimeMillis();
+		try {
+			for( final String sector : sectors ) {
+				File[] subDirs = new File(dataDir, sector).listFiles();
+				if( subDirs == null ) continue;
+				Arrays.sort( subDirs );
+				for( File subDir : subDirs ) {
+					File[] blobFiles = subDir.listFiles();
+					if( blobFiles == null ) continue;
+					Arrays.sort( blobFiles );
+					for( final File f : blobFiles ) {
+						final String sha1Base32 = f.getName();
+						if( !BLOB_FILENAME_PATTERN.matcher(sha1Base32).matches() ) continue;
+						if( !isDue(sector, sha1Base32, now) ) {
+							synchronized( this ) { ++skippedCount; }
+							continue;
+						}
+						queueSlots.acquire();
+						executor.execute( new Runnable() {
+							@Override public void run() {
+								try {
+									scrub( f, sector, sha1Base32 );
+								} catch( InterruptedException e ) {
+									Thread.currentThread().interrupt();
+								} finally {
+									queueSlots.release();
+								}
+							}
+						});
+					}
+				}
+			}
+			executor.shutdown();
+			while( !executor.awaitTermination(1, TimeUnit.SECONDS) );
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
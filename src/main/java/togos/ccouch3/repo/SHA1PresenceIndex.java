@@ -0,0 +1,329 @@
+package togos.ccouch3.repo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import togos.blob.ByteChunk;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.slf.SimpleListFile2;
+import togos.ccouch3.util.Consumer;
+
+/**
+ * Persistent record of which sector of a SHA1FileRepository
+ * each blob is stored in, and how big it is, so that lookups
+ * can go straight to the right file instead of listing the data
+ * directory and checking every sector.
+ *
+ * Kept in a memory-mapped SLF2 file keyed by base32 SHA-1,
+ * with values of the form "<sector> <size>".  An empty value
+ * means the blob was removed.
+ *
+ * The index is 'complete' if it was built by scanning the whole
+ * repository (see rebuild) and everything stored since has gone through
+ * an indexed SHA1FileRepository.  Only a complete index can say that
+ * something is *not* in the repository.  Anything that adds files to
+ * the data directory some other way (copying them in by hand, rsync,
+ * older versions of ccouch3) makes it stale; SHA1FileRepository marks
+ * it incomplete when it notices, and rebuilding it fixes it.
+ *
+ * SLF2 file locks are per-process, so there should be only one
+ * instance per index file in a JVM; get them with forFile.
+ */
+public class SHA1PresenceIndex implements Closeable
+{
+	public static final String INDEX_FILENAME = "sha1-presence.slf2";
+	
+	static final ByteChunk COMPLETE_KEY = BlobUtil.byteChunk("!complete");
+	/** Written to an index file once rebuild has moved a new one into its place */
+	static final ByteChunk REPLACED_KEY = BlobUtil.byteChunk("!replaced");
+	static final ByteChunk YES = BlobUtil.byteChunk("yes");
+	static final ByteChunk NO = BlobUtil.byteChunk("no");
+	static final ByteChunk REMOVED = BlobUtil.byteChunk("");
+	
+	static final Pattern BLOB_FILENAME_PATTERN = Pattern.compile("^[A-Z2-7]{32}$");
+	
+	public static class Entry {
+		public final String sector;
+		public final long size;
+		
+		public Entry( String sector, long size ) {
+			this.sector = sector;
+			this.size = size;
+		}
+	}
+	
+	public final File indexFile;
+	private SimpleListFile2 slf;
+	/**
+	 * Shared by everything that uses the open SLF;
+	 * exclusive while swapping in a different one.
+	 */
+	private final ReadWriteLock slfLock = new ReentrantReadWriteLock();
+	private final Object rebuildLock = new Object();
+	
+	public SHA1PresenceIndex( File indexFile ) {
+		this.indexFile = indexFile;
+	}
+	
+	private static final Map<String,SHA1PresenceIndex> instances = new HashMap<String,SHA1PresenceIndex>();
+	
+	/**
+	 * Returns the one instance for the given index file,
+	 * creating it if this is the first time it's been asked for.
+	 */
+	public static SHA1PresenceIndex forFile( File indexFile ) {
+		String key;
+		try {
+			key = indexFile.getCanonicalPath();
+		} catch( IOException e ) {
+			key = indexFile.getAbsolutePath();
+		}
+		synchronized( instances ) {
+			SHA1PresenceIndex index = instances.get(key);
+			if( index == null ) instances.put( key, index = new SHA1PresenceIndex(indexFile) );
+			return index;
+		}
+	}
+	
+	/** Where the index for the repository whose data directory is given lives */
+	public static File getIndexFile( File dataDir ) {
+		return new File(dataDir.getAbsoluteFile().getParentFile(), "cache/"+INDEX_FILENAME);
+	}
+	
+	protected synchronized SimpleListFile2 getSlf() {
+		if( slf == null ) slf = SimpleListFile2.mkSlf(indexFile, true, true);
+		return slf;
+	}
+	
+	/**
+	 * Returns the entry for the given SHA-1, null if the index
+	 * doesn't know about it, or an entry with a null sector
+	 * if it's known to have been removed.
+	 */
+	public Entry get( String sha1Base32 ) {
+		ByteChunk v = read( BlobUtil.byteChunk(sha1Base32) );
+		if( v == null ) return null;
+		String s = BlobUtil.string(v);
+		int spaceIdx = s.lastIndexOf(' ');
+		if( spaceIdx == -1 ) return new Entry( null, -1 );
+		return new Entry( s.substring(0, spaceIdx), Long.parseLong(s.substring(spaceIdx+1)) );
+	}
+	
+	protected ByteChunk read( ByteChunk key ) {
+		slfLock.readLock().lock();
+		try {
+			return getSlf().get( key );
+		} finally {
+			slfLock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Put the value, and if another process has since replaced
+	 * the index file, put it into the new one as well.
+	 * Rebuild copies anything written to the old file before
+	 * it marked it replaced, so nothing gets lost either way.
+	 */
+	protected void write( ByteChunk key, ByteChunk value ) {
+		while( true ) {
+			SimpleListFile2 written;
+			slfLock.readLock().lock();
+			try {
+				written = getSlf();
+				written.put( key, value );
+				if( !YES.equals(written.get(REPLACED_KEY)) ) return;
+			} finally {
+				slfLock.readLock().unlock();
+			}
+			reopen( written );
+		}
+	}
+	
+	/** Close the given SLF, if it's still the one in use, so that the next access opens the file afresh */
+	protected void reopen( SimpleListFile2 old ) {
+		slfLock.writeLock().lock();
+		try {
+			synchronized( this ) {
+				if( slf != old ) return;
+				slf = null;
+			}
+			old.close();
+		} catch( IOException e ) {
+			throw new RuntimeException("Failed to close replaced "+indexFile, e);
+		} finally {
+			slfLock.writeLock().unlock();
+		}
+	}
+	
+	public void put( String sha1Base32, String sector, long size ) {
+		write( BlobUtil.byteChunk(sha1Base32), BlobUtil.byteChunk(sector+" "+size) );
+	}
+	
+	public void remove( String sha1Base32 ) {
+		write( BlobUtil.byteChunk(sha1Base32), REMOVED );
+	}
+	
+	public boolean isComplete() {
+		return YES.equals( read(COMPLETE_KEY) );
+	}
+	
+	public void setComplete( boolean complete ) {
+		ByteChunk value = complete ? YES : NO;
+		if( !value.equals(read(COMPLETE_KEY)) ) write( COMPLETE_KEY, value );
+	}
+	
+	protected static long indexSector( File sectorDir, SimpleListFile2 dest ) {
+		long count = 0;
+		File[] subDirs = sectorDir.listFiles();
+		if( subDirs == null ) return 0;
+		String sector = sectorDir.getName();
+		for( File subDir : subDirs ) {
+			File[] blobFiles = subDir.listFiles();
+			if( blobFiles == null ) continue;
+			for( File f : blobFiles ) {
+				String name = f.getName();
+				if( !BLOB_FILENAME_PATTERN.matcher(name).matches() ) continue;
+				ByteChunk key = BlobUtil.byteChunk(name);
+				// If it's in more than one sector, the first one found is good enough
+				if( dest.get(key) != null ) continue;
+				dest.put( key, BlobUtil.byteChunk(sector+" "+f.length()) );
+				++count;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Find the blob in any sector and return the value
+	 * the index should have for it, or null if it's not there.
+	 */
+	protected static ByteChunk locate( File dataDir, String sha1Base32 ) {
+		File[] sectorDirs = dataDir.listFiles();
+		if( sectorDirs == null ) return null;
+		String postSectorPath = sha1Base32.substring(0,2) + "/" + sha1Base32;
+		for( File sectorDir : sectorDirs ) {
+			File f = new File(sectorDir, postSectorPath);
+			if( f.isFile() ) return BlobUtil.byteChunk(sectorDir.getName()+" "+f.length());
+		}
+		return null;
+	}
+	
+	/**
+	 * Bring dest up to date with any entries in source that
+	 * disagree with it, checking the data directory to see which is right.
+	 * Used to catch up a freshly built index with
+	 * whatever was written to the old one while it was being built.
+	 */
+	protected static void catchUp( File dataDir, SimpleListFile2 source, SimpleListFile2 dest ) {
+		final ArrayList<ByteChunk> keys = new ArrayList<ByteChunk>();
+		source.forEachKey(new Consumer<ByteChunk>() {
+			@Override public void accept( ByteChunk key ) {
+				keys.add( key );
+			}
+		});
+		for( ByteChunk key : keys ) {
+			String sha1Base32 = BlobUtil.string(key);
+			if( !BLOB_FILENAME_PATTERN.matcher(sha1Base32).matches() ) continue;
+			ByteChunk current = dest.get(key);
+			if( source.get(key).equals(current) ) continue;
+			ByteChunk actual = locate( dataDir, sha1Base32 );
+			if( actual != null ) {
+				if( !actual.equals(current) ) dest.put( key, actual );
+			} else if( current != null && current.getSize() > 0 ) {
+				dest.put( key, REMOVED );
+			}
+		}
+	}
+	
+	/**
+	 * Replace the index with a fresh one built by scanning
+	 * every sector of the given data directory, and mark it complete.
+	 * The new index is built in a temporary file and moved into place
+	 * when done, so readers see either the old one or the new one.
+	 *
+	 * Other processes may still have the old file open, so once the new
+	 * one is in place the old one is marked replaced (which they check
+	 * for after each write) and anything written to it in the meantime
+	 * is copied over.
+	 * @return the number of blobs indexed
+	 */
+	public long rebuild( File dataDir ) throws IOException {
+		synchronized( rebuildLock ) {
+			return _rebuild( dataDir );
+		}
+	}
+	
+	protected long _rebuild( File dataDir ) throws IOException {
+		File tempFile = new File(indexFile.getPath()+".rebuilding");
+		if( tempFile.exists() && !tempFile.delete() ) {
+			throw new IOException("Failed to delete old "+tempFile);
+		}
+		long count = 0;
+		SimpleListFile2 temp = SimpleListFile2.mkSlf(tempFile, true);
+		try {
+			File[] sectorDirs = dataDir.listFiles();
+			if( sectorDirs != null ) for( File sectorDir : sectorDirs ) {
+				if( sectorDir.isDirectory() ) count += indexSector( sectorDir, temp );
+			}
+			temp.put( COMPLETE_KEY, YES );
+		} finally {
+			temp.close();
+		}
+		
+		slfLock.writeLock().lock();
+		try {
+			SimpleListFile2 old = getSlf();
+			synchronized( this ) {
+				slf = null;
+			}
+			try {
+				if( tempFile.renameTo(indexFile) ) {
+					old.put( REPLACED_KEY, YES );
+					catchUp( dataDir, old, getSlf() );
+				} else {
+					// Windows won't rename over an open file, so nobody
+					// else can have it open; catch up before replacing it.
+					temp = SimpleListFile2.mkSlf(tempFile, true);
+					try {
+						catchUp( dataDir, old, temp );
+					} finally {
+						temp.close();
+					}
+					old.close();
+					if( !indexFile.delete() || !tempFile.renameTo(indexFile) ) {
+						throw new IOException("Failed to rename "+tempFile+" to "+indexFile);
+					}
+				}
+			} finally {
+				old.close();
+			}
+		} finally {
+			slfLock.writeLock().unlock();
+		}
+		return count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		slfLock.writeLock().lock();
+		try {
+			synchronized( this ) {
+				if( slf != null ) slf.close();
+				slf = null;
+			}
+		} finally {
+			slfLock.writeLock().unlock();
+		}
+	}
+	
+	@Override public String toString() {
+		return getClass().getSimpleName()+"("+indexFile+")";
+	}
+}
@@ -0,0 +1,72 @@
+package togos.ccouch3.repo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import togos.blob.ByteChunk;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.slf.SimpleListFile2;
+
+/**
+ * Persistent record of when each blob file in a SHA1FileRepository
+ * was last re-hashed and found to be intact, so that scrubs
+ * (see SHA1FileRepositoryScrubber) can skip recently checked blobs.
+ *
+ * Kept in an SLF2 file keyed by "<sector>/<base32 SHA-1>"
+ * (the same blob may be in more than one sector, and each copy
+ * can rot on its own), with values being the time of the check
+ * as decimal milliseconds since the epoch.
+ * Re-verifying a blob overwrites its entry (the SLF recycles chunks),
+ * so the file doesn't grow with every scrub.
+ */
+public class ScrubRecord implements Closeable
+{
+	public static final String RECORD_FILENAME = "scrub-times.slf2";
+	
+	public final File recordFile;
+	private SimpleListFile2 slf;
+	
+	public ScrubRecord( File recordFile ) {
+		this.recordFile = recordFile;
+	}
+	
+	/** Where the record for the repository whose data directory is given lives */
+	public static File getRecordFile( File dataDir ) {
+		return new File(dataDir.getAbsoluteFile().getParentFile(), "cache/"+RECORD_FILENAME);
+	}
+	
+	protected synchronized SimpleListFile2 getSlf() {
+		if( slf == null ) slf = SimpleListFile2.mkSlf(recordFile, true, true);
+		return slf;
+	}
+	
+	protected static ByteChunk key( String sector, String sha1Base32 ) {
+		return BlobUtil.byteChunk(sector+"/"+sha1Base32);
+	}
+	
+	/** Returns the time the blob was last verified, or 0 if it never has been */
+	public long getLastVerified( String sector, String sha1Base32 ) {
+		ByteChunk v = getSlf().get( key(sector, sha1Base32) );
+		if( v == null ) return 0;
+		try {
+			return Long.parseLong( BlobUtil.string(v) );
+		} catch( NumberFormatException e ) {
+			return 0;
+		}
+	}
+	
+	public void setLastVerified( String sector, String sha1Base32, long time ) {
+		getSlf().put( key(sector, sha1Base32), BlobUtil.byteChunk(String.valueOf(time)) );
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if( slf != null ) slf.close();
+		slf = null;
+	}
+	
+	@Override public String toString() {
+		return getClass().getSimpleName()+"("+recordFile+")";
+	}
+}
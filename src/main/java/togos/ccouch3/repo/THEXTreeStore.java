@@ -0,0 +1,97 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.bitpedia.util.Base32;
+
+import togos.blob.ByteBlob;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.hash.THEXTree;
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Keeps THEXTrees of big blobs on disk so they don't need to be
+ * recalculated every time someone asks for one, one file per tree,
+ * named after its root (i.e. the Tiger tree half of the blob's bitprint).
+ *
+ * Trees are only stored for blobs big enough to have more than one segment;
+ * for anything smaller the tree is just the root, which is already in the URN.
+ * Since a tree can always be recalculated from its blob,
+ * the directory can be deleted at any time; it normally lives
+ * under the repository's cache directory (see getDefaultDir).
+ */
+public class THEXTreeStore
+{
+	public final File dir;
+	
+	public THEXTreeStore( File dir ) {
+		this.dir = dir;
+	}
+	
+	public static File getDefaultDir( File repoDir ) {
+		return new File(repoDir, "cache/thex-trees");
+	}
+	
+	protected File getTreeFile( byte[] root ) {
+		return new File(dir, Base32.encode(root)+".thex");
+	}
+	
+	/**
+	 * Returns the stored tree for the given bitprint URN,
+	 * or null if there isn't one, or if what's there doesn't
+	 * parse or doesn't match the URN.
+	 */
+	public THEXTree get( String urn ) throws UnsupportedSchemeException {
+		byte[] bitprint = BitprintDigest.urnToBytes(urn);
+		File f = getTreeFile(THEXTree.bitprintTigerTreeRoot(bitprint));
+		if( !f.exists() ) return null;
+		try {
+			long len = f.length();
+			if( len > Integer.MAX_VALUE ) return null;
+			byte[] data = new byte[(int)len];
+			FileInputStream fis = new FileInputStream(f);
+			try {
+				int z, r=0;
+				while( r < data.length && (z = fis.read(data, r, data.length-r)) > 0 ) r += z;
+				if( r < data.length ) return null;
+			} finally {
+				fis.close();
+			}
+			THEXTree tree = THEXTree.parse(data);
+			return tree.matchesBitprint(bitprint) ? tree : null;
+		} catch( IOException e ) {
+			// Treat it as missing; it'll be recalculated and replaced.
+			return null;
+		}
+	}
+	
+	public void put( THEXTree tree ) throws IOException {
+		if( tree.getSegmentCount() <= 1 ) return;
+		FileUtil.writeAtomic(getTreeFile(tree.getRoot()), tree.toBytes());
+	}
+	
+	/**
+	 * Get the stored tree for the blob, or calculate it (with the
+	 * default segment size) and store it if there isn't one.
+	 * Throws HashMismatchException if the blob doesn't match the URN.
+	 */
+	public THEXTree getOrCalculate( String urn, ByteBlob blob ) throws IOException, StoreException {
+		THEXTree tree = get(urn);
+		if( tree != null ) return tree;
+		
+		InputStream is = blob.openInputStream();
+		try {
+			tree = THEXTree.calculate(is, blob.getSize(), 0);
+		} finally {
+			is.close();
+		}
+		if( !tree.matchesBitprint(BitprintDigest.urnToBytes(urn)) ) {
+			throw new HashMismatchException("Tiger tree root of blob doesn't match "+urn);
+		}
+		put(tree);
+		return tree;
+	}
+}
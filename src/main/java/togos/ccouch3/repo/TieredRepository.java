@@ -0,0 +1,164 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import togos.blob.ByteChunk;
+import togos.blob.file.FileBlob;
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Repository made of a small, fast SHA1FileRepository (e.g. on an SSD)
+ * in front of a big, slow one (e.g. on spinning disks).
+ *
+ * Everything is stored in the slow tier, which is the one that
+ * actually holds the data.  Blobs are copied into the fast tier's
+ * store sector when they're read (if they're no bigger than
+ * maxPromotedBlobSize), and the least recently used ones are deleted
+ * from there when its total size goes over fastTierSize
+ * (see LRUSectorCache).  Stores don't promote things
+ * so that bulk uploads don't push the hot set out of the fast tier;
+ * new things get promoted the first time they're read like anything else.
+ *
+ * Promotion goes through the fast repository's put, so the data's
+ * hash is checked on the way in.
+ */
+public class TieredRepository implements Repository
+{
+	static final Pattern SHA1EXTRACTOR = Pattern.compile("^urn:(?:sha1|bitprint):([A-Z2-7]{32})");
+	
+	protected final SHA1FileRepository fast;
+	protected final SHA1FileRepository slow;
+	protected final LRUSectorCache fastCache;
+	/** Blobs bigger than this are read from the slow tier without being promoted */
+	public final long maxPromotedBlobSize;
+	
+	protected long fastHitCount, slowHitCount, missCount, promotionCount;
+	
+	/**
+	 * @param fast fast repository; must have a store sector,
+	 *   which is where promoted blobs go and what fastTierSize applies to
+	 * @param slow slow repository, where everything is stored
+	 * @param fastTierSize maximum total size of blobs in the fast tier's store sector
+	 * @param maxPromotedBlobSize size of the biggest blob that will be promoted
+	 */
+	public TieredRepository( SHA1FileRepository fast, SHA1FileRepository slow, long fastTierSize, long maxPromotedBlobSize ) {
+		if( fast.getStoreSector() == null ) {
+			throw new IllegalArgumentException("Fast tier repository needs a store sector");
+		}
+		this.fast = fast;
+		this.slow = slow;
+		this.fastCache = new LRUSectorCache(new File(fast.getDataDir(), fast.getStoreSector()), fastTierSize);
+		this.maxPromotedBlobSize = maxPromotedBlobSize;
+	}
+	
+	/** Promotes blobs up to 1/16 of the fast tier's size */
+	public TieredRepository( SHA1FileRepository fast, SHA1FileRepository slow, long fastTierSize ) {
+		this( fast, slow, fastTierSize, fastTierSize / 16 );
+	}
+	
+	public synchronized long getFastHitCount() { return fastHitCount; }
+	public synchronized long getSlowHitCount() { return slowHitCount; }
+	public synchronized long getMissCount() { return missCount; }
+	public synchronized long getPromotionCount() { return promotionCount; }
+	public long getEvictionCount() { return fastCache.getEvictionCount(); }
+	public long getFastTierSize() { return fastCache.getTotalSize(); }
+	
+	/** Fraction of reads of blobs that exist that were served by the fast tier */
+	public synchronized double getFastHitRate() {
+		long hits = fastHitCount + slowHitCount;
+		return hits == 0 ? 0 : (double)fastHitCount / hits;
+	}
+	
+	protected FileBlob promote( String urn, String sha1Base32, FileBlob slowBlob ) {
+		if( slowBlob.length() > maxPromotedBlobSize ) return slowBlob;
+		try {
+			// Closes the stream
+			fast.put( urn, slowBlob.openInputStream() );
+		} catch( IOException e ) {
+			System.err.println("Warning: Failed to promote "+urn+" to fast tier: "+e.getMessage());
+			return slowBlob;
+		} catch( StoreException e ) {
+			System.err.println("Warning: Failed to promote "+urn+" to fast tier: "+e.getMessage());
+			return slowBlob;
+		}
+		File promoted = fastCache.blobFile( sha1Base32 );
+		fastCache.added( sha1Base32, promoted.length() );
+		synchronized( this ) {
+			++promotionCount;
+		}
+		return new FileBlob(promoted);
+	}
+	
+	@Override public FileBlob getBlob( String urn ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return null;
+		String sha1Base32 = m.group(1);
+		
+		FileBlob b = fastCache.get( sha1Base32 );
+		if( b != null ) {
+			synchronized( this ) {
+				++fastHitCount;
+			}
+			return b;
+		}
+		
+		b = slow.getBlob( urn );
+		synchronized( this ) {
+			if( b != null ) ++slowHitCount; else ++missCount;
+		}
+		return b == null ? null : promote( urn, sha1Base32, b );
+	}
+	
+	@Override public boolean contains( String urn ) {
+		Matcher m = SHA1EXTRACTOR.matcher(urn);
+		if( !m.find() ) return false;
+		return fastCache.blobFile(m.group(1)).exists() || slow.contains( urn );
+	}
+	
+	@Override public ByteChunk getChunk( String urn, int maxSize ) {
+		FileBlob b = getBlob( urn );
+		if( b == null || b.length() > maxSize ) return null;
+		try {
+			return FileUtil.read( b, maxSize );
+		} catch( IOException e ) {
+			return null;
+		}
+	}
+	
+	@Override public InputStream getInputStream( String urn ) throws IOException {
+		FileBlob b = getBlob( urn );
+		if( b == null ) throw new FileNotFoundException(urn+" not found in repository");
+		return b.openInputStream();
+	}
+	
+	@Override public File getFile( String urn ) throws IOException {
+		FileBlob b = getBlob( urn );
+		if( b == null ) throw new FileNotFoundException(urn+" not found in repository");
+		return b;
+	}
+	
+	@Override public List<File> getFiles( String urn ) {
+		List<File> files = new ArrayList<File>(fast.getFiles(urn));
+		files.addAll( slow.getFiles(urn) );
+		return files;
+	}
+	
+	@Override public void put( String urn, InputStream is ) throws StoreException {
+		slow.put( urn, is );
+	}
+	
+	@Override public String put( InputStream is ) throws StoreException {
+		return slow.put( is );
+	}
+	
+	public String toString() {
+		return getClass().getSimpleName()+"( fast: "+fast+", slow: "+slow+" )";
+	}
+}
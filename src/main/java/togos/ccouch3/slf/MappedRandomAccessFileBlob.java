@@ -0,0 +1,102 @@
+package togos.ccouch3.slf;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import togos.blob.ByteChunk;
+import togos.blob.util.SimpleByteChunk;
+
+/**
+ * RandomAccessFileBlob that serves reads from a memory mapping of the file
+ * instead of doing a seek+read for every get().
+ *
+ * Writes still go through the RandomAccessFile, which is fine
+ * because on every OS we care about mapped pages and write()s share
+ * the same page cache.
+ *
+ * The mapping only covers the file as it was when last mapped.
+ * Reads past the end of it fall back to the regular file methods,
+ * and once the file has grown by at least remapThreshold bytes
+ * the whole thing is remapped.  Mapping past the end of the file
+ * is avoided, since in read-write mode that would extend it.
+ */
+public class MappedRandomAccessFileBlob extends RandomAccessFileBlob
+{
+	/** MappedByteBuffers are int-indexed, so this is as much as we can map */
+	protected static final long MAX_MAPPING_SIZE = Integer.MAX_VALUE;
+	
+	protected final FileChannel.MapMode mapMode;
+	public long remapThreshold = 1024*1024;
+	
+	/** Never modified after being assigned; always duplicate() before positioning */
+	protected volatile MappedByteBuffer mapping;
+	
+	public MappedRandomAccessFileBlob( String path, String mode ) throws FileNotFoundException {
+		super( path, mode );
+		this.mapMode = "r".equals(mode) ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+	}
+	
+	public MappedRandomAccessFileBlob( File file, String mode ) throws FileNotFoundException {
+		super( file, mode );
+		this.mapMode = "r".equals(mode) ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+	}
+	
+	protected long getMappedSize() {
+		MappedByteBuffer m = mapping;
+		return m == null ? 0 : m.capacity();
+	}
+	
+	/**
+	 * Map (or re-map) as much of the file as we can.
+	 * Returns the new mapping, or null if the file is empty.
+	 */
+	protected synchronized MappedByteBuffer remap() throws IOException {
+		long size = Math.min(length(), MAX_MAPPING_SIZE);
+		if( mapping != null && mapping.capacity() >= size ) return mapping;
+		if( size == 0 ) return null;
+		// The old mapping will be unmapped whenever it gets garbage-collected.
+		return mapping = getChannel().map( mapMode, 0, size );
+	}
+	
+	/**
+	 * Returns a mapping that covers the requested region,
+	 * or null if the region is not (yet) worth mapping,
+	 * in which case the caller should read it the old-fashioned way.
+	 */
+	protected MappedByteBuffer mappingFor( long offset, int length ) throws IOException {
+		long end = offset + length;
+		MappedByteBuffer m = mapping;
+		if( m != null && end <= m.capacity() ) return m;
+		if( end > MAX_MAPPING_SIZE ) return null;
+		
+		// Not worth remapping for a few freshly appended chunks
+		if( m != null && length() - m.capacity() < remapThreshold ) return null;
+		
+		m = remap();
+		return m != null && end <= m.capacity() ? m : null;
+	}
+	
+	@Override public ByteChunk get( long offset, int length ) {
+		try {
+			MappedByteBuffer m = mappingFor( offset, length );
+			if( m == null ) return super.get( offset, length );
+			
+			byte[] buf = new byte[length];
+			ByteBuffer view = m.duplicate();
+			view.position( (int)offset );
+			view.get( buf, 0, length );
+			return SimpleByteChunk.get( buf, 0, length );
+		} catch( IOException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override public void close() throws IOException {
+		mapping = null;
+		super.close();
+	}
+}
@@ -9,6 +9,13 @@ import togos.blob.ByteChunk;
 import togos.blob.util.BlobUtil;
 import togos.blob.util.SimpleByteChunk;
 
+/**
+ * Reads and writes use seek+read/write, synchronized so that
+ * threads can share the file, rather than positional FileChannel
+ * operations, since interrupting a thread in the middle of one of
+ * those closes the channel (and the file) for everyone.
+ * MappedRandomAccessFileBlob's reads don't need the lock.
+ */
 public class RandomAccessFileBlob extends RandomAccessFile
 	implements RandomAccessBlob
 {
@@ -44,7 +51,7 @@ public class RandomAccessFileBlob extends RandomAccessFile
 		}
 	}
 	
-	public ByteChunk get( long offset, int length ) {
+	public synchronized ByteChunk get( long offset, int length ) {
 		try {
 			seek( offset );
 			byte[] buf = new byte[length];
@@ -62,7 +69,7 @@ public class RandomAccessFileBlob extends RandomAccessFile
 		}
 	}
 	
-	public void put( long offset, ByteChunk data ) {
+	public synchronized void put( long offset, ByteChunk data ) {
 		try {
 			seek( offset );
 			write( data.getBuffer(), data.getOffset(), BlobUtil.chunkLength(data) );
@@ -10,10 +10,16 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import togos.blob.ByteChunk;
 import togos.blob.util.BlobUtil;
 import togos.blob.util.SimpleByteChunk;
+import togos.ccouch3.util.Consumer;
 
 /**
  * Yet another key-value store, designed for speed and simplicity.
@@ -37,15 +43,55 @@ import togos.blob.util.SimpleByteChunk;
  *   Offsets and sizes are unsigned.  A 'null pointer' is represented
  *   by all 64 bits being zero.
  * 
+ *   The lowest reserved bit is used as a flag on the INDX reference
+ *   to indicate that the index chunk is immediately preceded by
+ *   an index info block.
+ * 
  * The index chunk is simply a list of list chunk references (8 bytes each).
  * 
+ * Index info block format:
+ *   <64-bit entry count> <64-bit previous index reference> <64-bit migrated slot count>
+ * 
+ *   The entry count is the number of pairs linked into the index,
+ *   and is used to decide when the index should be grown.
+ *   When the index is grown, a new one is written at the end of the file
+ *   and the INDX header entry updated to point to it immediately,
+ *   but entries are migrated from the previous one a few slots
+ *   at a time.  Until this is complete, keys whose slot in the previous
+ *   index is >= the migrated slot count are looked up in
+ *   (and added to) the previous index.  Entries are copied,
+ *   not moved, so readers using an out-of-date view of the index
+ *   will still find consistent (if stale) lists.
+ * 
  * List chunk format:
  *   <64-bit reference to next chunk> <payload>
  * 
  * Key/value chunk payload format:
  *   "PAIR" <16-bit key length> <16-bit data length> <key> <data> <possible garbage>
  * 
- * Chunks in the recycle list have no format; the data they contain is garbage.
+ * Recycle list chunk format:
+ *   <64-bit reference to next recycled chunk> "RECY" <garbage>
+ * 
+ *   When recycleChunks is enabled, put() unlinks older pairs with the
+ *   same key and adds their chunks to the recycle list, and new pairs
+ *   are written into recycled chunks (leaving garbage at the end)
+ *   when one of about the right size is near the head of the list.
+ *   The "RECY" magic is what tells lock-free readers that they
+ *   have followed a stale reference.  A reader that held on to a
+ *   reference while the chunk was recycled *and* re-used could still
+ *   wander into the wrong list and miss an entry, so when recycling
+ *   is on, lock-free misses are re-checked with a locked read.
+ * 
+ * Files that have accumulated a lot of garbage can be rewritten
+ * with compactTo or compact.
+ *
+ * Writers always append new chunks to the end of the file before
+ * updating the index entry that links them in, so a reader
+ * will see either the old or the new list.  In lockFreeReads mode
+ * get() takes advantage of this by skipping synchronization and
+ * file locks entirely, re-checking any chunk that looks incomplete
+ * (which might happen if it reads an index entry in the middle of it
+ * being written) and falling back to locked reads when that fails.
  */
 public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChunk,ByteChunk>
 {
@@ -54,16 +100,38 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		if( p != null && !p.exists() ) p.mkdirs();
 	}
 	
-	public static SimpleListFile2 mkSlf( File f ) {
+	/**
+	 * @param memoryMapped if true, reads will be served from
+	 *   a memory mapping of the file (see {@link MappedRandomAccessFileBlob})
+	 */
+	public static SimpleListFile2 mkSlf( File f, boolean memoryMapped ) {
 		mkParentDirs(f);
 		try {
-			return new SimpleListFile2( new RandomAccessFileBlob(f, "rw"), 16, true );
+			RandomAccessFileBlob blob = memoryMapped ?
+				new MappedRandomAccessFileBlob(f, "rw") :
+				new RandomAccessFileBlob(f, "rw");
+			return new SimpleListFile2( blob, 16, true, true );
 		} catch( FileNotFoundException e ) {
 			// This should not happen!
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * @param recycleChunks if true, re-putting a key replaces its old
+	 *   value instead of adding another one; good for files whose
+	 *   entries get updated a lot (see {@link #recycleChunks})
+	 */
+	public static SimpleListFile2 mkSlf( File f, boolean memoryMapped, boolean recycleChunks ) {
+		SimpleListFile2 slf = mkSlf( f, memoryMapped );
+		slf.recycleChunks = recycleChunks;
+		return slf;
+	}
+	
+	public static SimpleListFile2 mkSlf( File f ) {
+		return mkSlf( f, false );
+	}
+	
 	static final byte[] slf2 = {'S','L','F','2'};
 	static final byte[] indx = {'I','N','D','X'};
 	static final byte[] recl = {'R','E','C','L'};
@@ -71,29 +139,157 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 	static final byte[] pair = {'P','A','I','R'};
 	static final byte[] recy = {'R','E','C','Y'};
 	
+	/**
+	 * Number of times a lock-free get() will restart from the index
+	 * after finding an incomplete chunk before giving up and locking.
+	 */
+	static final int LOCK_FREE_READ_ATTEMPTS = 3;
+	
+	/** Returned by _get to indicate that an inconsistent state was read */
+	static final ByteChunk INCONSISTENT_READ = SimpleByteChunk.copyOf(new byte[0], 0, 0);
+	
+	/** Set on index references when the index has an info block */
+	static final long INDEX_INFO_FLAG = 1l << 56;
+	static final int INDEX_INFO_SIZE = 24;
+	static final int MAX_INDEX_SIZE_POWER = 26;
+	/** Number of previous-index slots to migrate for each entry added */
+	static final int MIGRATION_SLOTS_PER_PUT = 2;
+	/**
+	 * Indexes without info blocks (from files written by older versions)
+	 * have their entry count estimated every this many puts.
+	 */
+	static final int LOAD_ESTIMATE_INTERVAL = 4096;
+	static final int LOAD_ESTIMATE_SAMPLES = 64;
+	
+	public static final int DEFAULT_MAX_LOAD_FACTOR = 2;
+	
+	/** Number of recycled chunks put() will look at before giving up and appending */
+	static final int RECYCLE_SCAN_LIMIT = 8;
+	/** Smallest index a compacted file will be given */
+	static final int MIN_COMPACTED_INDEX_SIZE_POWER = 10;
+	static final int COMPACTION_BUFFER_SIZE = 1024*1024;
+	
+	/**
+	 * Immutable snapshot of where the index is
+	 * and the state of any migration from a previous one.
+	 */
+	static final class IndexState {
+		/** Reference to the index chunk, including flags */
+		final long indexRef;
+		final long indexOffset;
+		final int indexSizePower;
+		final int indexMask;
+		final int indexSize; // in bytes, not entries! Used to load the entire thing during bulk operations
+		/** -1 if unknown */
+		final long entryCount;
+		/** 0 if not migrating */
+		final long prevIndexRef;
+		final long migratedSlots;
+		
+		public IndexState( long indexRef, long entryCount, long prevIndexRef, long migratedSlots ) {
+			this.indexRef = indexRef;
+			this.indexOffset = refOffset(indexRef);
+			this.indexSizePower = refSize(indexRef);
+			this.indexMask = indexMask(indexSizePower);
+			this.indexSize = indexSize(indexSizePower);
+			this.entryCount = entryCount;
+			this.prevIndexRef = prevIndexRef;
+			this.migratedSlots = migratedSlots;
+		}
+		
+		public boolean hasInfo() { return (indexRef & INDEX_INFO_FLAG) != 0; }
+		public boolean isMigrating() { return prevIndexRef != 0; }
+		public long infoOffset() { return indexOffset - INDEX_INFO_SIZE; }
+		
+		public IndexState with( long entryCount, long prevIndexRef, long migratedSlots ) {
+			return new IndexState( indexRef, entryCount, prevIndexRef, migratedSlots );
+		}
+		
+		/**
+		 * Return the byte position within the file of the reference in
+		 * the index to the list for keys with the given hash code
+		 */
+		public long slotPos( int hashCode ) {
+			if( prevIndexRef != 0 ) {
+				int prevSlot = hashCode & indexMask(refSize(prevIndexRef));
+				if( prevSlot >= migratedSlots ) return refOffset(prevIndexRef) + ((long)prevSlot << 3);
+			}
+			return indexOffset + ((long)(hashCode & indexMask) << 3);
+		}
+	}
+	
+	/** Decides which pairs are worth keeping when compacting */
+	public interface PairFilter {
+		public boolean keep( ByteChunk key, ByteChunk value );
+	}
+	
+	public static class CompactionStats {
+		public long bytesBefore, bytesAfter;
+		/** Pairs copied to the new file */
+		public long pairsKept;
+		/** Pairs dropped because a newer value for the same key was found */
+		public long duplicatePairs;
+		/** Pairs dropped because the filter said so */
+		public long filteredPairs;
+		
+		public long getReclaimedBytes() {
+			return bytesBefore - bytesAfter;
+		}
+		
+		public String toString() {
+			return "kept "+pairsKept+" pairs, dropped "+duplicatePairs+" duplicate and "+
+				filteredPairs+" filtered pairs; "+bytesBefore+" -> "+bytesAfter+" bytes ("+
+				getReclaimedBytes()+" reclaimed)";
+		}
+	}
+	
 	final RandomAccessBlob blob;
 	final FileChannel fileChannel;
+	final boolean lockFreeReads;
 	
-	long indexOffset;
-	int indexSize; // in bytes, not entries! Used to load the entire thing during bulk operations
-	int indexMask;
+	int indxRefOffset;
 	int reclRefOffset;
+	volatile IndexState indexState;
+	int putsSinceLoadEstimate = 0;
+	/**
+	 * Average number of entries per index slot above which the index
+	 * will be grown.  Zero or less disables resizing.
+	 */
+	public int maxLoadFactor = DEFAULT_MAX_LOAD_FACTOR;
+	/**
+	 * If true, put() replaces old values with the same key
+	 * and re-uses their chunks for new pairs.
+	 * Puts get slower, since the whole list has to be walked.
+	 */
+	public boolean recycleChunks = false;
+	/** Bytes added to and taken from the recycle list by this instance */
+	long recycledBytes = 0, reusedBytes = 0;
 	
-	public SimpleListFile2( RandomAccessBlob b, int defaultIndexSizePower, boolean useFileLocks ) {
+	/**
+	 * @param lockFreeReads if true, get() will not synchronize or lock
+	 *   the file at all unless it finds the file in an inconsistent state.
+	 *   The blob's get method must be safe to call from multiple threads.
+	 */
+	public SimpleListFile2( RandomAccessBlob b, int defaultIndexSizePower, boolean useFileLocks, boolean lockFreeReads ) {
 		this.blob = b;
+		this.lockFreeReads = lockFreeReads;
 		if( useFileLocks && b instanceof RandomAccessFile ) {
 			fileChannel = ((RandomAccessFile)b).getChannel();
 		} else {
 			fileChannel = null;
 		}
 		
-		if( defaultIndexSizePower < 0 || defaultIndexSizePower > 17 ) {
-			throw new RuntimeException("Index size power should be 0-17.  Given: "+defaultIndexSizePower);
+		if( defaultIndexSizePower < 0 || defaultIndexSizePower > MAX_INDEX_SIZE_POWER ) {
+			throw new RuntimeException("Index size power should be 0-"+MAX_INDEX_SIZE_POWER+".  Given: "+defaultIndexSizePower);
 		}
 		
 		init( defaultIndexSizePower );
 	}
 	
+	public SimpleListFile2( RandomAccessBlob b, int defaultIndexSizePower, boolean useFileLocks ) {
+		this( b, defaultIndexSizePower, useFileLocks, false );
+	}
+	
 	protected String getFilename() {
 		if( blob instanceof RandomAccessFileBlob ) {
 			return ((RandomAccessFileBlob)blob).getFilePath();
@@ -188,20 +384,21 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 	protected void init( int defaultIndexSizePower ) {
 		int headerSize = 32; // "SLF2" + "INDX" + chunkRef + "RECY" + chunkRef + "EHDR"
 		if( blob.getSize() == 0 ) {
-			indexOffset = headerSize;
-			indexMask = indexMask(defaultIndexSizePower);
-			indexSize = indexSize(defaultIndexSizePower);
+			long indexRef = chunkRef(headerSize+INDEX_INFO_SIZE,defaultIndexSizePower) | INDEX_INFO_FLAG;
+			indxRefOffset = 8;
 			reclRefOffset = 20; 
-					
-			int headerAndIndexSize = headerSize + ((1 << defaultIndexSizePower) << 3);
+			
+			// Info block is all zeroes, since there are no entries and no previous index
+			int headerAndIndexSize = headerSize + INDEX_INFO_SIZE + ((1 << defaultIndexSizePower) << 3);
 			byte[] headerAndIndex = new byte[headerAndIndexSize];
 			copy( slf2, headerAndIndex, 0 );
 			copy( indx, headerAndIndex, 4 );
-			encodeLong( chunkRef(headerSize,defaultIndexSizePower), headerAndIndex, 8 );
+			encodeLong( indexRef, headerAndIndex, 8 );
 			copy( recl, headerAndIndex, 16 );
 			encodeLong( 0, headerAndIndex, 20 );
 			copy( ehdr, headerAndIndex, 28 );
 			blob.put(0, new SimpleByteChunk(headerAndIndex));
+			indexState = new IndexState( indexRef, 0, 0, 0 );
 		} else {
 			ByteChunk headerBlob = blob.get( 0, headerSize );
 			if( headerBlob.getSize() < headerSize ) {
@@ -215,11 +412,8 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 			o = 4;
 			while( o < headerSize && !equals(ehdr, buf, o)  ) {
 				if( equals(indx, buf, o) ) {
-					long indxRef = decodeLong( buf, o+4 );
-					indexOffset = refOffset(indxRef);
-					int indexSizePower = refSize(indxRef);
-					indexMask = indexMask(indexSizePower);
-					indexSize = indexSize(indexSizePower);
+					indxRefOffset = o+4;
+					indexState = readIndexState( decodeLong( buf, o+4 ) );
 					o += 12;
 				} else if( equals(recl, buf, o) ) {
 					reclRefOffset = o+4;
@@ -232,6 +426,49 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		}
 	}
 	
+	protected IndexState readIndexState( long indexRef ) {
+		if( (indexRef & INDEX_INFO_FLAG) == 0 ) return new IndexState( indexRef, -1, 0, 0 );
+		
+		ByteChunk info = blob.get( refOffset(indexRef) - INDEX_INFO_SIZE, INDEX_INFO_SIZE );
+		if( info.getSize() < INDEX_INFO_SIZE ) {
+			throw new RuntimeException("Couldn't read index info block from "+getFilename());
+		}
+		byte[] buf = info.getBuffer();
+		int o = info.getOffset();
+		return new IndexState( indexRef, decodeLong(buf, o), decodeLong(buf, o+8), decodeLong(buf, o+16) );
+	}
+	
+	protected void writeIndexInfo( IndexState s ) {
+		byte[] buf = new byte[INDEX_INFO_SIZE];
+		encodeLong( s.entryCount, buf, 0 );
+		encodeLong( s.prevIndexRef, buf, 8 );
+		encodeLong( s.migratedSlots, buf, 16 );
+		blob.put( s.infoOffset(), new SimpleByteChunk(buf) );
+	}
+	
+	/**
+	 * Returns an index state good enough for reading.
+	 * If other processes may be writing to the file, checks that the
+	 * index hasn't been replaced, or re-reads the info block if
+	 * a migration was in progress.
+	 */
+	protected IndexState getIndexStateForReading() {
+		IndexState s = indexState;
+		if( fileChannel == null ) return s;
+		long indexRef = getLong( indxRefOffset );
+		if( indexRef == s.indexRef && !s.isMigrating() ) return s;
+		return indexState = readIndexState( indexRef );
+	}
+	
+	/**
+	 * Returns an up-to-date index state.
+	 * Must be called while holding the write lock.
+	 */
+	protected IndexState getIndexStateForWriting() {
+		if( fileChannel == null ) return indexState;
+		return indexState = readIndexState( getLong( indxRefOffset ) );
+	}
+	
 	protected long getLong( long offset ) {
 		ByteChunk c = blob.get( offset, 8 );
 		return decodeLong( c.getBuffer(), c.getOffset() );
@@ -278,24 +515,40 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		return SimpleByteChunk.get( buf, o + 16 + cKeyLen, cValLen );
 	}
 	
-	protected static final long next( ByteChunk chunk ) {
-		return decodeLong( chunk.getBuffer(), chunk.getOffset() );
-	}
-	
 	/**
-	 * Return the byte position within the index chunk of the reference
-	 * in the index to the specified key
+	 * Returns true if the chunk was read completely
+	 * and looks like a valid pair.
 	 */
-	protected int indexSubPos( ByteChunk key ) {
-		return (key.hashCode() & indexMask) << 3;
+	protected static final boolean isCompletePair( long ref, ByteChunk chunk ) {
+		if( chunk.getSize() != refSize(ref) || chunk.getSize() < 16 ) return false;
+		byte[] buf = chunk.getBuffer();
+		int o = chunk.getOffset();
+		if( !equals(pair, buf, o+8) ) return false;
+		int cKeyLen = decodeShort( buf, o+12 ) & 0xFFFF;
+		int cValLen = decodeShort( buf, o+14 ) & 0xFFFF;
+		return 16 + cKeyLen + cValLen <= chunk.getSize();
 	}
 	
-	/**
-	 * Return the byte position within the file of the reference in
-	 * the index to the specified key
-	 */
-	protected long indexPos( ByteChunk key ) {
-		return indexSubPos(key) + indexOffset;
+	/** Size of the pair, not including any garbage at the end of the chunk */
+	protected static final int pairSize( ByteChunk chunk ) {
+		byte[] buf = chunk.getBuffer();
+		int o = chunk.getOffset();
+		return 16 + (decodeShort( buf, o+12 ) & 0xFFFF) + (decodeShort( buf, o+14 ) & 0xFFFF);
+	}
+	
+	protected static final int pairKeyHashCode( ByteChunk chunk ) {
+		byte[] buf = chunk.getBuffer();
+		int o = chunk.getOffset();
+		return BlobUtil.hashCode( buf, o+16, decodeShort( buf, o+12 ) & 0xFFFF );
+	}
+	
+	protected static final ByteChunk pairKey( ByteChunk chunk ) {
+		int keyLen = decodeShort( chunk.getBuffer(), chunk.getOffset()+12 ) & 0xFFFF;
+		return SimpleByteChunk.get( chunk.getBuffer(), chunk.getOffset()+16, keyLen );
+	}
+	
+	protected static final long next( ByteChunk chunk ) {
+		return decodeLong( chunk.getBuffer(), chunk.getOffset() );
 	}
 	
 	protected static final int encodedPairSize( ByteChunk key, ByteChunk value ) {
@@ -307,7 +560,7 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		encodeShort( (short)key.getSize(), buffer, offset+12 );
 		encodeShort( (short)value.getSize(), buffer, offset+14 );
 		copy( key.getBuffer(), key.getOffset(), buffer, offset+16, toInt(key.getSize()) );
-		copy( value.getBuffer(), key.getOffset(), buffer, toInt(offset+16+key.getSize()), toInt(value.getSize()) );
+		copy( value.getBuffer(), value.getOffset(), buffer, toInt(offset+16+key.getSize()), toInt(value.getSize()) );
 	}
 	
 	protected static final void encodePair( long next, ByteChunk key, ByteChunk value, byte[] buffer, int offset ) {
@@ -323,31 +576,258 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 	
 	//// 
 	
-	protected void _putWithoutLocking( long indexPos, ByteChunk key, ByteChunk value ) {
-		long oldList = getLong( indexPos );
-		
-		ByteChunk pair = encodePair( oldList, key, value );
-		long newListOffset = blob.getSize();
+	/**
+	 * Add a chunk to the head of the recycle list.
+	 * Overwrites its "PAIR" magic so that any lock-free readers
+	 * still looking at it will know to try again.
+	 */
+	protected void recycle( long ref ) {
+		byte[] buf = new byte[12];
+		encodeLong( getLong( reclRefOffset ), buf, 0 );
+		copy( recy, buf, 8 );
+		blob.put( refOffset(ref), new SimpleByteChunk(buf) );
+		putLong( reclRefOffset, ref );
+		recycledBytes += refSize(ref);
+	}
+	
+	/**
+	 * Find a place to write a chunk of the given size.
+	 * Returns a reference to a recycled chunk at least that big
+	 * (taking it off the recycle list) or to the end of the file.
+	 */
+	protected long allocate( int size ) {
+		if( recycleChunks && reclRefOffset != 0 ) {
+			long prevPos = reclRefOffset;
+			long ref = getLong( prevPos );
+			for( int i=0; ref != 0 && i<RECYCLE_SCAN_LIMIT; ++i ) {
+				ByteChunk c = blob.get( refOffset(ref), 12 );
+				if( c.getSize() < 12 || !equals(recy, c.getBuffer(), c.getOffset()+8) ) {
+					System.err.println("Recycle list in "+getFilename()+" is corrupt at "+refOffset(ref)+"; ignoring the rest of it");
+					putLong( prevPos, 0 );
+					break;
+				}
+				long next = next( c );
+				// Don't waste more than half a chunk
+				if( refSize(ref) >= size && refSize(ref) <= size*2 ) {
+					putLong( prevPos, next );
+					reusedBytes += refSize(ref);
+					return ref;
+				}
+				prevPos = refOffset(ref);
+				ref = next;
+			}
+		}
 		// TODO: May want to adjust the location of the new chunk
 		// to avoid crossing 4kB boundaries for possible slight performance
 		// improvement on certain filesystems?
-		blob.put( newListOffset, pair );
-		putLong( indexPos, chunkRef(newListOffset, toInt(pair.getSize())) );
+		return chunkRef( blob.getSize(), size );
+	}
+	
+	/**
+	 * Unlink and recycle any pairs with the given key
+	 * from the list following the chunk at afterRef.
+	 * Returns the number of pairs removed.
+	 */
+	protected int removeOlderPairs( long afterRef, ByteChunk key ) {
+		int removed = 0;
+		long prevNextPos = refOffset(afterRef);
+		long ref = getLong( prevNextPos );
+		while( ref != 0 ) {
+			ByteChunk c = getChunk( ref );
+			if( c.getSize() < 8 ) break;
+			long next = next( c );
+			if( pairMatches( c, key ) ) {
+				putLong( prevNextPos, next );
+				recycle( ref );
+				++removed;
+			} else {
+				prevNextPos = refOffset(ref);
+			}
+			ref = next;
+		}
+		return removed;
+	}
+	
+	/**
+	 * Returns the number of old pairs that were removed,
+	 * which will always be zero unless recycleChunks is on.
+	 */
+	protected int _putWithoutLocking( IndexState s, ByteChunk key, ByteChunk value ) {
+		long indexPos = s.slotPos( key.hashCode() );
+		long oldList = getLong( indexPos );
+		
+		ByteChunk pair = encodePair( oldList, key, value );
+		long newRef = allocate( toInt(pair.getSize()) );
+		blob.put( refOffset(newRef), pair );
+		putLong( indexPos, newRef );
+		
+		// The new value is linked in before old ones are removed
+		// so that readers never see the key missing
+		return recycleChunks && reclRefOffset != 0 ? removeOlderPairs( newRef, key ) : 0;
+	}
+	
+	/**
+	 * Copy the pairs from one slot of the previous index
+	 * into the lists of the current one.
+	 */
+	protected void migrateSlot( IndexState s, int prevSlot ) {
+		ArrayList<ByteChunk> pairs = new ArrayList<ByteChunk>();
+		int totalSize = 0;
+		long ref = getLong( refOffset(s.prevIndexRef) + ((long)prevSlot << 3) );
+		while( ref != 0 ) {
+			ByteChunk c = getChunk( ref );
+			if( c.getSize() < 8 ) break;
+			if( isCompletePair( ref, c ) ) {
+				pairs.add( c );
+				totalSize += pairSize( c );
+			}
+			ref = next( c );
+		}
+		if( pairs.size() == 0 ) return;
+		
+		// Lists are newest-first, so copy oldest-first
+		// so that the newest still end up at the heads of the new lists
+		long newDataOffset = blob.getSize();
+		byte[] buffer = new byte[totalSize];
+		HashMap<Long,Long> newHeads = new HashMap<Long,Long>();
+		int o = 0;
+		for( int i=pairs.size()-1; i>=0; --i ) {
+			ByteChunk c = pairs.get(i);
+			int size = pairSize( c );
+			Long indexPos = Long.valueOf( s.indexOffset + ((long)(pairKeyHashCode(c) & s.indexMask) << 3) );
+			Long head = newHeads.get( indexPos );
+			if( head == null ) head = Long.valueOf( getLong( indexPos.longValue() ) );
+			copy( c.getBuffer(), c.getOffset(), buffer, o, size );
+			encodeLong( head.longValue(), buffer, o );
+			newHeads.put( indexPos, Long.valueOf( chunkRef( newDataOffset+o, size ) ) );
+			o += size;
+		}
+		
+		blob.put( newDataOffset, new SimpleByteChunk(buffer) );
+		for( Map.Entry<Long,Long> e : newHeads.entrySet() ) {
+			putLong( e.getKey().longValue(), e.getValue().longValue() );
+		}
+	}
+	
+	protected IndexState migrateSlots( IndexState s, int count ) {
+		long prevSlotCount = 1l << refSize(s.prevIndexRef);
+		long end = Math.min( prevSlotCount, s.migratedSlots + count );
+		for( long i=s.migratedSlots; i<end; ++i ) migrateSlot( s, (int)i );
+		return end == prevSlotCount ?
+			s.with( s.entryCount, 0, 0 ) :
+			s.with( s.entryCount, s.prevIndexRef, end );
+	}
+	
+	/**
+	 * Estimate the number of entries in an index
+	 * by walking a sample of its lists.
+	 */
+	protected long estimateEntryCount( IndexState s ) {
+		int slotCount = 1 << s.indexSizePower;
+		int stride = Math.max( 1, slotCount / LOAD_ESTIMATE_SAMPLES );
+		long sampledSlots = 0, sampledEntries = 0;
+		for( int slot=0; slot<slotCount; slot += stride, ++sampledSlots ) {
+			for( long ref = getLong( s.indexOffset + ((long)slot << 3) ); ref != 0; ref = getLong( refOffset(ref) ) ) {
+				++sampledEntries;
+			}
+		}
+		return sampledEntries * slotCount / sampledSlots;
+	}
+	
+	/**
+	 * Write a new, larger index at the end of the file and point
+	 * the header at it.  Entries will be migrated to it gradually.
+	 */
+	static final int ZERO_FILL_CHUNK_SIZE = 1024*1024;
+	
+	/**
+	 * Appends length zero bytes to the end of the file without
+	 * allocating them all at once, since a new index can be hundreds
+	 * of megabytes.  A RandomAccessFile is just lengthened (which
+	 * POSIX and Windows both fill with zeros, and most filesystems
+	 * leave sparse until the slots are written); other blobs get
+	 * zeros written a chunk at a time.
+	 */
+	protected void appendZeros( long offset, long length ) {
+		if( blob instanceof RandomAccessFile ) {
+			try {
+				((RandomAccessFile)blob).setLength( offset + length );
+			} catch( IOException e ) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		byte[] zeros = new byte[(int)Math.min(length, ZERO_FILL_CHUNK_SIZE)];
+		for( long written = 0; written < length; ) {
+			int n = (int)Math.min(length - written, zeros.length);
+			blob.put( offset + written, SimpleByteChunk.get(zeros, 0, n) );
+			written += n;
+		}
+	}
+	
+	protected IndexState startResize( IndexState s, long entryCount ) {
+		int newPower = s.indexSizePower + 1;
+		while( newPower < MAX_INDEX_SIZE_POWER && entryCount > ((long)maxLoadFactor << newPower) ) ++newPower;
+		if( newPower > MAX_INDEX_SIZE_POWER ) return s;
+		
+		long newInfoOffset = blob.getSize();
+		long newIndexRef = chunkRef( newInfoOffset+INDEX_INFO_SIZE, newPower ) | INDEX_INFO_FLAG;
+		IndexState newState = new IndexState( newIndexRef, entryCount, s.indexRef, 0 );
+		appendZeros( newInfoOffset, INDEX_INFO_SIZE + indexSize(newPower) );
+		writeIndexInfo( newState );
+		putLong( indxRefOffset, newIndexRef );
+		return newState;
+	}
+	
+	/**
+	 * Do bookkeeping and index maintenance after some entries have
+	 * been added.  Must be called while holding the write lock.
+	 */
+	protected void _added( IndexState s, int count, int removed ) {
+		if( s.hasInfo() ) {
+			s = s.with( s.entryCount + count - removed, s.prevIndexRef, s.migratedSlots );
+			if( s.isMigrating() ) s = migrateSlots( s, count * MIGRATION_SLOTS_PER_PUT );
+			writeIndexInfo( s );
+			if( !s.isMigrating() && maxLoadFactor > 0 && s.entryCount > ((long)maxLoadFactor << s.indexSizePower) ) {
+				s = startResize( s, s.entryCount );
+			}
+		} else if( maxLoadFactor > 0 && (putsSinceLoadEstimate += count) >= LOAD_ESTIMATE_INTERVAL ) {
+			putsSinceLoadEstimate = 0;
+			long estimatedCount = estimateEntryCount( s );
+			if( estimatedCount > ((long)maxLoadFactor << s.indexSizePower) ) {
+				s = startResize( s, estimatedCount );
+			}
+		}
+		indexState = s;
+	}
+	
+	/**
+	 * Lock the whole file.  FileChannel.lock closes the channel if the
+	 * thread has been interrupted, which would break the file for every
+	 * other thread using it, so a pending interrupt is held off until
+	 * the lock has been acquired.
+	 */
+	protected FileLock lockFile( boolean shared ) throws IOException {
+		boolean interrupted = Thread.interrupted();
+		try {
+			return fileChannel.lock(0, Long.MAX_VALUE, shared);
+		} finally {
+			if( interrupted ) Thread.currentThread().interrupt();
+		}
 	}
 	
 	//// The public interface ////
 	
 	public void put( ByteChunk key, ByteChunk value ) {
-		// TODO: replace old values, use the recycle list, etc
-		long indexPos = indexPos(key);
-		
 		FileLock fl = null;
 		synchronized( this ) {
 			try {
 				try {
-					if( fileChannel != null ) fl = fileChannel.lock(0, Long.MAX_VALUE, false);
+					if( fileChannel != null ) fl = lockFile(false);
 					
-					_putWithoutLocking( indexPos, key, value );
+					IndexState s = getIndexStateForWriting();
+					int removed = _putWithoutLocking( s, key, value );
+					_added( s, 1, removed );
 				} finally {
 					if( fl != null ) fl.release();
 				}
@@ -358,20 +838,18 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 	}
 	
 	public void bulkPut1( ByteChunk[] keys, ByteChunk[] values, int offset, int count ) {
-		long[] indexPos = new long[count];
-		for( int i=0; i<count; ++i ) {
-			indexPos[i] = indexPos(keys[i]); 
-		}
-		
 		FileLock fl = null;
 		synchronized( this ) {
 			try {
 				try {
-					if( fileChannel != null ) fl = fileChannel.lock(0, Long.MAX_VALUE, false);
+					if( fileChannel != null ) fl = lockFile(false);
 					
+					IndexState s = getIndexStateForWriting();
+					int removed = 0;
 					for( int i=0; i<count; ++i ) {
-						_putWithoutLocking( indexPos[i], keys[i], values[i] );
+						removed += _putWithoutLocking( s, keys[offset+i], values[offset+i] );
 					}
+					_added( s, count, removed );
 				} finally {
 					if( fl != null ) fl.release();
 				}
@@ -391,11 +869,9 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		int size = 0;
 		int[] sizes = new int[count];
 		int[] offsets = new int[count];
-		int[] indexSubPos = new int[count];
 		for( int i=0; i<count; ++i ) {
 			offsets[i] = size; 
 			size += (sizes[i] = encodedPairSize( keys[offset+i], values[offset+i] ));
-			indexSubPos[i] = indexSubPos(keys[offset+i]);
 		}
 		byte[] buffer = new byte[size];
 		
@@ -409,24 +885,38 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		synchronized( this ) {
 			try {
 				try {
-					if( fileChannel != null ) fl = fileChannel.lock(0, Long.MAX_VALUE, false);
+					if( fileChannel != null ) fl = lockFile(false);
+					
+					IndexState s = getIndexStateForWriting();
+					if( s.isMigrating() || recycleChunks ) {
+						// Entries may belong in either index, or old values
+						// need removing, so fall back to adding them one at a time
+						int removed = 0;
+						for( int i=0; i<count; ++i ) {
+							removed += _putWithoutLocking( s, keys[offset+i], values[offset+i] );
+						}
+						_added( s, count, removed );
+						return;
+					}
 					
 					long newDataOffset = blob.getSize();
 					
 					// Load entire index
-					ByteChunk index = blob.get( indexOffset, indexSize );
+					ByteChunk index = blob.get( s.indexOffset, s.indexSize );
 					for( int i=0; i<count; ++i ) {
+						int indexSubPos = (keys[offset+i].hashCode() & s.indexMask) << 3;
 						// Copy old list reference into new data
-						copy( index.getBuffer(), index.getOffset()+indexSubPos[i], buffer, offsets[i], 8 );
+						copy( index.getBuffer(), index.getOffset()+indexSubPos, buffer, offsets[i], 8 );
 						// Replace old list reference with reference to new chunk
-						encodeLong( chunkRef( newDataOffset+offsets[i], sizes[i] ), index.getBuffer(), index.getOffset()+indexSubPos[i] );
+						encodeLong( chunkRef( newDataOffset+offsets[i], sizes[i] ), index.getBuffer(), index.getOffset()+indexSubPos );
 					}
 					
 					// Save new data
 					blob.put( newDataOffset, new SimpleByteChunk(buffer) );
 					
 					// Save entire index
-					blob.put( indexOffset, index );
+					blob.put( s.indexOffset, index );
+					_added( s, count, 0 );
 				} finally {
 					if( fl != null ) fl.release();
 				}
@@ -456,6 +946,7 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 	 *  index length > 2000 * batch size (with locking)
 	 */
 	public void smartPut( ByteChunk[] keys, ByteChunk[] values, int offset, int count ) {
+		int indexSize = indexState.indexSize;
 		if( (fileChannel == null && indexSize >  8000 * count) ||
 			(fileChannel != null && indexSize > 16000 * count) ) {
 			bulkPut1( keys, values, offset, count );
@@ -468,26 +959,45 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		smartPut( keys, values, offset, count );
 	}
 	
+	/**
+	 * Walk the list for the given key.
+	 * If checkConsistency is true, returns INCONSISTENT_READ
+	 * upon encountering any incompletely written chunks.
+	 */
+	protected ByteChunk _get( IndexState s, ByteChunk key, boolean checkConsistency ) {
+		long chunkOffset = getLong( s.slotPos( key.hashCode() ) );
+		while( chunkOffset != 0 ) {
+			ByteChunk c = getChunk( chunkOffset );
+			if( checkConsistency && !isCompletePair( chunkOffset, c ) ) return INCONSISTENT_READ;
+			if( pairMatches( c, key ) ) {
+				ByteChunk v = pairValue( chunkOffset, c );
+				if( v != null ) return v;
+			}
+			chunkOffset = next(c);
+		}
+		
+		return null;
+	}
+	
 	public ByteChunk get( ByteChunk key ) {
-		long indexPos = indexPos(key);
+		if( lockFreeReads ) {
+			for( int i=0; i<LOCK_FREE_READ_ATTEMPTS; ++i ) {
+				ByteChunk v = _get( getIndexStateForReading(), key, true );
+				if( v == INCONSISTENT_READ ) continue;
+				// A reader led astray by a recycled chunk can only miss
+				// entries, not find wrong ones, so only misses need re-checking
+				if( v != null || !recycleChunks ) return v;
+				break;
+			}
+		}
 		
 		FileLock fl = null;
 		synchronized( this ) {
 			try {
 				try {
-					if( fileChannel != null ) fl = fileChannel.lock(0, Long.MAX_VALUE, true);
-					
-					long chunkOffset = getLong( indexPos );
-					while( chunkOffset != 0 ) {
-						ByteChunk c = getChunk( chunkOffset );
-						if( pairMatches( c, key ) ) {
-							ByteChunk v = pairValue( chunkOffset, c );
-							if( v != null ) return v;
-						}
-						chunkOffset = next(c);
-					}
+					if( fileChannel != null ) fl = lockFile(true);
 					
-					return null;
+					return _get( getIndexStateForReading(), key, false );
 				} finally {
 					if( fl != null ) {
 						fl.release();
@@ -513,6 +1023,225 @@ public class SimpleListFile2 implements Flushable, Closeable, SimpleMap<ByteChun
 		}
 	}
 	
+	//// Compaction ////
+	
+	/**
+	 * Number of lists that may currently hold live pairs:
+	 * all of the current index's, plus any of the previous index's
+	 * that haven't been migrated yet.
+	 * Keys in different lists never overlap.
+	 */
+	protected static long liveListCount( IndexState s ) {
+		long count = 1l << s.indexSizePower;
+		if( s.isMigrating() ) count += (1l << refSize(s.prevIndexRef)) - s.migratedSlots;
+		return count;
+	}
+	
+	/** Position of the index entry for the nth live list */
+	protected static long liveListPos( IndexState s, long n ) {
+		long slotCount = 1l << s.indexSizePower;
+		if( n < slotCount ) return s.indexOffset + (n << 3);
+		return refOffset(s.prevIndexRef) + ((s.migratedSlots + n - slotCount) << 3);
+	}
+	
+	/**
+	 * Add references to the newest pair for each key in the list at
+	 * listPos that the filter likes to keptRefs, returning the new array
+	 * (which may have been re-allocated).  keptRefs[0] holds the count.
+	 */
+	protected long[] collectLivePairs( long listPos, PairFilter filter, long[] keptRefs, CompactionStats stats ) {
+		HashSet<ByteChunk> seenKeys = new HashSet<ByteChunk>();
+		for( long ref = getLong( listPos ); ref != 0; ) {
+			ByteChunk c = getChunk( ref );
+			if( !isCompletePair( ref, c ) ) {
+				System.err.println("Found malformed pair chunk at "+refOffset(ref)+" in "+getFilename()+"; ignoring the rest of the list");
+				break;
+			}
+			ByteChunk key = pairKey( c );
+			if( !seenKeys.add( key ) ) {
+				++stats.duplicatePairs;
+			} else if( filter != null && !filter.keep( key, pairValue( refOffset(ref), c ) ) ) {
+				++stats.filteredPairs;
+			} else {
+				int n = (int)keptRefs[0] + 1;
+				if( n == keptRefs.length ) keptRefs = Arrays.copyOf( keptRefs, keptRefs.length*2 );
+				keptRefs[n] = ref;
+				keptRefs[0] = n;
+			}
+			ref = next( c );
+		}
+		return keptRefs;
+	}
+	
+	protected CompactionStats _compactTo( IndexState s, RandomAccessBlob dest, PairFilter filter ) {
+		CompactionStats stats = new CompactionStats();
+		stats.bytesBefore = blob.getSize();
+		
+		// Find the newest pair for each key
+		long[] keptRefs = new long[1024];
+		long listCount = liveListCount( s );
+		for( long i=0; i<listCount; ++i ) {
+			keptRefs = collectLivePairs( liveListPos( s, i ), filter, keptRefs, stats );
+		}
+		int keptCount = (int)keptRefs[0];
+		stats.pairsKept = keptCount;
+		
+		int power = MIN_COMPACTED_INDEX_SIZE_POWER;
+		while( power < MAX_INDEX_SIZE_POWER && (1l << power) < keptCount ) ++power;
+		SimpleListFile2 destSlf = new SimpleListFile2( dest, power, false );
+		IndexState ds = destSlf.indexState;
+		
+		// Write pairs a buffer-full at a time, keeping the index in memory
+		long[] heads = new long[1 << power];
+		long dataOffset = dest.getSize();
+		byte[] buffer = new byte[COMPACTION_BUFFER_SIZE];
+		int o = 0;
+		for( int i=1; i<=keptCount; ++i ) {
+			ByteChunk c = getChunk( keptRefs[i] );
+			int size = pairSize( c );
+			if( o + size > buffer.length ) {
+				dest.put( dataOffset, SimpleByteChunk.get( buffer, 0, o ) );
+				dataOffset += o;
+				buffer = new byte[COMPACTION_BUFFER_SIZE];
+				o = 0;
+			}
+			int slot = pairKeyHashCode( c ) & ds.indexMask;
+			copy( c.getBuffer(), c.getOffset(), buffer, o, size );
+			encodeLong( heads[slot], buffer, o );
+			heads[slot] = chunkRef( dataOffset+o, size );
+			o += size;
+		}
+		if( o > 0 ) dest.put( dataOffset, SimpleByteChunk.get( buffer, 0, o ) );
+		
+		byte[] index = new byte[ds.indexSize];
+		for( int i=0; i<heads.length; ++i ) encodeLong( heads[i], index, i<<3 );
+		dest.put( ds.indexOffset, new SimpleByteChunk(index) );
+		destSlf.writeIndexInfo( ds.with( keptCount, 0, 0 ) );
+		
+		stats.bytesAfter = dest.getSize();
+		return stats;
+	}
+	
+	/**
+	 * Write the newest value for each key (for which filter.keep
+	 * returns true, if a filter is given) into dest, which must be empty,
+	 * with an index sized to fit.
+	 * Anything else (overwritten values, the recycle list,
+	 * previous indexes) is left behind.
+	 */
+	public CompactionStats compactTo( RandomAccessBlob dest, PairFilter filter ) {
+		if( dest.getSize() != 0 ) {
+			throw new RuntimeException("Compaction destination must be empty, but has "+dest.getSize()+" bytes");
+		}
+		FileLock fl = null;
+		synchronized( this ) {
+			try {
+				try {
+					if( fileChannel != null ) fl = lockFile(true);
+					
+					return _compactTo( getIndexStateForWriting(), dest, filter );
+				} finally {
+					if( fl != null ) fl.release();
+				}
+			} catch( IOException e ) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Compact the given file into a temporary one and replace
+	 * the original with it.  Other processes must not have the file open,
+	 * since anything they write to it afterwards will be lost.
+	 */
+	public static CompactionStats compact( File f, PairFilter filter ) throws IOException {
+		File tempFile = new File( f.getPath()+".compacting" );
+		if( tempFile.exists() && !tempFile.delete() ) {
+			throw new IOException("Failed to delete old "+tempFile);
+		}
+		
+		CompactionStats stats;
+		SimpleListFile2 source = new SimpleListFile2( new RandomAccessFileBlob(f, "r"), 0, true );
+		try {
+			RandomAccessFileBlob dest = new RandomAccessFileBlob(tempFile, "rw");
+			try {
+				stats = source.compactTo( dest, filter );
+				dest.getChannel().force(true);
+			} finally {
+				dest.close();
+			}
+		} finally {
+			source.close();
+		}
+		
+		if( !tempFile.renameTo(f) ) {
+			// Windows won't rename over an existing file
+			if( !f.delete() || !tempFile.renameTo(f) ) {
+				throw new IOException("Failed to replace "+f+" with compacted "+tempFile);
+			}
+		}
+		return stats;
+	}
+	
+	/**
+	 * Pass each key in the file to the consumer once.
+	 * Holds the read lock the whole time.
+	 */
+	public void forEachKey( Consumer<ByteChunk> consumer ) {
+		FileLock fl = null;
+		synchronized( this ) {
+			try {
+				try {
+					if( fileChannel != null ) fl = lockFile(true);
+					
+					IndexState s = getIndexStateForWriting();
+					long listCount = liveListCount( s );
+					for( long i=0; i<listCount; ++i ) {
+						HashSet<ByteChunk> seenKeys = new HashSet<ByteChunk>();
+						for( long ref = getLong( liveListPos( s, i ) ); ref != 0; ) {
+							ByteChunk c = getChunk( ref );
+							if( !isCompletePair( ref, c ) ) break;
+							ByteChunk key = pairKey( c );
+							if( seenKeys.add( key ) ) consumer.accept( key );
+							ref = next( c );
+						}
+					}
+				} finally {
+					if( fl != null ) fl.release();
+				}
+			} catch( IOException e ) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * Number of pairs in the index (including overwritten ones),
+	 * estimated if the file doesn't keep track.
+	 */
+	public long getEntryCount() {
+		IndexState s = getIndexStateForReading();
+		return s.entryCount >= 0 ? s.entryCount : estimateEntryCount( s );
+	}
+	
+	/**
+	 * Size of the underlying file.  Since chunks are only ever appended
+	 * (unless recycleChunks is on), this changes whenever anything is added.
+	 */
+	public long getFileSize() {
+		return blob.getSize();
+	}
+	
+	/** Total size of chunks this instance has added to the recycle list */
+	public long getRecycledByteCount() {
+		return recycledBytes;
+	}
+	
+	/** Total size of recycled chunks this instance has re-used */
+	public long getReusedByteCount() {
+		return reusedBytes;
+	}
+	
 	/**
 	 * Force changes to go be physically written to disk.
 	 * This may be mislabeled, as 'flush' usually just means sent to the OS...
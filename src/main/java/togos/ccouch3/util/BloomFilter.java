@@ -0,0 +1,104 @@
+package togos.ccouch3.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import togos.blob.ByteChunk;
+
+/**
+ * Fixed-size Bloom filter over byte strings.
+ * mightContain returns false only for things that were never added.
+ *
+ * Bits are only ever set, so concurrent add and mightContain calls
+ * are harmless (at worst a reader misses a bit that is being set
+ * for something added at the same time), but concurrent adds
+ * need to be synchronized by the caller.
+ */
+public class BloomFilter
+{
+	public final int sizePower;
+	public final int hashCount;
+	protected final long[] bits;
+	protected final int mask;
+	protected long count;
+	
+	public BloomFilter( int sizePower, int hashCount ) {
+		if( sizePower < 6 || sizePower > 31 ) {
+			throw new IllegalArgumentException("Bloom filter size power should be 6-31.  Given: "+sizePower);
+		}
+		this.sizePower = sizePower;
+		this.hashCount = hashCount;
+		this.bits = new long[1 << (sizePower-6)];
+		this.mask = (int)((1l << sizePower) - 1);
+	}
+	
+	/**
+	 * Create a filter big enough to hold the given number of entries
+	 * with a false positive rate of about 1%.
+	 */
+	public static BloomFilter forCapacity( long capacity, int minSizePower ) {
+		int p = minSizePower;
+		while( p < 31 && (1l << p) < capacity * 10 ) ++p;
+		return new BloomFilter( p, 7 );
+	}
+	
+	/** Number of entries the filter was sized for */
+	public long getCapacity() {
+		return (1l << sizePower) / 10;
+	}
+	
+	/** Number of adds, counting duplicates */
+	public long getCount() {
+		return count;
+	}
+	
+	/** 64-bit FNV-1a, with a final mix so the high and low halves are both usable */
+	protected static long hash( byte[] buf, int offset, int length ) {
+		long h = 0xcbf29ce484222325l;
+		for( int i=0; i<length; ++i ) {
+			h ^= buf[offset+i] & 0xFF;
+			h *= 0x100000001b3l;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdl;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53l;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+	public void add( ByteChunk c ) {
+		long h = hash( c.getBuffer(), c.getOffset(), (int)c.getSize() );
+		int h1 = (int)h, h2 = (int)(h >>> 32) | 1;
+		for( int i=0; i<hashCount; ++i ) {
+			int bit = (h1 + i*h2) & mask;
+			bits[bit >>> 6] |= 1l << bit;
+		}
+		++count;
+	}
+	
+	public boolean mightContain( ByteChunk c ) {
+		long h = hash( c.getBuffer(), c.getOffset(), (int)c.getSize() );
+		int h1 = (int)h, h2 = (int)(h >>> 32) | 1;
+		for( int i=0; i<hashCount; ++i ) {
+			int bit = (h1 + i*h2) & mask;
+			if( (bits[bit >>> 6] & (1l << bit)) == 0 ) return false;
+		}
+		return true;
+	}
+	
+	public void writeTo( DataOutput out ) throws IOException {
+		out.writeInt( sizePower );
+		out.writeInt( hashCount );
+		out.writeLong( count );
+		for( int i=0; i<bits.length; ++i ) out.writeLong( bits[i] );
+	}
+	
+	public static BloomFilter readFrom( DataInput in ) throws IOException {
+		BloomFilter f = new BloomFilter( in.readInt(), in.readInt() );
+		f.count = in.readLong();
+		for( int i=0; i<f.bits.length; ++i ) f.bits[i] = in.readLong();
+		return f;
+	}
+}
@@ -0,0 +1,143 @@
+package togos.ccouch3.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import togos.blob.ByteChunk;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.slf.SimpleListFile2;
+
+/**
+ * SLFStringSet with a Bloom filter in front of it so that
+ * contains() can answer 'no' for most things that aren't in the set
+ * without touching the disk.
+ *
+ * The filter is saved next to the SLF file (as <name>.bloom) when
+ * the set is closed, along with the size of the SLF file at the time.
+ * When loading, if the SLF file has changed size since (i.e. something
+ * else wrote to it), or if the filter is getting full, it is rebuilt
+ * by walking the SLF file.  If another process is seen
+ * writing to the SLF file while this one is using it, the filter file
+ * is deleted on close rather than saved, since it may be missing entries.
+ */
+public class BloomFilteredSLFStringSet extends SLFStringSet
+{
+	static final int FILTER_FILE_MAGIC = 0x534C4642; // "SLFB"
+	static final int MIN_FILTER_SIZE_POWER = 16;
+	
+	final File filterFile;
+	private volatile BloomFilter filter;
+	/** Size of the SLF file after the last write known to be reflected in the filter */
+	private long filteredSlfSize;
+	/** False if something else may have added entries that the filter doesn't know about */
+	private boolean filterIsComplete;
+	
+	public BloomFilteredSLFStringSet( File slfFile, boolean memoryMapped ) {
+		super( slfFile, memoryMapped );
+		this.filterFile = new File( slfFile.getPath()+".bloom" );
+	}
+	
+	public BloomFilteredSLFStringSet( File slfFile ) {
+		this( slfFile, false );
+	}
+	
+	protected BloomFilter loadFilter( long slfSize ) {
+		if( !filterFile.exists() ) return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filterFile)));
+			try {
+				if( in.readInt() != FILTER_FILE_MAGIC ) return null;
+				if( in.readLong() != slfSize ) return null;
+				BloomFilter f = BloomFilter.readFrom( in );
+				return f.getCount() <= f.getCapacity() ? f : null;
+			} finally {
+				in.close();
+			}
+		} catch( IOException e ) {
+			System.err.println("Warning: Failed to read "+filterFile+"; will rebuild it: "+e.getMessage());
+			return null;
+		} catch( IllegalArgumentException e ) {
+			System.err.println("Warning: "+filterFile+" is invalid; will rebuild it: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	protected BloomFilter buildFilter( SimpleListFile2 slf ) {
+		final BloomFilter f = BloomFilter.forCapacity( slf.getEntryCount() * 2, MIN_FILTER_SIZE_POWER );
+		slf.forEachKey( new Consumer<ByteChunk>() {
+			public void accept( ByteChunk key ) {
+				f.add( key );
+			}
+		});
+		return f;
+	}
+	
+	protected synchronized BloomFilter getFilter() {
+		if( filter == null ) {
+			SimpleListFile2 slf = getSlf();
+			long slfSize = slf.getFileSize();
+			BloomFilter f = loadFilter( slfSize );
+			// If anything gets added after slfSize was read,
+			// the sizes won't match at close and the filter won't be saved
+			if( f == null ) f = buildFilter( slf );
+			filteredSlfSize = slfSize;
+			filterIsComplete = true;
+			filter = f;
+		}
+		return filter;
+	}
+	
+	protected void saveFilter() throws IOException {
+		File tempFile = new File( filterFile.getPath()+".temp" );
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt( FILTER_FILE_MAGIC );
+			out.writeLong( filteredSlfSize );
+			filter.writeTo( out );
+		} finally {
+			out.close();
+		}
+		if( !tempFile.renameTo(filterFile) ) {
+			if( !filterFile.delete() || !tempFile.renameTo(filterFile) ) {
+				throw new IOException("Failed to rename "+tempFile+" to "+filterFile);
+			}
+		}
+	}
+	
+	@Override
+	public synchronized void add( String val ) {
+		BloomFilter f = getFilter();
+		SimpleListFile2 slf = getSlf();
+		if( slf.getFileSize() != filteredSlfSize ) filterIsComplete = false;
+		super.add( val );
+		f.add( BlobUtil.byteChunk(val) );
+		filteredSlfSize = slf.getFileSize();
+	}
+	
+	@Override
+	public boolean contains( String val ) {
+		BloomFilter f = filter;
+		if( f == null ) f = getFilter();
+		if( !f.mightContain( BlobUtil.byteChunk(val) ) ) return false;
+		return super.contains( val );
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if( filter != null ) {
+			if( filterIsComplete && getSlf().getFileSize() == filteredSlfSize ) {
+				saveFilter();
+			} else {
+				filterFile.delete();
+			}
+			filter = null;
+		}
+		super.close();
+	}
+}
@@ -4,6 +4,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Random;
 
 import togos.blob.ByteChunk;
@@ -41,11 +46,102 @@ public class FileUtil
 		File p = f.getParentFile();
 		if( p == null ) return;
 		if( p.exists() ) return;
-		if( !p.mkdirs() ) {
+		// Someone else may have created it in the meantime
+		if( !p.mkdirs() && !p.isDirectory() ) {
 			throw new IOException("Failed to mkdirs("+p+")");
 		}
 	}
 	
+	private static Method toPathMethod;
+	private static Method channelOpenMethod;
+	private static Object readOnlyOpenOptions;
+	private static boolean directorySyncUnavailable;
+	
+	/**
+	 * Make sure entries added to or removed from a directory
+	 * (e.g. by renaming a file into it) are on disk.
+	 *
+	 * Java 6 has no way to open a directory, so this uses Java 7's
+	 * FileChannel.open(Path, OpenOption...) via reflection
+	 * so that we can still be compiled for 1.6.
+	 * When that's not available, or on Windows, where directories
+	 * can't be opened or synced this way (and NTFS journals
+	 * renames anyway), this does nothing.
+	 */
+	public static void syncDirectory( File dir ) throws IOException {
+		if( directorySyncUnavailable || File.separatorChar == '\\' ) return;
+		
+		synchronized( FileUtil.class ) {
+			if( channelOpenMethod == null ) try {
+				toPathMethod = File.class.getMethod("toPath");
+				Class<?> pathClass = Class.forName("java.nio.file.Path");
+				Class<?> openOptionClass = Class.forName("java.nio.file.OpenOption");
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				Object read = Enum.valueOf( (Class<Enum>)Class.forName("java.nio.file.StandardOpenOption"), "READ" );
+				Object options = Array.newInstance(openOptionClass, 1);
+				Array.set(options, 0, read);
+				channelOpenMethod = FileChannel.class.getMethod("open", pathClass, options.getClass());
+				readOnlyOpenOptions = options;
+			} catch( Exception e ) {
+				directorySyncUnavailable = true;
+				return;
+			}
+		}
+		
+		FileChannel chan;
+		try {
+			chan = (FileChannel)channelOpenMethod.invoke(null, toPathMethod.invoke(dir), readOnlyOpenOptions);
+		} catch( InvocationTargetException e ) {
+			if( e.getCause() instanceof IOException ) throw (IOException)e.getCause();
+			throw new IOException("Failed to open directory "+dir+" for syncing", e.getCause());
+		} catch( IllegalAccessException e ) {
+			throw new RuntimeException(e);
+		}
+		try {
+			chan.force(true);
+		} finally {
+			chan.close();
+		}
+	}
+	
+	private static Method createLinkMethod;
+	private static boolean hardLinksUnavailable;
+	
+	/**
+	 * Create a hard link to existing named link,
+	 * using Java 7's Files.createLink via reflection (see syncDirectory).
+	 * Returns false if that's not available.
+	 * Throws an IOException if the link couldn't be made, e.g. because
+	 * the two are on different filesystems, or the filesystem doesn't do links.
+	 */
+	public static boolean hardLink( File link, File existing ) throws IOException {
+		if( hardLinksUnavailable ) return false;
+		
+		synchronized( FileUtil.class ) {
+			if( createLinkMethod == null ) try {
+				if( toPathMethod == null ) toPathMethod = File.class.getMethod("toPath");
+				Class<?> pathClass = Class.forName("java.nio.file.Path");
+				createLinkMethod = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+			} catch( Exception e ) {
+				hardLinksUnavailable = true;
+				return false;
+			}
+		}
+		
+		try {
+			createLinkMethod.invoke(null, toPathMethod.invoke(link), toPathMethod.invoke(existing));
+			return true;
+		} catch( InvocationTargetException e ) {
+			if( e.getCause() instanceof IOException ) throw (IOException)e.getCause();
+			if( e.getCause() instanceof UnsupportedOperationException ) {
+				throw new IOException("Hard links not supported creating "+link, e.getCause());
+			}
+			throw new IOException("Failed to link "+link+" to "+existing, e.getCause());
+		} catch( IllegalAccessException e ) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	public static void deltree( File f ) {
 		if( f.isDirectory() ) {
 			for( File s : f.listFiles() ) {
@@ -76,6 +172,50 @@ public class FileUtil
 		}
 	}
 	
+	/**
+	 * Copy the file to the given channel using FileChannel.transferTo,
+	 * which lets the OS move the data directly (e.g. with sendfile)
+	 * without copying it through a buffer in the JVM.
+	 * The destination must be in blocking mode.
+	 */
+	public static void transferTo( File f, WritableByteChannel dest ) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel src = fis.getChannel();
+			long size = src.size();
+			for( long pos = 0; pos < size; ) {
+				long z = src.transferTo(pos, size - pos, dest);
+				if( z <= 0 ) {
+					throw new IOException("Failed to copy "+f+" to "+dest+"; transferTo stopped after "+pos+" of "+size+" bytes");
+				}
+				pos += z;
+			}
+		} finally {
+			fis.close();
+		}
+	}
+	
+	/**
+	 * Read the whole file into memory.
+	 * Returns null if it's bigger than maxSize or gets shorter while being read.
+	 */
+	public static ByteChunk read( File f, int maxSize ) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			long length = fis.getChannel().size();
+			if( length > maxSize ) return null;
+			
+			int size = (int)length;
+			byte[] data = new byte[size];
+			int r=0;
+			for( int z; r < size && (z=fis.read(data, r, size-r)) > 0; r += z);
+			if( r < size ) return null;
+			return new SimpleByteChunk(data);
+		} finally {
+			fis.close();
+		}
+	}
+	
 	public static File tempFile( File f ) {
 		String ext = ".temp-" + System.currentTimeMillis() + "-" + (new Random()).nextInt(Integer.MAX_VALUE);
 		return new File( f + ext );
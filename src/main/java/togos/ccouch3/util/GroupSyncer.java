@@ -0,0 +1,202 @@
+package togos.ccouch3.util;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Does fsyncs on behalf of many threads, batching together requests
+ * that come in at around the same time ('group commit').
+ *
+ * The first thread to ask for a sync when no batch is open becomes
+ * that batch's leader.  It waits up to maxDelay milliseconds
+ * (or until maxBatchSize requests have joined) and then syncs everything
+ * in the batch, while the other threads that joined just wait for it
+ * to finish.  Directories asked for more than once in a batch are only
+ * synced once, which is where most of the savings come from when lots
+ * of small files are being written into the same few directories.
+ *
+ * A larger maxDelay means more requests per batch (more throughput
+ * when there are many concurrent writers) but longer waits for each one.
+ * Only one batch is synced at a time; requests that come in
+ * while one is being synced go into the next one, so even with
+ * maxDelay = 0 concurrent writers get batched together.
+ * The leader only waits for company if the previous batch had any,
+ * so a single thread writing things one at a time doesn't
+ * wait maxDelay for every sync.
+ *
+ * With maxBatchSize = 1, every request is synced right away
+ * by the thread asking for it, as if there were no GroupSyncer.
+ */
+public class GroupSyncer
+{
+	static class Request {
+		final FileDescriptor fd;
+		final File directory;
+		IOException error;
+		
+		Request( FileDescriptor fd, File directory ) {
+			this.fd = fd;
+			this.directory = directory;
+		}
+	}
+	
+	static class Batch {
+		final List<Request> requests = new ArrayList<Request>();
+		boolean done;
+	}
+	
+	public final long maxDelay;
+	public final int maxBatchSize;
+	
+	private Batch openBatch;
+	private int syncingBatchCount;
+	private int previousBatchSize;
+	private long batchCount;
+	private long syncCount;
+	
+	/**
+	 * @param maxDelay maximum number of milliseconds to wait for more requests
+	 *   before syncing a batch
+	 * @param maxBatchSize number of requests after which a batch is synced
+	 *   without waiting any longer
+	 */
+	public GroupSyncer( long maxDelay, int maxBatchSize ) {
+		if( maxDelay < 0 ) throw new IllegalArgumentException("maxDelay must be >= 0; got "+maxDelay);
+		if( maxBatchSize < 1 ) throw new IllegalArgumentException("maxBatchSize must be >= 1; got "+maxBatchSize);
+		this.maxDelay = maxDelay;
+		this.maxBatchSize = maxBatchSize;
+	}
+	
+	public GroupSyncer( long maxDelay ) {
+		this( maxDelay, 256 );
+	}
+	
+	/** Number of batches synced so far */
+	public synchronized long getBatchCount() { return batchCount; }
+	/** Number of actual fsyncs done so far */
+	public synchronized long getSyncCount() { return syncCount; }
+	
+	/**
+	 * Flush the file's data to disk.
+	 * The file must not be closed until this returns.
+	 */
+	public void sync( FileDescriptor fd ) throws IOException {
+		await( new Request(fd, null) );
+	}
+	
+	/**
+	 * Flush the directory's entries to disk,
+	 * e.g. after a file has been created or renamed into it.
+	 */
+	public void syncDirectory( File dir ) throws IOException {
+		await( new Request(null, dir) );
+	}
+	
+	protected void syncNow( Request req ) throws IOException {
+		if( req.fd != null ) {
+			req.fd.sync();
+		} else {
+			FileUtil.syncDirectory(req.directory);
+		}
+		synchronized( this ) {
+			++batchCount;
+			++syncCount;
+		}
+	}
+	
+	protected void await( Request req ) throws IOException {
+		if( maxBatchSize == 1 ) {
+			syncNow( req );
+			return;
+		}
+		
+		Batch batch;
+		synchronized( this ) {
+			boolean leader = openBatch == null;
+			if( leader ) openBatch = new Batch();
+			batch = openBatch;
+			batch.requests.add(req);
+			
+			if( !leader ) {
+				if( batch.requests.size() >= maxBatchSize ) notifyAll();
+				try {
+					while( !batch.done ) wait();
+				} catch( InterruptedException e ) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for sync");
+				}
+				if( req.error != null ) throw req.error;
+				return;
+			}
+			
+			// Wait for more requests to join, and for any earlier batch
+			// to finish syncing, since it's the disk we're waiting on
+			long deadline = System.currentTimeMillis() + (previousBatchSize > 1 ? maxDelay : 0);
+			try {
+				while( true ) {
+					long remaining = deadline - System.currentTimeMillis();
+					boolean full = batch.requests.size() >= maxBatchSize;
+					if( syncingBatchCount == 0 && (full || remaining <= 0) ) break;
+					wait( full || remaining <= 0 ? 0 : remaining );
+				}
+			} catch( InterruptedException e ) {
+				// Sync what we've got so the others aren't left hanging
+				Thread.currentThread().interrupt();
+			}
+			++syncingBatchCount;
+			previousBatchSize = batch.requests.size();
+			// Anyone arriving from here on starts a new batch
+			openBatch = null;
+		}
+		
+		int syncs = 0;
+		boolean finished = false;
+		try {
+			HashMap<File,IOException> dirResults = new HashMap<File,IOException>();
+			for( Request r : batch.requests ) {
+				if( r.fd != null ) {
+					try {
+						r.fd.sync();
+					} catch( IOException e ) {
+						r.error = e;
+					}
+					++syncs;
+				} else {
+					File dir = r.directory.getAbsoluteFile();
+					if( !dirResults.containsKey(dir) ) {
+						IOException error = null;
+						try {
+							FileUtil.syncDirectory(dir);
+						} catch( IOException e ) {
+							error = e;
+						}
+						dirResults.put(dir, error);
+						++syncs;
+					}
+					r.error = dirResults.get(dir);
+				}
+			}
+			finished = true;
+		} finally {
+			synchronized( this ) {
+				if( !finished ) for( Request r : batch.requests ) {
+					if( r.error == null ) r.error = new IOException("Sync batch failed");
+				}
+				--syncingBatchCount;
+				++batchCount;
+				syncCount += syncs;
+				batch.done = true;
+				notifyAll();
+			}
+		}
+		if( req.error != null ) throw req.error;
+	}
+	
+	@Override public String toString() {
+		return getClass().getSimpleName()+"(maxDelay="+maxDelay+"ms, maxBatchSize="+maxBatchSize+")";
+	}
+}
@@ -0,0 +1,43 @@
+package togos.ccouch3.util;
+
+/**
+ * Token bucket for limiting how fast something (e.g. disk reads)
+ * happens, shared between any number of threads.
+ * Up to one second's worth of unused allowance can be saved up.
+ */
+public class RateLimiter
+{
+	/** Units (e.g. bytes) per second */
+	public final long rate;
+	protected double available;
+	protected long lastRefillTime;
+	
+	public RateLimiter( long rate ) {
+		if( rate <= 0 ) throw new IllegalArgumentException("Rate must be positive; got "+rate);
+		this.rate = rate;
+		this.available = rate;
+		this.lastRefillTime = System.nanoTime();
+	}
+	
+	protected void refill() {
+		long now = System.nanoTime();
+		available = Math.min( rate, available + (now - lastRefillTime) * (double)rate / 1000000000L );
+		lastRefillTime = now;
+	}
+	
+	/**
+	 * Wait until the given amount is allowed.
+	 * Amounts bigger than one second's worth are let through
+	 * once the bucket is full, and the debt is paid off by later callers.
+	 */
+	public synchronized void acquire( long amount ) throws InterruptedException {
+		refill();
+		while( available < Math.min(amount, rate) ) {
+			// Rounded up, and at least 1, since wait(0) waits forever
+			long waitMillis = (long)Math.ceil((Math.min(amount, rate) - available) * 1000 / rate);
+			wait( Math.max(1, waitMillis) );
+			refill();
+		}
+		available -= amount;
+	}
+}
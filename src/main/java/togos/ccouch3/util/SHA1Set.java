@@ -0,0 +1,109 @@
+package togos.ccouch3.util;
+
+import org.bitpedia.util.Base32;
+
+/**
+ * In-memory set of SHA-1s (given as base32 strings), stored as raw
+ * 20-byte hashes in one open-addressed table so that it takes
+ * about 40 bytes per entry instead of the couple hundred
+ * that a HashSet of Strings would.
+ *
+ * Since the keys are hashes already, the first few bytes
+ * are used as-is to pick a slot.
+ */
+public class SHA1Set implements AddableSet<String>
+{
+	static final int HASH_SIZE = 20;
+	
+	protected byte[] table;
+	protected long[] occupied;
+	protected int capacity;
+	protected int size;
+	
+	public SHA1Set( int initialCapacity ) {
+		int c = 16;
+		while( c < initialCapacity * 2 ) c <<= 1;
+		allocate( c );
+	}
+	
+	public SHA1Set() {
+		this( 1024 );
+	}
+	
+	protected void allocate( int capacity ) {
+		this.capacity = capacity;
+		this.table = new byte[capacity * HASH_SIZE];
+		this.occupied = new long[(capacity + 63) / 64];
+		this.size = 0;
+	}
+	
+	protected static byte[] decode( String sha1Base32 ) {
+		byte[] hash = Base32.decode( sha1Base32 );
+		if( hash == null || hash.length != HASH_SIZE ) {
+			throw new IllegalArgumentException("Not a base32-encoded SHA-1: '"+sha1Base32+"'");
+		}
+		return hash;
+	}
+	
+	protected boolean isOccupied( int slot ) {
+		return (occupied[slot >> 6] & (1L << (slot & 63))) != 0;
+	}
+	
+	protected boolean slotMatches( int slot, byte[] hash ) {
+		int o = slot * HASH_SIZE;
+		for( int i = 0; i < HASH_SIZE; ++i ) {
+			if( table[o + i] != hash[i] ) return false;
+		}
+		return true;
+	}
+	
+	/** Returns the slot the hash is in, or the empty one where it would go */
+	protected int findSlot( byte[] hash ) {
+		int h = ((hash[0] & 0xFF) << 24) | ((hash[1] & 0xFF) << 16) | ((hash[2] & 0xFF) << 8) | (hash[3] & 0xFF);
+		int mask = capacity - 1;
+		for( int slot = h & mask; ; slot = (slot + 1) & mask ) {
+			if( !isOccupied(slot) || slotMatches(slot, hash) ) return slot;
+		}
+	}
+	
+	protected void insert( int slot, byte[] hash ) {
+		System.arraycopy( hash, 0, table, slot * HASH_SIZE, HASH_SIZE );
+		occupied[slot >> 6] |= 1L << (slot & 63);
+		++size;
+	}
+	
+	protected void grow() {
+		byte[] oldTable = table;
+		long[] oldOccupied = occupied;
+		int oldCapacity = capacity;
+		allocate( oldCapacity * 2 );
+		byte[] hash = new byte[HASH_SIZE];
+		for( int slot = 0; slot < oldCapacity; ++slot ) {
+			if( (oldOccupied[slot >> 6] & (1L << (slot & 63))) == 0 ) continue;
+			System.arraycopy( oldTable, slot * HASH_SIZE, hash, 0, HASH_SIZE );
+			insert( findSlot(hash), hash );
+		}
+	}
+	
+	/** Returns true if the hash was not already in the set */
+	public synchronized boolean addNew( String sha1Base32 ) {
+		byte[] hash = decode( sha1Base32 );
+		int slot = findSlot( hash );
+		if( isOccupied(slot) ) return false;
+		insert( slot, hash );
+		if( size * 2 > capacity ) grow();
+		return true;
+	}
+	
+	@Override public void add( String sha1Base32 ) {
+		addNew( sha1Base32 );
+	}
+	
+	@Override public synchronized boolean contains( String sha1Base32 ) {
+		return isOccupied( findSlot(decode(sha1Base32)) );
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -1,21 +1,29 @@
 package togos.ccouch3.util;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 
 import togos.blob.ByteChunk;
 import togos.blob.util.BlobUtil;
 import togos.ccouch3.slf.SimpleListFile2;
 
-public class SLFStringSet implements AddableSet<String>
+public class SLFStringSet implements AddableSet<String>, Closeable
 {
 	static final ByteChunk YES_MARKER = BlobUtil.byteChunk("Y");
 	
 	final File slfFile;
+	final boolean memoryMapped;
 	
 	private SimpleListFile2 slfFile2;
 	
-	public SLFStringSet( File slfFile ) {
+	public SLFStringSet( File slfFile, boolean memoryMapped ) {
 		this.slfFile = slfFile;
+		this.memoryMapped = memoryMapped;
+	}
+	
+	public SLFStringSet( File slfFile ) {
+		this( slfFile, false );
 	}
 	
 	@Override public String toString() {
@@ -24,7 +32,7 @@ public class SLFStringSet implements AddableSet<String>
 	
 	protected synchronized SimpleListFile2 getSlf() {
 		if( slfFile2 == null ) {
-			slfFile2 = SimpleListFile2.mkSlf(slfFile);
+			slfFile2 = SimpleListFile2.mkSlf(slfFile, memoryMapped);
 		}
 		return slfFile2;
 	}
@@ -33,15 +41,20 @@ public class SLFStringSet implements AddableSet<String>
 	public void add(String val) {
 		SimpleListFile2 c = getSlf();
 		ByteChunk urnChunk = BlobUtil.byteChunk(val);
-		synchronized( c ) { c.put(urnChunk, YES_MARKER); }
+		c.put(urnChunk, YES_MARKER);
 	}
 	
 	@Override
 	public boolean contains(String val) {
 		SimpleListFile2 c = getSlf();
 		ByteChunk urnChunk = BlobUtil.byteChunk(val);
-		ByteChunk storedMarker;
-		synchronized( c ) { storedMarker = c.get(urnChunk); }
+		ByteChunk storedMarker = c.get(urnChunk);
 		return YES_MARKER.equals(storedMarker);
 	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if( slfFile2 != null ) slfFile2.close();
+		slfFile2 = null;
+	}
 }
\ No newline at end of file
@@ -3,9 +3,15 @@ package togos.ccouch3.util;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+
+import togos.blob.ByteBlob;
+import togos.blob.file.FileBlob;
 
 public class StreamUtil
 {
@@ -31,6 +37,27 @@ public class StreamUtil
 		}
 	}
 	
+	private static FileChannel stdoutChannel;
+	
+	/**
+	 * Write the blob to standard output.
+	 * Files are transferred directly to the stdout file descriptor
+	 * (see FileUtil#transferTo) instead of being
+	 * copied through System.out.
+	 */
+	public static void writeToStdout(ByteBlob blob) throws IOException {
+		if( blob instanceof FileBlob ) {
+			System.out.flush();
+			synchronized( StreamUtil.class ) {
+				// Never closed, since that would close stdout
+				if( stdoutChannel == null ) stdoutChannel = new FileOutputStream(FileDescriptor.out).getChannel();
+				FileUtil.transferTo((FileBlob)blob, stdoutChannel);
+			}
+		} else {
+			blob.writeTo(System.out);
+		}
+	}
+	
 	public static byte[] slurp(InputStream in) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		copy(in, baos);
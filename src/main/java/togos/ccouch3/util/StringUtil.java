@@ -22,4 +22,19 @@ public class StringUtil
 		if( dest.length() > 0 ) dest.append(sep);
 		dest.append(appendMe);
 	}
+	
+	/**
+	 * Parse a number of bytes, optionally suffixed with K, M, or G
+	 * (powers of 1024), e.g. "500M".
+	 * @throws NumberFormatException if it's not one of those
+	 */
+	public static long parseByteCount(String s) {
+		String v = s.trim().toUpperCase();
+		long multiplier = 1;
+		if( v.endsWith("K") ) multiplier = 1024L;
+		else if( v.endsWith("M") ) multiplier = 1024L*1024;
+		else if( v.endsWith("G") ) multiplier = 1024L*1024*1024;
+		if( multiplier != 1 ) v = v.substring(0, v.length()-1);
+		return Long.parseLong(v) * multiplier;
+	}
 }
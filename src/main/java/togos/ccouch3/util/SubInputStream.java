@@ -20,16 +20,25 @@ public class SubInputStream extends InputStream
 	}
 	
 	protected void skipToOffset() throws IOException {
+		byte[] buf = null;
 		while( readFromBackingStream < offset ) {
-			long skipped = backingStream.skip(offset - readFromBackingStream);
-			if( skipped <= 0 ) return;
+			long n = offset - readFromBackingStream;
+			long skipped = backingStream.skip(n);
+			if( skipped <= 0 ) {
+				// Some streams (e.g. CipherInputStream) won't skip
+				// past what they have buffered, so read instead.
+				if( buf == null ) buf = new byte[(int)Math.min(n, 8192)];
+				int read = backingStream.read(buf, 0, (int)Math.min(n, buf.length));
+				if( read == -1 ) return;
+				skipped = read;
+			}
 			readFromBackingStream += skipped;
 		}
 	}
 	
 	@Override public int read() throws IOException {
 		skipToOffset();
-		if( readFromBackingStream + offset >= length ) return -1;
+		if( readFromBackingStream >= offset + length ) return -1;
 		int read = backingStream.read();
 		if( read != -1 ) ++readFromBackingStream;
 		return read;
@@ -39,9 +48,10 @@ public class SubInputStream extends InputStream
 		skipToOffset();
 		if( len + readFromBackingStream > offset + length ) {
 			len = (int)(offset + length - readFromBackingStream);
+			if( len <= 0 ) return -1;
 		}
 		int read = backingStream.read(b, off, len);
-		readFromBackingStream += read;
+		if( read > 0 ) readFromBackingStream += read;
 		return read;
 	}
 	
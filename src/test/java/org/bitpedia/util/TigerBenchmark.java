@@ -0,0 +1,81 @@
+package org.bitpedia.util;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+/**
+ * Compares the throughput of Tiger and TigerTree with that of
+ * ReferenceTiger and ReferenceTigerTree.
+ * Not a unit test; run it with
+ *
+ *   java org.bitpedia.util.TigerBenchmark [<data size in KiB> [<update size>]]
+ *
+ * Each implementation gets a few warmup rounds before it's timed
+ * so that the JIT has a chance to compile everything,
+ * and the best of the timed rounds is reported, since on a busy
+ * machine the average mostly measures whatever else is going on.
+ * Results still vary a fair bit between runs, so run it a few times.
+ */
+public class TigerBenchmark
+{
+	interface DigestFactory {
+		public MessageDigest create();
+	}
+	
+	static final int WARMUP_ROUNDS = 5;
+	static final int TIMED_ROUNDS = 20;
+	
+	static byte[] sink;
+	
+	protected static double megabytesPerSecond( DigestFactory f, byte[] data, int updateSize ) {
+		MessageDigest md = f.create();
+		double best = 0;
+		for( int round=0; round<WARMUP_ROUNDS+TIMED_ROUNDS; ++round ) {
+			long startTime = System.nanoTime();
+			for( int o=0; o<data.length; o += updateSize ) {
+				md.update( data, o, Math.min(updateSize, data.length - o) );
+			}
+			sink = md.digest();
+			long endTime = System.nanoTime();
+			if( round >= WARMUP_ROUNDS ) {
+				best = Math.max( best, data.length * 1000.0 / (endTime - startTime) );
+			}
+		}
+		return best;
+	}
+	
+	protected static void compare( String name, DigestFactory reference, DigestFactory current, byte[] data, int updateSize ) {
+		double referenceSpeed = megabytesPerSecond(reference, data, updateSize);
+		double currentSpeed = megabytesPerSecond(current, data, updateSize);
+		System.out.println(String.format("  %-10s %8.1f MB/s (reference: %8.1f MB/s, %+.1f%%)",
+			name, currentSpeed, referenceSpeed, (currentSpeed / referenceSpeed - 1) * 100));
+	}
+	
+	public static void main( String[] args ) {
+		int dataSize = (args.length > 0 ? Integer.parseInt(args[0]) : 32*1024) * 1024;
+		int updateSize = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+		
+		byte[] data = new byte[dataSize];
+		new Random(1234).nextBytes(data);
+		
+		System.out.println("Hashing "+dataSize+" bytes, "+updateSize+" at a time");
+		compare( "Tiger", new DigestFactory() {
+			public MessageDigest create() { return new ReferenceTiger(); }
+		}, new DigestFactory() {
+			public MessageDigest create() { return new Tiger(); }
+		}, data, updateSize );
+		compare( "TigerTree", new DigestFactory() {
+			// The reference implementation can't be reused after digest()
+			public MessageDigest create() { return new ReusableReferenceTigerTree(); }
+		}, new DigestFactory() {
+			public MessageDigest create() { return new TigerTree(); }
+		}, data, updateSize );
+	}
+	
+	static class ReusableReferenceTigerTree extends ReferenceTigerTree {
+		@Override protected void engineReset() {
+			super.engineReset();
+			blockCount = 0;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.bitpedia.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TigerTest extends TestCase
+{
+	Random r = new Random(1234);
+	
+	protected static String hex( byte[] data ) {
+		StringBuilder sb = new StringBuilder();
+		for( byte b : data ) sb.append( String.format("%02X", b) );
+		return sb.toString();
+	}
+	
+	protected static String hash( String text ) throws UnsupportedEncodingException {
+		Tiger t = new Tiger();
+		t.update( text.getBytes("UTF-8") );
+		return hex( t.digest() );
+	}
+	
+	/** Vectors from the Tiger reference page / NESSIE */
+	public void testKnownHashes() throws UnsupportedEncodingException {
+		assertEquals( "3293AC630C13F0245F92BBB1766E16167A4E58492DDE73F3", hash("") );
+		assertEquals( "2AAB1484E8C158F2BFB8C5FF41B57A525129131C957B5F93", hash("abc") );
+		assertEquals( "DD00230799F5009FEC6DEBC838BB6A27DF2B9D6F110C7937", hash("Tiger") );
+		assertEquals( "6D12A41E72E644F017B6F0E2F7B44C6285F06DD5D2C5B075", hash("The quick brown fox jumps over the lazy dog") );
+		
+		byte[] millionAs = new byte[1000000];
+		Arrays.fill( millionAs, (byte)'a' );
+		Tiger t = new Tiger();
+		t.update( millionAs );
+		assertEquals( "6DB0E2729CBEAD93D715C6A7D36302E9B3CEE0D2BC314B41", hex(t.digest()) );
+	}
+	
+	/**
+	 * Hash random data at random (i.e. unaligned) offsets in
+	 * randomly sized pieces and make sure the result is the same
+	 * as the reference implementation's.
+	 */
+	public void testMatchesReferenceImplementation() {
+		Tiger t = new Tiger();
+		for( int i=0; i<200; ++i ) {
+			int size = i < 130 ? i : r.nextInt(100000);
+			byte[] buffer = new byte[size + 100];
+			r.nextBytes(buffer);
+			int start = r.nextInt(100);
+			
+			for( int o=0; o<size; ) {
+				int len = r.nextInt(4) == 0 ? 1 : r.nextInt(1000);
+				if( len > size - o ) len = size - o;
+				if( len == 1 ) t.update( buffer[start+o] );
+				else t.update( buffer, start+o, len );
+				o += len;
+			}
+			MessageDigest ref = new ReferenceTiger();
+			ref.update( buffer, start, size );
+			assertEquals( "Size "+size, hex(ref.digest()), hex(t.digest()) );
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package org.bitpedia.util;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TigerTreeTest extends TestCase
+{
+	Random r = new Random(1234);
+	
+	protected static byte[] filled( int size, char c ) {
+		byte[] data = new byte[size];
+		Arrays.fill( data, (byte)c );
+		return data;
+	}
+	
+	protected static String hash( MessageDigest md, byte[] data ) {
+		md.update( data );
+		return Base32.encode( md.digest() );
+	}
+	
+	/** Vectors from the THEX draft */
+	public void testKnownHashes() {
+		TigerTree tt = new TigerTree();
+		assertEquals( "LWPNACQDBZRYXW3VHJVCJ64QBZNGHOHHHZWCLNQ", hash(tt, new byte[0]) );
+		assertEquals( "VK54ZIEEVTWNAUI5D5RDFIL37LX2IQNSTAXFKSA", hash(tt, new byte[1]) );
+		assertEquals( "L66Q4YVNAFWVS23X2HJIRA5ZJ7WXR3F26RSASFA", hash(tt, filled(1024, 'A')) );
+		assertEquals( "PZMRYHGY6LTBEH63ZWAHDORHSYTLO4LEFUIKHWY", hash(tt, filled(1025, 'A')) );
+	}
+	
+	/**
+	 * Feed random data to both implementations in randomly sized pieces
+	 * (including single bytes) and make sure they agree.
+	 */
+	public void testMatchesReferenceImplementation() {
+		TigerTree tt = new TigerTree();
+		int[] sizes = new int[] { 0, 1, 1023, 1024, 1025, 2048, 3072, 4095, 7*1024, 8*1024, 8*1024+1, 100000, 1000000 };
+		for( int size : sizes ) {
+			byte[] data = new byte[size];
+			r.nextBytes(data);
+			
+			for( int o=0; o<size; ) {
+				int len = r.nextInt(4) == 0 ? 1 : r.nextInt(5000);
+				if( len > size - o ) len = size - o;
+				if( len == 1 ) tt.update( data[o] );
+				else tt.update( data, o, len );
+				o += len;
+			}
+			assertEquals( "Size "+size, hash(new ReferenceTigerTree(), data), Base32.encode(tt.digest()) );
+		}
+	}
+}
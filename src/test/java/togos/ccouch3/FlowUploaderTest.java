@@ -0,0 +1,106 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import togos.ccouch3.FlowUploader.Actions;
+import togos.ccouch3.FlowUploader.IndexResult;
+import togos.ccouch3.FlowUploader.Indexer;
+import togos.ccouch3.FlowUploader.Indexer.IndexedObjectSink;
+import togos.ccouch3.FlowUploader.Sink;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.util.EmptyAddableSet;
+import togos.ccouch3.util.FileUtil;
+
+public class FlowUploaderTest extends TestCase
+{
+	File tempDir = new File("temp/flow-uploader-test");
+	Random r = new Random(1234);
+	
+	public void setUp() throws IOException {
+		FileUtil.deltree(tempDir);
+		makeTree( tempDir, 3 );
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected void makeTree( File dir, int depth ) throws IOException {
+		dir.mkdirs();
+		for( int i=0; i<20; ++i ) {
+			byte[] data = new byte[r.nextInt(100000)];
+			r.nextBytes(data);
+			FileOutputStream fos = new FileOutputStream(new File(dir, "file"+i));
+			fos.write(data);
+			fos.close();
+		}
+		if( depth > 0 ) for( int i=0; i<3; ++i ) makeTree( new File(dir, "dir"+i), depth-1 );
+	}
+	
+	static final HashCache NULL_HASH_CACHE = new HashCache() {
+		@Override public String getFileUrn(File f) { return null; }
+		@Override public void cacheFileUrn(File f, String urn) {}
+	};
+	
+	/** Returns the tree URN followed by the URNs of everything given to the destination */
+	protected List<String> index( ExecutorService executor ) throws Exception {
+		final ArrayList<String> given = new ArrayList<String>();
+		Sink<Object> recorder = new Sink<Object>() {
+			@Override public void give( Object thing ) {
+				if( thing instanceof BlobInfo ) given.add( ((BlobInfo)thing).getUrn() );
+				else given.add( thing.getClass().getSimpleName() );
+			}
+		};
+		IndexedObjectSink dest = new IndexedObjectSink( EmptyAddableSet.<String>getInstance(), recorder, "test" );
+		Indexer indexer = new Indexer(
+			null, null, BlobReferenceScanMode.NEVER,
+			new NewStyleRDFDirectorySerializer(true), BitprintDigest.STREAM_URNIFIER,
+			NULL_HASH_CACHE, executor, Actions.THROW_AN_EXCEPTION, false );
+		IndexResult result = indexer.index( tempDir, Collections.singletonList(dest), FileUtil.DEFAULT_IGNORES );
+		given.add( 0, result.urn );
+		return given;
+	}
+	
+	public void testParallelHashingGivesSameResults() throws Exception {
+		List<String> sequential = index( null );
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertEquals( sequential, index( executor ) );
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	public void testShutDownLetsHashersFinish() throws Exception {
+		final RandomAccessFile raf = new RandomAccessFile(new File(tempDir, "file0"), "r");
+		try {
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			Future<Integer> read = executor.submit(new Callable<Integer>() {
+				@Override public Integer call() throws Exception {
+					Thread.sleep(100);
+					return raf.getChannel().read(ByteBuffer.allocate(16), 0);
+				}
+			});
+			FlowUploader.shutDownFileHashingExecutor( executor, false );
+			assertTrue( executor.isTerminated() );
+			assertTrue( read.isDone() );
+			read.get();
+			assertTrue( raf.getChannel().isOpen() );
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package togos.ccouch3;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.repo.SHA1FileRepository;
+import togos.ccouch3.repo.StoreException;
+import togos.ccouch3.util.FileUtil;
+
+public class GarbageCollectCommandTest extends TestCase
+{
+	File repoDir = new File("temp/gc-test-repo");
+	SHA1FileRepository repo = new SHA1FileRepository(new File(repoDir, "data"), "test");
+	HeadManager hman = new HeadManager(new File(repoDir, "heads"));
+	Random r = new Random(1234);
+	
+	public void setUp() {
+		FileUtil.deltree(repoDir);
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(repoDir);
+	}
+	
+	protected String put( byte[] data ) throws StoreException {
+		return repo.put( new ByteArrayInputStream(data) );
+	}
+	
+	protected String putRandom( int size ) throws StoreException {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return put( data );
+	}
+	
+	protected String putText( String text ) throws StoreException {
+		return put( text.getBytes() );
+	}
+	
+	protected String directory( String name, String targetUrn ) {
+		return
+			"<Directory xmlns=\"http://ns.nuke24.net/ContentCouch/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
+			"\t<entries rdf:parseType=\"Collection\">\n" +
+			"\t\t<DirectoryEntry>\n" +
+			"\t\t\t<name>"+name+"</name>\n" +
+			"\t\t\t<target>\n" +
+			"\t\t\t\t<Blob rdf:about=\""+targetUrn+"\"/>\n" +
+			"\t\t\t</target>\n" +
+			"\t\t</DirectoryEntry>\n" +
+			"\t</entries>\n" +
+			"</Directory>\n";
+	}
+	
+	protected String commit( String targetUrn, String parentUrn ) {
+		return
+			"<Commit xmlns=\"http://ns.nuke24.net/ContentCouch/\" xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n" +
+			"\t<target rdf:resource=\"x-rdf-subject:"+targetUrn+"\"/>\n" +
+			(parentUrn == null ? "" : "\t<parent rdf:resource=\"x-rdf-subject:"+parentUrn+"\"/>\n") +
+			"</Commit>\n";
+	}
+	
+	protected String addHead( String commit ) throws IOException, StoreException {
+		hman.addHead( "test", 0, BlobUtil.byteChunk(commit) );
+		return putText( commit );
+	}
+	
+	protected int gc( String...extraArgs ) throws Exception {
+		String[] args = new String[] { "-repo", repoDir.getPath(), "-min-age", "0", "-hash-threads", "2" };
+		args = Arrays.copyOf( args, args.length + extraArgs.length );
+		System.arraycopy( extraArgs, 0, args, args.length - extraArgs.length, extraArgs.length );
+		return GarbageCollectCommand.main( new CCouchContext(), Arrays.asList(args) );
+	}
+	
+	public void testDeletesUnreachableBlobs() throws Exception {
+		String oldFile = putRandom( 1000 );
+		String oldDir = putText( directory("old", oldFile) );
+		String oldCommit = addHead( commit(oldDir, null) );
+		
+		String file = putRandom( 2000 );
+		String dir = putText( directory("new", file.replace("sha1", "bitprint")+".AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+		String newCommit = addHead( commit(dir, oldCommit) );
+		// Only reachable from the old head file, not from the new commit
+		String oldHeadOnly = putRandom( 100 );
+		putText( "Unreferenced "+oldHeadOnly );
+		
+		String garbage1 = putRandom( 3000 );
+		String garbage2 = putText( directory("garbage", garbage1) );
+		
+		assertEquals( 0, gc("-dry-run") );
+		assertTrue( repo.contains(garbage1) );
+		
+		assertEquals( 0, gc() );
+		for( String urn : new String[] { oldFile, oldDir, oldCommit, file, dir, newCommit } ) {
+			assertTrue( urn+" should have been kept", repo.contains(urn) );
+		}
+		assertFalse( repo.contains(garbage1) );
+		assertFalse( repo.contains(garbage2) );
+		assertFalse( repo.contains(oldHeadOnly) );
+	}
+	
+	public void testKeepsOldBlobsThatWereStoredAgain() throws Exception {
+		byte[] data1 = new byte[1000], data2 = new byte[1000];
+		r.nextBytes(data1);
+		r.nextBytes(data2);
+		String restoredByUrn = put( data1 );
+		String restoredByData = put( data2 );
+		String garbage = putRandom( 1000 );
+		addHead( commit("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", null) );
+		long twoDaysAgo = System.currentTimeMillis() - 2*24*3600*1000L;
+		for( String urn : new String[] { restoredByUrn, restoredByData, garbage } ) {
+			repo.getFile(urn).setLastModified( twoDaysAgo );
+		}
+		
+		// As an upload would before adding a head that references them
+		repo.put( restoredByUrn, new ByteArrayInputStream(data1) );
+		put( data2 );
+		
+		assertEquals( 0, gc("-min-age", "24", "-ignore-missing") );
+		assertTrue( repo.contains(restoredByUrn) );
+		assertTrue( repo.contains(restoredByData) );
+		assertFalse( repo.contains(garbage) );
+	}
+	
+	public void testKeepsOldBlobsReferencedByRecentOnes() throws Exception {
+		String oldFile = putRandom( 1000 );
+		String oldDir = putText( directory("old", oldFile) );
+		String garbage = putRandom( 1000 );
+		addHead( commit("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", null) );
+		long twoDaysAgo = System.currentTimeMillis() - 2*24*3600*1000L;
+		for( String urn : new String[] { oldFile, oldDir, garbage } ) {
+			repo.getFile(urn).setLastModified( twoDaysAgo );
+		}
+		
+		// As an upload would that skipped oldDir because
+		// its uploaded-to cache said it was already there
+		String newDir = putText( directory("new", oldDir) );
+		
+		assertEquals( 0, gc("-min-age", "24", "-ignore-missing") );
+		assertTrue( repo.contains(newDir) );
+		assertTrue( repo.contains(oldDir) );
+		assertTrue( repo.contains(oldFile) );
+		assertFalse( repo.contains(garbage) );
+	}
+	
+	public void testLatestHeadsOnly() throws Exception {
+		String oldFile = putRandom( 1000 );
+		String oldDir = putText( directory("old", oldFile) );
+		addHead( commit(oldDir, null) );
+		String file = putRandom( 1000 );
+		String dir = putText( directory("new", file) );
+		String newCommit = addHead( commit(dir, null) );
+		
+		assertEquals( 0, gc("-latest-heads-only", "-on-disk-mark-set") );
+		assertTrue( repo.contains(newCommit) );
+		assertTrue( repo.contains(file) );
+		assertFalse( repo.contains(oldDir) );
+		assertFalse( repo.contains(oldFile) );
+	}
+	
+	public void testRefusesToSweepWithMissingBlobs() throws Exception {
+		String garbage = putRandom( 1000 );
+		addHead( commit("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", null) );
+		assertEquals( 1, gc() );
+		assertTrue( repo.contains(garbage) );
+		assertEquals( 0, gc("-ignore-missing") );
+		assertFalse( repo.contains(garbage) );
+	}
+	
+	public void testRefusesToSweepPackedRepository() throws Exception {
+		String garbage = putRandom( 1000 );
+		addHead( commit("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", null) );
+		new File(repoDir, "packs").mkdirs();
+		assertEquals( 1, gc("-ignore-missing") );
+		assertTrue( repo.contains(garbage) );
+	}
+	
+	public void testRefusesToSweepWithoutRoots() throws Exception {
+		String garbage = putRandom( 1000 );
+		assertEquals( 1, gc() );
+		assertTrue( repo.contains(garbage) );
+		assertEquals( 0, gc(garbage) );
+		assertTrue( repo.contains(garbage) );
+	}
+}
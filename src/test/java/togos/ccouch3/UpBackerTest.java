@@ -0,0 +1,64 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.ccouch3.util.FileUtil;
+
+public class UpBackerTest extends TestCase
+{
+	File tempDir = new File("temp/up-backer-test");
+	File repoDir = new File(tempDir, "repo");
+	File dataFile = new File(tempDir, "data");
+	
+	/** Counts files that got copied in one pass */
+	static class CountingUpBacker extends UpBacker {
+		int onePassCount;
+		
+		public CountingUpBacker( File repoDir ) {
+			super(repoDir, "test", true);
+		}
+		
+		@Override protected StoreResult storeFileInOnePass( File f ) {
+			++onePassCount;
+			return super.storeFileInOnePass(f);
+		}
+	}
+	
+	public void setUp() throws IOException {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+		byte[] data = new byte[100000];
+		new Random(1234).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(dataFile);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	public void testAlreadyStoredFilesAreHashedFirst() {
+		CountingUpBacker first = new CountingUpBacker(repoDir);
+		assertEquals( 0, first.store(Collections.singletonList(dataFile)) );
+		assertEquals( 1, first.onePassCount );
+		
+		CountingUpBacker second = new CountingUpBacker(repoDir);
+		assertEquals( 0, second.store(Collections.singletonList(dataFile)) );
+		assertEquals( 0, second.onePassCount );
+		
+		// But a file that's changed still gets copied in one pass
+		dataFile.setLastModified(dataFile.lastModified() - 10000);
+		CountingUpBacker third = new CountingUpBacker(repoDir);
+		assertEquals( 0, third.store(Collections.singletonList(dataFile)) );
+		assertEquals( 1, third.onePassCount );
+	}
+}
@@ -0,0 +1,133 @@
+package togos.ccouch3;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.TimerTask;
+
+import junit.framework.TestCase;
+import togos.blob.ByteChunk;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.util.FileUtil;
+
+public class WriteBehindHashCacheTest extends TestCase
+{
+	File tempDir = new File("temp/write-behind-hash-cache-test");
+	File cacheDir = new File(tempDir, "cache");
+	File[] files = new File[10];
+	
+	public void setUp() throws IOException {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+		for( int i=0; i<files.length; ++i ) {
+			files[i] = new File(tempDir, "file"+i+".txt");
+			FileOutputStream fos = new FileOutputStream(files[i]);
+			fos.write( ("Content #"+i).getBytes() );
+			fos.close();
+		}
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected String fakeUrn( int i ) {
+		return "urn:fake:"+i;
+	}
+	
+	public void testPendingEntriesAreReadable() throws Exception {
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 1000, 60000);
+		try {
+			for( int i=0; i<files.length; ++i ) hc.cacheFileUrn(files[i], fakeUrn(i));
+			assertEquals( files.length, hc.getPendingEntryCount() );
+			for( int i=0; i<files.length; ++i ) assertEquals( fakeUrn(i), hc.getFileUrn(files[i]) );
+			assertEquals( files.length, hc.getPendingEntryCount() );
+			
+			hc.cacheFileUrn(tempDir, "urn:fake:dir");
+			assertEquals( "urn:fake:dir", hc.getFileUrn(tempDir) );
+		} finally {
+			hc.close();
+		}
+		
+		// Everything should have been written on close
+		SLFHashCache reopened = new SLFHashCache(cacheDir);
+		try {
+			for( int i=0; i<files.length; ++i ) assertEquals( fakeUrn(i), reopened.getFileUrn(files[i]) );
+			assertEquals( "urn:fake:dir", reopened.getFileUrn(tempDir) );
+		} finally {
+			reopened.close();
+		}
+	}
+	
+	public void testFlushWhenFull() throws Exception {
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 4, 60000);
+		try {
+			for( int i=0; i<files.length; ++i ) {
+				hc.cacheFileUrn(files[i], fakeUrn(i));
+				assertTrue( hc.getPendingEntryCount() < 4 );
+			}
+			assertEquals( files.length % 4, hc.getPendingEntryCount() );
+			for( int i=0; i<files.length; ++i ) assertEquals( fakeUrn(i), hc.getFileUrn(files[i]) );
+		} finally {
+			hc.close();
+		}
+	}
+	
+	public void testFlushAfterDelay() throws Exception {
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 1000, 50);
+		try {
+			hc.cacheFileUrn(files[0], fakeUrn(0));
+			for( int i=0; i<100 && hc.getPendingEntryCount() > 0; ++i ) Thread.sleep(20);
+			assertEquals( 0, hc.getPendingEntryCount() );
+			assertEquals( fakeUrn(0), hc.getFileUrn(files[0]) );
+		} finally {
+			hc.close();
+		}
+	}
+	
+	public void testOneTimedFlushAtATime() throws Exception {
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 4, 60000);
+		try {
+			hc.cacheFileUrn(files[0], fakeUrn(0));
+			TimerTask first = hc.scheduledFlush;
+			assertNotNull( first );
+			hc.cacheFileUrn(files[1], fakeUrn(1));
+			assertSame( first, hc.scheduledFlush );
+			hc.flush();
+			assertNull( hc.scheduledFlush );
+		} finally {
+			hc.close();
+		}
+	}
+	
+	public void testPendingEntriesAreKeptPerCache() throws Exception {
+		// Same file ID, different caches
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 1000, 60000);
+		try {
+			ByteChunk id = BlobUtil.byteChunk("some-id");
+			hc.put( hc.getFileUrnCache(), id, BlobUtil.byteChunk("urn:fake:file") );
+			assertNull( hc.get(hc.getDirUrnCache(), id) );
+			assertEquals( "urn:fake:file", BlobUtil.string(hc.get(hc.getFileUrnCache(), id)) );
+		} finally {
+			hc.close();
+		}
+	}
+	
+	public void testPutsAfterCloseAreDropped() throws Exception {
+		WriteBehindHashCache hc = new WriteBehindHashCache(cacheDir, false, 1000, 60000);
+		hc.cacheFileUrn(files[0], fakeUrn(0));
+		hc.close();
+		hc.cacheFileUrn(files[1], fakeUrn(1));
+		assertEquals( 0, hc.getPendingEntryCount() );
+		assertNull( hc.flushTimer );
+		hc.close();
+		
+		SLFHashCache reopened = new SLFHashCache(cacheDir);
+		try {
+			assertEquals( fakeUrn(0), reopened.getFileUrn(files[0]) );
+			assertNull( reopened.getFileUrn(files[1]) );
+		} finally {
+			reopened.close();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package togos.ccouch3.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares how fast BitprintDigest.STREAM_URNIFIER and a
+ * PipelinedBitprintStreamURNifier can hash a single big stream.
+ * Not a unit test; run it with
+ *
+ *   java togos.ccouch3.hash.BitprintBenchmark [<data size in MiB>]
+ *
+ * Data comes from memory so that this measures hashing rather than
+ * the disk.  The pipelined one can only be faster if there's
+ * a second core for it to use.
+ */
+public class BitprintBenchmark
+{
+	static final int WARMUP_ROUNDS = 3;
+	static final int TIMED_ROUNDS = 10;
+	
+	static String sink;
+	
+	protected static double megabytesPerSecond( StreamURNifier urnifier, byte[] data ) throws IOException {
+		double best = 0;
+		for( int round=0; round<WARMUP_ROUNDS+TIMED_ROUNDS; ++round ) {
+			long startTime = System.nanoTime();
+			sink = urnifier.digest(new ByteArrayInputStream(data));
+			long endTime = System.nanoTime();
+			if( round >= WARMUP_ROUNDS ) {
+				best = Math.max( best, data.length * 1000.0 / (endTime - startTime) );
+			}
+		}
+		return best;
+	}
+	
+	public static void main( String[] args ) throws IOException {
+		int dataSize = (args.length > 0 ? Integer.parseInt(args[0]) : 256) * 1024 * 1024;
+		byte[] data = new byte[dataSize];
+		new Random(1234).nextBytes(data);
+		
+		System.out.println("Hashing "+dataSize+" bytes using "+Runtime.getRuntime().availableProcessors()+" processors");
+		double plain = megabytesPerSecond(BitprintDigest.STREAM_URNIFIER, data);
+		double pipelined = megabytesPerSecond(new PipelinedBitprintStreamURNifier(), data);
+		System.out.println(String.format("  single thread %8.1f MB/s", plain));
+		System.out.println(String.format("  pipelined     %8.1f MB/s (%+.1f%%)", pipelined, (pipelined / plain - 1) * 100));
+	}
+}
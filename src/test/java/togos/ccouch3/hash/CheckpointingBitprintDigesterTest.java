@@ -0,0 +1,112 @@
+package togos.ccouch3.hash;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.ccouch3.util.FileUtil;
+
+public class CheckpointingBitprintDigesterTest extends TestCase
+{
+	static final int INTERVAL = 64*1024;
+	
+	File tempDir = new File("temp/checkpointing-bitprint-digester-test");
+	File checkpointDir = new File(tempDir, "checkpoints");
+	File dataFile = new File(tempDir, "data");
+	Random r = new Random(1234);
+	
+	static class Interrupted extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	/** Gives up after saving the given number of checkpoints, like a process being killed */
+	static class InterruptedDigester extends CheckpointingBitprintDigester {
+		int checkpointsLeft;
+		
+		public InterruptedDigester( File checkpointDir, int checkpoints ) {
+			super(checkpointDir, INTERVAL, BitprintDigest.STREAM_URNIFIER);
+			this.checkpointsLeft = checkpoints;
+		}
+		
+		@Override protected void saveCheckpoint( File checkpointFile, Checkpoint cp ) throws IOException {
+			super.saveCheckpoint(checkpointFile, cp);
+			if( --checkpointsLeft == 0 ) throw new Interrupted();
+		}
+	}
+	
+	/** Remembers where it resumed from */
+	static class ResumingDigester extends CheckpointingBitprintDigester {
+		long resumedFrom = -1;
+		
+		public ResumingDigester( File checkpointDir ) {
+			super(checkpointDir, INTERVAL, BitprintDigest.STREAM_URNIFIER);
+		}
+		
+		@Override protected Checkpoint loadCheckpoint( File checkpointFile, String fileId ) {
+			Checkpoint cp = super.loadCheckpoint(checkpointFile, fileId);
+			resumedFrom = cp == null ? 0 : cp.position;
+			return cp;
+		}
+	}
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected String writeData( int size ) throws IOException {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(dataFile);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+		BitprintDigest d = new BitprintDigest();
+		d.update(data);
+		return BitprintDigest.formatUrn(d.digest());
+	}
+	
+	protected void interruptAfter( int checkpoints ) throws IOException {
+		try {
+			new InterruptedDigester(checkpointDir, checkpoints).digest(dataFile);
+			fail("Should've been interrupted");
+		} catch( Interrupted e ) {}
+	}
+	
+	public void testResumesFromCheckpoint() throws IOException {
+		// An odd number of blocks and a partial one at the end
+		String urn = writeData(INTERVAL*5 + 7*1024 + 3);
+		interruptAfter(3);
+		
+		ResumingDigester rd = new ResumingDigester(checkpointDir);
+		assertEquals( urn, rd.digest(dataFile) );
+		assertEquals( INTERVAL*3, rd.resumedFrom );
+		assertEquals( 0, checkpointDir.listFiles().length );
+	}
+	
+	public void testIgnoresCheckpointForChangedFile() throws IOException {
+		writeData(INTERVAL*3);
+		interruptAfter(2);
+		
+		String urn = writeData(INTERVAL*3);
+		dataFile.setLastModified(dataFile.lastModified() - 10000);
+		ResumingDigester rd = new ResumingDigester(checkpointDir);
+		assertEquals( urn, rd.digest(dataFile) );
+		assertEquals( 0, rd.resumedFrom );
+	}
+	
+	public void testSmallFilesUseFallback() throws IOException {
+		String urn = writeData(INTERVAL - 1);
+		ResumingDigester rd = new ResumingDigester(checkpointDir);
+		assertEquals( urn, rd.digest(dataFile) );
+		assertEquals( -1, rd.resumedFrom );
+	}
+}
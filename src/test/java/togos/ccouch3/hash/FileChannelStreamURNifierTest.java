@@ -0,0 +1,82 @@
+package togos.ccouch3.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.ccouch3.util.FileUtil;
+
+public class FileChannelStreamURNifierTest extends TestCase
+{
+	File tempDir = new File("temp/file-channel-urnifier-test");
+	MessageDigestStreamURNifier streamUrnifier = new MessageDigestStreamURNifier(BitprintDigest.FACTORY, BitprintDigest.FORMATTER);
+	FileChannelStreamURNifier fileUrnifier = new FileChannelStreamURNifier(BitprintDigest.FACTORY, BitprintDigest.FORMATTER, streamUrnifier, 1000);
+	Random r = new Random(1234);
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected byte[] randomData( int size ) {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return data;
+	}
+	
+	protected File writeFile( byte[] data ) throws IOException {
+		File f = new File(tempDir, "data-"+data.length);
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+		return f;
+	}
+	
+	public void testSameUrnsAsStreaming() throws IOException {
+		for( int size : new int[] { 0, 1, 999, 1000, 65537, 1000000 } ) {
+			byte[] data = randomData(size);
+			assertEquals( "Size "+size,
+				streamUrnifier.digest(new ByteArrayInputStream(data)),
+				fileUrnifier.digest(writeFile(data)) );
+		}
+	}
+	
+	public void testStartsAtCurrentPosition() throws IOException {
+		byte[] data = randomData(100000);
+		File f = writeFile(data);
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			fis.read(new byte[12345]);
+			assertEquals(
+				streamUrnifier.digest(new ByteArrayInputStream(data, 12345, data.length - 12345)),
+				fileUrnifier.digest(fis) );
+		} finally {
+			fis.close();
+		}
+	}
+	
+	public void testBitprintDigestDirectBuffer() {
+		byte[] data = randomData(200000);
+		ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data);
+		direct.flip();
+		BitprintDigest fromBuffer = new BitprintDigest();
+		fromBuffer.update(direct);
+		assertFalse( direct.hasRemaining() );
+		BitprintDigest fromArray = new BitprintDigest();
+		fromArray.update(data);
+		assertEquals( BitprintDigest.format(fromArray.digest()), BitprintDigest.format(fromBuffer.digest()) );
+	}
+}
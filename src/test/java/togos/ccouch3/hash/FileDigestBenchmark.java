@@ -0,0 +1,76 @@
+package togos.ccouch3.hash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Compares how fast a big file can be bitprinted by reading it through
+ * a FileInputStream (MessageDigestStreamURNifier) and by memory-mapping
+ * it (FileChannelStreamURNifier).
+ * Not a unit test; run it with
+ *
+ *   java togos.ccouch3.hash.FileDigestBenchmark [<file> [<file size in MiB>]]
+ *
+ * The file (default: temp/file-digest-benchmark.dat) is written,
+ * hashed a few times each way, and deleted.  After the first round it
+ * will be in the page cache (if it fits), so this measures the cost of
+ * getting the data to the hash functions rather than the disk.
+ */
+public class FileDigestBenchmark
+{
+	static final int WARMUP_ROUNDS = 2;
+	static final int TIMED_ROUNDS = 5;
+	
+	static String sink;
+	
+	protected static double megabytesPerSecond( StreamURNifier urnifier, File f ) throws IOException {
+		double best = 0;
+		for( int round=0; round<WARMUP_ROUNDS+TIMED_ROUNDS; ++round ) {
+			long startTime = System.nanoTime();
+			FileInputStream fis = new FileInputStream(f);
+			try {
+				sink = urnifier.digest(fis);
+			} finally {
+				fis.close();
+			}
+			long endTime = System.nanoTime();
+			if( round >= WARMUP_ROUNDS ) {
+				best = Math.max( best, f.length() * 1000.0 / (endTime - startTime) );
+			}
+		}
+		return best;
+	}
+	
+	public static void main( String[] args ) throws IOException {
+		File f = new File(args.length > 0 ? args[0] : "temp/file-digest-benchmark.dat");
+		long fileSize = (args.length > 1 ? Long.parseLong(args[1]) : 512) * 1024 * 1024;
+		
+		FileUtil.mkParentDirs(f);
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			Random r = new Random(1234);
+			byte[] data = new byte[65536];
+			for( long written = 0; written < fileSize; written += data.length ) {
+				r.nextBytes(data);
+				fos.write(data, 0, (int)Math.min(data.length, fileSize - written));
+			}
+		} finally {
+			fos.close();
+		}
+		
+		try {
+			System.out.println("Hashing a "+fileSize+"-byte file");
+			double streamed = megabytesPerSecond(new MessageDigestStreamURNifier(BitprintDigest.FACTORY, BitprintDigest.FORMATTER), f);
+			double mapped = megabytesPerSecond(new FileChannelStreamURNifier(BitprintDigest.FACTORY, BitprintDigest.FORMATTER), f);
+			System.out.println(String.format("  FileInputStream %8.1f MB/s", streamed));
+			System.out.println(String.format("  mapped          %8.1f MB/s (%+.1f%%)", mapped, (mapped / streamed - 1) * 100));
+		} finally {
+			f.delete();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package togos.ccouch3.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PipelinedBitprintStreamURNifierTest extends TestCase
+{
+	PipelinedBitprintStreamURNifier urnifier = new PipelinedBitprintStreamURNifier(1024, 3);
+	Random r = new Random(1234);
+	
+	protected byte[] randomData( int size ) {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return data;
+	}
+	
+	public void testSameUrnsAsBitprintDigest() throws IOException {
+		for( int size : new int[] { 0, 1, 1023, 1024, 1025, 2048, 3072, 3073, 10000, 200000 } ) {
+			byte[] data = randomData(size);
+			assertEquals( "Size "+size,
+				BitprintDigest.STREAM_URNIFIER.digest(new ByteArrayInputStream(data)),
+				urnifier.digest(new ByteArrayInputStream(data)) );
+		}
+	}
+	
+	public void testDefaultBuffers() throws IOException {
+		byte[] data = randomData(1000000);
+		assertEquals(
+			BitprintDigest.STREAM_URNIFIER.digest(new ByteArrayInputStream(data)),
+			new PipelinedBitprintStreamURNifier().digest(new ByteArrayInputStream(data)) );
+	}
+	
+	public void testReadError() {
+		final InputStream data = new ByteArrayInputStream(randomData(10000));
+		InputStream failing = new InputStream() {
+			int remaining = 5000;
+			@Override public int read() throws IOException {
+				throw new UnsupportedOperationException();
+			}
+			@Override public int read( byte[] buf, int off, int len ) throws IOException {
+				if( remaining <= 0 ) throw new IOException("Oh no");
+				int z = data.read(buf, off, Math.min(len, remaining));
+				remaining -= z;
+				return z;
+			}
+		};
+		try {
+			urnifier.digest(failing);
+			fail("Should have thrown an IOException");
+		} catch( IOException e ) {
+			assertEquals( "Oh no", e.getMessage() );
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package togos.ccouch3.hash;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class ResumableSHA1Test extends TestCase
+{
+	Random r = new Random(1234);
+	
+	protected static byte[] jdkSha1( byte[] data ) throws Exception {
+		return MessageDigest.getInstance("SHA-1").digest(data);
+	}
+	
+	public void testSameHashesAsJdk() throws Exception {
+		ResumableSHA1 sha1 = new ResumableSHA1();
+		// Including sizes on both sides of where padding needs another block
+		for( int size : new int[] { 0, 1, 55, 56, 63, 64, 65, 119, 120, 1000, 65537 } ) {
+			byte[] data = new byte[size];
+			r.nextBytes(data);
+			assertTrue( "Size "+size, Arrays.equals(jdkSha1(data), sha1.digest(data)) );
+			
+			// And when given in odd-sized pieces
+			for( int i=0; i<size; i += 7 ) sha1.update(data, i, Math.min(7, size - i));
+			assertTrue( "Size "+size+" in pieces", Arrays.equals(jdkSha1(data), sha1.digest()) );
+		}
+	}
+	
+	public void testResume() throws Exception {
+		byte[] data = new byte[10000];
+		r.nextBytes(data);
+		
+		ResumableSHA1 first = new ResumableSHA1();
+		first.update(data, 0, 4096);
+		int[] state = first.getState();
+		first.update((byte)1);
+		try {
+			first.getState();
+			fail("Shouldn't be able to get the state in the middle of a block");
+		} catch( IllegalStateException e ) {}
+		
+		ResumableSHA1 second = new ResumableSHA1();
+		second.setState(4096, state);
+		second.update(data, 4096, data.length - 4096);
+		assertTrue( Arrays.equals(jdkSha1(data), second.digest()) );
+	}
+}
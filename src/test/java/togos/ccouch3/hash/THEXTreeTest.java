@@ -0,0 +1,104 @@
+package togos.ccouch3.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class THEXTreeTest extends TestCase
+{
+	Random r = new Random(1234);
+	
+	protected byte[] randomData( int size ) {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return data;
+	}
+	
+	protected byte[] bitprint( byte[] data ) {
+		BitprintDigest d = new BitprintDigest();
+		d.update(data);
+		return d.digest();
+	}
+	
+	protected THEXTree calculate( byte[] data, int segmentSize ) throws IOException {
+		return THEXTree.calculate(new ByteArrayInputStream(data), data.length, segmentSize);
+	}
+	
+	public void testRootMatchesBitprint() throws IOException {
+		// Including odd numbers of segments, partial last segments,
+		// and last segments with an odd number of leaves
+		for( int size : new int[] { 0, 1, 1024, 1025, 4096, 4097, 5*4096, 5*4096+1, 7*4096+3*1024+5 } ) {
+			byte[] data = randomData(size);
+			THEXTree tree = calculate(data, 4096);
+			assertEquals( "Size "+size, THEXTree.segmentCount(size, 4096), tree.getSegmentCount() );
+			assertTrue( "Size "+size, tree.matchesBitprint(bitprint(data)) );
+		}
+	}
+	
+	public void testSegmentCountDoesntDependOnExpectedSize() throws IOException {
+		byte[] data = randomData(10*1024+3);
+		THEXTree tree = THEXTree.calculate(new ByteArrayInputStream(data), 0, 1024);
+		assertEquals( 11, tree.getSegmentCount() );
+		assertEquals( data.length, tree.dataSize );
+		assertTrue( tree.matchesBitprint(bitprint(data)) );
+	}
+	
+	public void testDefaultSegmentSize() {
+		assertEquals( THEXTree.MIN_DEFAULT_SEGMENT_SIZE, THEXTree.defaultSegmentSize(-1) );
+		assertEquals( THEXTree.MIN_DEFAULT_SEGMENT_SIZE, THEXTree.defaultSegmentSize(1000) );
+		long big = 100L*1024*1024*1024;
+		int segmentSize = THEXTree.defaultSegmentSize(big);
+		assertTrue( THEXTree.segmentCount(big, segmentSize) <= THEXTree.DEFAULT_MAX_SEGMENTS );
+		assertTrue( THEXTree.segmentCount(big, segmentSize/2) > THEXTree.DEFAULT_MAX_SEGMENTS );
+	}
+	
+	public void testVerifySegments() throws IOException {
+		byte[] data = randomData(5*4096+100);
+		THEXTree tree = calculate(data, 4096);
+		for( int i=0; i<tree.getSegmentCount(); ++i ) {
+			int offset = (int)tree.getSegmentOffset(i);
+			int length = tree.getSegmentLength(i);
+			assertTrue( tree.verifySegment(i, data, offset, length) );
+			assertFalse( tree.verifySegment(i, data, offset, length-1) );
+			byte[] bad = data.clone();
+			bad[offset + length/2] ^= 1;
+			assertFalse( tree.verifySegment(i, bad, offset, length) );
+		}
+		assertEquals( 100, tree.getSegmentLength(5) );
+		assertFalse( tree.verifySegment(1, data, 0, 4096) );
+	}
+	
+	public void testSerialization() throws IOException {
+		byte[] data = randomData(13*1024+1);
+		THEXTree tree = calculate(data, 2048);
+		byte[] serialized = tree.toBytes();
+		assertEquals( THEXTree.HEADER_SIZE + (1+2+4+7)*THEXTree.HASH_SIZE, serialized.length );
+		
+		THEXTree parsed = THEXTree.parse(serialized);
+		assertEquals( tree.dataSize, parsed.dataSize );
+		assertEquals( tree.segmentSize, parsed.segmentSize );
+		assertTrue( parsed.matchesBitprint(bitprint(data)) );
+		for( int i=0; i<parsed.getSegmentCount(); ++i ) {
+			assertTrue( parsed.verifySegment(i, data, (int)parsed.getSegmentOffset(i), parsed.getSegmentLength(i)) );
+		}
+	}
+	
+	public void testParseRejectsTamperedTrees() throws IOException {
+		byte[] serialized = calculate(randomData(9*1024), 1024).toBytes();
+		// Any change to any node should be noticed, as should truncation
+		for( int i=THEXTree.HEADER_SIZE; i<serialized.length; i += THEXTree.HASH_SIZE ) {
+			byte[] bad = serialized.clone();
+			bad[i] ^= 1;
+			try {
+				THEXTree.parse(bad);
+				fail("Tampered node at "+i+" should have been noticed");
+			} catch( IOException e ) {}
+		}
+		try {
+			THEXTree.parse(serialized, 0, serialized.length - THEXTree.HASH_SIZE);
+			fail("Truncated tree should have been noticed");
+		} catch( IOException e ) {}
+	}
+}
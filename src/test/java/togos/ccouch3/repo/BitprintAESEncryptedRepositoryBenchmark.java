@@ -0,0 +1,114 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import togos.blob.ByteBlob;
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Compares reading whole blobs and random ranges of blobs
+ * stored by BitprintAESEncryptedRepository in each of its formats.
+ * Ranges of CBC blobs can only be read by decrypting from the start,
+ * which is what a reader has to do with them; CTR blobs are sliced.
+ * Not a unit test; run it with
+ *
+ *   java togos.ccouch3.repo.BitprintAESEncryptedRepositoryBenchmark [<repo dir> [<blob size> [<range size> [<ranges>]]]]
+ *
+ * The repository directory (default: temp/bpaes-benchmark)
+ * is deleted before and after each run.
+ */
+public class BitprintAESEncryptedRepositoryBenchmark
+{
+	static byte[] buf = new byte[65536];
+	
+	/** Read and discard length bytes of the stream, then close it */
+	protected static long drain( InputStream is, long length ) throws IOException {
+		long total = 0;
+		try {
+			int z;
+			while( total < length && (z = is.read(buf, 0, (int)Math.min(buf.length, length - total))) > 0 ) total += z;
+		} finally {
+			is.close();
+		}
+		return total;
+	}
+	
+	protected static String store( BitprintAESEncryptedRepository repo, File dataFile ) throws IOException, StoreException {
+		FileInputStream fis = new FileInputStream(dataFile);
+		try {
+			return repo.put(fis);
+		} finally {
+			fis.close();
+		}
+	}
+	
+	protected static void measure( String name, File repoDir, File dataFile, int format, int rangeSize, int rangeCount )
+		throws IOException, StoreException
+	{
+		FileUtil.deltree(new File(repoDir, "data"));
+		FileUtil.deltree(new File(repoDir, "info"));
+		BitprintAESEncryptedRepository repo = new BitprintAESEncryptedRepository(
+			new SHA1FileRepository(new File(repoDir, "data"), "benchmark"),
+			new File(repoDir, "temp"), new File(repoDir, "info"), format);
+		ByteBlob blob = repo.getBlob(store(repo, dataFile));
+		long size = blob.getSize();
+		
+		// Once to warm up, once to measure
+		drain( blob.openInputStream(), size );
+		long startTime = System.nanoTime();
+		drain( blob.openInputStream(), size );
+		long fullReadTime = System.nanoTime() - startTime;
+		
+		Random r = new Random(1234);
+		startTime = System.nanoTime();
+		for( int i=0; i<rangeCount; ++i ) {
+			long offset = (long)(r.nextDouble() * (size - rangeSize));
+			if( format == BitprintAESEncryptedRepository.FORMAT_CTR ) {
+				drain( blob.slice(offset, rangeSize).openInputStream(), rangeSize );
+			} else {
+				// Decrypt and throw away everything before the range
+				drain( blob.openInputStream(), offset + rangeSize );
+			}
+		}
+		long rangeReadTime = System.nanoTime() - startTime;
+		repo.close();
+		
+		System.out.println(String.format("  %-4s %9.1f MB/s full reads, %9.1f ranges/s",
+			name, size * 1e9 / 1048576 / fullReadTime, rangeCount * 1e9 / rangeReadTime));
+	}
+	
+	public static void main( String[] args ) throws IOException, StoreException {
+		File repoDir = new File(args.length > 0 ? args[0] : "temp/bpaes-benchmark");
+		int blobSize = args.length > 1 ? Integer.parseInt(args[1]) : 64*1024*1024;
+		int rangeSize = args.length > 2 ? Integer.parseInt(args[2]) : 64*1024;
+		int rangeCount = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+		
+		FileUtil.deltree(repoDir);
+		try {
+			File dataFile = new File(repoDir, "plaintext");
+			FileUtil.mkParentDirs(dataFile);
+			Random r = new Random(1234);
+			FileOutputStream fos = new FileOutputStream(dataFile);
+			try {
+				byte[] data = new byte[65536];
+				for( int written = 0; written < blobSize; written += data.length ) {
+					r.nextBytes(data);
+					fos.write(data, 0, Math.min(data.length, blobSize - written));
+				}
+			} finally {
+				fos.close();
+			}
+			
+			System.out.println("Reading a "+blobSize+"-byte blob and "+rangeCount+" random "+rangeSize+"-byte ranges of it");
+			measure( "CBC", repoDir, dataFile, BitprintAESEncryptedRepository.FORMAT_CBC, rangeSize, rangeCount );
+			measure( "CTR", repoDir, dataFile, BitprintAESEncryptedRepository.FORMAT_CTR, rangeSize, rangeCount );
+		} finally {
+			FileUtil.deltree(repoDir);
+		}
+	}
+}
@@ -7,6 +7,8 @@ import java.io.InputStream;
 import java.util.Random;
 
 import togos.blob.ByteBlob;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.util.FileUtil;
 
 public class BitprintAESEncryptedRepositoryTest extends RepositoryTest
 { 
@@ -16,6 +18,7 @@ public class BitprintAESEncryptedRepositoryTest extends RepositoryTest
 	
 	@Override public Repository createRepo() {
 		File repoDir = new File("temp/bpaes-test-repo");
+		FileUtil.deltree(repoDir);
 		backingRepo = new SHA1FileRepository(repoDir, "smooth");
 		backingLoggingRepo = new LoggingRepository(backingRepo);
 		bpAesRepo = new BitprintAESEncryptedRepository(
@@ -23,6 +26,10 @@ public class BitprintAESEncryptedRepositoryTest extends RepositoryTest
 		return bpAesRepo;
 	}
 	
+	public void tearDown() throws IOException {
+		bpAesRepo.close();
+	}
+	
 	public void testAThing() throws StoreException, IOException {
 		byte[] data = new byte[33];
 		Random r = new Random();
@@ -47,4 +54,79 @@ public class BitprintAESEncryptedRepositoryTest extends RepositoryTest
 			++i;
 		}
 	}
+	
+	protected byte[] read( ByteBlob blob ) throws IOException {
+		byte[] data = new byte[(int)blob.getSize()];
+		InputStream is = blob.openInputStream();
+		try {
+			int z, read = 0;
+			while( read < data.length && (z = is.read(data, read, data.length-read)) > 0 ) read += z;
+			assertEquals( data.length, read );
+			assertEquals( -1, is.read() );
+		} finally {
+			is.close();
+		}
+		return data;
+	}
+	
+	public void testSlices() throws StoreException, IOException {
+		byte[] data = new byte[5000];
+		Random r = new Random(1234);
+		r.nextBytes(data);
+		String urn = bpAesRepo.put(new ByteArrayInputStream(data));
+		// Counter mode adds no padding
+		assertEquals( data.length, backingRepo.getBlob(backingLoggingRepo.events.get(0).urn).getSize() );
+		
+		ByteBlob blob = bpAesRepo.getBlob(urn);
+		assertTrue( BlobUtil.equals(data, read(blob)) );
+		for( int i=0; i<50; ++i ) {
+			int offset = r.nextInt(data.length);
+			int length = r.nextInt(data.length - offset + 1);
+			ByteBlob slice = blob.slice(offset, length);
+			assertEquals( length, slice.getSize() );
+			assertTrue( BlobUtil.equals(BlobUtil.slice(data, offset, length), read(slice)) );
+			
+			int subOffset = r.nextInt(length + 1);
+			assertTrue( BlobUtil.equals(BlobUtil.slice(data, offset + subOffset, length - subOffset), read(slice.slice(subOffset, length - subOffset))) );
+		}
+	}
+	
+	public void testReadsCBCFormat() throws StoreException, IOException {
+		BitprintAESEncryptedRepository cbcRepo = new BitprintAESEncryptedRepository(
+			backingLoggingRepo, new File("temp/bpaes-test-repo/temp"), new File("temp/bpaes-test-repo/info"),
+			BitprintAESEncryptedRepository.FORMAT_CBC);
+		byte[] data = new byte[1000];
+		new Random(1234).nextBytes(data);
+		String urn = cbcRepo.put(new ByteArrayInputStream(data));
+		assertEquals( 1008, backingRepo.getBlob(backingLoggingRepo.events.get(0).urn).getSize() );
+		
+		assertTrue( bpAesRepo.contains(urn) );
+		assertTrue( BlobUtil.equals(data, read(bpAesRepo.getBlob(urn))) );
+		cbcRepo.close();
+	}
+	
+	public void testImportsLegacyMap() throws StoreException, IOException {
+		File infoDir = new File("temp/bpaes-test-repo/info");
+		BitprintAESEncryptedRepository cbcRepo = new BitprintAESEncryptedRepository(
+			backingLoggingRepo, new File("temp/bpaes-test-repo/temp"), infoDir,
+			BitprintAESEncryptedRepository.FORMAT_CBC);
+		String urn = cbcRepo.put(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		cbcRepo.close();
+		bpAesRepo.close();
+		// As if it had been written by an older version
+		assertTrue( new File(infoDir, "bpaes-info.slf2").delete() );
+		
+		assertTrue( bpAesRepo.contains(urn) );
+		assertEquals( 3, bpAesRepo.getBlob(urn).getSize() );
+		assertFalse( bpAesRepo.contains(randomBitprintUrn()) );
+	}
+	
+	public void testRejectsMismatchedData() throws StoreException {
+		String urn = bpAesRepo.put(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		try {
+			bpAesRepo.put(urn, new ByteArrayInputStream(new byte[] { 1, 2, 4 }));
+			fail("Should have thrown a HashMismatchException");
+		} catch( HashMismatchException e ) {
+		}
+	}
 }
@@ -0,0 +1,82 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.GroupSyncer;
+
+/**
+ * Measures how many blobs per second SHA1FileRepository can store
+ * with no syncing, with every file and directory synced individually,
+ * and with syncs grouped by a GroupSyncer using a few different delays.
+ * Not a unit test; run it with
+ *
+ *   java togos.ccouch3.repo.DurablePutBenchmark [<repo dir> [<threads> [<blobs> [<blob size>]]]]
+ *
+ * The repository directory (default: temp/durable-put-benchmark)
+ * is deleted before and after each run.  Results depend almost entirely
+ * on the disk and filesystem that it's on (tmpfs makes fsync free,
+ * so point it somewhere real).
+ */
+public class DurablePutBenchmark
+{
+	protected static double blobsPerSecond( File repoDir, final GroupSyncer syncer, int threadCount, final int blobCount, final int blobSize )
+		throws InterruptedException
+	{
+		FileUtil.deltree(repoDir);
+		final SHA1FileRepository repo = new SHA1FileRepository(new File(repoDir, "data"), "benchmark");
+		repo.setSyncer(syncer);
+		final int blobsPerThread = blobCount / threadCount;
+		Thread[] threads = new Thread[threadCount];
+		for( int t=0; t<threadCount; ++t ) {
+			final Random r = new Random(t);
+			threads[t] = new Thread("DurablePutBenchmark writer "+t) {
+				@Override public void run() {
+					byte[] data = new byte[blobSize];
+					for( int i=0; i<blobsPerThread; ++i ) {
+						r.nextBytes(data);
+						try {
+							repo.put( new ByteArrayInputStream(data) );
+						} catch( StoreException e ) {
+							throw new RuntimeException(e);
+						}
+					}
+				}
+			};
+		}
+		long startTime = System.nanoTime();
+		for( Thread t : threads ) t.start();
+		for( Thread t : threads ) t.join();
+		long endTime = System.nanoTime();
+		FileUtil.deltree(repoDir);
+		return blobsPerThread * threadCount * 1e9 / (endTime - startTime);
+	}
+	
+	protected static void measure( String name, File repoDir, GroupSyncer syncer, int threadCount, int blobCount, int blobSize )
+		throws InterruptedException
+	{
+		double speed = blobsPerSecond( repoDir, syncer, threadCount, blobCount, blobSize );
+		String syncInfo = syncer == null ? "" :
+			String.format(" (%d fsyncs in %d batches)", syncer.getSyncCount(), syncer.getBatchCount());
+		System.out.println(String.format("  %-22s %9.1f blobs/s%s", name, speed, syncInfo));
+	}
+	
+	public static void main( String[] args ) throws InterruptedException {
+		File repoDir = new File(args.length > 0 ? args[0] : "temp/durable-put-benchmark");
+		int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int blobCount = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int blobSize = args.length > 3 ? Integer.parseInt(args[3]) : 4096;
+		
+		System.out.println("Storing "+blobCount+" "+blobSize+"-byte blobs using "+threadCount+" threads in "+repoDir);
+		// Warm up the JIT and filesystem a bit
+		blobsPerSecond( repoDir, null, threadCount, blobCount / 4, blobSize );
+		
+		measure( "no sync", repoDir, null, threadCount, blobCount, blobSize );
+		measure( "sync each", repoDir, new GroupSyncer(0, 1), threadCount, blobCount, blobSize );
+		measure( "group, no delay", repoDir, new GroupSyncer(0), threadCount, blobCount, blobSize );
+		measure( "group, 2ms delay", repoDir, new GroupSyncer(2), threadCount, blobCount, blobSize );
+		measure( "group, 10ms delay", repoDir, new GroupSyncer(10), threadCount, blobCount, blobSize );
+	}
+}
@@ -0,0 +1,210 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.slf.SimpleListFile2;
+import togos.ccouch3.util.FileUtil;
+
+/**
+ * Runs the usual repository tests against a SHA1FileRepository
+ * with a presence index, plus some to make sure the index
+ * doesn't hide things that it doesn't know about.
+ */
+public class IndexedSHA1FileRepositoryTest extends RepositoryTest
+{
+	File repoDir = new File("temp/indexed-test-repo");
+	File dataDir = new File(repoDir, "data");
+	SHA1PresenceIndex index;
+	
+	@Override
+	Repository createRepo() {
+		FileUtil.deltree(repoDir);
+		index = new SHA1PresenceIndex(SHA1PresenceIndex.getIndexFile(dataDir));
+		return new SHA1FileRepository(dataDir, "indexed", index);
+	}
+	
+	public void tearDown() throws IOException {
+		index.close();
+		FileUtil.deltree(repoDir);
+	}
+	
+	protected byte[] randomData() {
+		byte[] b = new byte[1000];
+		r.nextBytes(b);
+		return b;
+	}
+	
+	protected static String urnFor( byte[] data ) {
+		BitprintDigest dig = new BitprintDigest();
+		dig.update(data);
+		return bitprintUrn(dig.digest());
+	}
+	
+	/** Write a blob straight into a sector directory without telling the index */
+	protected String sneakIn( String sector, byte[] data ) throws IOException {
+		String urn = urnFor(data);
+		String sha1Base32 = urn.substring(13, 13+32);
+		File f = new File(dataDir, sector+"/"+sha1Base32.substring(0,2)+"/"+sha1Base32);
+		FileUtil.mkParentDirs(f);
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(data);
+		fos.close();
+		return urn;
+	}
+	
+	public void testPutUpdatesIndex() throws StoreException {
+		byte[] data = randomData();
+		String urn = urnFor(data);
+		repo.put( urn, new ByteArrayInputStream(data) );
+		SHA1PresenceIndex.Entry e = index.get( urn.substring(13, 13+32) );
+		assertNotNull( e );
+		assertEquals( "indexed", e.sector );
+		assertEquals( data.length, e.size );
+	}
+	
+	public void testRebuildFindsEverything() throws IOException {
+		String urn1 = sneakIn("sector1", randomData());
+		String urn2 = sneakIn("sector2", randomData());
+		assertEquals( 2, index.rebuild(dataDir) );
+		assertTrue( index.isComplete() );
+		assertEquals( "sector1", index.get(urn1.substring(13, 13+32)).sector );
+		assertEquals( "sector2", index.get(urn2.substring(13, 13+32)).sector );
+		assertTrue( repo.contains(urn1) );
+		assertTrue( repo.contains(urn2) );
+	}
+	
+	public void testCompleteIndexAnswersMisses() throws IOException {
+		index.rebuild(dataDir);
+		String sneakyUrn = sneakIn("sector1", randomData());
+		// Trusting the index, contains() doesn't see it...
+		assertFalse( repo.contains(sneakyUrn) );
+		// ...but actually getting it still works,
+		assertNotNull( repo.getBlob(sneakyUrn) );
+		// and having found it the hard way, the index is no longer trusted.
+		assertFalse( index.isComplete() );
+		assertTrue( repo.contains(sneakyUrn) );
+		assertTrue( repo.contains(sneakIn("sector2", randomData())) );
+	}
+	
+	public void testRemovedFilesAreNoticed() throws IOException {
+		String urn = sneakIn("sector1", randomData());
+		index.rebuild(dataDir);
+		assertTrue( repo.contains(urn) );
+		FileUtil.deltree( new File(dataDir, "sector1") );
+		assertFalse( repo.contains(urn) );
+		assertNull( index.get(urn.substring(13, 13+32)).sector );
+	}
+	
+	public void testRestoringDoesntRewriteIndex() throws IOException, StoreException {
+		final int[] putCount = new int[1];
+		SHA1PresenceIndex countingIndex = new SHA1PresenceIndex(index.indexFile) {
+			@Override public void put( String sha1Base32, String sector, long size ) {
+				++putCount[0];
+				super.put( sha1Base32, sector, size );
+			}
+		};
+		try {
+			SHA1FileRepository countingRepo = new SHA1FileRepository(dataDir, "indexed", countingIndex);
+			byte[] data = randomData();
+			for( int i=0; i<3; ++i ) countingRepo.put( new ByteArrayInputStream(data) );
+			assertEquals( 1, putCount[0] );
+		} finally {
+			countingIndex.close();
+		}
+	}
+	
+	public void testOpenSharesIndex() throws Exception {
+		index.rebuild(dataDir);
+		index.close();
+		final SHA1FileRepository repo1 = SHA1FileRepository.open(dataDir, "sector1");
+		final SHA1FileRepository repo2 = SHA1FileRepository.open(dataDir, "sector2");
+		try {
+			assertSame( repo1.getPresenceIndex(), repo2.getPresenceIndex() );
+			final byte[][] data = new byte[40][];
+			for( int i=0; i<data.length; ++i ) data[i] = randomData();
+			final Exception[] errors = new Exception[2];
+			Thread[] threads = new Thread[2];
+			for( int t=0; t<threads.length; ++t ) {
+				final int tNum = t;
+				threads[t] = new Thread() {
+					@Override public void run() {
+						try {
+							SHA1FileRepository r = tNum == 0 ? repo1 : repo2;
+							for( int i=tNum; i<data.length; i+=2 ) {
+								r.put( new ByteArrayInputStream(data[i]) );
+								assertTrue( r.contains(urnFor(data[i])) );
+							}
+						} catch( Exception e ) {
+							errors[tNum] = e;
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for( Thread t : threads ) t.join();
+			for( Exception e : errors ) if( e != null ) throw e;
+			assertTrue( repo1.getPresenceIndex().isComplete() );
+			for( byte[] d : data ) assertTrue( repo1.contains(urnFor(d)) );
+		} finally {
+			repo1.getPresenceIndex().close();
+		}
+	}
+	
+	public void testWritesToReplacedIndexFollowItToTheNewOne() throws IOException {
+		index.rebuild(dataDir);
+		// Stands in for another process that has the old file open
+		SHA1PresenceIndex other = new SHA1PresenceIndex(index.indexFile);
+		try {
+			String urn1 = sneakIn("sector1", randomData());
+			other.put( urn1.substring(13, 13+32), "sector1", 1000 );
+			index.rebuild(dataDir);
+			String urn2 = sneakIn("sector1", randomData());
+			other.put( urn2.substring(13, 13+32), "sector1", 1000 );
+			assertTrue( index.isComplete() );
+			assertEquals( "sector1", index.get(urn2.substring(13, 13+32)).sector );
+		} finally {
+			other.close();
+		}
+	}
+	
+	public void testRebuildCatchesUpWithOldIndex() throws IOException {
+		String urn1 = sneakIn("sector1", randomData());
+		String urn2 = sneakIn("sector1", randomData());
+		String urn3 = urnFor(randomData());
+		String sha1_1 = urn1.substring(13, 13+32);
+		String sha1_2 = urn2.substring(13, 13+32);
+		String sha1_3 = urn3.substring(13, 13+32);
+		SimpleListFile2 old = SimpleListFile2.mkSlf(new File(repoDir, "old.slf2"), true);
+		SimpleListFile2 fresh = SimpleListFile2.mkSlf(new File(repoDir, "fresh.slf2"), true);
+		try {
+			// Stored while the new index was being built
+			old.put( BlobUtil.byteChunk(sha1_1), BlobUtil.byteChunk("sector1 1000") );
+			// Known to both
+			old.put( BlobUtil.byteChunk(sha1_2), BlobUtil.byteChunk("sector1 1000") );
+			fresh.put( BlobUtil.byteChunk(sha1_2), BlobUtil.byteChunk("sector1 1000") );
+			// Removed while the new index was being built
+			old.put( BlobUtil.byteChunk(sha1_3), SHA1PresenceIndex.REMOVED );
+			fresh.put( BlobUtil.byteChunk(sha1_3), BlobUtil.byteChunk("sector1 1000") );
+			
+			SHA1PresenceIndex.catchUp( dataDir, old, fresh );
+			assertEquals( "sector1 1000", BlobUtil.string(fresh.get(BlobUtil.byteChunk(sha1_1))) );
+			assertEquals( "sector1 1000", BlobUtil.string(fresh.get(BlobUtil.byteChunk(sha1_2))) );
+			assertEquals( "", BlobUtil.string(fresh.get(BlobUtil.byteChunk(sha1_3))) );
+		} finally {
+			old.close();
+			fresh.close();
+		}
+	}
+	
+	public void testCompleteIndexAnswersGetFilesMisses() throws IOException {
+		String urn = sneakIn("sector1", randomData());
+		index.rebuild(dataDir);
+		assertEquals( 1, repo.getFiles(urn).size() );
+		assertEquals( 0, repo.getFiles(urnFor(randomData())).size() );
+	}
+}
@@ -0,0 +1,238 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import togos.blob.ByteChunk;
+import togos.blob.util.SimpleByteChunk;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.GroupSyncer;
+
+public class PackFileRepositoryTest extends RepositoryTest
+{
+	File repoDir = new File("temp/pack-test-repo");
+	File packDir = new File(repoDir, "packs");
+	SHA1FileRepository looseRepo;
+	
+	protected PackFileRepository createPackRepo() {
+		return new PackFileRepository(packDir, looseRepo, 1000, 20000);
+	}
+	
+	@Override
+	Repository createRepo() {
+		FileUtil.deltree(repoDir);
+		looseRepo = new SHA1FileRepository(new File(repoDir, "data"), "loose");
+		return createPackRepo();
+	}
+	
+	public void tearDown() throws IOException {
+		((PackFileRepository)repo).close();
+		FileUtil.deltree(repoDir);
+	}
+	
+	protected static String urnFor( byte[] data ) {
+		BitprintDigest dig = new BitprintDigest();
+		dig.update(data);
+		return bitprintUrn(dig.digest());
+	}
+	
+	protected byte[] randomData( int size ) {
+		byte[] b = new byte[size];
+		r.nextBytes(b);
+		return b;
+	}
+	
+	protected String store( Repository repo, byte[] data ) throws StoreException {
+		String urn = urnFor(data);
+		repo.put( urn, new ByteArrayInputStream(data) );
+		return urn;
+	}
+	
+	protected static void assertHas( Repository repo, String urn, byte[] data ) {
+		assertTrue( repo.contains(urn) );
+		ByteChunk c = repo.getChunk(urn, data.length);
+		assertNotNull( c );
+		assertEquals( new SimpleByteChunk(data), c );
+	}
+	
+	public void testSmallBlobsArePackedAndBigOnesAreNot() throws StoreException {
+		byte[] small = randomData(1000), big = randomData(1001);
+		String smallUrn = store(repo, small), bigUrn = store(repo, big);
+		assertHas( repo, smallUrn, small );
+		assertHas( repo, bigUrn, big );
+		assertFalse( looseRepo.contains(smallUrn) );
+		assertTrue( looseRepo.contains(bigUrn) );
+	}
+	
+	public void testUnnamedPut() throws StoreException {
+		byte[] small = randomData(500), big = randomData(5000);
+		assertEquals( urnFor(small).substring(13, 13+32), repo.put(new ByteArrayInputStream(small)).substring(9) );
+		assertEquals( urnFor(big).substring(13, 13+32), repo.put(new ByteArrayInputStream(big)).substring(9) );
+		assertHas( repo, urnFor(small), small );
+		assertHas( repo, urnFor(big), big );
+	}
+	
+	public void testPacksAreSealedAndReopened() throws IOException, StoreException {
+		byte[][] blobs = new byte[100][];
+		String[] urns = new String[blobs.length];
+		for( int i=0; i<blobs.length; ++i ) {
+			blobs[i] = randomData(r.nextInt(1000));
+			urns[i] = store(repo, blobs[i]);
+		}
+		for( int i=0; i<blobs.length; ++i ) assertHas( repo, urns[i], blobs[i] );
+		// Storing the same thing again shouldn't make the packs any bigger
+		for( int i=0; i<blobs.length; ++i ) store(repo, blobs[i]);
+		assertTrue( new File(packDir, "pack-00000001.idx").exists() );
+		assertFalse( new File(packDir, "pack-00000004.pack").exists() );
+		
+		((PackFileRepository)repo).close();
+		repo = createPackRepo();
+		for( int i=0; i<blobs.length; ++i ) assertHas( repo, urns[i], blobs[i] );
+	}
+	
+	public void testPartlyWrittenRecordsAreDropped() throws IOException, StoreException {
+		byte[] a = randomData(100), b = randomData(200);
+		String urnA = store(repo, a), urnB = store(repo, b);
+		((PackFileRepository)repo).close();
+		
+		File packFile = new File(packDir, "pack-00000001.pack");
+		RandomAccessFile raf = new RandomAccessFile(packFile, "rw");
+		raf.setLength( raf.length() - 10 );
+		raf.close();
+		
+		repo = createPackRepo();
+		assertHas( repo, urnA, a );
+		assertFalse( repo.contains(urnB) );
+		store( repo, b );
+		assertHas( repo, urnB, b );
+		assertEquals( 2 * PackFileRepository.RECORD_HEADER_SIZE + 300, packFile.length() );
+	}
+	
+	public void testReaderSeesOtherWritersAdditions() throws Exception {
+		PackFileRepository reader = createPackRepo();
+		try {
+			byte[] a = randomData(100);
+			String urnA = store(repo, a);
+			assertHas( reader, urnA, a );
+			
+			byte[] b = randomData(100);
+			String urnB = store(repo, b);
+			Thread.sleep( PackFileRepository.REFRESH_INTERVAL );
+			assertHas( reader, urnB, b );
+			
+			// The second writer can't add to the packs, so stores loose
+			byte[] c = randomData(100);
+			String urnC = store(reader, c);
+			assertHas( reader, urnC, c );
+			assertHas( looseRepo, urnC, c );
+			assertNull( reader.findPacked(PackFileRepository.sha1(urnC)) );
+		} finally {
+			reader.close();
+		}
+	}
+	
+	public void testGetFileCopiesPackedBlobsOut() throws Exception {
+		byte[] a = randomData(100);
+		String urnA = store(repo, a);
+		File f = repo.getFile(urnA);
+		assertTrue( f.getPath().contains("unpacked") );
+		assertEquals( new SimpleByteChunk(a), FileUtil.read(f) );
+		assertEquals( f, repo.getFile(urnA) );
+	}
+	
+	public void testSyncsWhenLooseRepositoryDoes() throws Exception {
+		GroupSyncer syncer = new GroupSyncer(0);
+		looseRepo.setSyncer(syncer);
+		byte[] a = randomData(100);
+		String urnA = store(repo, a);
+		assertNotNull( ((PackFileRepository)repo).findPacked(PackFileRepository.sha1(urnA)) );
+		// The pack directory, the pack, and its tail
+		assertEquals( 3, syncer.getSyncCount() );
+		store(repo, randomData(100));
+		assertEquals( 5, syncer.getSyncCount() );
+	}
+	
+	protected PackFileRepository reopen() throws IOException {
+		((PackFileRepository)repo).close();
+		PackFileRepository reopened = createPackRepo();
+		repo = reopened;
+		return reopened;
+	}
+	
+	public void testReopeningUsesTail() throws IOException, StoreException {
+		byte[][] blobs = new byte[20][];
+		String[] urns = new String[blobs.length];
+		for( int i=0; i<blobs.length; ++i ) urns[i] = store(repo, blobs[i] = randomData(100));
+		
+		PackFileRepository reopened = reopen();
+		for( int i=0; i<blobs.length; ++i ) assertHas( reopened, urns[i], blobs[i] );
+		assertEquals( 0, reopened.scannedRecordCount );
+	}
+	
+	public void testMissingTailFallsBackToScanning() throws IOException, StoreException {
+		byte[][] blobs = new byte[5][];
+		String[] urns = new String[blobs.length];
+		for( int i=0; i<blobs.length; ++i ) urns[i] = store(repo, blobs[i] = randomData(100));
+		((PackFileRepository)repo).close();
+		assertTrue( new File(packDir, "pack-00000001.tail").delete() );
+		
+		PackFileRepository reopened = createPackRepo();
+		repo = reopened;
+		for( int i=0; i<blobs.length; ++i ) assertHas( reopened, urns[i], blobs[i] );
+		assertEquals( blobs.length, reopened.scannedRecordCount );
+		
+		// Once there's a writer again the tail is rebuilt
+		byte[] more = randomData(100);
+		String moreUrn = store(reopened, more);
+		reopened = reopen();
+		for( int i=0; i<blobs.length; ++i ) assertHas( reopened, urns[i], blobs[i] );
+		assertHas( reopened, moreUrn, more );
+		assertEquals( 0, reopened.scannedRecordCount );
+	}
+	
+	public void testRecordsThatDontMatchTheirHashAreNotIndexed() throws IOException, StoreException {
+		byte[] a = randomData(100), b = randomData(100);
+		String urnA = store(repo, a);
+		((PackFileRepository)repo).close();
+		
+		// Like a record that another process is in the middle of writing
+		String urnB = urnFor(b);
+		File packFile = new File(packDir, "pack-00000001.pack");
+		long goodLength = packFile.length();
+		RandomAccessFile raf = new RandomAccessFile(packFile, "rw");
+		try {
+			raf.seek( goodLength );
+			raf.write( PackFileRepository.RECORD_MAGIC );
+			raf.write( PackFileRepository.sha1(urnB) );
+			raf.writeInt( b.length );
+			raf.write( new byte[b.length] );
+		} finally {
+			raf.close();
+		}
+		
+		PackFileRepository reopened = createPackRepo();
+		repo = reopened;
+		assertHas( reopened, urnA, a );
+		assertFalse( reopened.contains(urnB) );
+		assertEquals( 1, reopened.scannedRecordCount );
+		
+		store( reopened, b );
+		assertHas( reopened, urnB, b );
+		assertEquals( goodLength + PackFileRepository.RECORD_HEADER_SIZE + b.length, packFile.length() );
+	}
+	
+	public void testOpenUsesPackDirIfThere() throws IOException {
+		SHA1FileRepository loose = new SHA1FileRepository(new File(repoDir, "data"), "loose");
+		assertSame( loose, PackFileRepository.open(loose) );
+		packDir.mkdirs();
+		Repository packed = PackFileRepository.open(loose);
+		try {
+			assertTrue( packed instanceof PackFileRepository );
+		} finally {
+			((PackFileRepository)packed).close();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.ByteBlob;
+import togos.blob.file.FileBlob;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.util.FileUtil;
+
+public class RemoteCacheRepositoryTest extends TestCase
+{
+	File tempDir = new File("temp/remote-cache-repository-test");
+	/** Stands in for a remote N2R server; files are named by URN */
+	File remoteDir = new File(tempDir, "remote");
+	File cacheDir = new File(tempDir, "cache");
+	Random r = new Random(1234);
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+		remoteDir.mkdirs();
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected String[] remoteUrls() throws IOException {
+		return new String[] { remoteDir.getAbsoluteFile().toURI().toURL().toString() };
+	}
+	
+	protected RemoteCacheRepository newRepo( long maxSize ) throws IOException {
+		return new RemoteCacheRepository( remoteUrls(), cacheDir, maxSize );
+	}
+	
+	protected void putRemote( String urn, byte[] data ) throws IOException {
+		FileOutputStream fos = new FileOutputStream(new File(remoteDir, urn));
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+	
+	protected String putRemote( byte[] data ) throws IOException {
+		String urn = BitprintDigest.STREAM_URNIFIER.digest(new ByteArrayInputStream(data));
+		putRemote( urn, data );
+		return urn;
+	}
+	
+	protected String putRemote( int size ) throws IOException {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return putRemote( data );
+	}
+	
+	public void testFetchesAndCaches() throws IOException {
+		String urn = putRemote( 1000 );
+		RemoteCacheRepository repo = newRepo( 10000 );
+		ByteBlob b = repo.getBlob(urn);
+		assertTrue( b instanceof FileBlob );
+		assertEquals( 1000, b.getSize() );
+		assertEquals( 1, repo.getFetchCount() );
+		assertEquals( 1, repo.getMissCount() );
+		
+		new File(remoteDir, urn).delete();
+		assertTrue( repo.contains(urn) );
+		assertEquals( 1, repo.getFetchCount() );
+		assertEquals( 1, repo.getHitCount() );
+		assertEquals( 1000, repo.getTotalSize() );
+		
+		// A new instance should find it in the cache directory
+		repo = newRepo( 10000 );
+		assertEquals( 1000, repo.getTotalSize() );
+		assertNotNull( repo.getBlob(urn) );
+		assertEquals( 0, repo.getFetchCount() );
+	}
+	
+	public void testMissingBlob() throws IOException {
+		RemoteCacheRepository repo = newRepo( 10000 );
+		assertNull( repo.getBlob("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+		assertFalse( repo.contains("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+	}
+	
+	public void testRejectsBadData() throws IOException {
+		String urn = BitprintDigest.STREAM_URNIFIER.digest(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		putRemote( urn, new byte[] { 4, 5, 6 } );
+		RemoteCacheRepository repo = newRepo( 10000 );
+		assertNull( repo.getBlob(urn) );
+		assertEquals( 0, repo.getTotalSize() );
+	}
+	
+	public void testEvictsLeastRecentlyUsed() throws IOException {
+		String urn1 = putRemote( 1000 );
+		String urn2 = putRemote( 1000 );
+		String urn3 = putRemote( 1000 );
+		RemoteCacheRepository repo = newRepo( 2500 );
+		assertNotNull( repo.getBlob(urn1) );
+		assertNotNull( repo.getBlob(urn2) );
+		assertNotNull( repo.getBlob(urn1) );
+		assertNotNull( repo.getBlob(urn3) );
+		
+		assertEquals( 1, repo.getEvictionCount() );
+		assertEquals( 2000, repo.getTotalSize() );
+		assertEquals( 1, repo.getFiles(urn1).size() );
+		assertEquals( 0, repo.getFiles(urn2).size() );
+		assertEquals( 1, repo.getFiles(urn3).size() );
+	}
+	
+	public void testShrinksOnLoad() throws IOException {
+		String urn1 = putRemote( 1000 );
+		String urn2 = putRemote( 1000 );
+		RemoteCacheRepository repo = newRepo( 10000 );
+		repo.getBlob(urn1);
+		repo.getBlob(urn2);
+		// Make sure urn1 looks older
+		File f1 = repo.getFiles(urn1).get(0);
+		f1.setLastModified( f1.lastModified() - 3600000 );
+		
+		repo = newRepo( 1500 );
+		assertEquals( 1000, repo.getTotalSize() );
+		assertEquals( 0, repo.getFiles(urn1).size() );
+		assertEquals( 1, repo.getFiles(urn2).size() );
+	}
+	
+	public void testDoesNotCacheTooBigBlobs() throws IOException {
+		String urn = putRemote( 3000 );
+		RemoteCacheRepository repo = newRepo( 2000 );
+		ByteBlob b = repo.getBlob(urn);
+		assertNotNull( b );
+		assertFalse( b instanceof FileBlob );
+		assertEquals( 3000, b.getSize() );
+		assertEquals( 0, repo.getTotalSize() );
+	}
+	
+	protected static byte[] readAll( ByteBlob b ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		InputStream is = b.openInputStream();
+		try {
+			byte[] buf = new byte[1024];
+			int z;
+			while( (z = is.read(buf)) > 0 ) baos.write(buf, 0, z);
+		} finally {
+			is.close();
+		}
+		return baos.toByteArray();
+	}
+	
+	public void testSlicesTooBigBlobs() throws IOException {
+		byte[] data = new byte[3000];
+		r.nextBytes(data);
+		String urn = putRemote( data );
+		RemoteCacheRepository repo = newRepo( 2000 );
+		ByteBlob b = repo.getBlob(urn);
+		assertTrue( Arrays.equals(data, readAll(b)) );
+		ByteBlob slice = b.slice( 1000, 1500 ).slice( 100, 1000 );
+		assertEquals( 1000, slice.getSize() );
+		assertTrue( Arrays.equals(Arrays.copyOfRange(data, 1100, 2100), readAll(slice)) );
+	}
+	
+	public void testChecksTooBigBlobs() throws IOException {
+		byte[] data = new byte[3000];
+		r.nextBytes(data);
+		String urn = BitprintDigest.STREAM_URNIFIER.digest(new ByteArrayInputStream(data));
+		data[1234] ^= 1;
+		putRemote( urn, data );
+		RemoteCacheRepository repo = newRepo( 2000 );
+		ByteBlob b = repo.getBlob(urn);
+		try {
+			readAll( b );
+			fail( "Should have thrown an IOException for the bad data" );
+		} catch( IOException e ) {
+		}
+	}
+	
+	public void testIsReadOnly() throws IOException {
+		try {
+			newRepo( 10000 ).put( new ByteArrayInputStream(new byte[10]) );
+			fail( "put should have thrown a StoreException" );
+		} catch( StoreException e ) {
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.util.BlobUtil;
+import togos.ccouch3.util.FileUtil;
+
+public class SHA1FileRepositoryMirrorTest extends TestCase
+{
+	File tempDir = new File("temp/mirror-test");
+	File sourceDataDir = new File(tempDir, "source/data");
+	File destDataDir = new File(tempDir, "dest/data");
+	List<String> urns = new ArrayList<String>();
+	
+	public void setUp() throws StoreException {
+		FileUtil.deltree(tempDir);
+		Random r = new Random(1234);
+		SHA1FileRepository source = new SHA1FileRepository(sourceDataDir, "alpha");
+		for( int i = 0; i < 20; ++i ) {
+			byte[] data = new byte[1000 + i];
+			r.nextBytes(data);
+			urns.add( source.put(new ByteArrayInputStream(data)) );
+		}
+		source = new SHA1FileRepository(sourceDataDir, "beta");
+		urns.add( source.put(new ByteArrayInputStream(new byte[] { 1, 2, 3 })) );
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected SHA1FileRepositoryMirror newMirror( SHA1FileRepository dest ) {
+		SHA1FileRepositoryMirror mirror = new SHA1FileRepositoryMirror(sourceDataDir, dest);
+		mirror.threadCount = 3;
+		return mirror;
+	}
+	
+	protected void assertMirrored() throws IOException {
+		SHA1FileRepository source = new SHA1FileRepository(sourceDataDir, null);
+		SHA1FileRepository dest = new SHA1FileRepository(destDataDir, null);
+		for( String urn : urns ) {
+			File sourceFile = source.getFile(urn);
+			File destFile = dest.getFile(urn);
+			assertEquals( sourceFile.getParentFile().getParentFile().getName(), destFile.getParentFile().getParentFile().getName() );
+			assertTrue( BlobUtil.equals(FileUtil.read(sourceFile), FileUtil.read(destFile)) );
+		}
+	}
+	
+	public void testCopy() throws Exception {
+		SHA1FileRepositoryMirror mirror = newMirror( new SHA1FileRepository(destDataDir, null) );
+		mirror.useHardLinks = false;
+		mirror.run( null );
+		assertEquals( 21, mirror.getCopiedCount() );
+		assertEquals( 0, mirror.getLinkedCount() );
+		assertEquals( 0, mirror.getErrorCount() );
+		assertMirrored();
+	}
+	
+	public void testLinkIfPossible() throws Exception {
+		SHA1FileRepositoryMirror mirror = newMirror( new SHA1FileRepository(destDataDir, null) );
+		mirror.run( null );
+		assertEquals( 21, mirror.getCopiedCount() + mirror.getLinkedCount() );
+		assertEquals( 0, mirror.getErrorCount() );
+		assertMirrored();
+	}
+	
+	public void testIncremental() throws Exception {
+		SHA1PresenceIndex index = new SHA1PresenceIndex(SHA1PresenceIndex.getIndexFile(destDataDir));
+		try {
+			index.rebuild( destDataDir );
+			SHA1FileRepositoryMirror mirror = newMirror( new SHA1FileRepository(destDataDir, null, index) );
+			mirror.run( new String[] { "beta" } );
+			assertEquals( 1, mirror.getCopiedCount() + mirror.getLinkedCount() );
+			assertEquals( "beta", index.get(urns.get(20).substring(9)).sector );
+			
+			mirror = newMirror( new SHA1FileRepository(destDataDir, null, index) );
+			mirror.run( null );
+			assertEquals( 20, mirror.getCopiedCount() + mirror.getLinkedCount() );
+			assertEquals( 1, mirror.getSkippedCount() );
+			assertTrue( index.isComplete() );
+			
+			mirror = newMirror( new SHA1FileRepository(destDataDir, null, index) );
+			mirror.run( null );
+			assertEquals( 0, mirror.getCopiedCount() + mirror.getLinkedCount() );
+			assertEquals( 21, mirror.getSkippedCount() );
+		} finally {
+			index.close();
+		}
+		assertMirrored();
+	}
+}
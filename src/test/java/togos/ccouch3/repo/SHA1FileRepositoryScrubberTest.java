@@ -0,0 +1,124 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.ccouch3.util.FileUtil;
+import togos.ccouch3.util.RateLimiter;
+
+public class SHA1FileRepositoryScrubberTest extends TestCase
+{
+	File tempDir = new File("temp/scrubber-test");
+	File dataDir = new File(tempDir, "data");
+	File quarantineDir = new File(tempDir, "quarantine");
+	SHA1FileRepository repo = new SHA1FileRepository(dataDir, "test");
+	ScrubRecord record = new ScrubRecord(ScrubRecord.getRecordFile(dataDir));
+	Random r = new Random(1234);
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	public void tearDown() throws IOException {
+		record.close();
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected String put( int size ) throws StoreException {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return repo.put( new ByteArrayInputStream(data) );
+	}
+	
+	protected void corrupt( File f ) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.seek(10);
+			int b = raf.read();
+			raf.seek(10);
+			raf.write(b ^ 1);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	protected SHA1FileRepositoryScrubber newScrubber() {
+		SHA1FileRepositoryScrubber s = new SHA1FileRepositoryScrubber(dataDir, quarantineDir, record, null);
+		s.threadCount = 3;
+		return s;
+	}
+	
+	public void testFindsAndQuarantinesCorruptedBlobs() throws Exception {
+		String good = put( 10000 );
+		String bad = put( 10000 );
+		for( int i = 0; i < 20; ++i ) put( 1000 );
+		File badFile = repo.getFile(bad);
+		corrupt( badFile );
+		
+		SHA1FileRepositoryScrubber s = newScrubber();
+		s.run( null );
+		assertEquals( 21, s.getVerifiedCount() );
+		assertEquals( 30000, s.getVerifiedByteCount() );
+		assertEquals( 1, s.getCorruptedCount() );
+		assertEquals( 0, s.getErrorCount() );
+		
+		assertFalse( badFile.exists() );
+		assertTrue( new File(quarantineDir, "test/"+badFile.getName()).exists() );
+		assertFalse( repo.contains(bad) );
+		assertTrue( repo.contains(good) );
+	}
+	
+	public void testSkipsRecentlyVerifiedBlobs() throws Exception {
+		for( int i = 0; i < 5; ++i ) put( 1000 );
+		SHA1FileRepositoryScrubber s = newScrubber();
+		s.run( null );
+		assertEquals( 5, s.getVerifiedCount() );
+		
+		String newUrn = put( 1000 );
+		s = newScrubber();
+		s.minRecheckInterval = 3600000;
+		s.run( null );
+		assertEquals( 1, s.getVerifiedCount() );
+		assertEquals( 5, s.getSkippedCount() );
+		String sha1 = newUrn.substring(9);
+		assertTrue( record.getLastVerified("test", sha1) > 0 );
+		
+		// Without a minimum interval, everything gets checked
+		s = newScrubber();
+		s.run( null );
+		assertEquals( 6, s.getVerifiedCount() );
+	}
+	
+	public void testRepeatedScrubsDontGrowRecord() throws Exception {
+		for( int i = 0; i < 20; ++i ) put( 1000 );
+		record.getLastVerified( "test", "nothing" ); // Creates the file
+		record.close();
+		long emptySize = record.recordFile.length();
+		newScrubber().run( null );
+		record.close();
+		long firstScrubSize = record.recordFile.length();
+		
+		for( int i = 0; i < 5; ++i ) newScrubber().run( null );
+		record.close();
+		// Maybe a chunk or two that was on the recycle list when it was
+		// needed, but nowhere near one new entry per blob per scrub
+		long grown = record.recordFile.length() - firstScrubSize;
+		assertTrue( "Grew by "+grown+" bytes", grown < firstScrubSize - emptySize );
+	}
+	
+	public void testRateLimit() throws Exception {
+		for( int i = 0; i < 4; ++i ) put( 50000 );
+		SHA1FileRepositoryScrubber s = newScrubber();
+		// The first 100k are free; the next 100k should take about a second
+		s.rateLimiter = new RateLimiter( 100000 );
+		long startTime = System.currentTimeMillis();
+		s.run( null );
+		long elapsed = System.currentTimeMillis() - startTime;
+		assertEquals( 4, s.getVerifiedCount() );
+		assertTrue( "Took only "+elapsed+"ms", elapsed >= 800 );
+	}
+}
@@ -1,6 +1,14 @@
 package togos.ccouch3.repo;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.repo.SHA1FileRepository.DigestedPutResult;
+import togos.ccouch3.util.GroupSyncer;
 
 public class SHA1FileRepositoryTest extends RepositoryTest
 {
@@ -8,4 +16,68 @@ public class SHA1FileRepositoryTest extends RepositoryTest
 	Repository createRepo() {
 		return new SHA1FileRepository(new File("temp/test-repo/data"), "whatever");
 	}
+	
+	public void testPutAndDigest() throws StoreException {
+		byte[] b = new byte[200000];
+		r.nextBytes(b);
+		BitprintDigest dig = new BitprintDigest();
+		dig.update(b);
+		String urn = bitprintUrn( dig.digest() );
+		
+		SHA1FileRepository sha1Repo = (SHA1FileRepository)repo;
+		DigestedPutResult pr = sha1Repo.putAndDigest( new ByteArrayInputStream(b), new BitprintDigest() );
+		assertTrue( pr.newlyStored );
+		assertEquals( urn, bitprintUrn(pr.digest) );
+		assertEquals( "urn:sha1:"+urn.substring(13, 13+32), pr.sha1Urn );
+		assertTrue( repo.contains(urn) );
+		
+		pr = sha1Repo.putAndDigest( new ByteArrayInputStream(b), new BitprintDigest() );
+		assertFalse( pr.newlyStored );
+		assertEquals( urn, bitprintUrn(pr.digest) );
+	}
+	
+	public void testTouch() throws Exception {
+		SHA1FileRepository sha1Repo = (SHA1FileRepository)repo;
+		byte[] b = new byte[1000];
+		r.nextBytes(b);
+		String urn = sha1Repo.put( new ByteArrayInputStream(b) );
+		File f = sha1Repo.getFile(urn);
+		long twoDaysAgo = System.currentTimeMillis() - 2*24*3600*1000L;
+		f.setLastModified( twoDaysAgo );
+		assertTrue( sha1Repo.touch(urn) );
+		assertTrue( f.lastModified() > twoDaysAgo + 3600*1000L );
+		assertFalse( sha1Repo.touch("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+	}
+	
+	public void testConcurrentDurablePuts() throws Exception {
+		final SHA1FileRepository sha1Repo = (SHA1FileRepository)repo;
+		GroupSyncer syncer = new GroupSyncer(10);
+		sha1Repo.setSyncer( syncer );
+		
+		final List<String> urns = Collections.synchronizedList(new ArrayList<String>());
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[4];
+		for( int t=0; t<threads.length; ++t ) {
+			threads[t] = new Thread() {
+				@Override public void run() {
+					try {
+						for( int i=0; i<10; ++i ) {
+							byte[] b = new byte[1000];
+							synchronized( r ) { r.nextBytes(b); }
+							urns.add( sha1Repo.put(new ByteArrayInputStream(b)) );
+						}
+					} catch( Throwable e ) {
+						errors.add(e);
+					}
+				}
+			};
+		}
+		for( Thread t : threads ) t.start();
+		for( Thread t : threads ) t.join();
+		
+		assertEquals( Collections.<Throwable>emptyList(), errors );
+		assertEquals( 40, urns.size() );
+		for( String urn : urns ) assertTrue( repo.contains(urn) );
+		assertTrue( syncer.getSyncCount() >= 40 );
+	}
 }
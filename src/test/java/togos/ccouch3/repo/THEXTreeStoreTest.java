@@ -0,0 +1,66 @@
+package togos.ccouch3.repo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.util.BlobUtil;
+import togos.blob.util.SimpleByteChunk;
+import togos.ccouch3.hash.BitprintDigest;
+import togos.ccouch3.hash.THEXTree;
+import togos.ccouch3.util.FileUtil;
+
+public class THEXTreeStoreTest extends TestCase
+{
+	File storeDir = new File("temp/thex-tree-store-test");
+	THEXTreeStore store = new THEXTreeStore(storeDir);
+	
+	public void setUp() {
+		FileUtil.deltree(storeDir);
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(storeDir);
+	}
+	
+	protected static String urn( byte[] data ) {
+		BitprintDigest d = new BitprintDigest();
+		d.update(data);
+		return BitprintDigest.formatUrn(d.digest());
+	}
+	
+	public void testStoresBigTrees() throws IOException, StoreException {
+		byte[] data = new byte[THEXTree.MIN_DEFAULT_SEGMENT_SIZE*3];
+		new Random(1234).nextBytes(data);
+		String urn = urn(data);
+		
+		assertNull( store.get(urn) );
+		THEXTree tree = store.getOrCalculate(urn, new SimpleByteChunk(data));
+		assertEquals( 3, tree.getSegmentCount() );
+		THEXTree stored = store.get(urn);
+		assertNotNull( stored );
+		assertEquals( 3, stored.getSegmentCount() );
+		
+		// The same tree shouldn't be returned for some other URN
+		// with the same SHA-1 half
+		byte[] otherBitprint = BitprintDigest.urnToBytes(urn);
+		otherBitprint[BitprintDigest.HASH_SIZE-1] ^= 1;
+		assertNull( store.get(BitprintDigest.formatUrn(otherBitprint)) );
+	}
+	
+	public void testDoesntStoreSingleSegmentTrees() throws IOException, StoreException {
+		byte[] data = BlobUtil.bytes("Hello, world!");
+		String urn = urn(data);
+		THEXTree tree = store.getOrCalculate(urn, new SimpleByteChunk(data));
+		assertEquals( 1, tree.getSegmentCount() );
+		assertNull( store.get(urn) );
+	}
+	
+	public void testRejectsMismatchedData() throws IOException, StoreException {
+		try {
+			store.getOrCalculate(urn(BlobUtil.bytes("foo")), new SimpleByteChunk(BlobUtil.bytes("bar")));
+			fail("Should have thrown a HashMismatchException");
+		} catch( HashMismatchException e ) {}
+	}
+}
@@ -0,0 +1,106 @@
+package togos.ccouch3.repo;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.file.FileBlob;
+import togos.ccouch3.util.FileUtil;
+
+public class TieredRepositoryTest extends TestCase
+{
+	File tempDir = new File("temp/tiered-repository-test");
+	File fastDir = new File(tempDir, "fast");
+	File slowDir = new File(tempDir, "slow");
+	SHA1FileRepository slow = new SHA1FileRepository(slowDir, "data");
+	Random r = new Random(1234);
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected TieredRepository newRepo( long fastTierSize ) {
+		return new TieredRepository( new SHA1FileRepository(fastDir, "hot"), slow, fastTierSize, fastTierSize / 2 );
+	}
+	
+	protected String put( TieredRepository repo, int size ) throws StoreException {
+		byte[] data = new byte[size];
+		r.nextBytes(data);
+		return repo.put( new ByteArrayInputStream(data) );
+	}
+	
+	protected boolean inFastTier( String urn ) {
+		return new SHA1FileRepository(fastDir, "hot").contains(urn);
+	}
+	
+	public void testPutGoesToSlowTierOnly() throws StoreException {
+		TieredRepository repo = newRepo( 10000 );
+		String urn = put( repo, 1000 );
+		assertTrue( slow.contains(urn) );
+		assertFalse( inFastTier(urn) );
+		assertTrue( repo.contains(urn) );
+		assertEquals( 0, repo.getPromotionCount() );
+	}
+	
+	public void testPromotesOnRead() throws StoreException {
+		TieredRepository repo = newRepo( 10000 );
+		String urn = put( repo, 1000 );
+		
+		FileBlob b = repo.getBlob(urn);
+		assertEquals( 1000, b.length() );
+		assertEquals( 1, repo.getSlowHitCount() );
+		assertEquals( 1, repo.getPromotionCount() );
+		assertTrue( inFastTier(urn) );
+		assertTrue( b.getPath().startsWith(fastDir.getPath()) );
+		
+		assertNotNull( repo.getBlob(urn) );
+		assertEquals( 1, repo.getFastHitCount() );
+		assertEquals( 0.5, repo.getFastHitRate(), 0.0001 );
+		
+		// Still in the fast tier for a new instance
+		repo = newRepo( 10000 );
+		assertEquals( 1000, repo.getFastTierSize() );
+		assertNotNull( repo.getBlob(urn) );
+		assertEquals( 1, repo.getFastHitCount() );
+	}
+	
+	public void testDoesNotPromoteBigBlobs() throws StoreException {
+		TieredRepository repo = newRepo( 10000 );
+		String urn = put( repo, 6000 );
+		assertNotNull( repo.getBlob(urn) );
+		assertEquals( 0, repo.getPromotionCount() );
+		assertFalse( inFastTier(urn) );
+	}
+	
+	public void testEvictsFromFastTier() throws StoreException {
+		TieredRepository repo = newRepo( 2500 );
+		String urn1 = put( repo, 1000 );
+		String urn2 = put( repo, 1000 );
+		String urn3 = put( repo, 1000 );
+		repo.getBlob(urn1);
+		repo.getBlob(urn2);
+		repo.getBlob(urn1);
+		repo.getBlob(urn3);
+		
+		assertEquals( 1, repo.getEvictionCount() );
+		assertEquals( 2000, repo.getFastTierSize() );
+		assertTrue( inFastTier(urn1) );
+		assertFalse( inFastTier(urn2) );
+		assertTrue( inFastTier(urn3) );
+		// Evicted blobs are still in the slow tier
+		assertTrue( repo.contains(urn2) );
+		assertNotNull( repo.getBlob(urn2) );
+	}
+	
+	public void testMissingBlob() {
+		TieredRepository repo = newRepo( 10000 );
+		assertNull( repo.getBlob("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+		assertFalse( repo.contains("urn:sha1:AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA") );
+		assertEquals( 1, repo.getMissCount() );
+	}
+}
@@ -6,6 +6,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import junit.framework.TestCase;
 import togos.blob.ByteChunk;
@@ -53,11 +55,15 @@ public class SimpleListFile2Test extends TestCase
 		}
 	}
 	
-	protected void _testReadWrite( boolean lock ) throws IOException {
+	protected RandomAccessFileBlob openBlob( boolean mapped ) throws IOException {
+		return mapped ? new MappedRandomAccessFileBlob(f, "rw") : new RandomAccessFileBlob(f, "rw");
+	}
+	
+	protected void _testReadWrite( boolean lock, boolean mapped ) throws IOException {
 		if( f.exists() ) f.delete();
 		
 		HashMap kv = new HashMap();
-		RandomAccessFileBlob blob = new RandomAccessFileBlob(f, "rw");
+		RandomAccessFileBlob blob = openBlob(mapped);
 		SimpleListFile2 slf = new SimpleListFile2(blob, 16, lock);
 		try {
 			for( int i=0; i<1024; ++i ) {
@@ -74,7 +80,7 @@ public class SimpleListFile2Test extends TestCase
 			}
 			
 			blob.close();
-			blob = new RandomAccessFileBlob(f, "rw");
+			blob = openBlob(mapped);
 		} finally {
 			slf.close();
 		}
@@ -92,11 +98,40 @@ public class SimpleListFile2Test extends TestCase
 	}
 	
 	public void testReadWrite() throws IOException {
-		_testReadWrite( false );
+		_testReadWrite( false, false );
 	}
 	
 	public void testReadWriteWithLocks() throws IOException {
-		_testReadWrite( true );
+		_testReadWrite( true, false );
+	}
+	
+	public void testReadWriteMemoryMapped() throws IOException {
+		_testReadWrite( true, true );
+	}
+	
+	public void testMemoryMappedReadsSeeGrowth() throws IOException {
+		if( f.exists() ) f.delete();
+		
+		MappedRandomAccessFileBlob blob = new MappedRandomAccessFileBlob(f, "rw");
+		blob.remapThreshold = 4096;
+		SimpleListFile2 slf = new SimpleListFile2(blob, 4, false);
+		try {
+			ByteChunk[] keys = new ByteChunk[256];
+			ByteChunk[] values = new ByteChunk[256];
+			for( int i=0; i<keys.length; ++i ) {
+				keys[i] = fixedRand(20);
+				values[i] = fixedRand(100);
+				slf.put( keys[i], values[i] );
+				// Mostly served from the mapping, with freshly
+				// appended chunks read from the file
+				for( int j=0; j<=i; ++j ) {
+					assertEquals( values[j], slf.get(keys[j]) );
+				}
+			}
+			assertTrue( blob.getMappedSize() > 4096 );
+		} finally {
+			slf.close();
+		}
 	}
 	
 	public void testReadMultithreadedWrite() throws IOException, InterruptedException {
@@ -184,4 +219,357 @@ public class SimpleListFile2Test extends TestCase
 			slf.close();
 		}
 	}
+	
+	protected void _testLockFreeReadsDuringPuts( boolean mapped ) throws IOException, InterruptedException {
+		final int numWriters = 4;
+		final int numReaders = 8;
+		final int insertsPerWriter = 512;
+		final int numEntries = numWriters*insertsPerWriter;
+		
+		final ByteChunk[] keys   = new ByteChunk[numEntries];
+		final ByteChunk[] values = new ByteChunk[numEntries];
+		
+		for( int j=0; j<numEntries; ++j ) {
+			keys[j] = fixedRand(32);
+			values[j] = rand(256);
+		}
+		
+		if( f.exists() ) f.delete();
+		
+		final RandomAccessFileBlob blob = openBlob(mapped);
+		// Small index so that readers walk lists that are being extended
+		final SimpleListFile2 slf = new SimpleListFile2(blob, 6, true, true);
+		// How many entries each writer has finished putting
+		final AtomicIntegerArray written = new AtomicIntegerArray(numWriters);
+		final AtomicInteger errors = new AtomicInteger();
+		final AtomicInteger writersRunning = new AtomicInteger(numWriters);
+		try {
+			Thread[] threads = new Thread[numWriters+numReaders];
+			for( int i=0; i<numWriters; ++i ) {
+				final int writer = i;
+				threads[i] = new Thread() {
+					public void run() {
+						for( int j=0; j<insertsPerWriter; ++j ) {
+							slf.put( keys[writer*insertsPerWriter+j], values[writer*insertsPerWriter+j] );
+							written.set(writer, j+1);
+						}
+						writersRunning.decrementAndGet();
+					};
+				};
+			}
+			for( int i=0; i<numReaders; ++i ) {
+				final Random rr = new Random(i);
+				threads[numWriters+i] = new Thread() {
+					public void run() {
+						while( writersRunning.get() > 0 ) {
+							int writer = rr.nextInt(numWriters);
+							int count = written.get(writer);
+							if( count == 0 ) continue;
+							int j = writer*insertsPerWriter + rr.nextInt(count);
+							if( !values[j].equals(slf.get(keys[j])) ) errors.incrementAndGet();
+						}
+					};
+				};
+			}
+			for( Thread t : threads ) t.start();
+			for( Thread t : threads ) t.join();
+			
+			assertEquals( 0, errors.get() );
+			for( int j=0; j<numEntries; ++j ) {
+				assertEquals( values[j], slf.get(keys[j]) );
+			}
+		} finally {
+			slf.close();
+		}
+	}
+	
+	public void testLockFreeReadsDuringPuts() throws IOException, InterruptedException {
+		_testLockFreeReadsDuringPuts( false );
+	}
+	
+	public void testMemoryMappedLockFreeReadsDuringPuts() throws IOException, InterruptedException {
+		_testLockFreeReadsDuringPuts( true );
+	}
+	
+	protected void assertAllPresent( SimpleListFile2 slf, ByteChunk[] keys, ByteChunk[] values, int count ) {
+		for( int j=0; j<count; ++j ) {
+			assertEquals( values[j], slf.get(keys[j]) );
+		}
+	}
+	
+	public void testIndexGrows() throws IOException {
+		if( f.exists() ) f.delete();
+		
+		final int numEntries = 2048;
+		ByteChunk[] keys   = new ByteChunk[numEntries];
+		ByteChunk[] values = new ByteChunk[numEntries];
+		
+		RandomAccessFileBlob blob = new RandomAccessFileBlob(f, "rw");
+		SimpleListFile2 slf = new SimpleListFile2(blob, 4, true, true);
+		try {
+			for( int j=0; j<numEntries; ++j ) {
+				keys[j] = fixedRand(32);
+				values[j] = rand(64);
+				slf.put( keys[j], values[j] );
+				// Check everything, including stuff that's mid-migration
+				if( j % 97 == 0 ) assertAllPresent( slf, keys, values, j+1 );
+			}
+			assertAllPresent( slf, keys, values, numEntries );
+			assertTrue( slf.indexState.indexSizePower >= 10 );
+			assertEquals( numEntries, slf.indexState.entryCount );
+		} finally {
+			slf.close();
+		}
+		
+		slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, true, true);
+		try {
+			assertTrue( slf.indexState.indexSizePower >= 10 );
+			assertAllPresent( slf, keys, values, numEntries );
+		} finally {
+			slf.close();
+		}
+	}
+	
+	/** In-memory blob, to exercise the non-RandomAccessFile paths */
+	static class MemoryBlob implements RandomAccessBlob {
+		byte[] data = new byte[0];
+		int size = 0;
+		
+		public synchronized long getSize() { return size; }
+		public synchronized ByteChunk get( long offset, int length ) {
+			int n = (int)Math.max(0, Math.min(length, size - offset));
+			return togos.blob.util.SimpleByteChunk.copyOf(data, (int)offset, n);
+		}
+		public synchronized void put( long offset, ByteChunk c ) {
+			int len = (int)c.getSize();
+			if( offset + len > data.length ) {
+				byte[] newData = new byte[(int)Math.max(offset + len, data.length * 2L)];
+				// Garbage, so that unwritten index slots would be noticed
+				java.util.Arrays.fill(newData, (byte)0xFF);
+				System.arraycopy(data, 0, newData, 0, size);
+				data = newData;
+			}
+			System.arraycopy(c.getBuffer(), c.getOffset(), data, (int)offset, len);
+			size = (int)Math.max(size, offset + len);
+		}
+		public void flush() {}
+	}
+	
+	public void testInMemoryIndexGrows() throws IOException {
+		final int numEntries = 2048;
+		ByteChunk[] keys   = new ByteChunk[numEntries];
+		ByteChunk[] values = new ByteChunk[numEntries];
+		
+		SimpleListFile2 slf = new SimpleListFile2(new MemoryBlob(), 4, false);
+		for( int j=0; j<numEntries; ++j ) {
+			keys[j] = fixedRand(32);
+			values[j] = rand(64);
+			slf.put( keys[j], values[j] );
+		}
+		assertTrue( slf.indexState.indexSizePower >= 10 );
+		assertAllPresent( slf, keys, values, numEntries );
+	}
+	
+	public void testOldStyleIndexGrows() throws IOException {
+		if( f.exists() ) f.delete();
+		
+		final int numEntries = SimpleListFile2.LOAD_ESTIMATE_INTERVAL + 256;
+		ByteChunk[] keys   = new ByteChunk[numEntries];
+		ByteChunk[] values = new ByteChunk[numEntries];
+		
+		SimpleListFile2 slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, false);
+		try {
+			// Make it look like a file written by an older version,
+			// which wouldn't have an index info block
+			slf.putLong( slf.indxRefOffset, slf.indexState.indexRef & ~SimpleListFile2.INDEX_INFO_FLAG );
+		} finally {
+			slf.close();
+		}
+		
+		slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, false);
+		try {
+			assertFalse( slf.indexState.hasInfo() );
+			ByteChunk[] kb = new ByteChunk[1], vb = new ByteChunk[1];
+			for( int j=0; j<numEntries; ++j ) {
+				kb[0] = keys[j] = fixedRand(32);
+				vb[0] = values[j] = rand(64);
+				// Alternate between put methods
+				if( j % 2 == 0 ) slf.put( keys[j], values[j] );
+				else slf.bulkPut2( kb, vb, 0, 1 );
+			}
+			assertTrue( slf.indexState.hasInfo() );
+			assertTrue( slf.indexState.indexSizePower > 4 );
+			assertAllPresent( slf, keys, values, numEntries );
+		} finally {
+			slf.close();
+		}
+	}
+	
+	public void testOverwrittenPairsAreRecycled() throws IOException {
+		if( f.exists() ) f.delete();
+		
+		final int numEntries = 64;
+		ByteChunk[] keys   = new ByteChunk[numEntries];
+		ByteChunk[] values = new ByteChunk[numEntries];
+		
+		SimpleListFile2 slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, true, true);
+		slf.recycleChunks = true;
+		try {
+			for( int j=0; j<numEntries; ++j ) {
+				keys[j] = fixedRand(32);
+				values[j] = fixedRand(40);
+				slf.put( keys[j], values[j] );
+			}
+			long sizeBeforeOverwriting = slf.blob.getSize();
+			for( int round=0; round<3; ++round ) {
+				for( int j=0; j<numEntries; ++j ) {
+					slf.put( keys[j], values[j] = fixedRand(40) );
+				}
+				assertAllPresent( slf, keys, values, numEntries );
+			}
+			assertEquals( numEntries, slf.indexState.entryCount );
+			assertEquals( 3 * numEntries * 88, slf.getRecycledByteCount() );
+			assertTrue( slf.getReusedByteCount() > 0 );
+			// Each put re-uses the chunk freed by the previous one,
+			// so the file should have barely grown
+			assertTrue( slf.blob.getSize() - sizeBeforeOverwriting < 88 * 8 );
+		} finally {
+			slf.close();
+		}
+	}
+	
+	public void testMkSlfWithRecycling() throws IOException {
+		if( f.exists() ) f.delete();
+		
+		SimpleListFile2 slf = SimpleListFile2.mkSlf(f, true, true);
+		try {
+			ByteChunk key = fixedRand(32);
+			ByteChunk missingKey = fixedRand(32);
+			slf.put( key, fixedRand(40) );
+			long size = slf.blob.getSize();
+			for( int i=0; i<100; ++i ) {
+				ByteChunk value = fixedRand(40);
+				slf.put( key, value );
+				assertEquals( value, slf.get(key) );
+				assertNull( slf.get(missingKey) );
+			}
+			assertTrue( slf.blob.getSize() - size <= 88 );
+		} finally {
+			slf.close();
+		}
+	}
+	
+	/**
+	 * An interrupted thread using the file shouldn't
+	 * close it out from under everyone else.
+	 */
+	protected void testInterruptedThreadsDontBreakFile( boolean memoryMapped ) throws IOException, InterruptedException {
+		if( f.exists() ) f.delete();
+		
+		final SimpleListFile2 slf = SimpleListFile2.mkSlf(f, memoryMapped);
+		try {
+			final ByteChunk key = fixedRand(32);
+			final ByteChunk value = fixedRand(40);
+			slf.put( key, value );
+			
+			final Throwable[] error = new Throwable[1];
+			Thread reader = new Thread() {
+				@Override public void run() {
+					try {
+						interrupt();
+						assertEquals( value, slf.get(key) );
+						assertNull( slf.get(fixedRand(32)) );
+						slf.put( fixedRand(32), fixedRand(40) );
+						assertTrue( isInterrupted() );
+					} catch( Throwable e ) {
+						error[0] = e;
+					}
+				}
+			};
+			reader.start();
+			reader.join();
+			if( error[0] != null ) throw new RuntimeException(error[0]);
+			
+			ByteChunk key2 = fixedRand(32);
+			ByteChunk value2 = fixedRand(40);
+			slf.put( key2, value2 );
+			assertEquals( value, slf.get(key) );
+			assertEquals( value2, slf.get(key2) );
+		} finally {
+			slf.close();
+		}
+	}
+	
+	public void testInterruptedThreadsDontBreakFile() throws IOException, InterruptedException {
+		testInterruptedThreadsDontBreakFile( false );
+	}
+	
+	public void testInterruptedThreadsDontBreakMappedFile() throws IOException, InterruptedException {
+		testInterruptedThreadsDontBreakFile( true );
+	}
+	
+	public void testCompaction() throws IOException {
+		if( f.exists() ) f.delete();
+		File compactedFile = new File("junk/slf-test-compacted.slf2");
+		if( compactedFile.exists() ) compactedFile.delete();
+		
+		final int numEntries = 500;
+		ByteChunk[] keys   = new ByteChunk[numEntries];
+		ByteChunk[] values = new ByteChunk[numEntries];
+		
+		SimpleListFile2 slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, true, true);
+		try {
+			for( int j=0; j<numEntries; ++j ) {
+				keys[j] = fixedRand(32);
+				slf.put( keys[j], values[j] = rand(64) );
+			}
+			for( int j=0; j<numEntries; j += 2 ) {
+				slf.put( keys[j], values[j] = rand(64) );
+			}
+			
+			RandomAccessFileBlob dest = new RandomAccessFileBlob(compactedFile, "rw");
+			SimpleListFile2.CompactionStats stats = slf.compactTo( dest, null );
+			dest.close();
+			assertEquals( numEntries, stats.pairsKept );
+			assertEquals( numEntries/2, stats.duplicatePairs );
+			assertEquals( 0, stats.filteredPairs );
+			assertEquals( slf.blob.getSize(), stats.bytesBefore );
+			assertEquals( compactedFile.length(), stats.bytesAfter );
+			assertTrue( stats.getReclaimedBytes() > 0 );
+		} finally {
+			slf.close();
+		}
+		
+		slf = new SimpleListFile2(new RandomAccessFileBlob(compactedFile, "rw"), 4, true, true);
+		try {
+			assertEquals( numEntries, slf.indexState.entryCount );
+			assertAllPresent( slf, keys, values, numEntries );
+		} finally {
+			slf.close();
+		}
+		
+		// Compact in place, dropping keys that start with an odd byte
+		int oddKeys = 0;
+		for( int j=0; j<numEntries; ++j ) {
+			if( (keys[j].getBuffer()[keys[j].getOffset()] & 1) == 1 ) ++oddKeys;
+		}
+		SimpleListFile2.CompactionStats stats = SimpleListFile2.compact( f, new SimpleListFile2.PairFilter() {
+			public boolean keep( ByteChunk key, ByteChunk value ) {
+				return (key.getBuffer()[key.getOffset()] & 1) == 0;
+			}
+		});
+		assertEquals( numEntries - oddKeys, stats.pairsKept );
+		assertEquals( oddKeys, stats.filteredPairs );
+		
+		slf = new SimpleListFile2(new RandomAccessFileBlob(f, "rw"), 4, true, true);
+		try {
+			for( int j=0; j<numEntries; ++j ) {
+				boolean odd = (keys[j].getBuffer()[keys[j].getOffset()] & 1) == 1;
+				assertEquals( odd ? null : values[j], slf.get(keys[j]) );
+			}
+		} finally {
+			slf.close();
+			compactedFile.delete();
+		}
+	}
 }
@@ -0,0 +1,74 @@
+package togos.ccouch3.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class BloomFilteredSLFStringSetTest extends TestCase
+{
+	File tempDir = new File("temp/bloom-filtered-slf-string-set-test");
+	File slfFile = new File(tempDir, "uploaded-to-test.slf2");
+	File filterFile = new File(tempDir, "uploaded-to-test.slf2.bloom");
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected static String urn( int i ) {
+		return "urn:sha1:FAKE"+i;
+	}
+	
+	protected void assertContainsExactly( AddableSet<String> set, int count ) {
+		for( int i=0; i<count; ++i ) assertTrue( set.contains(urn(i)) );
+		for( int i=count; i<count*2; ++i ) assertFalse( set.contains(urn(i)) );
+	}
+	
+	public void testFilterIsSavedAndReused() throws IOException {
+		BloomFilteredSLFStringSet set = new BloomFilteredSLFStringSet(slfFile);
+		for( int i=0; i<1000; ++i ) set.add(urn(i));
+		assertContainsExactly( set, 1000 );
+		set.close();
+		assertTrue( filterFile.exists() );
+		
+		set = new BloomFilteredSLFStringSet(slfFile);
+		BloomFilter f = set.getFilter();
+		assertEquals( 1000, f.getCount() );
+		assertContainsExactly( set, 1000 );
+		set.close();
+	}
+	
+	public void testFilterIsRebuiltAfterOutsideWrites() throws IOException {
+		BloomFilteredSLFStringSet set = new BloomFilteredSLFStringSet(slfFile);
+		for( int i=0; i<100; ++i ) set.add(urn(i));
+		set.close();
+		
+		// Something that doesn't know about the filter adds more
+		SLFStringSet plainSet = new SLFStringSet(slfFile);
+		for( int i=100; i<200; ++i ) plainSet.add(urn(i));
+		plainSet.close();
+		
+		set = new BloomFilteredSLFStringSet(slfFile);
+		assertContainsExactly( set, 200 );
+		set.close();
+	}
+	
+	public void testFilterIsDiscardedAfterConcurrentWrites() throws IOException {
+		BloomFilteredSLFStringSet set = new BloomFilteredSLFStringSet(slfFile);
+		set.add(urn(0));
+		SLFStringSet plainSet = new SLFStringSet(slfFile);
+		plainSet.add(urn(1));
+		plainSet.close();
+		set.add(urn(2));
+		set.close();
+		assertFalse( filterFile.exists() );
+		
+		set = new BloomFilteredSLFStringSet(slfFile);
+		assertContainsExactly( set, 3 );
+		set.close();
+	}
+}
@@ -0,0 +1,72 @@
+package togos.ccouch3.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import togos.blob.ByteChunk;
+import togos.blob.util.BlobUtil;
+
+public class FileUtilTest extends TestCase
+{
+	File tempDir = new File("temp/file-util-test");
+	File dataFile = new File(tempDir, "data");
+	byte[] data = new byte[300000];
+	
+	public void setUp() throws IOException {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+		new Random(1234).nextBytes(data);
+		FileOutputStream fos = new FileOutputStream(dataFile);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	public void testRead() throws IOException {
+		assertNull( FileUtil.read(dataFile, data.length - 1) );
+		ByteChunk c = FileUtil.read(dataFile, data.length);
+		assertTrue( BlobUtil.equals(BlobUtil.byteChunk(data), c) );
+	}
+	
+	public void testTransferToFile() throws IOException {
+		File dest = new File(tempDir, "copy");
+		FileOutputStream fos = new FileOutputStream(dest);
+		try {
+			// Goes wherever the stream's at
+			fos.write(data, 0, 10);
+			FileUtil.transferTo(dataFile, fos.getChannel());
+			fos.write(data, 10, 10);
+		} finally {
+			fos.close();
+		}
+		byte[] expected = new byte[data.length + 20];
+		System.arraycopy(data, 0, expected, 0, 10);
+		System.arraycopy(data, 0, expected, 10, data.length);
+		System.arraycopy(data, 10, expected, data.length + 10, 10);
+		FileInputStream fis = new FileInputStream(dest);
+		try {
+			assertTrue( Arrays.equals(expected, StreamUtil.slurp(fis)) );
+		} finally {
+			fis.close();
+		}
+	}
+	
+	public void testTransferToOtherChannel() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		FileUtil.transferTo(dataFile, Channels.newChannel(baos));
+		assertTrue( Arrays.equals(data, baos.toByteArray()) );
+	}
+}
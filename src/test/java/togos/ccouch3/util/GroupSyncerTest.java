@@ -0,0 +1,87 @@
+package togos.ccouch3.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class GroupSyncerTest extends TestCase
+{
+	File tempDir = new File("temp/group-syncer-test");
+	
+	public void setUp() {
+		FileUtil.deltree(tempDir);
+		tempDir.mkdirs();
+	}
+	
+	public void tearDown() {
+		FileUtil.deltree(tempDir);
+	}
+	
+	protected List<Throwable> writeAndSyncConcurrently( final GroupSyncer syncer, int threadCount, final int filesPerThread )
+		throws InterruptedException
+	{
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		Thread[] threads = new Thread[threadCount];
+		for( int t=0; t<threadCount; ++t ) {
+			final File dir = new File(tempDir, "dir"+(t % 2));
+			dir.mkdirs();
+			final int threadNumber = t;
+			threads[t] = new Thread("GroupSyncerTest writer "+t) {
+				@Override public void run() {
+					try {
+						for( int i=0; i<filesPerThread; ++i ) {
+							FileOutputStream fos = new FileOutputStream(new File(dir, "file-"+threadNumber+"-"+i));
+							try {
+								fos.write( new byte[1000] );
+								syncer.sync( fos.getFD() );
+							} finally {
+								fos.close();
+							}
+							syncer.syncDirectory( dir );
+						}
+					} catch( Throwable e ) {
+						errors.add(e);
+					}
+				}
+			};
+		}
+		for( Thread t : threads ) t.start();
+		for( Thread t : threads ) t.join();
+		return errors;
+	}
+	
+	public void testConcurrentSyncsAreBatched() throws InterruptedException {
+		GroupSyncer syncer = new GroupSyncer(20);
+		List<Throwable> errors = writeAndSyncConcurrently( syncer, 8, 5 );
+		assertEquals( Collections.<Throwable>emptyList(), errors );
+		// 80 requests; every file needs its own sync, but directory
+		// syncs should be shared, and there should be fewer batches than requests.
+		assertTrue( syncer.getSyncCount() >= 40 );
+		assertTrue( "Expected some directory syncs to be shared; did "+syncer.getSyncCount(), syncer.getSyncCount() < 80 );
+		assertTrue( "Expected fewer than 80 batches; got "+syncer.getBatchCount(), syncer.getBatchCount() < 80 );
+	}
+	
+	public void testUnbatchedSyncs() throws InterruptedException {
+		GroupSyncer syncer = new GroupSyncer(0, 1);
+		List<Throwable> errors = writeAndSyncConcurrently( syncer, 1, 5 );
+		assertEquals( Collections.<Throwable>emptyList(), errors );
+		assertEquals( 10, syncer.getSyncCount() );
+		assertEquals( 10, syncer.getBatchCount() );
+	}
+	
+	public void testErrorsGoToTheRightThread() throws IOException {
+		if( File.separatorChar == '\\' ) return; // Directories don't get synced on Windows
+		GroupSyncer syncer = new GroupSyncer(0);
+		try {
+			syncer.syncDirectory( new File(tempDir, "nonexistent") );
+			fail("Syncing a nonexistent directory should have thrown an IOException");
+		} catch( IOException e ) {
+		}
+		syncer.syncDirectory( tempDir );
+	}
+}
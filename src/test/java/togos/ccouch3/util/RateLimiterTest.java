@@ -0,0 +1,46 @@
+package togos.ccouch3.util;
+
+import junit.framework.TestCase;
+
+public class RateLimiterTest extends TestCase
+{
+	/** Comes up a tiny fraction short the first time it's refilled */
+	static class ShortRateLimiter extends RateLimiter {
+		int refills;
+		
+		public ShortRateLimiter( long rate ) {
+			super(rate);
+		}
+		
+		@Override protected void refill() {
+			available = refills++ == 0 ? rate - 0.0000001 : rate;
+		}
+	}
+	
+	public void testFractionalShortfallDoesntWaitForever() throws InterruptedException {
+		final ShortRateLimiter rl = new ShortRateLimiter(1000);
+		Thread t = new Thread() {
+			@Override public void run() {
+				try {
+					rl.acquire(rl.rate);
+				} catch( InterruptedException e ) {
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		t.join(5000);
+		boolean finished = !t.isAlive();
+		t.interrupt();
+		assertTrue( "acquire should have returned", finished );
+		assertEquals( 2, rl.refills );
+	}
+	
+	public void testWaitsForAllowance() throws InterruptedException {
+		RateLimiter rl = new RateLimiter(1000);
+		long start = System.nanoTime();
+		rl.acquire(1000);
+		rl.acquire(200);
+		assertTrue( System.nanoTime() - start >= 150000000L );
+	}
+}
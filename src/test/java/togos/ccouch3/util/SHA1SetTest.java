@@ -0,0 +1,31 @@
+package togos.ccouch3.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.bitpedia.util.Base32;
+
+public class SHA1SetTest extends TestCase
+{
+	public void testAddAndContains() {
+		Random r = new Random(1234);
+		List<String> added = new ArrayList<String>();
+		SHA1Set set = new SHA1Set(4);
+		for( int i = 0; i < 10000; ++i ) {
+			byte[] hash = new byte[20];
+			r.nextBytes(hash);
+			// Make lots of them collide
+			hash[0] = hash[1] = hash[2] = 0;
+			String sha1Base32 = Base32.encode(hash);
+			assertFalse( set.contains(sha1Base32) );
+			assertTrue( set.addNew(sha1Base32) );
+			assertFalse( set.addNew(sha1Base32) );
+			added.add( sha1Base32 );
+		}
+		assertEquals( 10000, set.size() );
+		for( String sha1Base32 : added ) assertTrue( set.contains(sha1Base32) );
+	}
+}
@@ -1,6 +1,7 @@
 package togos.ccouch3.util;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 
 import junit.framework.TestCase;
@@ -31,4 +32,39 @@ public class SubInputStreamTest extends TestCase
 		assertEquals(readFromSis, 4000);
 		sis.close();
 	}
+	
+	public void testSliceUnskippableStream() throws IOException {
+		byte[] buffer = new byte[4096];
+		for( int i=0; i<4096; ++i ) buffer[i] = (byte)i;
+		// Like CipherInputStream, which can't skip past what it's buffered
+		FilterInputStream unskippable = new FilterInputStream(new ByteArrayInputStream(buffer)) {
+			@Override public long skip(long n) { return 0; }
+		};
+		SubInputStream sis = new SubInputStream(unskippable, 100, 10);
+		assertEquals(100, sis.read());
+		byte[] readBuf = new byte[128];
+		assertEquals(9, sis.read(readBuf));
+		assertEquals(101, readBuf[0] & 0xFF);
+		assertEquals(-1, sis.read(readBuf));
+		sis.close();
+	}
+	
+	public void testSkipsUnskippableStreamInBlocks() throws IOException {
+		final int[] reads = new int[1];
+		FilterInputStream unskippable = new FilterInputStream(new ByteArrayInputStream(new byte[100000])) {
+			@Override public long skip(long n) { return 0; }
+			@Override public int read() throws IOException {
+				++reads[0];
+				return super.read();
+			}
+			@Override public int read(byte[] b, int off, int len) throws IOException {
+				++reads[0];
+				return super.read(b, off, len);
+			}
+		};
+		SubInputStream sis = new SubInputStream(unskippable, 99990, 10);
+		assertEquals(10, sis.read(new byte[128]));
+		assertTrue( "Took "+reads[0]+" reads", reads[0] < 100 );
+		sis.close();
+	}
 }